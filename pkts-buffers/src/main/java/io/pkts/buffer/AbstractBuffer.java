@@ -228,7 +228,7 @@ public abstract class AbstractBuffer implements Buffer {
             default:
                 if (foundCR) {
                     --this.readerIndex;
-                    return slice(start, this.lowerBoundary + this.readerIndex - 1);
+                    return slice(start, this.readerIndex - 1);
                 }
             }
         }
@@ -252,7 +252,8 @@ public abstract class AbstractBuffer implements Buffer {
             } else if ((found == 1 || found == 3) && b == LF) {
                 ++found;
             } else {
-                found = 0;
+                // a CR could be the start of a new CRLFCRLF
+                found = b == CR ? 1 : 0;
             }
         }
         if (found == 4) {
@@ -2,6 +2,7 @@ package io.pkts.buffer;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 
 /**
@@ -119,6 +120,19 @@ public interface Buffer extends Cloneable {
         return getArray();
     }
 
+    /**
+     * Write the readable bytes of this buffer to the given stream. Unlike
+     * <code>out.write({@link #getArray()})</code> this does not copy the
+     * bytes into a new array first, as long as the buffer is backed by one.
+     * The reader index is left untouched.
+     * 
+     * @param out
+     * @throws IOException
+     */
+    default void writeTo(final OutputStream out) throws IOException {
+        out.write(getArray());
+    }
+
     /**
      * Same as {@link #readUntil(4096, 'b')}
      *
@@ -400,6 +414,45 @@ public interface Buffer extends Cloneable {
      */
     Buffer clone();
 
+    /**
+     * The reference count of the memory backing this buffer. Only buffers
+     * allocated through a {@link BufferPool} (and any slice of such a buffer)
+     * are reference counted, all other buffers will always report 1.
+     * 
+     * @return
+     */
+    default int refCnt() {
+        return 1;
+    }
+
+    /**
+     * Increase the reference count of the memory backing this buffer. Note
+     * that all slices of a pooled buffer share the same reference count, so
+     * retaining a slice will also keep e.g. the buffer it was sliced from
+     * alive. For buffers that are not pooled, this is a no-op.
+     * 
+     * @return this buffer
+     * @throws IllegalStateException
+     *             in case the memory already has been returned to the pool.
+     */
+    default Buffer retain() throws IllegalStateException {
+        return this;
+    }
+
+    /**
+     * Decrease the reference count of the memory backing this buffer and, if
+     * it reaches zero, return the memory to the {@link BufferPool} it came
+     * from. After that, neither this buffer nor any of its slices may be used.
+     * For buffers that are not pooled, this is a no-op.
+     * 
+     * @return true if the reference count reached zero.
+     * @throws IllegalStateException
+     *             in case the memory already has been returned to the pool.
+     */
+    default boolean release() throws IllegalStateException {
+        return false;
+    }
+
     /**
      * Set the byte at given index to a new value
      * 
@@ -530,8 +583,32 @@ public interface Buffer extends Cloneable {
     @Override
     boolean equals(Object b);
 
+    /**
+     * Same as {@link #equals(Object)} but ignoring the case of all ASCII
+     * letters. Any other byte has to match exactly.
+     * 
+     * @param b
+     * @return
+     */
     boolean equalsIgnoreCase(Object b);
 
+    /**
+     * A hash code that is consistent with {@link #equalsIgnoreCase(Object)},
+     * i.e., two buffers that are equal when ignoring case will also have the
+     * same {@link #hashCodeIgnoreCase()}. For a buffer without any upper case
+     * ASCII letters this is the same as its {@link #hashCode()}.
+     * 
+     * @return
+     */
+    default int hashCodeIgnoreCase() {
+        int result = 1;
+        final int stop = getReaderIndex() + getReadableBytes();
+        for (int i = getReaderIndex(); i < stop; ++i) {
+            result = 31 * result + Buffers.toLowerCase((byte) getUnsignedByte(i));
+        }
+        return result;
+    }
+
     @Override
     int hashCode();
 
@@ -0,0 +1,272 @@
+/**
+ *
+ */
+package io.pkts.buffer;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of byte arrays for those that frame a lot of packets and would rather
+ * not have the garbage collector clean up after every single one of them.
+ *
+ * The arrays are grouped into size classes, each one twice the size of the
+ * previous one, starting at 64 bytes and going up to the max size of the pool
+ * (64 KB by default). Anything larger than that is simply allocated as usual
+ * and never makes it back to the pool. Every thread keeps a small cache of
+ * arrays of its own and only when that cache is empty (or full, when returning
+ * an array) does it reach for the pool that is shared by all threads.
+ *
+ * The buffers handed out by {@link #allocate(int)} are reference counted (see
+ * {@link Buffer#retain()} and {@link Buffer#release()}) and the memory goes
+ * back to the pool once the count reaches zero. Every slice of the buffer
+ * shares the same count.
+ *
+ * Forgetting to release a buffer isn't fatal, the array will simply be garbage
+ * collected, but it defeats the purpose of the pool. Turn on leak detection,
+ * either through the constructor or by setting the system property
+ * <code>io.pkts.buffer.leakDetection</code> to true, to find out where those
+ * buffers were allocated. It is a bit costly so only do so while debugging.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class BufferPool {
+
+    /**
+     * The system property turning on leak detection for pools created through
+     * {@link #BufferPool()}.
+     */
+    public static final String LEAK_DETECTION_PROPERTY = "io.pkts.buffer.leakDetection";
+
+    public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+    private static final int MIN_SIZE_SHIFT = 6;
+
+    private static final int MIN_SIZE = 1 << MIN_SIZE_SHIFT;
+
+    /**
+     * The number of arrays, per size class, each thread will hold on to.
+     */
+    private static final int THREAD_CACHE_SIZE = 32;
+
+    /**
+     * The number of arrays, per size class, in the pool shared by all threads.
+     */
+    private static final int SHARED_POOL_SIZE = 256;
+
+    private final int maxSize;
+
+    private final int noOfClasses;
+
+    private final ThreadLocal<ArrayDeque<byte[]>[]> caches;
+
+    private final ConcurrentLinkedQueue<byte[]>[] shared;
+
+    private final AtomicInteger[] sharedCount;
+
+    private final boolean leakDetection;
+
+    private final ReferenceQueue<PooledChunk> collected;
+
+    private final Set<LeakTracker> trackers;
+
+    private final AtomicLong leaks = new AtomicLong();
+
+    /**
+     * Create a new pool with the default max size, with leak detection turned
+     * on if the system property {@link #LEAK_DETECTION_PROPERTY} is set to
+     * true.
+     */
+    public BufferPool() {
+        this(DEFAULT_MAX_SIZE, Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+    }
+
+    /**
+     *
+     * @param maxSize
+     *            the size of the largest array the pool will hold on to. It
+     *            will be rounded up to the nearest power of two.
+     * @param leakDetection
+     *            whether or not to keep track of buffers that are never
+     *            released.
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(final int maxSize, final boolean leakDetection) {
+        if (maxSize < MIN_SIZE) {
+            throw new IllegalArgumentException("The max size must be at least " + MIN_SIZE);
+        }
+        this.noOfClasses = sizeClass(maxSize) + 1;
+        this.maxSize = MIN_SIZE << (this.noOfClasses - 1);
+        this.shared = new ConcurrentLinkedQueue[this.noOfClasses];
+        this.sharedCount = new AtomicInteger[this.noOfClasses];
+        for (int i = 0; i < this.noOfClasses; ++i) {
+            this.shared[i] = new ConcurrentLinkedQueue<byte[]>();
+            this.sharedCount[i] = new AtomicInteger();
+        }
+
+        this.caches = new ThreadLocal<ArrayDeque<byte[]>[]>() {
+            @Override
+            protected ArrayDeque<byte[]>[] initialValue() {
+                final ArrayDeque<byte[]>[] cache = new ArrayDeque[BufferPool.this.noOfClasses];
+                for (int i = 0; i < cache.length; ++i) {
+                    cache[i] = new ArrayDeque<byte[]>(THREAD_CACHE_SIZE);
+                }
+                return cache;
+            }
+        };
+
+        this.leakDetection = leakDetection;
+        this.collected = leakDetection ? new ReferenceQueue<PooledChunk>() : null;
+        this.trackers = leakDetection ? Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>())
+                : null;
+    }
+
+    /**
+     * Find the size class for the given capacity, i.e., the smallest class
+     * whose arrays are large enough.
+     */
+    private static int sizeClass(final int capacity) {
+        if (capacity <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SIZE_SHIFT;
+    }
+
+    /**
+     * Allocate a new buffer with the given capacity. Just like
+     * {@link Buffers#createBuffer(int)}, the buffer is empty and ready to be
+     * written to. Note that the content of the buffer is not cleared, it will
+     * contain whatever the previous user left in there.
+     *
+     * Remember to {@link Buffer#release()} the buffer once you are done with
+     * it.
+     *
+     * @param capacity
+     * @return
+     */
+    public Buffer allocate(final int capacity) {
+        final PooledChunk chunk = allocateChunk(capacity);
+        return new ByteBuffer(0, 0, capacity, 0, chunk.array, chunk);
+    }
+
+    /**
+     * Allocate a chunk whose array is at least the size of the given capacity.
+     */
+    PooledChunk allocateChunk(final int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity cannot be negative");
+        }
+
+        byte[] array = null;
+        if (capacity <= this.maxSize) {
+            final int sizeClass = sizeClass(capacity);
+            array = this.caches.get()[sizeClass].pollFirst();
+            if (array == null) {
+                array = this.shared[sizeClass].poll();
+                if (array != null) {
+                    this.sharedCount[sizeClass].decrementAndGet();
+                } else {
+                    array = new byte[MIN_SIZE << sizeClass];
+                }
+            }
+        } else {
+            array = new byte[capacity];
+        }
+
+        final PooledChunk chunk = new PooledChunk(this, array);
+        if (this.leakDetection) {
+            reportLeaks();
+            final LeakTracker tracker = new LeakTracker(chunk, this.collected);
+            this.trackers.add(tracker);
+            chunk.tracker = tracker;
+        }
+        return chunk;
+    }
+
+    /**
+     * Called when the reference count of the chunk reaches zero.
+     */
+    void recycle(final PooledChunk chunk) {
+        if (chunk.tracker != null) {
+            final LeakTracker tracker = (LeakTracker) chunk.tracker;
+            tracker.clear();
+            this.trackers.remove(tracker);
+        }
+
+        final byte[] array = chunk.array;
+        if (array.length > this.maxSize) {
+            // too large to be pooled
+            return;
+        }
+
+        final int sizeClass = sizeClass(array.length);
+        final ArrayDeque<byte[]> cache = this.caches.get()[sizeClass];
+        if (cache.size() < THREAD_CACHE_SIZE) {
+            cache.offerFirst(array);
+        } else if (this.sharedCount[sizeClass].incrementAndGet() <= SHARED_POOL_SIZE) {
+            this.shared[sizeClass].offer(array);
+        } else {
+            this.sharedCount[sizeClass].decrementAndGet();
+        }
+    }
+
+    /**
+     * Go through all the chunks that have been garbage collected since last
+     * time and complain about those that were never released.
+     */
+    private void reportLeaks() {
+        LeakTracker tracker = null;
+        while ((tracker = (LeakTracker) this.collected.poll()) != null) {
+            if (this.trackers.remove(tracker)) {
+                this.leaks.incrementAndGet();
+                System.err.println("WARN: a pooled buffer was garbage collected without being released. "
+                        + "It was allocated at:");
+                tracker.allocatedAt.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * The number of buffers that have been garbage collected without being
+     * released. Always zero unless leak detection is turned on. Note that we
+     * only check for leaks when allocating new buffers.
+     *
+     * @return
+     */
+    public long getLeakCount() {
+        if (this.leakDetection) {
+            reportLeaks();
+        }
+        return this.leaks.get();
+    }
+
+    /**
+     * The size of the largest array this pool will hold on to.
+     *
+     * @return
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Keeps track of where a chunk was allocated so that we can tell the user
+     * if it is garbage collected without being released.
+     */
+    private static final class LeakTracker extends PhantomReference<PooledChunk> {
+
+        private final Throwable allocatedAt = new Throwable("Allocated here");
+
+        private LeakTracker(final PooledChunk chunk, final ReferenceQueue<PooledChunk> queue) {
+            super(chunk, queue);
+        }
+    }
+
+}
@@ -99,6 +99,18 @@ public final class Buffers {
         return new ByteBuffer(0, 0, buffer.length, 0, buffer);
     }
 
+    /**
+     * Create a new Buffer backed by direct (off-heap) memory. Just like
+     * {@link #createBuffer(int)}, the buffer is empty and ready to be written
+     * to.
+     * 
+     * @param capacity
+     * @return
+     */
+    public static Buffer allocateDirect(final int capacity) {
+        return new DirectBuffer(capacity);
+    }
+
     /**
      * Wrap the supplied byte array
      * 
@@ -140,21 +152,18 @@ public final class Buffers {
      * @return
      */
     public static Buffer wrap(final Buffer one, final Buffer two) {
-        // TODO: create an actual composite buffer. 
-        final int size1 = one != null ? one.getReadableBytes() : 0;
-        final int size2 = two != null ? two.getReadableBytes() : 0;
-        if (size1 == 0 && size2 > 0) {
-            return two.slice();
-        } else if (size2 == 0 && size1 > 0) {
-            return one.slice();
-        } else if (size2 == 0 && size1 == 0) {
-            return Buffers.EMPTY_BUFFER;
-        }
+        return CompositeBuffer.compose(one, two);
+    }
 
-        final Buffer composite = Buffers.createBuffer(size1 + size2);
-        one.getBytes(composite);
-        two.getBytes(composite);
-        return composite;
+    /**
+     * Combine any number of buffers into one without copying any of the bytes.
+     * See {@link #wrap(Buffer, Buffer)}.
+     * 
+     * @param buffers
+     * @return
+     */
+    public static Buffer wrap(final Buffer... buffers) {
+        return CompositeBuffer.compose(buffers);
     }
 
     /**
@@ -189,6 +198,18 @@ public final class Buffers {
         return new ByteBuffer(readerIndex, lowerBoundary, upperBoundary, writerIndex, buffer);
     }
 
+    /**
+     * Lower case a single byte, ASCII only. That is all we need when comparing
+     * e.g. SIP header names (which are tokens and as such plain ASCII) and it
+     * saves us from having to go through a String.
+     * 
+     * @param b
+     * @return
+     */
+    static byte toLowerCase(final byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
     /**
      * Copied straight from the Integer class but modified to return bytes instead.
      * 
@@ -6,8 +6,9 @@ package io.pkts.buffer;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.nio.charset.Charset;
+import java.nio.ByteOrder;
 
 /**
  * A buffer directly backed by a byte-array
@@ -16,11 +17,39 @@ import java.nio.charset.Charset;
  */
 public final class ByteBuffer extends AbstractBuffer {
 
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    /**
+     * Used when scanning the buffer eight bytes at a time, see
+     * {@link #find(int, int, byte, byte, byte, byte)}.
+     */
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    /**
+     * No point in setting up the word-at-a-time scanning for fewer bytes than
+     * this.
+     */
+    private static final int MIN_WORD_SCAN = 16;
+
     /**
      * The actual buffer
      */
     protected final byte[] buffer;
 
+    /**
+     * If the byte-array came from a {@link BufferPool} this is what keeps track
+     * of its reference count. Shared by all slices of the same array.
+     */
+    private final PooledChunk chunk;
+
+    /**
+     * A little endian view of the array, used by {@link #find}, created the
+     * first time we need it so that scanning doesn't have to allocate.
+     */
+    private volatile java.nio.ByteBuffer words;
+
     /**
      * 
      */
@@ -34,9 +63,15 @@ public final class ByteBuffer extends AbstractBuffer {
 
     protected ByteBuffer(final int readerIndex, final int lowerBoundary, final int upperBoundary,
             final int writerIndex, final byte[] buffer) {
+        this(readerIndex, lowerBoundary, upperBoundary, writerIndex, buffer, null);
+    }
+
+    ByteBuffer(final int readerIndex, final int lowerBoundary, final int upperBoundary, final int writerIndex,
+            final byte[] buffer, final PooledChunk chunk) {
         super(readerIndex, lowerBoundary, upperBoundary, writerIndex);
         assert buffer != null;
         this.buffer = buffer;
+        this.chunk = chunk;
     }
 
     /**
@@ -51,7 +86,7 @@ public final class ByteBuffer extends AbstractBuffer {
         checkIndex(this.lowerBoundary + stop - 1);
         final int upperBoundary = this.lowerBoundary + stop;
         final int writerIndex = upperBoundary;
-        return new ByteBuffer(0, this.lowerBoundary + start, upperBoundary, writerIndex, this.buffer);
+        return new ByteBuffer(0, this.lowerBoundary + start, upperBoundary, writerIndex, this.buffer, this.chunk);
     }
 
     /**
@@ -68,7 +103,140 @@ public final class ByteBuffer extends AbstractBuffer {
         this.readerIndex += length;
         final int upperBoundary = this.readerIndex + this.lowerBoundary;
         final int writerIndex = upperBoundary;
-        return new ByteBuffer(0, lowerBoundary, upperBoundary, writerIndex, this.buffer);
+        return new ByteBuffer(0, lowerBoundary, upperBoundary, writerIndex, this.buffer, this.chunk);
+    }
+
+    /**
+     * Find the first of the given bytes within [from, to) of the underlying
+     * array (so the indices include the lower boundary). Instead of looking at
+     * one byte at a time we read eight of them as a long and check all eight
+     * at once (SWAR, SIMD within a register). XOR:ing the word with the byte
+     * we are looking for repeated eight times turns every matching byte into
+     * zero and (x - 0x0101..01) & ~x & 0x8080..80 then sets the high bit of
+     * those zero bytes. That trick can also flag a byte just above a real
+     * match but never one below it, so the lowest flagged byte is always the
+     * first match. Up to four bytes can be searched for, repeat one of them if
+     * you need fewer.
+     *
+     * @return the array index of the first match or -1 (negative one) if none
+     *         of the bytes are found.
+     */
+    private int find(final int from, final int to, final byte a, final byte b, final byte c, final byte d) {
+        int i = from;
+        if (to - from >= MIN_WORD_SCAN) {
+            final java.nio.ByteBuffer words = getWords();
+            final long pa = ONES * (a & 0xFF);
+            final long pb = ONES * (b & 0xFF);
+            final long pc = ONES * (c & 0xFF);
+            final long pd = ONES * (d & 0xFF);
+            for (; i + 8 <= to; i += 8) {
+                final long word = words.getLong(i);
+                final long hits = zeroBytes(word ^ pa) | zeroBytes(word ^ pb) | zeroBytes(word ^ pc)
+                        | zeroBytes(word ^ pd);
+                if (hits != 0) {
+                    // little endian so the first byte is the lowest one
+                    return i + (Long.numberOfTrailingZeros(hits) >>> 3);
+                }
+            }
+        }
+
+        for (; i < to; ++i) {
+            final byte x = this.buffer[i];
+            if (x == a || x == b || x == c || x == d) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private java.nio.ByteBuffer getWords() {
+        java.nio.ByteBuffer words = this.words;
+        if (words == null) {
+            words = java.nio.ByteBuffer.wrap(this.buffer).order(ByteOrder.LITTLE_ENDIAN);
+            this.words = words;
+        }
+        return words;
+    }
+
+    private static long zeroBytes(final long x) {
+        return x - ONES & ~x & HIGHS;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int indexOf(final int maxBytes, final byte... bytes) throws IOException, ByteNotFoundException,
+            IllegalArgumentException {
+        if (bytes.length == 0 || bytes.length > 4 || maxBytes <= 0) {
+            return super.indexOf(maxBytes, bytes);
+        }
+
+        final int from = this.lowerBoundary + this.readerIndex;
+        final int to = from + Math.min(maxBytes, getReadableBytes());
+        final byte a = bytes[0];
+        final byte b = bytes.length > 1 ? bytes[1] : a;
+        final byte c = bytes.length > 2 ? bytes[2] : a;
+        final byte d = bytes.length > 3 ? bytes[3] : a;
+        final int index = find(from, to, a, b, c, d);
+        return index == -1 ? -1 : index - this.lowerBoundary;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer readLine() throws IOException {
+        final int start = this.readerIndex;
+        final int end = this.writerIndex - this.lowerBoundary;
+        final int found = find(this.lowerBoundary + start, this.lowerBoundary + end, LF, CR, LF, CR);
+        if (found == -1) {
+            if (start >= end) {
+                return null;
+            }
+            this.readerIndex = end;
+            return slice(start, end);
+        }
+
+        int i = found - this.lowerBoundary;
+        if (this.buffer[found] == CR) {
+            // same as the byte-by-byte version, a run of CRs belongs to the
+            // line except for the last one
+            while (i + 1 < end && this.buffer[this.lowerBoundary + i + 1] == CR) {
+                ++i;
+            }
+            if (i + 1 == end) {
+                this.readerIndex = end;
+                return slice(start, end);
+            }
+            this.readerIndex = this.buffer[this.lowerBoundary + i + 1] == LF ? i + 2 : i + 1;
+            return slice(start, i);
+        }
+
+        this.readerIndex = i + 1;
+        return slice(start, i);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer readUntilDoubleCRLF() throws IOException {
+        final int start = this.readerIndex;
+        final int to = this.writerIndex;
+        int from = this.lowerBoundary + start;
+        while (from < to) {
+            final int i = find(from, to, CR, CR, CR, CR);
+            if (i == -1 || i + 4 > to) {
+                break;
+            }
+            if (this.buffer[i + 1] == LF && this.buffer[i + 2] == CR && this.buffer[i + 3] == LF) {
+                this.readerIndex = i + 4 - this.lowerBoundary;
+                return slice(start, i - this.lowerBoundary);
+            }
+            from = i + 1;
+        }
+        return null;
     }
 
     /**
@@ -118,6 +286,14 @@ public final class ByteBuffer extends AbstractBuffer {
         return this.buffer;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+        out.write(this.buffer, this.lowerBoundary + this.readerIndex, getReadableBytes());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -246,6 +422,33 @@ public final class ByteBuffer extends AbstractBuffer {
         return new ByteBuffer(copy);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int refCnt() {
+        return this.chunk != null ? this.chunk.refCnt() : 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer retain() throws IllegalStateException {
+        if (this.chunk != null) {
+            this.chunk.retain();
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean release() throws IllegalStateException {
+        return this.chunk != null && this.chunk.release();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -258,6 +461,18 @@ public final class ByteBuffer extends AbstractBuffer {
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCodeIgnoreCase() {
+        int result = 1;
+        for (int i = this.lowerBoundary + this.readerIndex; i < this.upperBoundary; ++i) {
+            result = 31 * result + Buffers.toLowerCase(this.buffer[i]);
+        }
+        return result;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -276,6 +491,9 @@ public final class ByteBuffer extends AbstractBuffer {
             if (this == other) {
                 return true;
             }
+            if (!(other instanceof ByteBuffer) && other instanceof Buffer) {
+                return internalEqualsBuffer(ignoreCase, (Buffer) other);
+            }
             final ByteBuffer b = (ByteBuffer) other;
             if (getReadableBytes() != b.getReadableBytes()) {
                 return false;
@@ -283,20 +501,12 @@ public final class ByteBuffer extends AbstractBuffer {
 
 
             final int length = getReadableBytes();
+            final int offsetA = this.lowerBoundary + this.readerIndex;
+            final int offsetB = b.lowerBoundary + b.readerIndex;
             for (int i = 0; i < length; ++i) {
-                final byte a1 = this.buffer[this.lowerBoundary + i];
-                final byte b1 = b.buffer[b.lowerBoundary + i];
-                if (a1 != b1) {
-                    if (ignoreCase) {
-                        // lazy! Fix this and also this won't really work
-                        // for UTF-8 I believe. Def not for UTF-16 but good
-                        // enough for now.
-                        final String s1 = new String(new byte[] {a1}, Charset.forName("UTF-8"));
-                        final String s2 = new String(new byte[] {b1}, Charset.forName("UTF-8"));
-                        if (s1.equalsIgnoreCase(s2)) {
-                            continue;
-                        }
-                    }
+                final byte a1 = this.buffer[offsetA + i];
+                final byte b1 = b.buffer[offsetB + i];
+                if (a1 != b1 && !(ignoreCase && Buffers.toLowerCase(a1) == Buffers.toLowerCase(b1))) {
                     return false;
                 }
             }
@@ -307,6 +517,33 @@ public final class ByteBuffer extends AbstractBuffer {
         }
     }
 
+    /**
+     * Compare against a buffer that isn't backed by a byte-array, such as a
+     * {@link MappedFileBuffer}. We have no choice but to go through the
+     * {@link Buffer} interface, one byte at a time.
+     */
+    private boolean internalEqualsBuffer(final boolean ignoreCase, final Buffer b) {
+        final int length = getReadableBytes();
+        if (length != b.getReadableBytes()) {
+            return false;
+        }
+
+        try {
+            final int offset = b.getReaderIndex();
+            for (int i = 0; i < length; ++i) {
+                final byte a1 = this.buffer[this.lowerBoundary + this.readerIndex + i];
+                final byte b1 = b.getByte(offset + i);
+                if (a1 != b1 && !(ignoreCase && Buffers.toLowerCase(a1) == Buffers.toLowerCase(b1))) {
+                    return false;
+                }
+            }
+        } catch (final IOException e) {
+            return false;
+        }
+
+        return true;
+    }
+
     /**
      * 
      * {@inheritDoc}
@@ -355,6 +592,14 @@ public final class ByteBuffer extends AbstractBuffer {
         }
         final int max = dst.getWritableBytes();
         final int stop = Math.min(this.lowerBoundary + index + max, this.writerIndex);
+        if (dst instanceof ByteBuffer && stop > this.lowerBoundary + index) {
+            final ByteBuffer b = (ByteBuffer) dst;
+            final int length = stop - this.lowerBoundary - index;
+            System.arraycopy(this.buffer, this.lowerBoundary + index, b.buffer, b.lowerBoundary + b.writerIndex, length);
+            b.writerIndex += length;
+            return;
+        }
+
         for (int i = this.lowerBoundary + index; i < stop; ++i) {
             dst.write(this.buffer[i]);
         }
@@ -0,0 +1,285 @@
+/**
+ *
+ */
+package io.pkts.buffer;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A {@link Map} whose keys are {@link Buffer}s compared through
+ * {@link Buffer#equalsIgnoreCase(Object)} and {@link Buffer#hashCodeIgnoreCase()}
+ * instead of their regular equals and hash code. Useful for e.g. SIP header
+ * names, which are case-insensitive. Looking up a key doesn't allocate
+ * anything, unlike the common trick of lower casing the key into a new
+ * String (or Buffer) first.
+ *
+ * The keys are used as is so don't modify a buffer (including moving its
+ * reader index) once it has been used as a key.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class CaseInsensitiveBufferMap<V> extends AbstractMap<Buffer, V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Node<V>[] table;
+
+    private int size;
+
+    public CaseInsensitiveBufferMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     *
+     * @param expectedSize
+     *            the number of entries you expect to put into the map.
+     */
+    @SuppressWarnings("unchecked")
+    public CaseInsensitiveBufferMap(final int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        this.table = new Node[capacity];
+    }
+
+    private static int hash(final Buffer key) {
+        final int h = key.hashCodeIgnoreCase();
+        return h ^ h >>> 16;
+    }
+
+    private Node<V> find(final Object key) {
+        if (!(key instanceof Buffer)) {
+            return null;
+        }
+
+        final Buffer buffer = (Buffer) key;
+        final int hash = hash(buffer);
+        for (Node<V> node = this.table[hash & this.table.length - 1]; node != null; node = node.next) {
+            if (node.hash == hash && node.key.equalsIgnoreCase(buffer)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get(final Object key) {
+        final Node<V> node = find(key);
+        return node != null ? node.value : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(final Object key) {
+        return find(key) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V put(final Buffer key, final V value) {
+        if (key == null) {
+            throw new IllegalArgumentException("The key cannot be null");
+        }
+
+        final Node<V> existing = find(key);
+        if (existing != null) {
+            final V old = existing.value;
+            existing.value = value;
+            return old;
+        }
+
+        if (this.size >= this.table.length / 2) {
+            resize();
+        }
+
+        final int hash = hash(key);
+        final int i = hash & this.table.length - 1;
+        this.table[i] = new Node<V>(hash, key, value, this.table[i]);
+        ++this.size;
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V remove(final Object key) {
+        if (!(key instanceof Buffer)) {
+            return null;
+        }
+
+        final Buffer buffer = (Buffer) key;
+        final int hash = hash(buffer);
+        final int i = hash & this.table.length - 1;
+        Node<V> previous = null;
+        for (Node<V> node = this.table[i]; node != null; previous = node, node = node.next) {
+            if (node.hash == hash && node.key.equalsIgnoreCase(buffer)) {
+                unlink(i, previous, node);
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    private void unlink(final int i, final Node<V> previous, final Node<V> node) {
+        if (previous == null) {
+            this.table[i] = node.next;
+        } else {
+            previous.next = node.next;
+        }
+        --this.size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < this.table.length; ++i) {
+            this.table[i] = null;
+        }
+        this.size = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize() {
+        final Node<V>[] old = this.table;
+        this.table = new Node[old.length * 2];
+        for (Node<V> node : old) {
+            while (node != null) {
+                final Node<V> next = node.next;
+                final int i = node.hash & this.table.length - 1;
+                node.next = this.table[i];
+                this.table[i] = node;
+                node = next;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Map.Entry<Buffer, V>> entrySet() {
+        return new AbstractSet<Map.Entry<Buffer, V>>() {
+            @Override
+            public Iterator<Map.Entry<Buffer, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return CaseInsensitiveBufferMap.this.size;
+            }
+        };
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<Buffer, V>> {
+
+        private int index = -1;
+
+        private Node<V> next;
+
+        private Node<V> current;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            if (this.next != null && this.next.next != null) {
+                this.next = this.next.next;
+                return;
+            }
+
+            this.next = null;
+            final Node<V>[] table = CaseInsensitiveBufferMap.this.table;
+            while (this.next == null && ++this.index < table.length) {
+                this.next = table[this.index];
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public Map.Entry<Buffer, V> next() {
+            if (this.next == null) {
+                throw new NoSuchElementException();
+            }
+            this.current = this.next;
+            advance();
+            return this.current;
+        }
+
+        @Override
+        public void remove() {
+            if (this.current == null) {
+                throw new IllegalStateException();
+            }
+            CaseInsensitiveBufferMap.this.remove(this.current.key);
+            this.current = null;
+        }
+    }
+
+    private static final class Node<V> implements Map.Entry<Buffer, V> {
+        private final int hash;
+        private final Buffer key;
+        private V value;
+        private Node<V> next;
+
+        private Node(final int hash, final Buffer key, final V value, final Node<V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        @Override
+        public Buffer getKey() {
+            return this.key;
+        }
+
+        @Override
+        public V getValue() {
+            return this.value;
+        }
+
+        @Override
+        public V setValue(final V value) {
+            final V old = this.value;
+            this.value = value;
+            return old;
+        }
+
+        @Override
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+}
@@ -0,0 +1,599 @@
+/**
+ *
+ */
+package io.pkts.buffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link Buffer} that presents a number of other buffers as one logical
+ * buffer without copying any of their bytes. This is what you get back from
+ * {@link Buffers#wrap(Buffer, Buffer)} and is useful when e.g. stitching
+ * together TCP segments or IP fragments.
+ *
+ * Only the readable bytes of each buffer, at the time the composite is
+ * created, become part of the composite and the reader index of those buffers
+ * are not affected in any way. Since we keep track of which component we
+ * accessed last, scanning through the buffer byte by byte (which is what e.g.
+ * {@link #readLine()} and {@link #indexOf(byte)} are doing) is as cheap as it
+ * would have been on a single buffer. Slicing a region that falls within a
+ * single component will give you a slice of that component and only a region
+ * spanning several components will yield a new {@link CompositeBuffer}.
+ *
+ * If you really need the bytes to be contiguous, use {@link #consolidate()}.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class CompositeBuffer extends AbstractBuffer {
+
+    private static final String CANNOT_WRITE_TO_A_COMPOSITE_BUFFER = "Cannot write to a CompositeBuffer";
+
+    /**
+     * The underlying buffers. Each of them has a reader index of zero and none
+     * of them are empty.
+     */
+    private Buffer[] components;
+
+    /**
+     * The index of the first byte of each component. The last entry is the
+     * total number of bytes across all components.
+     */
+    private int[] offsets;
+
+    /**
+     * The component we accessed last.
+     */
+    private int current;
+
+    /**
+     * Note that the components are used as is so they must all have a reader
+     * index of zero and none of them may be empty. Use
+     * {@link #compose(Buffer...)} unless you know that this is the case.
+     */
+    CompositeBuffer(final Buffer... components) {
+        super(0, 0, 0, 0);
+        setComponents(components);
+    }
+
+    /**
+     * Create a new {@link Buffer} consisting of the readable bytes of all the
+     * buffers. Null and empty buffers are simply skipped and if there is only
+     * one buffer left, you will get a slice of that buffer back rather than a
+     * {@link CompositeBuffer}.
+     *
+     * @param buffers
+     * @return
+     */
+    static Buffer compose(final Buffer... buffers) {
+        final List<Buffer> list = new ArrayList<Buffer>(buffers.length);
+        for (final Buffer buffer : buffers) {
+            if (buffer == null || buffer.getReadableBytes() == 0) {
+                continue;
+            }
+
+            final Buffer readable = buffer.slice();
+            if (readable instanceof CompositeBuffer) {
+                // no point in nesting them
+                list.addAll(Arrays.asList(((CompositeBuffer) readable).components));
+            } else {
+                list.add(readable);
+            }
+        }
+
+        if (list.isEmpty()) {
+            return Buffers.EMPTY_BUFFER;
+        } else if (list.size() == 1) {
+            return list.get(0);
+        }
+
+        return new CompositeBuffer(list.toArray(new Buffer[list.size()]));
+    }
+
+    private void setComponents(final Buffer[] components) {
+        this.components = components;
+        this.offsets = new int[components.length + 1];
+        for (int i = 0; i < components.length; ++i) {
+            this.offsets[i + 1] = this.offsets[i] + components[i].capacity();
+        }
+        this.current = 0;
+        this.upperBoundary = this.lowerBoundary + this.offsets[components.length];
+        this.writerIndex = this.upperBoundary;
+    }
+
+    /**
+     * The number of buffers this composite consists of.
+     *
+     * @return
+     */
+    public int getNumberOfComponents() {
+        return this.components.length;
+    }
+
+    /**
+     * Copy all the bytes into a single contiguous buffer, which from then on
+     * is what backs this {@link CompositeBuffer}, and return a buffer with the
+     * same content (and reader index) as this one. The indices of this buffer
+     * are not affected.
+     *
+     * @return
+     */
+    public Buffer consolidate() {
+        if (this.components.length > 1) {
+            final byte[] bytes = new byte[capacity()];
+            copy(0, bytes, 0, bytes.length);
+            setComponents(new Buffer[] { Buffers.wrap(bytes) });
+        }
+
+        final Buffer buffer = this.components[0].slice(0, capacity());
+        buffer.setReaderIndex(this.readerIndex);
+        return buffer;
+    }
+
+    /**
+     * Find the component holding the byte at the specified index.
+     *
+     * @param index
+     *            the index relative to the lower boundary of this buffer
+     * @return the index of the component
+     * @throws IndexOutOfBoundsException
+     */
+    private int component(final int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= capacity()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (index >= this.offsets[this.current] && index < this.offsets[this.current + 1]) {
+            return this.current;
+        }
+
+        // when scanning it will almost always be the next one
+        final int next = this.current + 1;
+        if (next < this.components.length && index >= this.offsets[next] && index < this.offsets[next + 1]) {
+            this.current = next;
+            return next;
+        }
+
+        final int i = Arrays.binarySearch(this.offsets, 0, this.components.length, index);
+        this.current = i >= 0 ? i : -i - 2;
+        return this.current;
+    }
+
+    /**
+     * Copy the bytes [index, index + length) into the destination array.
+     */
+    private void copy(final int index, final byte[] dst, final int offset, final int length) {
+        int copied = 0;
+        while (copied < length) {
+            final int i = index + copied;
+            final int c = component(i);
+            final Buffer src = this.components[c];
+            final int start = i - this.offsets[c];
+            final int count = Math.min(length - copied, src.capacity() - start);
+            if (src instanceof ByteBuffer) {
+                final ByteBuffer b = (ByteBuffer) src;
+                System.arraycopy(b.getRawArray(), b.lowerBoundary + start, dst, offset + copied, count);
+            } else {
+                for (int j = 0; j < count; ++j) {
+                    dst[offset + copied + j] = (byte) src.getUnsignedByte(start + j);
+                }
+            }
+            copied += count;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer readBytes(final int length) throws IndexOutOfBoundsException {
+        if (length == 0) {
+            return Buffers.EMPTY_BUFFER;
+        }
+        checkReadableBytes(length);
+        final Buffer buffer = slice(this.readerIndex, this.readerIndex + length);
+        this.readerIndex += length;
+        return buffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer slice(final int start, final int stop) {
+        if (start == stop) {
+            return Buffers.EMPTY_BUFFER;
+        }
+        if (start > stop) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        final int first = component(start);
+        final int last = component(stop - 1);
+        if (first == last) {
+            final int offset = this.offsets[first];
+            return this.components[first].slice(start - offset, stop - offset);
+        }
+
+        final Buffer[] slices = new Buffer[last - first + 1];
+        slices[0] = this.components[first].slice(start - this.offsets[first], this.components[first].capacity());
+        for (int i = first + 1; i < last; ++i) {
+            slices[i - first] = this.components[i];
+        }
+        slices[slices.length - 1] = this.components[last].slice(0, stop - this.offsets[last]);
+        return new CompositeBuffer(slices);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasReadableBytes() {
+        return getReadableBytes() > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return getReadableBytes() == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getArray() {
+        final byte[] array = new byte[getReadableBytes()];
+        copy(this.readerIndex, array, 0, array.length);
+        return array;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+        int index = this.readerIndex;
+        final int stop = index + getReadableBytes();
+        while (index < stop) {
+            final int c = component(index);
+            final Buffer src = this.components[c];
+            final int start = index - this.offsets[c];
+            final int count = Math.min(stop - index, src.capacity() - start);
+            if (src instanceof ByteBuffer) {
+                final ByteBuffer b = (ByteBuffer) src;
+                out.write(b.getRawArray(), b.lowerBoundary + start, count);
+            } else {
+                for (int j = 0; j < count; ++j) {
+                    out.write(src.getUnsignedByte(start + j));
+                }
+            }
+            index += count;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte getByte(final int index) throws IndexOutOfBoundsException, IOException {
+        final int c = component(index);
+        return this.components[c].getByte(index - this.offsets[c]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte readByte() throws IndexOutOfBoundsException, IOException {
+        final byte b = getByte(this.readerIndex);
+        ++this.readerIndex;
+        return b;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte peekByte() throws IndexOutOfBoundsException, IOException {
+        return getByte(this.readerIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long readUnsignedInt() throws IndexOutOfBoundsException {
+        return readInt() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int readInt() throws IndexOutOfBoundsException {
+        final int value = getInt(this.readerIndex);
+        this.readerIndex += 4;
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getInt(final int index) throws IndexOutOfBoundsException {
+        final int c = component(index);
+        if (index + 4 <= this.offsets[c + 1]) {
+            return this.components[c].getInt(index - this.offsets[c]);
+        }
+
+        return getUnsignedByte(index) << 24 | getUnsignedByte(index + 1) << 16 | getUnsignedByte(index + 2) << 8
+                | getUnsignedByte(index + 3);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public short getShort(final int index) throws IndexOutOfBoundsException {
+        final int c = component(index);
+        if (index + 2 <= this.offsets[c + 1]) {
+            return this.components[c].getShort(index - this.offsets[c]);
+        }
+
+        return (short) (getUnsignedByte(index) << 8 | getUnsignedByte(index + 1));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int readUnsignedShort() throws IndexOutOfBoundsException {
+        return readShort() & 0xFFFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getUnsignedShort(final int index) throws IndexOutOfBoundsException {
+        return getShort(index) & 0xFFFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public short readShort() throws IndexOutOfBoundsException {
+        final short value = getShort(this.readerIndex);
+        this.readerIndex += 2;
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public short getUnsignedByte(final int index) throws IndexOutOfBoundsException {
+        final int c = component(index);
+        return this.components[c].getUnsignedByte(index - this.offsets[c]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String dumpAsHex() {
+        return "dumpAsHex isn't implemented just yet";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer clone() {
+        final int size = capacity();
+        if (size == 0) {
+            return Buffers.EMPTY_BUFFER;
+        }
+        final byte[] copy = new byte[size];
+        copy(0, copy, 0, size);
+        return Buffers.wrap(copy);
+    }
+
+    @Override
+    public void getBytes(final Buffer dst) {
+        getBytes(getReaderIndex(), dst);
+    }
+
+    @Override
+    public void getBytes(final int index, final Buffer dst) throws IndexOutOfBoundsException {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index less than zero");
+        }
+        final int stop = Math.min(index + dst.getWritableBytes(), capacity());
+        int i = index;
+        while (i < stop) {
+            final int c = component(i);
+            final Buffer src = this.components[c];
+            if (src instanceof ByteBuffer && this.offsets[c + 1] <= stop) {
+                // the whole remainder of the component fits
+                src.getBytes(i - this.offsets[c], dst);
+                i = this.offsets[c + 1];
+            } else {
+                dst.write((byte) getUnsignedByte(i));
+                ++i;
+            }
+        }
+    }
+
+    /**
+     * The reference count of a {@link CompositeBuffer} is that of its
+     * components, which is why {@link #retain()} and {@link #release()} are
+     * applied to every one of them.
+     */
+    @Override
+    public int refCnt() {
+        return this.components.length == 0 ? 1 : this.components[0].refCnt();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer retain() throws IllegalStateException {
+        for (final Buffer component : this.components) {
+            component.retain();
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean release() throws IllegalStateException {
+        boolean released = false;
+        for (final Buffer component : this.components) {
+            released |= component.release();
+        }
+        return released;
+    }
+
+    @Override
+    public void getByes(final byte[] dst) throws IndexOutOfBoundsException {
+        copy(this.readerIndex, dst, 0, Math.min(dst.length, getReadableBytes()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int result = 1;
+        final int stop = capacity();
+        for (int i = this.readerIndex; i < stop; ++i) {
+            result = 31 * result + (byte) getUnsignedByte(i);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object other) {
+        return internalEquals(false, other);
+    }
+
+    @Override
+    public boolean equalsIgnoreCase(final Object other) {
+        return internalEquals(true, other);
+    }
+
+    private boolean internalEquals(final boolean ignoreCase, final Object other) {
+        try {
+            if (this == other) {
+                return true;
+            }
+            final Buffer b = (Buffer) other;
+            final int length = getReadableBytes();
+            if (length != b.getReadableBytes()) {
+                return false;
+            }
+
+            final int offset = b.getReaderIndex();
+            for (int i = 0; i < length; ++i) {
+                final byte a1 = getByte(this.readerIndex + i);
+                final byte b1 = b.getByte(offset + i);
+                if (a1 != b1 && !(ignoreCase && Buffers.toLowerCase(a1) == Buffers.toLowerCase(b1))) {
+                    return false;
+                }
+            }
+
+            return true;
+        } catch (final NullPointerException | ClassCastException | IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return new String(getArray(), "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getWritableBytes() {
+        return 0;
+    }
+
+    @Override
+    public void setByte(final int index, final byte value) throws IndexOutOfBoundsException {
+        final int c = component(index);
+        this.components[c].setByte(index - this.offsets[c], value);
+    }
+
+    @Override
+    public void setUnsignedByte(final int index, final short value) throws IndexOutOfBoundsException {
+        setByte(index, (byte) value);
+    }
+
+    @Override
+    public void setUnsignedShort(final int index, final int value) throws IndexOutOfBoundsException {
+        setByte(index, (byte) (value >> 8));
+        setByte(index + 1, (byte) value);
+    }
+
+    @Override
+    public void setInt(final int index, final int value) throws IndexOutOfBoundsException {
+        setByte(index, (byte) (value >>> 24));
+        setByte(index + 1, (byte) (value >>> 16));
+        setByte(index + 2, (byte) (value >>> 8));
+        setByte(index + 3, (byte) value);
+    }
+
+    /**
+     * Same as {@link ByteBuffer#setUnsignedInt(int, long)}, the value is
+     * written least significant byte first.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUnsignedInt(final int index, final long value) throws IndexOutOfBoundsException {
+        setByte(index, (byte) value);
+        setByte(index + 1, (byte) (value >>> 8));
+        setByte(index + 2, (byte) (value >>> 16));
+        setByte(index + 3, (byte) (value >>> 24));
+    }
+
+    @Override
+    public void write(final int value) throws IndexOutOfBoundsException, WriteNotSupportedException {
+        throw new WriteNotSupportedException(CANNOT_WRITE_TO_A_COMPOSITE_BUFFER);
+    }
+
+    @Override
+    public void write(final long value) throws IndexOutOfBoundsException, WriteNotSupportedException {
+        throw new WriteNotSupportedException(CANNOT_WRITE_TO_A_COMPOSITE_BUFFER);
+    }
+
+    @Override
+    public void writeAsString(final int value) throws IndexOutOfBoundsException, WriteNotSupportedException {
+        throw new WriteNotSupportedException(CANNOT_WRITE_TO_A_COMPOSITE_BUFFER);
+    }
+
+    @Override
+    public void writeAsString(final long value) throws IndexOutOfBoundsException, WriteNotSupportedException {
+        throw new WriteNotSupportedException(CANNOT_WRITE_TO_A_COMPOSITE_BUFFER);
+    }
+
+}
@@ -0,0 +1,445 @@
+/**
+ *
+ */
+package io.pkts.buffer;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A buffer backed by direct (off-heap) memory, i.e., a
+ * {@link java.nio.ByteBuffer} allocated through
+ * {@link java.nio.ByteBuffer#allocateDirect(int)}. Other than where the bytes
+ * live, it behaves exactly like the {@link ByteBuffer}. Slices share the same
+ * memory and changing the bytes through one will affect the other.
+ *
+ * Use {@link #getNioBuffer()} to get hold of the readable bytes when handing
+ * them to a NIO channel, which saves the channel from first copying the bytes
+ * into a temporary direct buffer of its own.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class DirectBuffer extends AbstractBuffer {
+
+    /**
+     * The actual buffer. We only ever use the absolute get and put operations
+     * so its position and limit is of no importance to us.
+     */
+    private final java.nio.ByteBuffer buffer;
+
+    protected DirectBuffer(final int capacity) {
+        this(0, 0, capacity, 0, java.nio.ByteBuffer.allocateDirect(capacity));
+    }
+
+    protected DirectBuffer(final int readerIndex, final int lowerBoundary, final int upperBoundary,
+            final int writerIndex, final java.nio.ByteBuffer buffer) {
+        super(readerIndex, lowerBoundary, upperBoundary, writerIndex);
+        assert buffer != null;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Get a {@link java.nio.ByteBuffer} view of the readable bytes of this
+     * buffer. The view shares the memory with this buffer but has its own
+     * position and limit.
+     *
+     * @return
+     */
+    public java.nio.ByteBuffer getNioBuffer() {
+        final java.nio.ByteBuffer view = this.buffer.duplicate();
+        final int start = this.lowerBoundary + this.readerIndex;
+        view.limit(start + getReadableBytes());
+        view.position(start);
+        return view.slice();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer slice(final int start, final int stop) {
+        if (start == stop) {
+            return Buffers.EMPTY_BUFFER;
+        }
+        checkIndex(this.lowerBoundary + start);
+        checkIndex(this.lowerBoundary + stop - 1);
+        final int upperBoundary = this.lowerBoundary + stop;
+        final int writerIndex = upperBoundary;
+        return new DirectBuffer(0, this.lowerBoundary + start, upperBoundary, writerIndex, this.buffer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer readBytes(final int length) throws IndexOutOfBoundsException {
+        if (length == 0) {
+            return Buffers.EMPTY_BUFFER;
+        }
+        checkReadableBytes(length);
+        final int lowerBoundary = this.readerIndex + this.lowerBoundary;
+        this.readerIndex += length;
+        final int upperBoundary = this.readerIndex + this.lowerBoundary;
+        final int writerIndex = upperBoundary;
+        return new DirectBuffer(0, lowerBoundary, upperBoundary, writerIndex, this.buffer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasReadableBytes() {
+        return getReadableBytes() > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return getReadableBytes() == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte getByte(final int index) throws IndexOutOfBoundsException {
+        checkIndex(this.lowerBoundary + index);
+        return this.buffer.get(this.lowerBoundary + index);
+    }
+
+    @Override
+    public void write(final byte b) throws IndexOutOfBoundsException {
+        checkWriterIndex(this.writerIndex);
+        this.buffer.put(this.lowerBoundary + this.writerIndex, b);
+        ++this.writerIndex;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getArray() {
+        final byte[] array = new byte[getReadableBytes()];
+        getNioBuffer().get(array);
+        return array;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte readByte() throws IndexOutOfBoundsException {
+        return getByte(this.readerIndex++);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte peekByte() throws IndexOutOfBoundsException {
+        return getByte(this.readerIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long readUnsignedInt() throws IndexOutOfBoundsException {
+        return readInt() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int readInt() throws IndexOutOfBoundsException {
+        final int value = getInt(this.readerIndex);
+        this.readerIndex += 4;
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public short readShort() throws IndexOutOfBoundsException {
+        final short value = getShort(this.readerIndex);
+        this.readerIndex += 2;
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int readUnsignedShort() {
+        return readShort() & 0xFFFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getInt(final int index) {
+        final int i = this.lowerBoundary + index;
+        checkIndex(i);
+        checkIndex(i + 3);
+        return this.buffer.getInt(i);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public short getShort(final int index) {
+        final int i = this.lowerBoundary + index;
+        checkIndex(i);
+        checkIndex(i + 1);
+        return this.buffer.getShort(i);
+    }
+
+    @Override
+    public void setUnsignedShort(final int index, final int value) {
+        final int i = this.lowerBoundary + index;
+        checkIndex(i);
+        checkIndex(i + 1);
+        this.buffer.putShort(i, (short) value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getUnsignedShort(final int index) throws IndexOutOfBoundsException {
+        return getShort(index) & 0xFFFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public short getUnsignedByte(final int index) throws IndexOutOfBoundsException {
+        return (short) (getByte(index) & 0xFF);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String dumpAsHex() {
+        return "dumpAsHex isn't implemented just yet";
+    }
+
+    /**
+     * The clone is a {@link DirectBuffer} as well.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer clone() {
+        final int size = capacity();
+        final java.nio.ByteBuffer src = this.buffer.duplicate();
+        src.limit(this.upperBoundary);
+        src.position(this.lowerBoundary);
+        final java.nio.ByteBuffer copy = java.nio.ByteBuffer.allocateDirect(size);
+        copy.put(src);
+        return new DirectBuffer(0, 0, size, size, copy);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = this.lowerBoundary + this.readerIndex; i < this.upperBoundary; ++i) {
+            result = 31 * result + this.buffer.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object other) {
+        return internalEquals(false, other);
+    }
+
+    @Override
+    public boolean equalsIgnoreCase(final Object other) {
+        return internalEquals(true, other);
+    }
+
+    private boolean internalEquals(final boolean ignoreCase, final Object other) {
+        try {
+            if (this == other) {
+                return true;
+            }
+            final Buffer b = (Buffer) other;
+            final int length = getReadableBytes();
+            if (length != b.getReadableBytes()) {
+                return false;
+            }
+
+            final int offset = b.getReaderIndex();
+            for (int i = 0; i < length; ++i) {
+                final byte a1 = this.buffer.get(this.lowerBoundary + this.readerIndex + i);
+                final byte b1 = b.getByte(offset + i);
+                if (a1 != b1 && !(ignoreCase && Buffers.toLowerCase(a1) == Buffers.toLowerCase(b1))) {
+                    return false;
+                }
+            }
+
+            return true;
+        } catch (final NullPointerException | ClassCastException | IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void setByte(final int index, final byte value) throws IndexOutOfBoundsException {
+        final int i = this.lowerBoundary + index;
+        checkIndex(i);
+        this.buffer.put(i, value);
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUnsignedByte(final int index, final short value) throws IndexOutOfBoundsException {
+        setByte(index, (byte) value);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return new String(getArray(), "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void getBytes(final Buffer dst) {
+        getBytes(getReaderIndex(), dst);
+    }
+
+    @Override
+    public void getBytes(final int index, final Buffer dst) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index less than zero");
+        }
+        final int max = dst.getWritableBytes();
+        final int stop = Math.min(this.lowerBoundary + index + max, this.writerIndex);
+        for (int i = this.lowerBoundary + index; i < stop; ++i) {
+            dst.write(this.buffer.get(i));
+        }
+    }
+
+    @Override
+    public void getByes(final byte[] dst) throws IndexOutOfBoundsException {
+        final int length = Math.min(dst.length, getReadableBytes());
+        getNioBuffer().get(dst, 0, length);
+    }
+
+    @Override
+    public boolean hasWriteSupport() {
+        return true;
+    }
+
+    @Override
+    public void write(final String s) throws IndexOutOfBoundsException, WriteNotSupportedException,
+    UnsupportedEncodingException {
+        write(s, "UTF-8");
+    }
+
+    @Override
+    public void write(final String s, final String charset) throws IndexOutOfBoundsException,
+    WriteNotSupportedException, UnsupportedEncodingException {
+        final byte[] bytes = s.getBytes(charset);
+        if (!checkWritableBytesSafe(bytes.length)) {
+            throw new IndexOutOfBoundsException("Unable to write the entire String to this buffer. Nothing was written");
+        }
+
+        final java.nio.ByteBuffer dst = this.buffer.duplicate();
+        dst.position(this.lowerBoundary + this.writerIndex);
+        dst.put(bytes);
+        this.writerIndex += bytes.length;
+    }
+
+    @Override
+    public void setInt(final int index, final int value) throws IndexOutOfBoundsException {
+        checkIndex(this.lowerBoundary + index);
+        checkIndex(this.lowerBoundary + index + 3);
+        this.buffer.putInt(this.lowerBoundary + index, value);
+    }
+
+    /**
+     * Same as {@link ByteBuffer#setUnsignedInt(int, long)}, the value is
+     * written least significant byte first.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUnsignedInt(final int index, final long value) throws IndexOutOfBoundsException {
+        checkIndex(this.lowerBoundary + index);
+        checkIndex(this.lowerBoundary + index + 3);
+        this.buffer.putInt(this.lowerBoundary + index, Integer.reverseBytes((int) value));
+    }
+
+    @Override
+    public void write(final int value) throws IndexOutOfBoundsException, WriteNotSupportedException {
+        if (!checkWritableBytesSafe(4)) {
+            throw new IndexOutOfBoundsException("Unable to write the entire String to this buffer. Nothing was written");
+        }
+        this.buffer.putInt(this.lowerBoundary + this.writerIndex, value);
+        this.writerIndex += 4;
+    }
+
+    @Override
+    public void write(final long value) throws IndexOutOfBoundsException, WriteNotSupportedException {
+        if (!checkWritableBytesSafe(8)) {
+            throw new IndexOutOfBoundsException("Unable to write the entire String to this buffer. Nothing was written");
+        }
+        this.buffer.putLong(this.lowerBoundary + this.writerIndex, value);
+        this.writerIndex += 8;
+    }
+
+    @Override
+    public void writeAsString(final int value) throws IndexOutOfBoundsException, WriteNotSupportedException {
+        final int size = Buffers.stringSizeOf(value);
+        if (!checkWritableBytesSafe(size)) {
+            throw new IndexOutOfBoundsException();
+        }
+        final byte[] digits = new byte[size];
+        Buffers.getBytes(value, size, digits);
+        writeDigits(digits);
+    }
+
+    @Override
+    public void writeAsString(final long value) throws IndexOutOfBoundsException, WriteNotSupportedException {
+        final int size = Buffers.stringSizeOf(value);
+        if (!checkWritableBytesSafe(size)) {
+            throw new IndexOutOfBoundsException();
+        }
+        final byte[] digits = new byte[size];
+        Buffers.getBytes(value, size, digits);
+        writeDigits(digits);
+    }
+
+    private void writeDigits(final byte[] digits) {
+        final java.nio.ByteBuffer dst = this.buffer.duplicate();
+        dst.position(this.lowerBoundary + this.writerIndex);
+        dst.put(digits);
+        this.writerIndex += digits.length;
+    }
+}
@@ -5,11 +5,33 @@ package io.pkts.buffer;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 /**
+ * A {@link Buffer} that reads its bytes off of an {@link InputStream} on demand
+ * and stores them in "rows" of byte arrays.
+ * 
+ * By default every row is kept around for the lifetime of the buffer, which
+ * means that reading through a large file will keep the entire file on the
+ * heap. If the buffer is created in bounded mode, rows that are entirely below
+ * the reader index (and the marked reader index, if you have set one) are
+ * released as we go along and the indices of the buffer are shifted down
+ * accordingly, so the memory used is bounded by how far back you need to look
+ * rather than by the size of the stream. Any buffers previously returned by
+ * e.g. {@link #readBytes(int)} or {@link #slice(int, int)} are not affected
+ * by this since they hold on to their own data. Use
+ * {@link #getHighWaterMark()} to see how much memory the buffer actually
+ * needed.
+ * 
+ * A row that has never been handed out as part of a view, because the bytes
+ * in it were only ever copied out of the buffer (see
+ * {@link #getBytes(int, Buffer)}) or looked at through {@link #getByte(int)},
+ * is not referenced by anyone but us, so in bounded mode it is kept around
+ * and reused for the bytes to come instead of allocating a new one.
+ * 
  * @author jonas@jonasborjesson.com
  */
 public final class InputStreamBuffer extends AbstractBuffer {
@@ -25,13 +47,41 @@ public final class InputStreamBuffer extends AbstractBuffer {
      */
     private static final int DEFAULT_CAPACITY = 4096;
 
-    private final List<java.nio.ByteBuffer> storage;
+    /**
+     * The max number of released rows we keep around for reuse.
+     */
+    private static final int MAX_SPARE_ROWS = 8;
+
+    private final List<Row> storage;
+
+    /**
+     * Rows that have been released, without ever having been part of a view,
+     * and that are ready to be reused.
+     */
+    private final List<Row> spare;
 
     /**
      * The "local" capacity of each "sub-array".
      */
     private final int localCapacity;
 
+    /**
+     * Whether or not we release the rows we no longer need.
+     */
+    private final boolean bounded;
+
+    /**
+     * Whether the user has marked the reader index, in which case we have to
+     * hold on to everything from the mark and onwards.
+     */
+    private boolean marked;
+
+    /**
+     * The maximum number of bytes we have been holding on to at any given
+     * time.
+     */
+    private int highWaterMark;
+
     /**
      * 
      */
@@ -39,6 +89,17 @@ public final class InputStreamBuffer extends AbstractBuffer {
         this(InputStreamBuffer.DEFAULT_CAPACITY, is);
     }
 
+    /**
+     * 
+     * @param is
+     * @param bounded
+     *            whether rows that are no longer needed should be released
+     *            (see class documentation)
+     */
+    public InputStreamBuffer(final InputStream is, final boolean bounded) {
+        this(InputStreamBuffer.DEFAULT_CAPACITY, is, bounded);
+    }
+
     /**
      * 
      * @param initialCapacity
@@ -46,12 +107,56 @@ public final class InputStreamBuffer extends AbstractBuffer {
      * @param is
      */
     public InputStreamBuffer(final int initialCapacity, final InputStream is) {
+        this(initialCapacity, is, false);
+    }
+
+    /**
+     * 
+     * @param initialCapacity
+     *            the initial size of the internal byte array
+     * @param is
+     * @param bounded
+     *            whether rows that are no longer needed should be released
+     *            (see class documentation)
+     */
+    public InputStreamBuffer(final int initialCapacity, final InputStream is, final boolean bounded) {
         super(0, 0, 0, 0);
         assert is != null;
         this.is = is;
         this.localCapacity = initialCapacity;
-        this.storage = new ArrayList<java.nio.ByteBuffer>();
-        this.storage.add(java.nio.ByteBuffer.allocate(this.localCapacity));
+        this.bounded = bounded;
+        this.storage = new ArrayList<Row>();
+        this.storage.add(new Row(this.localCapacity));
+        this.spare = new ArrayList<Row>(MAX_SPARE_ROWS);
+        this.highWaterMark = this.localCapacity;
+    }
+
+    /**
+     * The maximum number of bytes this buffer has been holding on to at any
+     * point in time.
+     * 
+     * @return
+     */
+    public int getHighWaterMark() {
+        return this.highWaterMark;
+    }
+
+    /**
+     * The number of bytes this buffer is currently holding on to.
+     * 
+     * @return
+     */
+    public int getRetainedBytes() {
+        return this.storage.size() * this.localCapacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void markReaderIndex() {
+        super.markReaderIndex();
+        this.marked = true;
     }
 
     /**
@@ -59,15 +164,90 @@ public final class InputStreamBuffer extends AbstractBuffer {
      */
     @Override
     public Buffer slice(final int start, final int stop) {
-        checkIndex(this.lowerBoundary + start);
-        checkIndex(this.lowerBoundary + stop - 1);
+        if (start == stop) {
+            return Buffers.EMPTY_BUFFER;
+        }
+
+        final int first = this.lowerBoundary + start;
+        final int last = this.lowerBoundary + stop - 1;
+        if (first < 0) {
+            // we have already released that part of the stream
+            throw new IndexOutOfBoundsException();
+        }
+        checkIndex(first);
+        checkIndex(last);
+
+        final int row = first / this.localCapacity;
+        if (row == last / this.localCapacity) {
+            final int offset = row * this.localCapacity;
+            final int upperBoundary = last + 1 - offset;
+            final int writerIndex = upperBoundary;
+            return new ByteBuffer(0, first - offset, upperBoundary, writerIndex, this.storage.get(row).share());
+        }
+
+        // straddles two or more rows so stitch them together
+        final int lastRow = last / this.localCapacity;
+        final Buffer[] rows = new Buffer[lastRow - row + 1];
+        for (int i = row; i <= lastRow; ++i) {
+            final int offset = i * this.localCapacity;
+            final int lower = Math.max(first, offset) - offset;
+            final int upper = Math.min(last + 1, offset + this.localCapacity) - offset;
+            rows[i - row] = new ByteBuffer(0, lower, upper, upper, this.storage.get(i).share());
+        }
+        return new CompositeBuffer(rows);
+    }
+
+    /**
+     * In bounded mode, release all the rows that are entirely below the
+     * reader index (and the marked reader index, if any). Since we always
+     * release full rows, shifting all the indices down by the same amount
+     * keeps every index pointing into the same spot within its row.
+     * 
+     * This is only done when entering {@link #readBytes(int)} and when
+     * leaving {@link #setReaderIndex(int)} since some of the operations in
+     * {@link AbstractBuffer} keep indices in local variables while they are
+     * scanning.
+     */
+    private void compact() {
+        if (!this.bounded) {
+            return;
+        }
+
+        int lowest = this.readerIndex;
+        if (this.marked) {
+            lowest = Math.min(lowest, this.markedReaderIndex);
+        }
 
-        // this has to change now that we can have multiple
-        // rows of byte buffers
-        final java.nio.ByteBuffer buf = getWritingRow();
-        final int upperBoundary = this.lowerBoundary + stop;
-        final int writerIndex = upperBoundary;
-        return new ByteBuffer(0, this.lowerBoundary + start, upperBoundary, writerIndex, buf.array());
+        final int rows = Math.min(lowest / this.localCapacity, this.storage.size());
+        if (rows <= 0) {
+            return;
+        }
+
+        final List<Row> released = this.storage.subList(0, rows);
+        for (final Row row : released) {
+            if (!row.shared && this.spare.size() < MAX_SPARE_ROWS) {
+                this.spare.add(row);
+            }
+        }
+        released.clear();
+        final int shift = rows * this.localCapacity;
+        this.readerIndex -= shift;
+        this.markedReaderIndex = Math.max(this.markedReaderIndex - shift, 0);
+        this.upperBoundary -= shift;
+        this.writerIndex -= shift;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Note that in bounded mode, moving the reader index forward may release
+     * the rows below it, in which case all the indices are shifted down (see
+     * class documentation).
+     */
+    @Override
+    public void setReaderIndex(final int index) {
+        super.setReaderIndex(index);
+        compact();
     }
 
     /**
@@ -105,6 +285,7 @@ public final class InputStreamBuffer extends AbstractBuffer {
      */
     @Override
     public Buffer readBytes(final int length) throws IndexOutOfBoundsException, IOException {
+        compact();
         if (!checkReadableBytesSafe(length)) {
             final int availableBytes = getReadableBytes();
             final int read = internalReadBytes(length - availableBytes);
@@ -118,22 +299,11 @@ public final class InputStreamBuffer extends AbstractBuffer {
             }
         }
 
-        // perhaps we should create a composite buffer instead of this
-        // copying???
-        int index = 0;
-        final byte[] buf = new byte[length];
-        while (index < length) {
-            final int spaceLeft = getAvailableLocalReadingSpace();
-            final int readAtMost = Math.min(length - index, spaceLeft);
-            final int localIndex = getLocalReaderIndex();
-
-            final java.nio.ByteBuffer bb = getReadingRow();
-            System.arraycopy(bb.array(), localIndex, buf, index, readAtMost);
-            this.readerIndex += readAtMost;
-            index += readAtMost;
-        }
-        return Buffers.wrap(buf);
-
+        // no copying, the slice is a view straight into the row (or a
+        // composite of the rows if we are straddling two or more)
+        final Buffer buffer = slice(this.readerIndex, this.readerIndex + length);
+        this.readerIndex += length;
+        return buffer;
     }
 
     /**
@@ -169,15 +339,6 @@ public final class InputStreamBuffer extends AbstractBuffer {
         return this.writerIndex % this.localCapacity;
     }
 
-    /**
-     * Translates the global reader index into the local index within a row
-     * 
-     * @return
-     */
-    private int getLocalReaderIndex() {
-        return this.readerIndex % this.localCapacity;
-    }
-
     /**
      * Since the underlying storage for this buffer is essentially a 2-D byte
      * array we sometimes need to find out how much capacity is left in a
@@ -189,41 +350,24 @@ public final class InputStreamBuffer extends AbstractBuffer {
         return this.localCapacity - getLocalWriterIndex();
     }
 
-    /**
-     * Find out how many bytes are left to read in the current row
-     * 
-     * @return
-     */
-    private int getAvailableLocalReadingSpace() {
-        return this.localCapacity - getLocalReaderIndex();
-    }
-
     /**
      * Get which "row" we currently are working with for writing
      * 
      * @return
      */
-    private java.nio.ByteBuffer getWritingRow() {
+    private Row getWritingRow() {
         final int row = this.writerIndex / this.localCapacity;
         if (row >= this.storage.size()) {
-            final java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(this.localCapacity);
+            final Row buf = this.spare.isEmpty() ? new Row(this.localCapacity) : this.spare.remove(this.spare
+                    .size() - 1);
             this.storage.add(buf);
+            this.highWaterMark = Math.max(this.highWaterMark, getRetainedBytes());
             return buf;
         }
 
         return this.storage.get(row);
     }
 
-    /**
-     * Get which "row" we currently are working with for reading
-     * 
-     * @return
-     */
-    private java.nio.ByteBuffer getReadingRow() {
-        final int row = this.readerIndex / this.localCapacity;
-        return this.storage.get(row);
-    }
-
     /**
      * Method for reading bytes off the stream and store it in the local
      * "storage"
@@ -243,9 +387,9 @@ public final class InputStreamBuffer extends AbstractBuffer {
             final int spaceLeft = getAvailableLocalWritingSpace();
             final int readAtMost = Math.min(length - total, spaceLeft);
 
-            final java.nio.ByteBuffer bb = getWritingRow();
+            final Row row = getWritingRow();
             try {
-                actual = this.is.read(bb.array(), localIndex, readAtMost);
+                actual = this.is.read(row.array, localIndex, readAtMost);
             } catch (final Exception e) {
                 e.printStackTrace();
             }
@@ -311,10 +455,13 @@ public final class InputStreamBuffer extends AbstractBuffer {
      */
     @Override
     public byte getByte(final int index) throws IndexOutOfBoundsException, IOException {
-        checkIndex(this.lowerBoundary + index);
-        final java.nio.ByteBuffer bb = getWritingRow();
-        // this has to be localized as well
-        return bb.get(this.lowerBoundary + index);
+        final int i = this.lowerBoundary + index;
+        if (i < 0) {
+            // we have already released that part of the stream
+            throw new IndexOutOfBoundsException();
+        }
+        checkIndex(i);
+        return this.storage.get(i / this.localCapacity).array[i % this.localCapacity];
     }
 
     /**
@@ -529,9 +676,64 @@ public final class InputStreamBuffer extends AbstractBuffer {
         throw new RuntimeException(NOT_IMPLEMENTED_JUST_YET);
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The bytes are copied straight out of the rows, reading as much as is
+     * needed off of the stream, and since no view is created the rows can be
+     * reused once we are past them (see class documentation).
+     */
     @Override
     public void getBytes(final int index, final Buffer dst) throws IndexOutOfBoundsException {
-        throw new RuntimeException(NOT_IMPLEMENTED_JUST_YET);
+        final int first = this.lowerBoundary + index;
+        if (index < 0 || first < 0) {
+            throw new IndexOutOfBoundsException("Index less than zero");
+        }
+
+        final int missingBytes = first + dst.getWritableBytes() - (this.lowerBoundary + capacity());
+        if (missingBytes > 0) {
+            try {
+                readFromStream(missingBytes);
+            } catch (final IOException e) {
+                throw new IndexOutOfBoundsException();
+            }
+        }
+
+        final int stop = Math.min(first + dst.getWritableBytes(), this.lowerBoundary + capacity());
+        int i = first;
+        while (i < stop) {
+            final byte[] row = this.storage.get(i / this.localCapacity).array;
+            final int offset = i % this.localCapacity;
+            final int length = Math.min(this.localCapacity - offset, stop - i);
+            if (dst instanceof ByteBuffer) {
+                final ByteBuffer b = (ByteBuffer) dst;
+                System.arraycopy(row, offset, b.buffer, b.lowerBoundary + b.writerIndex, length);
+                b.writerIndex += length;
+            } else {
+                for (int j = offset; j < offset + length; ++j) {
+                    dst.write(row[j]);
+                }
+            }
+            i += length;
+        }
+    }
+
+    /**
+     * Writes the bytes that have been read off of the stream but not yet
+     * consumed, i.e. {@link #getReadableBytes()}, straight out of the rows.
+     * Nothing more is read from the stream.
+     */
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+        int i = this.lowerBoundary + this.readerIndex;
+        final int stop = i + getReadableBytes();
+        while (i < stop) {
+            final byte[] row = this.storage.get(i / this.localCapacity).array;
+            final int offset = i % this.localCapacity;
+            final int length = Math.min(this.localCapacity - offset, stop - i);
+            out.write(row, offset, length);
+            i += length;
+        }
     }
 
     @Override
@@ -565,4 +767,27 @@ public final class InputStreamBuffer extends AbstractBuffer {
 
     }
 
+    /**
+     * A row of bytes read off of the stream.
+     */
+    private static final class Row {
+
+        private final byte[] array;
+
+        /**
+         * Whether the array has been handed out as part of a view, in which
+         * case the row must never be reused.
+         */
+        private boolean shared;
+
+        private Row(final int capacity) {
+            this.array = new byte[capacity];
+        }
+
+        private byte[] share() {
+            this.shared = true;
+            return this.array;
+        }
+    }
+
 }
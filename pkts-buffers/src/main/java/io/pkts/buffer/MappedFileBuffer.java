@@ -0,0 +1,626 @@
+/**
+ *
+ */
+package io.pkts.buffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A read-only {@link Buffer} backed by a memory mapped file.
+ *
+ * A single {@link java.nio.MappedByteBuffer} is limited to 2 GB so the file is
+ * mapped one window at a time and whenever someone is asking for bytes outside
+ * of the current window a new window is mapped in its place. Any {@link Buffer}
+ * returned by {@link #readBytes(int)} or {@link #slice(int, int)} is a view
+ * straight into the mapping, i.e., no bytes are copied, and it stays valid even
+ * after this buffer has moved on to a new window.
+ *
+ * Since the {@link Buffer} interface is based on int indices, but the file may
+ * be a lot bigger than that, the indices of this buffer are relative to where
+ * the reader index was the last time the index space was re-based. This
+ * happens in {@link #readBytes(int)} once we have read past
+ * {@link #REBASE_THRESHOLD} bytes, at which point everything before the reader
+ * index is dropped (and so is any mark pointing into that region). For
+ * sequential consumers, such as the pcap framer, this is completely
+ * transparent.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class MappedFileBuffer extends AbstractBuffer implements Closeable {
+
+    private static final String CANNOT_WRITE_TO_A_MAPPED_FILE_BUFFER = "Cannot write to a MappedFileBuffer";
+
+    /**
+     * The default size of each mapped window.
+     */
+    private static final int DEFAULT_WINDOW_SIZE = 1 << 28;
+
+    /**
+     * The largest window we allow. Must leave enough room in the int index
+     * space for {@link #REBASE_THRESHOLD}.
+     */
+    private static final int MAX_WINDOW_SIZE = 1 << 30;
+
+    /**
+     * Once the reader index goes beyond this point we will re-base the index
+     * space so that we never overflow.
+     */
+    private static final int REBASE_THRESHOLD = 1 << 30;
+
+    /**
+     * The channel we are mapping windows from. Will be null for all the views
+     * (slices) of the file, which never move their window.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The size of each window we map.
+     */
+    private final int windowSize;
+
+    /**
+     * The file offset corresponding to index zero of this buffer.
+     */
+    private long origin;
+
+    /**
+     * The index (in our index space) of the first byte in the current window.
+     */
+    private int windowIndex;
+
+    /**
+     * The currently mapped window.
+     */
+    private java.nio.ByteBuffer window;
+
+    /**
+     * Map the file represented by the channel using the default window size.
+     *
+     * @param channel
+     * @throws IOException
+     */
+    public MappedFileBuffer(final FileChannel channel) throws IOException {
+        this(DEFAULT_WINDOW_SIZE, channel);
+    }
+
+    /**
+     *
+     * @param windowSize
+     *            the number of bytes to map at any given time.
+     * @param channel
+     *            the channel of the file to map.
+     * @throws IOException
+     */
+    public MappedFileBuffer(final int windowSize, final FileChannel channel) throws IOException {
+        super(0, 0, 0, 0);
+        if (channel == null) {
+            throw new IllegalArgumentException("The channel cannot be null");
+        }
+        if (windowSize <= 0 || windowSize > MAX_WINDOW_SIZE) {
+            throw new IllegalArgumentException("The window size must be between 1 and " + MAX_WINDOW_SIZE);
+        }
+        this.channel = channel;
+        this.windowSize = windowSize;
+        mapWindow(0, 1);
+    }
+
+    /**
+     * Creates a view into an already mapped window.
+     */
+    private MappedFileBuffer(final int readerIndex, final int lowerBoundary, final int upperBoundary,
+            final int writerIndex, final java.nio.ByteBuffer window) {
+        super(readerIndex, lowerBoundary, upperBoundary, writerIndex);
+        this.channel = null;
+        this.windowSize = window.capacity();
+        this.window = window;
+    }
+
+    /**
+     * Map a new window so that it covers the bytes [index, index + width). We
+     * try to keep the bytes from the reader index (or marked reader index if
+     * that is lower) within the window as well so that a reset of the reader
+     * index doesn't force us to move back again.
+     *
+     * If the file doesn't have those bytes we will map whatever is left and
+     * leave it to the caller to detect that the index is out of bounds.
+     */
+    private void mapWindow(final int index, final int width) throws IOException {
+        int start = Math.min(index, Math.min(this.readerIndex, this.markedReaderIndex));
+        if (index + width - start > this.windowSize) {
+            start = index;
+        }
+
+        final long position = this.origin + start;
+        if (position < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        final long size = this.channel.size();
+        if (position > size) {
+            return;
+        }
+
+        final long length = Math.min(size - position, Math.max(this.windowSize, index + width - start));
+        this.window = this.channel.map(MapMode.READ_ONLY, position, length);
+        this.windowIndex = start;
+        this.upperBoundary = start + (int) length;
+        this.writerIndex = this.upperBoundary;
+    }
+
+    /**
+     * Translate the index into an index within the current window, mapping a
+     * new window if needed. Since this may replace the window, always call it
+     * before grabbing a hold of {@link #window}.
+     *
+     * @param index
+     *            the index relative to the lower boundary of this buffer.
+     * @param width
+     *            the number of bytes we need access to starting at the index.
+     * @return the index within the current window.
+     * @throws IndexOutOfBoundsException
+     *             in case those bytes do not exist.
+     */
+    private int toWindowIndex(final int index, final int width) throws IndexOutOfBoundsException {
+        final int i = this.lowerBoundary + index;
+        if (this.channel != null && (i < this.windowIndex || i + width > this.upperBoundary)) {
+            try {
+                mapWindow(i, width);
+            } catch (final IOException e) {
+                throw new IndexOutOfBoundsException("Unable to map the requested region: " + e.getMessage());
+            }
+        }
+
+        if (i < this.lowerBoundary || i + width > this.upperBoundary) {
+            throw new IndexOutOfBoundsException();
+        }
+        return i - this.windowIndex;
+    }
+
+    /**
+     * Once we have read far enough we move index zero up to the reader index
+     * so that we never run out of int indices no matter how large the file is.
+     */
+    private void rebase() {
+        if (this.channel == null || this.readerIndex < REBASE_THRESHOLD) {
+            return;
+        }
+
+        final int shift = this.readerIndex;
+        this.origin += shift;
+        this.readerIndex = 0;
+        this.markedReaderIndex = Math.max(this.markedReaderIndex - shift, 0);
+        this.windowIndex -= shift;
+        this.upperBoundary -= shift;
+        this.writerIndex -= shift;
+    }
+
+    /**
+     * The position in the file of the byte at the reader index.
+     *
+     * @return
+     */
+    public long getPosition() {
+        return this.origin + this.readerIndex;
+    }
+
+    /**
+     * Move the reader index to the given position in the file, backwards or
+     * forwards. The index space is re-based so that the new position becomes
+     * index zero, which means that any mark is dropped. Views handed out
+     * earlier are not affected.
+     *
+     * @param position
+     *            the position in the file.
+     * @throws IOException
+     *             in case we are unable to map the new position.
+     * @throws IllegalStateException
+     *             in case this is a view (slice) of the file, which cannot
+     *             move.
+     */
+    public void setPosition(final long position) throws IOException, IllegalStateException {
+        if (this.channel == null) {
+            throw new IllegalStateException("Cannot change the position of a view of the file");
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException("The position cannot be negative");
+        }
+
+        this.origin = position;
+        this.readerIndex = 0;
+        this.markedReaderIndex = 0;
+        this.windowIndex = 0;
+        this.upperBoundary = 0;
+        this.writerIndex = 0;
+        mapWindow(0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer readBytes(final int length) throws IndexOutOfBoundsException {
+        rebase();
+        if (length == 0) {
+            return Buffers.EMPTY_BUFFER;
+        }
+
+        final int lower = toWindowIndex(this.readerIndex, length);
+        this.readerIndex += length;
+        return new MappedFileBuffer(0, lower, lower + length, lower + length, this.window);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer slice(final int start, final int stop) {
+        if (start == stop) {
+            return Buffers.EMPTY_BUFFER;
+        }
+
+        final int lower = toWindowIndex(start, stop - start);
+        return new MappedFileBuffer(0, lower, lower + stop - start, lower + stop - start, this.window);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasReadableBytes() {
+        if (getReadableBytes() > 0) {
+            return true;
+        }
+
+        if (this.channel == null) {
+            return false;
+        }
+
+        try {
+            return this.origin + this.readerIndex < this.channel.size();
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return !hasReadableBytes();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getArray() {
+        final int length = getReadableBytes();
+        final byte[] array = new byte[length];
+        final int index = toWindowIndex(this.readerIndex, length);
+        final java.nio.ByteBuffer src = this.window.duplicate();
+        src.position(index);
+        src.get(array);
+        return array;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte getByte(final int index) throws IndexOutOfBoundsException {
+        final int i = toWindowIndex(index, 1);
+        return this.window.get(i);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte readByte() throws IndexOutOfBoundsException {
+        final byte b = getByte(this.readerIndex);
+        ++this.readerIndex;
+        return b;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte peekByte() throws IndexOutOfBoundsException {
+        return getByte(this.readerIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long readUnsignedInt() throws IndexOutOfBoundsException {
+        return readInt() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int readInt() throws IndexOutOfBoundsException {
+        final int value = getInt(this.readerIndex);
+        this.readerIndex += 4;
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getInt(final int index) throws IndexOutOfBoundsException {
+        final int i = toWindowIndex(index, 4);
+        return this.window.getInt(i);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public short getShort(final int index) throws IndexOutOfBoundsException {
+        final int i = toWindowIndex(index, 2);
+        return this.window.getShort(i);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int readUnsignedShort() throws IndexOutOfBoundsException {
+        return readShort() & 0xFFFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getUnsignedShort(final int index) throws IndexOutOfBoundsException {
+        return getShort(index) & 0xFFFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public short readShort() throws IndexOutOfBoundsException {
+        final short value = getShort(this.readerIndex);
+        this.readerIndex += 2;
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public short getUnsignedByte(final int index) throws IndexOutOfBoundsException {
+        return (short) (getByte(index) & 0xFF);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String dumpAsHex() {
+        return "dumpAsHex isn't implemented just yet";
+    }
+
+    /**
+     * Copies the visible area of this buffer onto the heap.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer clone() {
+        final int size = capacity();
+        if (size == 0) {
+            return Buffers.EMPTY_BUFFER;
+        }
+        final byte[] copy = new byte[size];
+        final int index = toWindowIndex(0, size);
+        final java.nio.ByteBuffer src = this.window.duplicate();
+        src.position(index);
+        src.get(copy);
+        return Buffers.wrap(copy);
+    }
+
+    @Override
+    public void getBytes(final Buffer dst) {
+        getBytes(getReaderIndex(), dst);
+    }
+
+    @Override
+    public void getBytes(final int index, final Buffer dst) throws IndexOutOfBoundsException {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index less than zero");
+        }
+        final int stop = Math.min(index + dst.getWritableBytes(), this.writerIndex - this.lowerBoundary);
+        for (int i = index; i < stop; ++i) {
+            dst.write(getByte(i));
+        }
+    }
+
+    @Override
+    public void getByes(final byte[] dst) throws IndexOutOfBoundsException {
+        final int length = Math.min(dst.length, getReadableBytes());
+        final int index = toWindowIndex(this.readerIndex, length);
+        final java.nio.ByteBuffer src = this.window.duplicate();
+        src.position(index);
+        src.get(dst, 0, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int result = 1;
+        final int stop = this.writerIndex - this.lowerBoundary;
+        for (int i = this.readerIndex; i < stop; ++i) {
+            result = 31 * result + getByte(i);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object other) {
+        return internalEquals(false, other);
+    }
+
+    @Override
+    public boolean equalsIgnoreCase(final Object other) {
+        return internalEquals(true, other);
+    }
+
+    private boolean internalEquals(final boolean ignoreCase, final Object other) {
+        try {
+            if (this == other) {
+                return true;
+            }
+            final Buffer b = (Buffer) other;
+            final int length = getReadableBytes();
+            if (length != b.getReadableBytes()) {
+                return false;
+            }
+
+            final int offset = b.getReaderIndex();
+            for (int i = 0; i < length; ++i) {
+                final byte a1 = getByte(this.readerIndex + i);
+                final byte b1 = b.getByte(offset + i);
+                if (a1 != b1 && !(ignoreCase && Buffers.toLowerCase(a1) == Buffers.toLowerCase(b1))) {
+                    return false;
+                }
+            }
+
+            return true;
+        } catch (final NullPointerException | ClassCastException | IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return new String(getArray(), "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Closes the underlying file channel. Any views already handed out will
+     * still be valid since a mapping, once established, does not depend on the
+     * channel that created it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+
+    @Override
+    public int getWritableBytes() {
+        return 0;
+    }
+
+    /**
+     * The mapping is read-only so the first time someone wants to change a
+     * view we copy the bytes of that view onto the heap and from then on the
+     * view is backed by that private copy instead. I.e., we will never ever
+     * modify the underlying file and any other view of the same bytes will not
+     * see the change.
+     */
+    private void copyOnWrite() {
+        if (this.channel != null) {
+            throw new WriteNotSupportedException(CANNOT_WRITE_TO_A_MAPPED_FILE_BUFFER);
+        }
+
+        if (!this.window.isReadOnly()) {
+            return;
+        }
+
+        final java.nio.ByteBuffer src = this.window.duplicate();
+        src.limit(this.upperBoundary);
+        src.position(this.lowerBoundary);
+        final java.nio.ByteBuffer copy = java.nio.ByteBuffer.allocate(this.upperBoundary - this.lowerBoundary);
+        copy.put(src);
+        this.window = copy;
+        this.writerIndex -= this.lowerBoundary;
+        this.upperBoundary -= this.lowerBoundary;
+        this.lowerBoundary = 0;
+    }
+
+    @Override
+    public void setByte(final int index, final byte value) throws IndexOutOfBoundsException {
+        copyOnWrite();
+        final int i = toWindowIndex(index, 1);
+        this.window.put(i, value);
+    }
+
+    @Override
+    public void setUnsignedByte(final int index, final short value) throws IndexOutOfBoundsException {
+        copyOnWrite();
+        final int i = toWindowIndex(index, 1);
+        this.window.put(i, (byte) value);
+    }
+
+    @Override
+    public void setUnsignedShort(final int index, final int value) throws IndexOutOfBoundsException {
+        copyOnWrite();
+        final int i = toWindowIndex(index, 2);
+        this.window.putShort(i, (short) value);
+    }
+
+    @Override
+    public void setInt(final int index, final int value) throws IndexOutOfBoundsException {
+        copyOnWrite();
+        final int i = toWindowIndex(index, 4);
+        this.window.putInt(i, value);
+    }
+
+    /**
+     * Same as {@link ByteBuffer#setUnsignedInt(int, long)}, the value is
+     * written least significant byte first.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUnsignedInt(final int index, final long value) throws IndexOutOfBoundsException {
+        copyOnWrite();
+        final int i = toWindowIndex(index, 4);
+        this.window.putInt(i, Integer.reverseBytes((int) value));
+    }
+
+    @Override
+    public void write(final int value) throws IndexOutOfBoundsException, WriteNotSupportedException {
+        throw new WriteNotSupportedException(CANNOT_WRITE_TO_A_MAPPED_FILE_BUFFER);
+    }
+
+    @Override
+    public void write(final long value) throws IndexOutOfBoundsException, WriteNotSupportedException {
+        throw new WriteNotSupportedException(CANNOT_WRITE_TO_A_MAPPED_FILE_BUFFER);
+    }
+
+    @Override
+    public void writeAsString(final int value) throws IndexOutOfBoundsException, WriteNotSupportedException {
+        throw new WriteNotSupportedException(CANNOT_WRITE_TO_A_MAPPED_FILE_BUFFER);
+    }
+
+    @Override
+    public void writeAsString(final long value) throws IndexOutOfBoundsException, WriteNotSupportedException {
+        throw new WriteNotSupportedException(CANNOT_WRITE_TO_A_MAPPED_FILE_BUFFER);
+    }
+
+}
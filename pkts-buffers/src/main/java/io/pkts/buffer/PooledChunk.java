@@ -0,0 +1,71 @@
+/**
+ *
+ */
+package io.pkts.buffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A byte array handed out by a {@link BufferPool} along with its reference
+ * count. Every {@link ByteBuffer} that is a view of the array (the buffer
+ * returned by the pool and all of its slices) shares the same chunk.
+ *
+ * A new chunk is created every time the array is handed out so a stale view,
+ * still pointing to a chunk that has been released, cannot accidentally
+ * release the array once more after someone else got hold of it.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+final class PooledChunk {
+
+    private static final String ALREADY_RELEASED = "The buffer has already been released";
+
+    final byte[] array;
+
+    private final BufferPool pool;
+
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+
+    /**
+     * Only used when leak detection is turned on.
+     */
+    Object tracker;
+
+    PooledChunk(final BufferPool pool, final byte[] array) {
+        this.pool = pool;
+        this.array = array;
+    }
+
+    int refCnt() {
+        return this.refCnt.get();
+    }
+
+    void retain() throws IllegalStateException {
+        for (;;) {
+            final int count = this.refCnt.get();
+            if (count <= 0) {
+                throw new IllegalStateException(ALREADY_RELEASED);
+            }
+            if (this.refCnt.compareAndSet(count, count + 1)) {
+                return;
+            }
+        }
+    }
+
+    boolean release() throws IllegalStateException {
+        for (;;) {
+            final int count = this.refCnt.get();
+            if (count <= 0) {
+                throw new IllegalStateException(ALREADY_RELEASED);
+            }
+            if (this.refCnt.compareAndSet(count, count - 1)) {
+                if (count == 1) {
+                    this.pool.recycle(this);
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+}
@@ -5,8 +5,10 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import org.junit.After;
 import org.junit.Before;
@@ -443,6 +445,28 @@ public abstract class AbstractBufferTest {
         assertThat(b3.getByte(b3.capacity() - 1), is((byte) 69));
     }
 
+    /**
+     * Writing a buffer to a stream must write its readable bytes, and only
+     * those, and leave the reader index where it was.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testWriteTo() throws Exception {
+        final Buffer buffer = createBuffer(allocateByteArray(100));
+        final Buffer slice = buffer.slice(50, 70);
+        slice.readBytes(2);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        slice.writeTo(out);
+        assertThat(Arrays.equals(out.toByteArray(), Arrays.copyOfRange(allocateByteArray(100), 52, 70)), is(true));
+        assertThat(slice.getReaderIndex(), is(2));
+
+        out.reset();
+        buffer.slice(0, 100).writeTo(out);
+        assertThat(Arrays.equals(out.toByteArray(), allocateByteArray(100)), is(true));
+    }
+
     /**
      * Test to make sure that it is possible to mark the reader index, continue
      * reading and then reset the buffer and as such, continue from where we
@@ -0,0 +1,155 @@
+/**
+ *
+ */
+package io.pkts.buffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class BufferPoolTest {
+
+    private BufferPool pool;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.pool = new BufferPool(1024, false);
+    }
+
+    @Test
+    public void testAllocate() throws Exception {
+        final Buffer buffer = this.pool.allocate(100);
+        assertThat(buffer.capacity(), is(100));
+        assertThat(buffer.getWritableBytes(), is(100));
+        assertThat(buffer.getReadableBytes(), is(0));
+        assertThat(buffer.refCnt(), is(1));
+
+        buffer.write("hello world");
+        assertThat(buffer.toString(), is("hello world"));
+        assertThat(buffer.getReadableBytes(), is(11));
+    }
+
+    /**
+     * Once released, the next allocation of the same size class should get the
+     * very same array back.
+     */
+    @Test
+    public void testReuse() throws Exception {
+        final Buffer first = this.pool.allocate(100);
+        final byte[] array = first.getRawArray();
+        assertThat(array.length, is(128));
+        assertThat(first.release(), is(true));
+
+        final Buffer second = this.pool.allocate(120);
+        assertThat(second.getRawArray(), sameInstance(array));
+
+        // different size class, different array
+        final Buffer third = this.pool.allocate(500);
+        assertThat(third.getRawArray(), not(sameInstance(array)));
+        assertThat(third.getRawArray().length, is(512));
+    }
+
+    @Test
+    public void testSlicesShareReferenceCount() throws Exception {
+        final Buffer buffer = this.pool.allocate(10);
+        buffer.write("0123456789");
+        final Buffer slice = buffer.slice(2, 6);
+        final Buffer read = buffer.readBytes(4);
+
+        slice.retain();
+        assertThat(buffer.refCnt(), is(2));
+        assertThat(read.refCnt(), is(2));
+        assertThat(read.release(), is(false));
+        assertThat(slice.refCnt(), is(1));
+        assertThat(slice.release(), is(true));
+        assertThat(buffer.refCnt(), is(0));
+    }
+
+    @Test
+    public void testDoubleRelease() throws Exception {
+        final Buffer buffer = this.pool.allocate(10);
+        buffer.release();
+        try {
+            buffer.release();
+            fail("Expected an IllegalStateException");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+
+        try {
+            buffer.retain();
+            fail("Expected an IllegalStateException");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Anything larger than the max size is allocated as usual and never makes
+     * it into the pool.
+     */
+    @Test
+    public void testLargerThanMaxSize() throws Exception {
+        final Buffer buffer = this.pool.allocate(4000);
+        final byte[] array = buffer.getRawArray();
+        assertThat(array.length, is(4000));
+        assertThat(buffer.release(), is(true));
+        assertThat(this.pool.allocate(4000).getRawArray(), not(sameInstance(array)));
+    }
+
+    /**
+     * Buffers that aren't pooled are not reference counted.
+     */
+    @Test
+    public void testUnpooled() throws Exception {
+        final Buffer buffer = Buffers.wrap("hello");
+        assertThat(buffer.refCnt(), is(1));
+        assertThat(buffer.retain(), sameInstance(buffer));
+        assertThat(buffer.release(), is(false));
+        assertThat(buffer.release(), is(false));
+    }
+
+    /**
+     * A composite buffer retains and releases all of its components.
+     */
+    @Test
+    public void testComposite() throws Exception {
+        final Buffer a = this.pool.allocate(10);
+        a.write("hello");
+        final Buffer b = this.pool.allocate(10);
+        b.write("world");
+        final Buffer both = Buffers.wrap(a, b);
+        both.retain();
+        assertThat(a.refCnt(), is(2));
+        assertThat(b.refCnt(), is(2));
+        both.release();
+        assertThat(a.release(), is(true));
+        assertThat(b.release(), is(true));
+    }
+
+    @Test
+    public void testGetBytesIntoPooledBuffer() throws Exception {
+        final Buffer src = Buffers.wrap(Buffers.wrap("hello "), Buffers.wrap("world"));
+        final Buffer dst = this.pool.allocate(11);
+        src.getBytes(0, dst);
+        assertThat(dst.toString(), is("hello world"));
+    }
+
+    @Test
+    public void testMaxSizeIsRoundedUp() throws Exception {
+        assertThat(new BufferPool(1000, false).getMaxSize(), is(1024));
+        assertThat(new BufferPool().getMaxSize(), is(BufferPool.DEFAULT_MAX_SIZE));
+    }
+
+}
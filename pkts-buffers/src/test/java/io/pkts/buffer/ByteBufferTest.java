@@ -224,6 +224,41 @@ public class ByteBufferTest extends AbstractBufferTest {
         final Buffer bufB = createBuffer(b);
         assertThat(bufA.equalsIgnoreCase(bufB), is(equals));
         assertThat(bufB.equalsIgnoreCase(bufA), is(equals));
+        if (equals) {
+            assertThat(bufA.hashCodeIgnoreCase(), is(bufB.hashCodeIgnoreCase()));
+        }
+    }
+
+    @Test
+    public void testHashCodeIgnoreCase() throws Exception {
+        final Buffer lower = createBuffer("call-id");
+        assertThat(lower.hashCodeIgnoreCase(), is(lower.hashCode()));
+        assertThat(createBuffer("Call-ID").hashCodeIgnoreCase(), is(lower.hashCode()));
+        assertThat(createBuffer("CALL-ID").hashCodeIgnoreCase(), is(lower.hashCode()));
+        assertThat(createBuffer("Call-IE").hashCodeIgnoreCase(), not(lower.hashCode()));
+
+        // the non-array default implementation must agree
+        final Buffer composite = Buffers.wrap(createBuffer("Call"), createBuffer("-ID"));
+        assertThat(composite.hashCodeIgnoreCase(), is(lower.hashCode()));
+        assertThat(composite.equalsIgnoreCase(lower), is(true));
+
+        // only what is readable counts
+        final Buffer header = createBuffer("Call-ID: abc");
+        header.readBytes(9);
+        assertThat(header.hashCodeIgnoreCase(), is(createBuffer("ABC").hashCodeIgnoreCase()));
+        assertThat(header.equalsIgnoreCase(createBuffer("ABC")), is(true));
+    }
+
+    /**
+     * Only ASCII letters are folded, anything else must match exactly.
+     */
+    @Test
+    public void testEqualsIgnoreCaseNonAscii() throws Exception {
+        final Buffer a = Buffers.wrap(new byte[] { (byte) 0xC4, 'a' });
+        final Buffer b = Buffers.wrap(new byte[] { (byte) 0xE4, 'A' });
+        assertThat(a.equalsIgnoreCase(b), is(false));
+        assertThat(createBuffer("[").equalsIgnoreCase(createBuffer("{")), is(false));
+        assertThat(createBuffer("@").equalsIgnoreCase(createBuffer("`")), is(false));
     }
 
     private void assertBufferEquality(final String a, final String b, final boolean equals) {
@@ -658,6 +693,98 @@ public class ByteBufferTest extends AbstractBufferTest {
 
     }
 
+    /**
+     * The {@link ByteBuffer} scans eight bytes at a time when looking for e.g.
+     * CRLF so make sure it finds exactly the same things as the byte-by-byte
+     * version in {@link AbstractBuffer}, which is what the
+     * {@link CompositeBuffer} is using. Random content with plenty of the
+     * bytes we are looking for, at all kinds of offsets.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWordAtATimeScanning() throws Exception {
+        final byte[] alphabet = "ab:;\r\n \u00ff".getBytes("ISO-8859-1");
+        final java.util.Random random = new java.util.Random(1234);
+        for (int n = 0; n < 2000; ++n) {
+            final byte[] content = new byte[2 + random.nextInt(80)];
+            for (int i = 0; i < content.length; ++i) {
+                // mostly letters so that we get runs without any matches
+                content[i] = random.nextInt(4) == 0 ? alphabet[random.nextInt(alphabet.length)] : (byte) 'x';
+            }
+            final int offset = random.nextInt(content.length - 1);
+
+            assertSameLines(slice(content, offset), composite(content, offset));
+            assertSameIndexOf(slice(content, offset), composite(content, offset), random.nextInt(100) + 1,
+                    (byte) ':');
+            assertSameIndexOf(slice(content, offset), composite(content, offset), random.nextInt(100) + 1,
+                    (byte) ';', (byte) '\r', (byte) 0xff);
+
+            final Buffer fast = slice(content, offset);
+            final Buffer slow = composite(content, offset);
+            assertThat(String.valueOf(fast.readUntilDoubleCRLF()), is(String.valueOf(slow.readUntilDoubleCRLF())));
+            assertThat(fast.getReaderIndex(), is(slow.getReaderIndex()));
+        }
+
+        assertThat(slice("INVITE sip:a@b SIP/2.0\r\nVia: x\r\n\r\nbody".getBytes(), 7).readUntilDoubleCRLF()
+                .toString(), is("sip:a@b SIP/2.0\r\nVia: x"));
+    }
+
+    /**
+     * Scanning is on the hot path of framing e.g. SIP so it must not allocate
+     * anything once the buffer has been set up.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWordAtATimeScanningDoesNotAllocate() throws Exception {
+        final Buffer buffer = slice(new byte[1000], 3);
+        final byte[] crlf = { '\r', '\n' };
+        buffer.indexOf(1000, crlf);
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+                .getThreadMXBean();
+        final long id = Thread.currentThread().getId();
+        final long start = threads.getThreadAllocatedBytes(id);
+        int found = 0;
+        for (int i = 0; i < 100; ++i) {
+            found += buffer.indexOf(1000, crlf);
+        }
+        final long allocated = threads.getThreadAllocatedBytes(id) - start;
+        assertThat(found, is(-100));
+        assertThat("allocated: " + allocated, allocated < 1000, is(true));
+    }
+
+    /**
+     * A {@link ByteBuffer} with a lower boundary other than zero.
+     */
+    private static Buffer slice(final byte[] content, final int offset) {
+        return new ByteBuffer(content).slice(offset, content.length);
+    }
+
+    private static Buffer composite(final byte[] content, final int offset) {
+        final int middle = offset + (content.length - offset) / 2;
+        return Buffers.wrap(Buffers.wrap(content, offset, middle), Buffers.wrap(content, middle, content.length));
+    }
+
+    private static void assertSameLines(final Buffer fast, final Buffer slow) throws Exception {
+        Buffer line = null;
+        while ((line = slow.readLine()) != null) {
+            assertThat(String.valueOf(fast.readLine()), is(line.toString()));
+            assertThat(fast.getReaderIndex(), is(slow.getReaderIndex()));
+        }
+        assertThat(fast.readLine() == null, is(true));
+    }
+
+    private static void assertSameIndexOf(final Buffer fast, final Buffer slow, final int maxBytes,
+            final byte... bytes) throws Exception {
+        while (fast.hasReadableBytes()) {
+            assertThat(fast.indexOf(maxBytes, bytes), is(slow.indexOf(maxBytes, bytes)));
+            fast.readByte();
+            slow.readByte();
+        }
+    }
+
     @Override
     public Buffer createBuffer(final byte[] array) {
         return new ByteBuffer(array);
@@ -0,0 +1,81 @@
+/**
+ *
+ */
+package io.pkts.buffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class CaseInsensitiveBufferMapTest {
+
+    @Test
+    public void testPutGet() throws Exception {
+        final Map<Buffer, String> map = new CaseInsensitiveBufferMap<>();
+        map.put(Buffers.wrap("Call-ID"), "call-id");
+        map.put(Buffers.wrap("i"), "compact");
+        assertThat(map.size(), is(2));
+        assertThat(map.get(Buffers.wrap("Call-ID")), is("call-id"));
+        assertThat(map.get(Buffers.wrap("call-id")), is("call-id"));
+        assertThat(map.get(Buffers.wrap("CALL-ID")), is("call-id"));
+        assertThat(map.get(Buffers.wrap("I")), is("compact"));
+        assertThat(map.get(Buffers.wrap("Call-IDs")), nullValue());
+        assertThat(map.get("Call-ID"), nullValue());
+
+        // replaces the existing entry even though the case differs
+        assertThat(map.put(Buffers.wrap("CALL-id"), "again"), is("call-id"));
+        assertThat(map.size(), is(2));
+        assertThat(map.get(Buffers.wrap("call-id")), is("again"));
+    }
+
+    /**
+     * The key we look up with is typically a slice of a larger buffer.
+     */
+    @Test
+    public void testGetWithSlice() throws Exception {
+        final Map<Buffer, String> map = new CaseInsensitiveBufferMap<>();
+        map.put(Buffers.wrap("From"), "from");
+        final Buffer header = Buffers.wrap("FROM: <sip:alice@example.com>");
+        assertThat(map.get(header.slice(4)), is("from"));
+        assertThat(map.containsKey(header.slice(3)), is(false));
+    }
+
+    @Test
+    public void testResizeAndRemove() throws Exception {
+        final Map<Buffer, Integer> map = new CaseInsensitiveBufferMap<>(2);
+        for (int i = 0; i < 1000; ++i) {
+            map.put(Buffers.wrap("Header-" + i), i);
+        }
+        assertThat(map.size(), is(1000));
+        for (int i = 0; i < 1000; ++i) {
+            assertThat(map.get(Buffers.wrap("HEADER-" + i)), is(i));
+        }
+
+        assertThat(map.remove(Buffers.wrap("header-10")), is(10));
+        assertThat(map.remove(Buffers.wrap("header-10")), nullValue());
+        assertThat(map.size(), is(999));
+
+        int count = 0;
+        final Iterator<Map.Entry<Buffer, Integer>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Buffer, Integer> entry = it.next();
+            ++count;
+            if (entry.getValue() % 2 == 0) {
+                it.remove();
+            }
+        }
+        assertThat(count, is(999));
+        assertThat(map.size(), is(500));
+        assertThat(map.get(Buffers.wrap("header-11")), is(11));
+        assertThat(map.get(Buffers.wrap("header-12")), nullValue());
+    }
+
+}
@@ -6,12 +6,117 @@ package io.pkts.buffer;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
 import org.junit.Test;
 
 /**
  * @author jonas@jonasborjesson.com
  */
-public class CompositeBufferTest {
+public class CompositeBufferTest extends AbstractBufferTest {
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    /**
+     * Chop the array up in small pieces so that pretty much every operation
+     * will have to cross from one component to another.
+     * 
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer createBuffer(final byte[] array) {
+        final List<Buffer> buffers = new ArrayList<Buffer>();
+        for (int i = 0; i < array.length; i += 7) {
+            buffers.add(Buffers.wrap(Arrays.copyOfRange(array, i, Math.min(i + 7, array.length))));
+        }
+        return Buffers.wrap(buffers.toArray(new Buffer[buffers.size()]));
+    }
+
+    /**
+     * Make sure that no bytes are copied, i.e., the composite is a view of the
+     * original buffers.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testNoCopy() throws Exception {
+        final Buffer hello = Buffers.wrap("hello");
+        final Buffer buffer = Buffers.wrap(hello, Buffers.wrap("world"));
+        hello.setByte(0, (byte) 'j');
+        assertThat(buffer.toString(), is("jelloworld"));
+    }
+
+    @Test
+    public void testSliceAcrossComponents() throws Exception {
+        final Buffer buffer = Buffers.wrap(Buffers.wrap("hello"), Buffers.wrap(" "), Buffers.wrap("world"));
+        assertThat(buffer instanceof CompositeBuffer, is(true));
+        assertThat(buffer.slice(3, 8).toString(), is("lo wo"));
+        assertThat(buffer.slice(6, 9).toString(), is("wor"));
+        assertThat(buffer.slice(6, 9) instanceof CompositeBuffer, is(false));
+        assertThat(buffer.readUntil((byte) ' ').toString(), is("hello"));
+        assertThat(buffer.readLine().toString(), is("world"));
+    }
+
+    @Test
+    public void testGetIntAcrossComponents() throws Exception {
+        final Buffer one = Buffers.wrap(new byte[] { 0x01, 0x02, 0x03 });
+        final Buffer two = Buffers.wrap(new byte[] { 0x04, 0x05, 0x06 });
+        final Buffer buffer = Buffers.wrap(one, two);
+        assertThat(buffer.getInt(1), is(0x02030405));
+        assertThat(buffer.getShort(2), is((short) 0x0304));
+        assertThat(buffer.getUnsignedByte(5), is((short) 6));
+
+        buffer.setInt(1, 0x0A0B0C0D);
+        assertThat(one.getByte(2), is((byte) 0x0B));
+        assertThat(two.getByte(0), is((byte) 0x0C));
+    }
+
+    /**
+     * A composite of a composite should not be nested but rather just consist
+     * of all the underlying buffers.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testFlatten() throws Exception {
+        final Buffer ab = Buffers.wrap(Buffers.wrap("a"), Buffers.wrap("b"));
+        final Buffer cd = Buffers.wrap(Buffers.wrap("c"), Buffers.wrap("d"));
+        final CompositeBuffer buffer = (CompositeBuffer) Buffers.wrap(ab, cd);
+        assertThat(buffer.getNumberOfComponents(), is(4));
+        assertThat(buffer.toString(), is("abcd"));
+    }
+
+    @Test
+    public void testConsolidate() throws Exception {
+        final CompositeBuffer buffer = (CompositeBuffer) Buffers.wrap(Buffers.wrap("hello"), Buffers.wrap("world"));
+        buffer.readBytes(2);
+        final Buffer consolidated = buffer.consolidate();
+        assertThat(consolidated.toString(), is("lloworld"));
+        assertThat(buffer.getNumberOfComponents(), is(1));
+        assertThat(buffer.toString(), is("lloworld"));
+        assertThat(buffer.readBytes(8).toString(), is("lloworld"));
+    }
+
+    @Test
+    public void testEquals() throws Exception {
+        final Buffer buffer = Buffers.wrap(Buffers.wrap("Call"), Buffers.wrap("-ID"));
+        final Buffer expected = Buffers.wrap("Call-ID");
+        assertThat(buffer.equals(expected), is(true));
+        assertThat(expected.equals(buffer), is(true));
+        assertThat(buffer.hashCode(), is(expected.hashCode()));
+        assertThat(buffer.equalsIgnoreCase(Buffers.wrap("call-id")), is(true));
+        assertThat(buffer.equals(Buffers.wrap("Call-IDs")), is(false));
+    }
 
     @Test
     public void testBasicStuff() throws Exception {
@@ -0,0 +1,119 @@
+/**
+ * 
+ */
+package io.pkts.buffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class DirectBufferTest extends AbstractBufferTest {
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer createBuffer(final byte[] array) {
+        final Buffer buffer = Buffers.allocateDirect(array.length);
+        for (final byte b : array) {
+            buffer.write(b);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        final Buffer buffer = Buffers.allocateDirect(100);
+        assertThat(buffer.getReadableBytes(), is(0));
+        assertThat(buffer.getWritableBytes(), is(100));
+
+        buffer.write("hello ");
+        buffer.writeAsString(9712);
+        buffer.write((byte) ' ');
+        buffer.writeAsString(-10L);
+        assertThat(buffer.toString(), is("hello 9712 -10"));
+
+        buffer.write(0x01020304);
+        buffer.write(0x05060708090A0B0CL);
+        final Buffer numbers = buffer.slice(14, 26);
+        assertThat(numbers.readInt(), is(0x01020304));
+        assertThat(numbers.readUnsignedInt(), is(0x05060708L));
+        assertThat(numbers.getShort(4), is((short) 0x0506));
+    }
+
+    @Test
+    public void testWriteTooMuch() throws Exception {
+        final Buffer buffer = Buffers.allocateDirect(3);
+        try {
+            buffer.write("hello");
+            fail("Expected an IndexOutOfBoundsException");
+        } catch (final IndexOutOfBoundsException e) {
+            // expected
+        }
+        assertThat(buffer.getWritableBytes(), is(3));
+    }
+
+    /**
+     * Slices share the same memory.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testSliceChangesAffectEachOther() throws Exception {
+        final Buffer buffer = createBuffer("hello world");
+        final Buffer world = buffer.slice(6, 11);
+        world.setByte(0, (byte) 'W');
+        assertThat(buffer.toString(), is("hello World"));
+
+        buffer.setUnsignedShort(0, 0x4142);
+        assertThat(buffer.readBytes(2).toString(), is("AB"));
+    }
+
+    @Test
+    public void testGetNioBuffer() throws Exception {
+        final DirectBuffer buffer = (DirectBuffer) createBuffer("hello world");
+        buffer.readBytes(6);
+        final java.nio.ByteBuffer nio = buffer.getNioBuffer();
+        assertThat(nio.isDirect(), is(true));
+        assertThat(nio.remaining(), is(5));
+        assertThat(nio.get(0), is((byte) 'w'));
+
+        // reading off of the nio buffer doesn't affect us
+        nio.get();
+        assertThat(buffer.getReadableBytes(), is(5));
+    }
+
+    @Test
+    public void testClone() throws Exception {
+        final Buffer buffer = createBuffer("hello");
+        final Buffer clone = buffer.clone();
+        buffer.setByte(0, (byte) 'j');
+        assertThat(clone.toString(), is("hello"));
+        assertThat(clone instanceof DirectBuffer, is(true));
+    }
+
+    @Test
+    public void testEqualsHeapBuffer() throws Exception {
+        final Buffer buffer = createBuffer("Call-ID");
+        assertThat(buffer.equals(Buffers.wrap("Call-ID")), is(true));
+        assertThat(Buffers.wrap("Call-ID").equals(buffer), is(true));
+        assertThat(buffer.hashCode(), is(Buffers.wrap("Call-ID").hashCode()));
+        assertThat(buffer.equalsIgnoreCase(Buffers.wrap("call-id")), is(true));
+    }
+
+}
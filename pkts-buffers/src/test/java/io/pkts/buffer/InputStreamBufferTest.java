@@ -11,6 +11,7 @@ import io.pkts.buffer.Buffer;
 import io.pkts.buffer.InputStreamBuffer;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -120,6 +121,132 @@ public class InputStreamBufferTest extends AbstractBufferTest {
 
     }
 
+    /**
+     * Reading bytes should not copy them but rather give us a view into the
+     * underlying storage, also when the bytes we read straddle two rows.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testReadBytesIsView() throws Exception {
+        final byte[] content = allocateByteArray(100);
+        final Buffer buffer = new InputStreamBuffer(50, new ByteArrayInputStream(content));
+        final Buffer view = buffer.readBytes(10);
+        view.setByte(3, (byte) 0x7F);
+        assertThat(buffer.getByte(3), is((byte) 0x7F));
+
+        final Buffer straddle = buffer.readBytes(80);
+        assertThat(straddle.capacity(), is(80));
+        assertContent(straddle, content, 10);
+        assertThat(buffer.readBytes(0).isEmpty(), is(true));
+    }
+
+    /**
+     * In bounded mode the buffer should only hold on to a few rows no matter
+     * how much we read off of the stream.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testBoundedMode() throws Exception {
+        final byte[] content = allocateByteArray(1024 * 1024);
+        final InputStreamBuffer buffer = new InputStreamBuffer(100, new ByteArrayInputStream(content), true);
+
+        int offset = 0;
+        while (offset + 37 <= content.length) {
+            final Buffer b = buffer.readBytes(37);
+            assertContent(b, content, offset);
+            offset += 37;
+        }
+
+        assertThat(buffer.getHighWaterMark() <= 300, is(true));
+        assertThat(buffer.getRetainedBytes() <= 300, is(true));
+
+        // without bounded mode we keep everything
+        final InputStreamBuffer unbounded = new InputStreamBuffer(100, new ByteArrayInputStream(content));
+        unbounded.readBytes(content.length);
+        assertThat(unbounded.getHighWaterMark() >= content.length, is(true));
+    }
+
+    /**
+     * If the user has marked the reader index we must keep everything from
+     * that mark and onwards even in bounded mode.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testBoundedModeKeepsMarkedBytes() throws Exception {
+        final byte[] content = allocateByteArray(10000);
+        final InputStreamBuffer buffer = new InputStreamBuffer(100, new ByteArrayInputStream(content), true);
+        buffer.readBytes(250);
+        buffer.markReaderIndex();
+        for (int i = 0; i < 50; ++i) {
+            buffer.readBytes(100);
+        }
+        assertThat(buffer.getRetainedBytes() >= 5000, is(true));
+
+        buffer.resetReaderIndex();
+        assertContent(buffer.readBytes(1000), content, 250);
+        assertThat(buffer.readByte(), is(content[1250]));
+    }
+
+    /**
+     * Copying the bytes out of the buffer leaves the rows unshared so in
+     * bounded mode they are reused, but never the rows someone has a view
+     * into.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testBoundedModeReusesRows() throws Exception {
+        final byte[] content = allocateByteArray(100000);
+        final InputStreamBuffer buffer = new InputStreamBuffer(100, new ByteArrayInputStream(content), true);
+
+        Buffer view = null;
+        int viewOffset = 0;
+        int offset = 0;
+        while (offset + 37 <= content.length) {
+            if (offset > 50000 && view == null) {
+                view = buffer.readBytes(250);
+                viewOffset = offset;
+                offset += 250;
+                continue;
+            }
+
+            final Buffer copy = Buffers.createBuffer(37);
+            final int index = buffer.getReaderIndex();
+            buffer.getBytes(index, copy);
+            assertThat(copy.getReadableBytes(), is(37));
+            assertContent(copy, content, offset);
+            assertThat(buffer.getByte(index + 36), is(content[offset + 36]));
+            buffer.setReaderIndex(index + 37);
+            offset += 37;
+        }
+
+        assertContent(view, content, viewOffset);
+        assertThat(buffer.getHighWaterMark() <= 500, is(true));
+    }
+
+    /**
+     * Writing the buffer itself to a stream writes what has been read off of
+     * the stream but not consumed yet, across rows, and nothing more.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testWriteToAcrossRows() throws Exception {
+        final byte[] content = allocateByteArray(200);
+        final Buffer buffer = new InputStreamBuffer(30, new ByteArrayInputStream(content));
+        buffer.getByte(99);
+        buffer.readBytes(10);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+        assertThat(out.size(), is(buffer.getReadableBytes()));
+        assertContent(Buffers.wrap(out.toByteArray()), content, 10);
+        assertThat(buffer.getReaderIndex(), is(10));
+    }
+
     /**
      * After we have been reading etc it is also important that we actually
      * verify that the new read buffers indeed contains the correct content.
@@ -0,0 +1,199 @@
+/**
+ *
+ */
+package io.pkts.buffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class MappedFileBufferTest extends AbstractBufferTest {
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Buffer createBuffer(final byte[] array) {
+        try {
+            return new MappedFileBuffer(open(array));
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Write the content to a temporary file and open a channel to it.
+     */
+    private FileChannel open(final byte[] content) throws IOException {
+        final File file = File.createTempFile("pkts", ".mapped");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * The {@link MappedFileBuffer} only maps a window of the file at a time so
+     * make sure that no matter the size of that window we are able to read
+     * across the window boundaries.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRollingWindow() throws Exception {
+        for (int i = 1; i < 200; ++i) {
+            verifyRollingWindow(i);
+        }
+
+        // the sip buffer is 505 bytes so check around that boundary
+        verifyRollingWindow(504);
+        verifyRollingWindow(505);
+        verifyRollingWindow(506);
+        verifyRollingWindow(1000);
+    }
+
+    private void verifyRollingWindow(final int windowSize) throws Exception {
+        final byte[] content = RawData.sipBuffer.getArray();
+        final Buffer buffer = new MappedFileBuffer(windowSize, open(content));
+
+        final Buffer initial = buffer.readBytes(50);
+        assertThat(initial.capacity(), is(50));
+        assertContent(initial, content, 0);
+
+        final Buffer forty = buffer.readBytes(40);
+        assertThat(forty.capacity(), is(40));
+        assertContent(forty, content, 50);
+
+        // peeking back on an old view must still work after the
+        // window has moved along
+        final Buffer threehundred = buffer.readBytes(300);
+        assertThat(threehundred.capacity(), is(300));
+        assertContent(threehundred, content, 90);
+        assertContent(initial, content, 0);
+
+        final Buffer theRest = buffer.readBytes(115);
+        assertThat(theRest.capacity(), is(115));
+        assertContent(theRest, content, 390);
+
+        assertThat(buffer.hasReadableBytes(), is(false));
+        try {
+            buffer.readBytes(5);
+            fail("expected an IndexOutOfBoundsException");
+        } catch (final IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Resetting the reader index back to the mark may require us to map an
+     * earlier part of the file again.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testResetReaderIndexAcrossWindows() throws Exception {
+        final byte[] content = allocateByteArray(100);
+        final Buffer buffer = new MappedFileBuffer(8, open(content));
+        buffer.readBytes(10);
+        buffer.markReaderIndex();
+        buffer.readBytes(50);
+        assertThat(buffer.readByte(), is((byte) 60));
+        buffer.resetReaderIndex();
+        assertThat(buffer.readByte(), is((byte) 10));
+        assertThat(buffer.getByte(99), is((byte) 99));
+    }
+
+    /**
+     * Views are allowed to be modified (the pcap framer e.g. adjusts the
+     * captured length of a record) but that must never make it down to the
+     * file.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteToView() throws Exception {
+        final byte[] content = allocateByteArray(100);
+        final Buffer buffer = createBuffer(content);
+        final Buffer view = buffer.readBytes(10);
+        view.setByte(2, (byte) 0x7F);
+        view.setInt(4, 0x01020304);
+        assertThat(view.getByte(2), is((byte) 0x7F));
+        assertThat(view.getInt(4), is(0x01020304));
+        assertThat(view.getByte(9), is((byte) 9));
+        assertThat(buffer.getByte(2), is((byte) 2));
+
+        try {
+            buffer.setByte(2, (byte) 0x7F);
+            fail("expected a WriteNotSupportedException");
+        } catch (final WriteNotSupportedException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSetPosition() throws Exception {
+        final byte[] content = allocateByteArray(100);
+        final MappedFileBuffer buffer = new MappedFileBuffer(8, open(content));
+        final Buffer view = buffer.readBytes(40);
+        assertThat(buffer.getPosition(), is(40L));
+
+        buffer.setPosition(90);
+        assertThat(buffer.getPosition(), is(90L));
+        assertThat(buffer.readByte(), is((byte) 90));
+
+        buffer.setPosition(5);
+        assertThat(buffer.readByte(), is((byte) 5));
+        assertThat(buffer.getByte(94), is((byte) 99));
+        assertThat(buffer.getPosition(), is(6L));
+
+        // views don't move
+        assertThat(view.getByte(39), is((byte) 39));
+
+        buffer.setPosition(100);
+        assertThat(buffer.hasReadableBytes(), is(false));
+    }
+
+    @Test
+    public void testEqualsHeapBuffer() throws Exception {
+        final Buffer buffer = createBuffer("Call-ID: hello".getBytes());
+        final Buffer name = buffer.readBytes(7);
+        assertThat(name.equals(Buffers.wrap("Call-ID")), is(true));
+        assertThat(Buffers.wrap("Call-ID").equals(name), is(true));
+        assertThat(name.hashCode(), is(Buffers.wrap("Call-ID").hashCode()));
+        assertThat(name.equalsIgnoreCase(Buffers.wrap("call-id")), is(true));
+    }
+
+    /**
+     * After we have been reading etc it is also important that we actually
+     * verify that the new read buffers indeed contains the correct content.
+     */
+    private void assertContent(final Buffer buffer, final byte[] actual, final int offset) throws Exception {
+        for (int i = 0; i < buffer.capacity(); ++i) {
+            assertThat("Index: " + i + " Actual Index: " + (i + offset), buffer.getByte(i), is(actual[i + offset]));
+        }
+    }
+
+}
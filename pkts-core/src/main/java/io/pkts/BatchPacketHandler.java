@@ -0,0 +1,33 @@
+package io.pkts;
+
+import io.pkts.packet.Packet;
+
+import java.io.IOException;
+
+/**
+ * Same as the {@link PacketHandler} but the packets are handed over a batch at
+ * a time, see {@link Pcap#loop(BatchPacketHandler, int)}.
+ * 
+ * @author jonas@jonasborjesson.com
+ */
+public interface BatchPacketHandler {
+
+    /**
+     * Will be called by the {@link Pcap} class as soon as it has framed a full
+     * batch of packets, or when there are no more packets to be had.
+     * 
+     * The array is reused for the next batch so don't hold on to it. The
+     * packets themselves you may keep.
+     * 
+     * @param batch
+     *            the packets, of which only the first <code>count</code> are
+     *            valid.
+     * @param count
+     *            the number of packets in this batch, always at least one.
+     * @throws IOException
+     * @return true if this instance wants to handle subsequent packets, false
+     *         otherwise.
+     */
+    boolean nextPackets(Packet[] batch, int count) throws IOException;
+
+}
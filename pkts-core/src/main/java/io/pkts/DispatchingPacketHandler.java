@@ -0,0 +1,407 @@
+package io.pkts;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.buffer.Buffers;
+import io.pkts.frame.PcapRecordHeader;
+import io.pkts.packet.IPPacket;
+import io.pkts.packet.MACPacket;
+import io.pkts.packet.Packet;
+import io.pkts.packet.TransportPacket;
+import io.pkts.packet.impl.AbstractPacket;
+import io.pkts.packet.impl.PCapPacketImpl;
+import io.pkts.packet.sip.SipPacket;
+import io.pkts.protocol.Protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * A {@link PacketHandler} that hands the packets over to a number of worker
+ * threads, each one with a {@link PacketHandler} of its own. Which worker gets
+ * a packet is decided by a partition key, computed on the thread that is
+ * reading the pcap, so all packets with the same key (e.g. all packets of the
+ * same flow, or of the same call) end up with the same handler, in the order
+ * they were read. Packets with different keys are processed at the same time.
+ *
+ * This allows stateful analysis, such as figuring out the state of every
+ * call, to be spread across several cores without the handlers having to
+ * worry about threads at all:
+ *
+ * <pre>
+ * final DispatchingPacketHandler&lt;MyHandler&gt; dispatcher = new DispatchingPacketHandler&lt;MyHandler&gt;(8,
+ *         DispatchingPacketHandler.SIP_CALL_ID, MyHandler::new);
+ * pcap.loop(dispatcher);
+ * dispatcher.close();
+ * for (final MyHandler handler : dispatcher.getHandlers()) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * Each worker has a bounded queue so the reading thread will block, rather
+ * than fill up the heap, if the workers can't keep up. The payload of every
+ * packet is retained (see {@link Buffer#retain()}) until the worker is done
+ * with it, so this works with {@link Pcap#loop(PacketHandler, io.pkts.buffer.BufferPool)}
+ * as well.
+ *
+ * You must call {@link #close()} once the loop is done, which waits for the
+ * workers to finish off whatever is left in their queues.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class DispatchingPacketHandler<T extends PacketHandler> implements PacketHandler, Closeable {
+
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    /**
+     * How much of a frame that is neither IPv4 nor IPv6 goes into its key.
+     */
+    private static final int RAW_KEY_BYTES = 64;
+
+    private static final int IPV6_HEADER_LENGTH = 40;
+
+    private static final int TCP = 6;
+
+    private static final int UDP = 17;
+
+    /**
+     * Partitions on the IP addresses and ports of the packet, in such a way
+     * that both directions of a flow get the same key. IPv6 is keyed the same
+     * way, straight off of the bytes following the link layer (extension
+     * headers are not followed, so those packets are keyed on the addresses
+     * only). Anything else, such as ARP, is keyed on a hash of the first
+     * {@value #RAW_KEY_BYTES} bytes of the frame, which spreads it over the
+     * workers but does not keep a conversation on the same one.
+     */
+    public static final ToIntFunction<Packet> FIVE_TUPLE = DispatchingPacketHandler::getFlowKey;
+
+    /**
+     * Partitions SIP packets on their Call-ID and everything else on the
+     * {@link #FIVE_TUPLE}.
+     */
+    public static final ToIntFunction<Packet> SIP_CALL_ID = DispatchingPacketHandler::getCallIdKey;
+
+    /**
+     * Tells the worker there will be no more packets.
+     */
+    private static final Packet END = new PCapPacketImpl(PcapRecordHeader.createDefaultHeader(0),
+            Buffers.EMPTY_BUFFER);
+
+    private final ToIntFunction<Packet> partitioner;
+
+    private final List<T> handlers;
+
+    private final List<Worker> workers;
+
+    private volatile boolean stopped;
+
+    private volatile Throwable failure;
+
+    private boolean closed;
+
+    /**
+     * Partition on the {@link #FIVE_TUPLE}.
+     *
+     * @param threads
+     *            the number of worker threads.
+     * @param handlers
+     *            creates the handler of each worker.
+     */
+    public DispatchingPacketHandler(final int threads, final Supplier<T> handlers) {
+        this(threads, FIVE_TUPLE, handlers);
+    }
+
+    public DispatchingPacketHandler(final int threads, final ToIntFunction<Packet> partitioner,
+            final Supplier<T> handlers) {
+        this(threads, DEFAULT_QUEUE_SIZE, partitioner, handlers);
+    }
+
+    /**
+     *
+     * @param threads
+     *            the number of worker threads.
+     * @param queueSize
+     *            the number of packets each worker can have waiting.
+     * @param partitioner
+     *            computes the partition key of a packet.
+     * @param handlers
+     *            creates the handler of each worker.
+     */
+    public DispatchingPacketHandler(final int threads, final int queueSize, final ToIntFunction<Packet> partitioner,
+            final Supplier<T> handlers) {
+        if (threads <= 0 || queueSize <= 0) {
+            throw new IllegalArgumentException("The number of threads and the queue size must be greater than zero");
+        }
+        assert partitioner != null;
+        assert handlers != null;
+
+        this.partitioner = partitioner;
+        final List<T> list = new ArrayList<T>(threads);
+        this.workers = new ArrayList<Worker>(threads);
+        for (int i = 0; i < threads; ++i) {
+            final T handler = handlers.get();
+            list.add(handler);
+            this.workers.add(new Worker(i, handler, queueSize));
+        }
+        this.handlers = Collections.unmodifiableList(list);
+
+        for (final Worker worker : this.workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * The handlers of the workers. Don't look at them until this dispatcher
+     * has been closed.
+     *
+     * @return
+     */
+    public List<T> getHandlers() {
+        return this.handlers;
+    }
+
+    /**
+     * Hands the packet over to the worker responsible for its partition.
+     *
+     * @return false if any of the handlers has asked us to stop, or failed.
+     * @throws IOException
+     *             in case we are interrupted while waiting for room in the
+     *             queue of the worker.
+     */
+    @Override
+    public boolean nextPacket(final Packet packet) throws IOException {
+        if (this.closed) {
+            throw new IllegalStateException("The dispatcher has been closed");
+        }
+        if (this.stopped) {
+            return false;
+        }
+
+        final int key = this.partitioner.applyAsInt(packet);
+        final Worker worker = this.workers.get((key & Integer.MAX_VALUE) % this.workers.size());
+        final Buffer payload = packet.getPayload();
+        if (payload != null) {
+            payload.retain();
+        }
+        try {
+            worker.queue.put(packet);
+        } catch (final InterruptedException e) {
+            if (payload != null) {
+                payload.release();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the worker");
+        }
+        return !this.stopped;
+    }
+
+    /**
+     * Wait for the workers to process whatever is left in their queues and
+     * then stop them.
+     *
+     * @throws IOException
+     *             in case any of the handlers failed, or we were interrupted
+     *             while waiting for the workers.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        try {
+            for (final Worker worker : this.workers) {
+                worker.queue.put(END);
+            }
+            for (final Worker worker : this.workers) {
+                worker.join();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the workers");
+        }
+
+        final Throwable failure = this.failure;
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    private static int getFlowKey(final Packet packet) {
+        try {
+            final IPPacket ip = (IPPacket) packet.getPacket(Protocol.IPv4);
+            if (ip != null) {
+                long a = ip.getRawSourceIp() & 0xFFFFFFFFL;
+                long b = ip.getRawDestinationIp() & 0xFFFFFFFFL;
+                final TransportPacket transport = getTransport(ip);
+                if (transport != null) {
+                    a = a << 16 | transport.getSourcePort();
+                    b = b << 16 | transport.getDestinationPort();
+                }
+                return getKey(a, b);
+            }
+        } catch (final IOException | RuntimeException e) {
+            // not something we can frame, have a look at the raw bytes instead
+        }
+
+        try {
+            final Packet pcap = packet.getPacket(Protocol.PCAP);
+            if (pcap == null) {
+                return 0;
+            }
+            final Buffer network = getNetworkLayer(pcap);
+            if (network != null && isIPv6(network)) {
+                return getIPv6Key(network);
+            }
+            return getRawKey(pcap.getPayload());
+        } catch (final IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The same key in both directions.
+     */
+    private static int getKey(final long a, final long b) {
+        final long low = Math.min(a, b);
+        final long high = Math.max(a, b);
+        final long hash = low * 31 + high;
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    /**
+     * Whatever follows the link layer, if we can frame the link layer.
+     */
+    private static Buffer getNetworkLayer(final Packet pcap) {
+        try {
+            final Packet link = pcap instanceof AbstractPacket ? ((AbstractPacket) pcap).getFramedNextPacket()
+                    : pcap.getNextPacket();
+            return link instanceof MACPacket ? link.getPayload() : null;
+        } catch (final IOException | RuntimeException e) {
+            // e.g. an ether type we don't know how to frame
+            return null;
+        }
+    }
+
+    private static boolean isIPv6(final Buffer network) throws IOException {
+        return network.getReadableBytes() >= IPV6_HEADER_LENGTH && (network.getByte(0) & 0xF0) == 0x60;
+    }
+
+    private static int getIPv6Key(final Buffer ip) throws IOException {
+        long a = hash(ip, 8, 24);
+        long b = hash(ip, 24, 40);
+        final int next = ip.getByte(6) & 0xFF;
+        if ((next == TCP || next == UDP) && ip.getReadableBytes() >= IPV6_HEADER_LENGTH + 4) {
+            a = a * 31 + getUnsignedShort(ip, IPV6_HEADER_LENGTH);
+            b = b * 31 + getUnsignedShort(ip, IPV6_HEADER_LENGTH + 2);
+        }
+        return getKey(a, b);
+    }
+
+    private static int getRawKey(final Buffer frame) throws IOException {
+        if (frame == null) {
+            return 0;
+        }
+        final long hash = hash(frame, 0, Math.min(frame.getReadableBytes(), RAW_KEY_BYTES));
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    private static long hash(final Buffer buffer, final int from, final int to) throws IOException {
+        long hash = 1;
+        for (int i = from; i < to; ++i) {
+            hash = hash * 31 + (buffer.getByte(i) & 0xFF);
+        }
+        return hash;
+    }
+
+    private static int getUnsignedShort(final Buffer buffer, final int index) throws IOException {
+        return (buffer.getByte(index) & 0xFF) << 8 | buffer.getByte(index + 1) & 0xFF;
+    }
+
+    /**
+     * Look at whatever the IP packet carries rather than asking for UDP or TCP
+     * straight away, since asking a TCP packet for UDP would have us frame
+     * (and guess at) whatever is on top of TCP, which is work for the
+     * workers, not the thread reading the pcap.
+     */
+    private static TransportPacket getTransport(final IPPacket ip) throws IOException {
+        final Packet next = ip instanceof AbstractPacket ? ((AbstractPacket) ip).getFramedNextPacket() : ip
+                .getNextPacket();
+        return next instanceof TransportPacket ? (TransportPacket) next : null;
+    }
+
+    private static int getCallIdKey(final Packet packet) {
+        try {
+            if (packet.hasProtocol(Protocol.SIP)) {
+                final SipPacket sip = (SipPacket) packet.getPacket(Protocol.SIP);
+                return sip.getCallIDHeader().getValue().hashCode();
+            }
+        } catch (final IOException | RuntimeException e) {
+            // fall back on the flow
+        }
+        return getFlowKey(packet);
+    }
+
+    private final class Worker extends Thread {
+
+        private final PacketHandler handler;
+
+        private final BlockingQueue<Packet> queue;
+
+        private Worker(final int id, final PacketHandler handler, final int queueSize) {
+            super("pkts-dispatch-" + id);
+            setDaemon(true);
+            this.handler = handler;
+            this.queue = new ArrayBlockingQueue<Packet>(queueSize);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Packet packet;
+                try {
+                    packet = this.queue.take();
+                } catch (final InterruptedException e) {
+                    return;
+                }
+
+                if (packet == END) {
+                    return;
+                }
+
+                try {
+                    // keep draining the queue once stopped so that the
+                    // reading thread doesn't block forever
+                    if (!DispatchingPacketHandler.this.stopped && !this.handler.nextPacket(packet)) {
+                        DispatchingPacketHandler.this.stopped = true;
+                    }
+                } catch (final Throwable t) {
+                    if (DispatchingPacketHandler.this.failure == null) {
+                        DispatchingPacketHandler.this.failure = t;
+                    }
+                    DispatchingPacketHandler.this.stopped = true;
+                } finally {
+                    final Buffer payload = packet.getPayload();
+                    if (payload != null) {
+                        payload.release();
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package io.pkts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * An {@link InputStream} over a file that is still being written to. Instead
+ * of returning end-of-stream once we have caught up with the writer, a read
+ * blocks, polling the file, until more bytes show up. A record that has only
+ * been partially written is therefore simply waited for.
+ *
+ * The stream ends once the file hasn't grown for the idle timeout, once the
+ * stream is closed (from any thread) or if the thread is interrupted.
+ *
+ * If the file is rotated, i.e. replaced by a new file with the same name or
+ * truncated, we finish reading the old file and then carry on with the new
+ * one, skipping its global header. That only works for a regular pcap where
+ * the new file has the same global header as the first one, otherwise the
+ * stream ends there.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+final class FollowInputStream extends InputStream {
+
+    private static final int GLOBAL_HEADER_SIZE = 24;
+
+    private final Path file;
+
+    private final FollowOptions options;
+
+    private final byte[] globalHeader = new byte[GLOBAL_HEADER_SIZE];
+
+    private FileChannel channel;
+
+    /**
+     * Identifies the file we currently are reading, see
+     * {@link BasicFileAttributes#fileKey()}. May be null.
+     */
+    private Object fileKey;
+
+    private long position;
+
+    private long lastActivity;
+
+    private volatile boolean closed;
+
+    FollowInputStream(final Path file, final FollowOptions options) throws IOException {
+        assert file != null;
+        assert options != null;
+        this.file = file;
+        this.options = options;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileKey = getFileKey();
+        this.lastActivity = System.currentTimeMillis();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        while (!this.closed) {
+            final int read;
+            try {
+                read = this.channel.read(ByteBuffer.wrap(b, off, len));
+            } catch (final ClosedChannelException e) {
+                if (this.closed) {
+                    return -1;
+                }
+                throw e;
+            }
+            if (read > 0) {
+                if (this.position < GLOBAL_HEADER_SIZE) {
+                    final int count = (int) Math.min(read, GLOBAL_HEADER_SIZE - this.position);
+                    System.arraycopy(b, off, this.globalHeader, (int) this.position, count);
+                }
+                this.position += read;
+                this.lastActivity = System.currentTimeMillis();
+                return read;
+            }
+
+            if (isRotated()) {
+                // anything written to the old file before it was rotated
+                // has been read by now
+                if (!this.options.isFollowRotation() || !rotate()) {
+                    return -1;
+                }
+                continue;
+            }
+
+            if (!await()) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Wait for the poll interval.
+     *
+     * @return false if we have been idle for too long, or were interrupted.
+     */
+    private boolean await() {
+        final long timeout = this.options.getIdleTimeout();
+        if (timeout > 0 && System.currentTimeMillis() - this.lastActivity >= timeout) {
+            return false;
+        }
+
+        try {
+            Thread.sleep(this.options.getPollInterval());
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private boolean isRotated() throws IOException {
+        try {
+            final Object key = getFileKey();
+            if (key != null && !key.equals(this.fileKey)) {
+                return true;
+            }
+            return Files.size(this.file) < this.position;
+        } catch (final NoSuchFileException e) {
+            // moved away but nothing new in its place, yet
+            return false;
+        }
+    }
+
+    /**
+     * Switch over to the file that now has the name of the one we were
+     * following, once its global header has been written.
+     *
+     * @return false if the new file has a different global header, or if it
+     *         never got one.
+     */
+    private boolean rotate() throws IOException {
+        if (isPcapng()) {
+            // there is more to a pcapng header than the first block
+            return false;
+        }
+
+        this.channel.close();
+        this.channel = FileChannel.open(this.file, StandardOpenOption.READ);
+        this.fileKey = getFileKey();
+        this.position = 0;
+        this.lastActivity = System.currentTimeMillis();
+
+        final ByteBuffer header = ByteBuffer.allocate(GLOBAL_HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (this.closed || this.channel.read(header) <= 0 && !await()) {
+                return false;
+            }
+        }
+        this.position = GLOBAL_HEADER_SIZE;
+        return Arrays.equals(header.array(), this.globalHeader);
+    }
+
+    private boolean isPcapng() {
+        return this.globalHeader[0] == 0x0A && this.globalHeader[1] == 0x0D && this.globalHeader[2] == 0x0D
+                && this.globalHeader[3] == 0x0A;
+    }
+
+    private Object getFileKey() throws IOException {
+        return Files.readAttributes(this.file, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Ends the stream, also for a thread currently waiting for the file to
+     * grow.
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "FollowInputStream[" + this.file + "]";
+    }
+
+}
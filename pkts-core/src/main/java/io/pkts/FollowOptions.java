@@ -0,0 +1,114 @@
+package io.pkts;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls how a growing pcap is followed when opened through
+ * {@link Pcap#openFollow(java.nio.file.Path, FollowOptions)}. Once we have
+ * caught up with the writer we check every {@link #getPollInterval()}
+ * milliseconds whether the file has grown, and give up once it hasn't for
+ * {@link #getIdleTimeout()} milliseconds.
+ *
+ * The options are immutable, every <code>with</code> method returns a new
+ * instance.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class FollowOptions {
+
+    public static final long DEFAULT_POLL_INTERVAL = 100;
+
+    /**
+     * Zero, i.e., keep following forever.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 0;
+
+    private static final FollowOptions DEFAULT = new FollowOptions(DEFAULT_POLL_INTERVAL, DEFAULT_IDLE_TIMEOUT,
+            true);
+
+    private final long pollInterval;
+
+    private final long idleTimeout;
+
+    private final boolean followRotation;
+
+    private FollowOptions(final long pollInterval, final long idleTimeout, final boolean followRotation) {
+        this.pollInterval = pollInterval;
+        this.idleTimeout = idleTimeout;
+        this.followRotation = followRotation;
+    }
+
+    /**
+     * Poll every 100 ms, forever, and follow the file across rotations.
+     *
+     * @return
+     */
+    public static FollowOptions defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     *
+     * @param interval
+     *            how long to wait before checking whether the file has grown.
+     * @param unit
+     * @return
+     * @throws IllegalArgumentException
+     *             in case the interval isn't a positive number.
+     */
+    public FollowOptions withPollInterval(final long interval, final TimeUnit unit) throws IllegalArgumentException {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("The poll interval must be greater than zero");
+        }
+        return new FollowOptions(Math.max(1, unit.toMillis(interval)), this.idleTimeout, this.followRotation);
+    }
+
+    /**
+     *
+     * @param timeout
+     *            how long the file may stay the same before we consider the
+     *            capture to be over, or zero to follow it forever (or until
+     *            the {@link Pcap} is closed).
+     * @param unit
+     * @return
+     * @throws IllegalArgumentException
+     *             in case the timeout is negative.
+     */
+    public FollowOptions withIdleTimeout(final long timeout, final TimeUnit unit) throws IllegalArgumentException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("The idle timeout cannot be negative");
+        }
+        return new FollowOptions(this.pollInterval, unit.toMillis(timeout), this.followRotation);
+    }
+
+    /**
+     *
+     * @param followRotation
+     *            whether to move on to the new file when the one we are
+     *            following is rotated (i.e., replaced by a new file with the
+     *            same name, or truncated), or to simply end there.
+     * @return
+     */
+    public FollowOptions withFollowRotation(final boolean followRotation) {
+        return new FollowOptions(this.pollInterval, this.idleTimeout, followRotation);
+    }
+
+    public long getPollInterval() {
+        return this.pollInterval;
+    }
+
+    public long getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    public boolean isFollowRotation() {
+        return this.followRotation;
+    }
+
+    @Override
+    public String toString() {
+        return "FollowOptions[pollInterval=" + this.pollInterval + ", idleTimeout=" + this.idleTimeout
+                + ", followRotation=" + this.followRotation + "]";
+    }
+
+}
@@ -0,0 +1,538 @@
+package io.pkts;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.frame.PcapGlobalHeader;
+import io.pkts.frame.PcapRecordHeader;
+import io.pkts.framer.Framer;
+import io.pkts.packet.PCapPacket;
+import io.pkts.packet.Packet;
+import io.pkts.packet.impl.PCapPacketImpl;
+import io.pkts.protocol.Protocol;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+/**
+ * A cursor over the raw bytes of one packet at a time, see
+ * {@link Pcap#scan(PacketCursorHandler)}. There is one cursor per scan and it
+ * is simply moved from one packet to the next, so no packets are framed and
+ * no objects are created for the layers of the packet. Instead the cursor
+ * reads the fields you ask for straight out of the record, which makes it a
+ * good fit for going through a large capture counting, filtering or keeping
+ * track of flows.
+ * 
+ * The layers are found, the first time you ask for anything beyond the pcap
+ * record itself, by looking at the data link type, the ether type and the IP
+ * protocol. Only IPv4 is understood (as is the case with the rest of pkts),
+ * along with UDP and TCP on top of it. The offsets of the layers are relative
+ * to the start of the link layer, i.e., the first byte of the packet data.
+ * 
+ * The cursor must not be used once the handler has returned. If you need to
+ * keep a packet, use {@link #materialize()}.
+ * 
+ * @author jonas@jonasborjesson.com
+ */
+public final class PacketCursor {
+
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    private static final int ETHER_TYPE_IPV4 = 0x0800;
+
+    private static final int ETHER_TYPE_VLAN = 0x8100;
+
+    private static final int IP_PROTOCOL_TCP = 0x06;
+
+    private static final int IP_PROTOCOL_UDP = 0x11;
+
+    private final ByteOrder byteOrder;
+
+    private final int dataLinkType;
+
+    private final Framer<PCapPacket> linkLayerFramer;
+
+    /**
+     * The buffer the record is in or, if {@link #packet} is set, the data of
+     * the packet.
+     */
+    private Buffer record;
+
+    /**
+     * Where in {@link #record} the record header starts, if there is one.
+     */
+    private int recordOffset;
+
+    private int dataOffset;
+
+    /**
+     * The buffer we have to move past the current record once we are done
+     * with it, if any, and the index to move it to.
+     */
+    private Buffer source;
+
+    private int end;
+
+    private PCapPacket packet;
+
+    private long arrivalTime;
+
+    private long capturedLength;
+
+    private long totalLength;
+
+    private int dataLength;
+
+    private boolean decoded;
+
+    private Protocol linkLayer;
+
+    private int networkOffset;
+
+    private int transportOffset;
+
+    private int payloadOffset;
+
+    private int ipProtocol;
+
+    PacketCursor(final PcapGlobalHeader header, final Framer<PCapPacket> linkLayerFramer) {
+        this.byteOrder = header.getByteOrder();
+        this.dataLinkType = header.getDataLinkType();
+        this.linkLayerFramer = linkLayerFramer;
+    }
+
+    /**
+     * Move the cursor to the next record of a classic pcap. Nothing is sliced
+     * out of the buffer, the cursor just remembers where in it the record
+     * starts and reads the fields from there. The reader index is left at the
+     * start of the record, since moving it past the record may have e.g. an
+     * {@link io.pkts.buffer.InputStreamBuffer} let go of the bytes, and is
+     * moved past it by {@link #skip()} or the next call to this method.
+     * 
+     * @param buffer
+     *            the buffer, positioned at the start of a record or at the
+     *            start of the record the cursor is currently at.
+     * @return false if there are no more records.
+     */
+    boolean next(final Buffer buffer) throws IOException {
+        skip();
+        try {
+            final int index = buffer.getReaderIndex();
+            final long captured = getUnsignedInt(buffer, index + 8);
+            final long total = getUnsignedInt(buffer, index + 12);
+            final int length = (int) Math.min(captured, total);
+            if (length > 0) {
+                // make sure the entire record is there
+                buffer.getByte(index + RECORD_HEADER_SIZE + length - 1);
+            }
+
+            this.record = buffer;
+            this.recordOffset = index;
+            this.dataOffset = index + RECORD_HEADER_SIZE;
+            this.packet = null;
+            this.arrivalTime = getUnsignedInt(buffer, index) * 1000000L + getUnsignedInt(buffer, index + 4);
+            this.capturedLength = captured;
+            this.totalLength = total;
+            this.dataLength = length;
+            this.decoded = false;
+            this.source = buffer;
+            this.end = index + RECORD_HEADER_SIZE + length;
+            return true;
+        } catch (final IndexOutOfBoundsException e) {
+            // end of the pcap, or a truncated record at the end of it
+            return false;
+        }
+    }
+
+    /**
+     * Move the buffer past the record the cursor is at, if it hasn't been
+     * already. After this, the cursor must not be used until it is moved to
+     * the next record, but anything {@link #materialize()} returned stays
+     * valid.
+     */
+    void skip() {
+        if (this.source != null) {
+            this.source.setReaderIndex(this.end);
+            this.source = null;
+        }
+    }
+
+    /**
+     * Move the cursor to an already framed packet, which is what we get out of
+     * a pcapng.
+     */
+    void reset(final PCapPacket packet) {
+        skip();
+        this.record = packet.getPayload();
+        this.recordOffset = -1;
+        this.dataOffset = 0;
+        this.packet = packet;
+        this.arrivalTime = packet.getArrivalTime();
+        this.capturedLength = packet.getCapturedLength();
+        this.totalLength = packet.getTotalLength();
+        this.dataLength = this.record == null ? 0 : this.record.capacity();
+        this.decoded = false;
+    }
+
+    /**
+     * Turn the packet the cursor is currently at into a {@link Packet} that
+     * you may keep around. This is where the record is sliced out of the
+     * underlying buffer, the data is not copied.
+     * 
+     * @return
+     * @throws IOException
+     */
+    public PCapPacket materialize() throws IOException {
+        if (this.packet != null) {
+            return this.packet;
+        }
+
+        final PcapRecordHeader header = new PcapRecordHeader(this.byteOrder, this.record.slice(this.recordOffset,
+                this.dataOffset));
+        return new PCapPacketImpl(this.linkLayerFramer, header, this.record.slice(this.dataOffset, this.dataOffset
+                + this.dataLength));
+    }
+
+    /**
+     * The arrival time in microseconds since the epoch.
+     * 
+     * @return
+     */
+    public long getArrivalTime() {
+        return this.arrivalTime;
+    }
+
+    public long getCapturedLength() {
+        return this.capturedLength;
+    }
+
+    public long getTotalLength() {
+        return this.totalLength;
+    }
+
+    /**
+     * The data link type of the capture.
+     * 
+     * @return
+     */
+    public int getDataLinkType() {
+        return this.dataLinkType;
+    }
+
+    /**
+     * The number of bytes of packet data we have, which is where all the
+     * offsets are pointing into.
+     * 
+     * @return
+     */
+    public int getDataLength() {
+        return this.dataLength;
+    }
+
+    /**
+     * Get a byte of the packet data.
+     * 
+     * @param offset
+     *            the offset from the start of the link layer.
+     * @return
+     * @throws IOException
+     * @throws IndexOutOfBoundsException
+     */
+    public byte getByte(final int offset) throws IOException, IndexOutOfBoundsException {
+        if (offset < 0 || offset >= this.dataLength) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " is outside of the packet data");
+        }
+        return this.record.getByte(this.dataOffset + offset);
+    }
+
+    /**
+     * Get two bytes, in network byte order, of the packet data.
+     */
+    public int getUnsignedShort(final int offset) throws IOException, IndexOutOfBoundsException {
+        return (getByte(offset) & 0xFF) << 8 | getByte(offset + 1) & 0xFF;
+    }
+
+    /**
+     * Get four bytes, in network byte order, of the packet data.
+     */
+    public int getInt(final int offset) throws IOException, IndexOutOfBoundsException {
+        return getUnsignedShort(offset) << 16 | getUnsignedShort(offset + 2);
+    }
+
+    /**
+     * The link layer, i.e., {@link Protocol#ETHERNET_II}, {@link Protocol#SLL},
+     * {@link Protocol#SLL2} or {@link Protocol#RAW}.
+     * 
+     * @return
+     * @throws IOException
+     */
+    public Protocol getLinkLayer() throws IOException {
+        decode();
+        return this.linkLayer;
+    }
+
+    /**
+     * The raw destination MAC address of an Ethernet frame, in the lower six
+     * bytes.
+     * 
+     * @return the MAC address or -1 (negative one) if this isn't an Ethernet
+     *         frame.
+     * @throws IOException
+     */
+    public long getRawDestinationMacAddress() throws IOException {
+        return getMacAddress(0);
+    }
+
+    /**
+     * The raw source MAC address of an Ethernet frame, in the lower six
+     * bytes.
+     * 
+     * @return the MAC address or -1 (negative one) if this isn't an Ethernet
+     *         frame.
+     * @throws IOException
+     */
+    public long getRawSourceMacAddress() throws IOException {
+        return getMacAddress(6);
+    }
+
+    private long getMacAddress(final int offset) throws IOException {
+        if (getLinkLayer() != Protocol.ETHERNET_II || this.dataLength < 14) {
+            return -1;
+        }
+        return (long) getUnsignedShort(offset) << 32 | getInt(offset + 2) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * 
+     * @return true if the packet is IPv4.
+     * @throws IOException
+     */
+    public boolean isIPv4() throws IOException {
+        decode();
+        return this.networkOffset != -1;
+    }
+
+    /**
+     * 
+     * @return the offset of the IP header or -1 (negative one) if this isn't
+     *         an IPv4 packet.
+     * @throws IOException
+     */
+    public int getNetworkOffset() throws IOException {
+        decode();
+        return this.networkOffset;
+    }
+
+    /**
+     * The raw source IP, see {@link io.pkts.packet.IPPacket#getRawSourceIp()}
+     * 
+     * @return
+     * @throws IOException
+     * @throws IllegalStateException
+     *             in case this isn't an IPv4 packet.
+     */
+    public int getRawSourceIp() throws IOException, IllegalStateException {
+        return getInt(ensureIPv4() + 12);
+    }
+
+    /**
+     * The raw destination IP, see
+     * {@link io.pkts.packet.IPPacket#getRawDestinationIp()}
+     * 
+     * @return
+     * @throws IOException
+     * @throws IllegalStateException
+     *             in case this isn't an IPv4 packet.
+     */
+    public int getRawDestinationIp() throws IOException, IllegalStateException {
+        return getInt(ensureIPv4() + 16);
+    }
+
+    /**
+     * The protocol field of the IP header, see
+     * {@link Protocol#valueOf(byte)}.
+     * 
+     * @return
+     * @throws IOException
+     * @throws IllegalStateException
+     *             in case this isn't an IPv4 packet.
+     */
+    public int getIpProtocol() throws IOException, IllegalStateException {
+        ensureIPv4();
+        return this.ipProtocol;
+    }
+
+    public boolean isUDP() throws IOException {
+        return isIPv4() && this.ipProtocol == IP_PROTOCOL_UDP && this.transportOffset != -1;
+    }
+
+    public boolean isTCP() throws IOException {
+        return isIPv4() && this.ipProtocol == IP_PROTOCOL_TCP && this.transportOffset != -1;
+    }
+
+    /**
+     * 
+     * @return the offset of the UDP or TCP header or -1 (negative one) if this
+     *         is neither.
+     * @throws IOException
+     */
+    public int getTransportOffset() throws IOException {
+        decode();
+        return this.transportOffset;
+    }
+
+    /**
+     * 
+     * @return
+     * @throws IOException
+     * @throws IllegalStateException
+     *             in case this is neither UDP nor TCP.
+     */
+    public int getSourcePort() throws IOException, IllegalStateException {
+        return getUnsignedShort(ensureTransport());
+    }
+
+    /**
+     * 
+     * @return
+     * @throws IOException
+     * @throws IllegalStateException
+     *             in case this is neither UDP nor TCP.
+     */
+    public int getDestinationPort() throws IOException, IllegalStateException {
+        return getUnsignedShort(ensureTransport() + 2);
+    }
+
+    /**
+     * The offset of the data carried by UDP or TCP, which is what you'd
+     * otherwise find in e.g. a SIP packet. The payload runs to the end of the
+     * packet data.
+     * 
+     * @return the offset or -1 (negative one) if this is neither UDP nor TCP.
+     * @throws IOException
+     */
+    public int getPayloadOffset() throws IOException {
+        decode();
+        return this.payloadOffset;
+    }
+
+    /**
+     * 
+     * @return the number of bytes of UDP or TCP payload we have, which may be
+     *         zero.
+     * @throws IOException
+     */
+    public int getPayloadLength() throws IOException {
+        decode();
+        return this.payloadOffset == -1 ? 0 : this.dataLength - this.payloadOffset;
+    }
+
+    private int ensureIPv4() throws IOException {
+        if (!isIPv4()) {
+            throw new IllegalStateException("Not an IPv4 packet");
+        }
+        return this.networkOffset;
+    }
+
+    private int ensureTransport() throws IOException {
+        decode();
+        if (this.transportOffset == -1) {
+            throw new IllegalStateException("Neither a UDP nor a TCP packet");
+        }
+        return this.transportOffset;
+    }
+
+    /**
+     * Find where the layers start, if they are there at all.
+     */
+    private void decode() throws IOException {
+        if (this.decoded) {
+            return;
+        }
+        this.decoded = true;
+        this.linkLayer = null;
+        this.networkOffset = -1;
+        this.transportOffset = -1;
+        this.payloadOffset = -1;
+        this.ipProtocol = -1;
+
+        try {
+            final int offset = decodeLinkLayer();
+            if (offset != -1) {
+                decodeNetworkLayer(offset);
+            }
+        } catch (final IndexOutOfBoundsException e) {
+            // truncated, we'll go with what we have found so far
+        }
+    }
+
+    /**
+     * 
+     * @return the offset of the IPv4 header or -1 if there is none.
+     */
+    private int decodeLinkLayer() throws IOException {
+        final Protocol link = this.linkLayerFramer != null ? this.linkLayerFramer.getProtocol() : guessLinkLayer();
+        this.linkLayer = link;
+        int etherType = -1;
+        int offset = -1;
+        if (link == Protocol.ETHERNET_II) {
+            offset = 14;
+            etherType = getUnsignedShort(12);
+            while (etherType == ETHER_TYPE_VLAN) {
+                etherType = getUnsignedShort(offset + 2);
+                offset += 4;
+            }
+        } else if (link == Protocol.SLL) {
+            offset = 16;
+            etherType = getUnsignedShort(14);
+        } else if (link == Protocol.SLL2) {
+            offset = 20;
+            etherType = getUnsignedShort(0);
+        } else if (link == Protocol.RAW) {
+            return (getByte(0) & 0xF0) == 0x40 ? 0 : -1;
+        }
+        return etherType == ETHER_TYPE_IPV4 ? offset : -1;
+    }
+
+    /**
+     * Same guess as {@link PCapPacketImpl} makes for an unknown data link
+     * type.
+     */
+    private Protocol guessLinkLayer() throws IOException {
+        if (this.dataLength >= 16 && getByte(0) == 0 && getByte(1) >= 0 && getByte(1) <= 4) {
+            final int etherType = getUnsignedShort(14);
+            if (etherType == ETHER_TYPE_IPV4 || etherType == 0x86DD) {
+                return Protocol.SLL;
+            }
+        }
+        return Protocol.ETHERNET_II;
+    }
+
+    private void decodeNetworkLayer(final int offset) throws IOException {
+        final int headerLength = (getByte(offset) & 0x0F) * 4;
+        this.ipProtocol = getByte(offset + 9) & 0xFF;
+        this.networkOffset = offset;
+        final int transport = offset + headerLength;
+
+        if (this.ipProtocol == IP_PROTOCOL_UDP && transport + 8 <= this.dataLength) {
+            this.transportOffset = transport;
+            this.payloadOffset = transport + 8;
+        } else if (this.ipProtocol == IP_PROTOCOL_TCP && transport + 20 <= this.dataLength) {
+            this.transportOffset = transport;
+            this.payloadOffset = Math.min(this.dataLength, transport + (getByte(transport + 12) >>> 4 & 0x0F) * 4);
+        }
+    }
+
+    private long getUnsignedInt(final Buffer buffer, final int index) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 4; ++i) {
+            final long b = buffer.getByte(index + i) & 0xFF;
+            value |= this.byteOrder == ByteOrder.BIG_ENDIAN ? b << 8 * (3 - i) : b << 8 * i;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "PacketCursor[arrivalTime=" + this.arrivalTime + ", capturedLength=" + this.capturedLength + "]";
+    }
+
+}
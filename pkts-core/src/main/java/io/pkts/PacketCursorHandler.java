@@ -0,0 +1,29 @@
+package io.pkts;
+
+import java.io.IOException;
+
+/**
+ * Same as the {@link PacketHandler} but instead of a fully framed packet you
+ * get a {@link PacketCursor} positioned over the raw bytes of the packet, see
+ * {@link Pcap#scan(PacketCursorHandler)}.
+ * 
+ * @author jonas@jonasborjesson.com
+ */
+public interface PacketCursorHandler {
+
+    /**
+     * Will be called by the {@link Pcap} class for every packet in the pcap.
+     * 
+     * The cursor is moved on to the next packet as soon as you return, so
+     * don't hold on to it. Use {@link PacketCursor#materialize()} if you need
+     * to keep the packet.
+     * 
+     * @param cursor
+     *            positioned over the new packet.
+     * @throws IOException
+     * @return true if this instance wants to handle subsequent packets, false
+     *         otherwise.
+     */
+    boolean nextPacket(PacketCursor cursor) throws IOException;
+
+}
@@ -1,23 +1,56 @@
 package io.pkts;
 
 import io.pkts.buffer.Buffer;
-import io.pkts.buffer.Buffers;
+import io.pkts.buffer.BufferPool;
+import io.pkts.buffer.InputStreamBuffer;
+import io.pkts.buffer.MappedFileBuffer;
 import io.pkts.filters.Filter;
 import io.pkts.filters.FilterException;
 import io.pkts.filters.FilterFactory;
 import io.pkts.filters.FilterParseException;
+import io.pkts.filters.Prefilter;
 import io.pkts.frame.PcapGlobalHeader;
+import io.pkts.framer.Framer;
 import io.pkts.framer.FramerManager;
 import io.pkts.framer.PcapFramer;
+import io.pkts.framer.PcapngFramer;
+import io.pkts.packet.PCapPacket;
 import io.pkts.packet.Packet;
+import io.pkts.packet.impl.AbstractPacket;
+import io.pkts.protocol.Protocol;
+import io.pkts.protocol.Protocol.Layer;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.nio.ByteOrder;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
 
 /**
  * 
@@ -26,10 +59,43 @@ import java.nio.ByteOrder;
  */
 public class Pcap {
 
+    /**
+     * The first two bytes of any gzip stream.
+     */
+    private static final int GZIP_MAGIC_1 = 0x1F;
+    private static final int GZIP_MAGIC_2 = 0x8B;
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
     private final PcapGlobalHeader header;
     private final Buffer buffer;
     private final FramerManager framerManager;
 
+    /**
+     * Whatever we are reading from (the input stream, the file channel etc), if
+     * anything. Closed when this {@link Pcap} is closed.
+     */
+    private final Closeable source;
+
+    /**
+     * Only set if this is a pcapng file.
+     */
+    private final PcapngFramer pcapngFramer;
+
+    /**
+     * The file we have mapped, if we have. Used to find the {@link PcapIndex}
+     * of the file.
+     */
+    private final Path file;
+
+    private PcapIndex index;
+
+    /**
+     * The packet {@link #seek(long)} stopped at, which is the first one to
+     * hand out on the next loop.
+     */
+    private PCapPacket pending;
+
     /**
      * If the filter is set then only frames that are accepted by the filter
      * will be further processed.
@@ -38,14 +104,65 @@ public class Pcap {
 
     private final FilterFactory filterFactory = FilterFactory.getInstance();
 
+    /**
+     * If the prefilter is set then the records it rejects are skipped without
+     * ever being framed.
+     */
+    private Prefilter prefilter = null;
+
+    /**
+     * The cursor the prefilter looks at the records through.
+     */
+    private PacketCursor prefilterCursor;
+
     private Pcap(final PcapGlobalHeader header, final Buffer buffer) {
+        this(header, buffer, null);
+    }
+
+    private Pcap(final PcapGlobalHeader header, final Buffer buffer, final Closeable source) {
+        this(header, buffer, source, null, null);
+    }
+
+    private Pcap(final PcapGlobalHeader header, final Buffer buffer, final Closeable source,
+            final PcapngFramer pcapngFramer, final Path file) {
         assert header != null;
         assert buffer != null;
         this.header = header;
         this.buffer = buffer;
+        this.source = source;
+        this.pcapngFramer = pcapngFramer;
+        this.file = file;
         this.framerManager = FramerManager.getInstance();
     }
 
+    /**
+     * Figure out whether this is a regular pcap or a pcapng and read the file
+     * header accordingly. For a pcapng we make up a {@link PcapGlobalHeader}
+     * based on the first interface in the file, which is what you will get
+     * when you {@link #createOutputStream(OutputStream)}.
+     */
+    private static Pcap open(final Buffer buffer, final Closeable source, final Path file) throws IOException {
+        if (PcapngFramer.isPcapng(buffer)) {
+            final PcapngFramer framer = new PcapngFramer();
+            final int dataLinkType = framer.readFileHeader(buffer);
+            final PcapGlobalHeader header = dataLinkType == -1 ? PcapGlobalHeader.createDefaultHeader()
+                    : PcapGlobalHeader.createDefaultHeader(dataLinkType);
+            return new Pcap(header, buffer, source, framer, null);
+        }
+
+        return new Pcap(PcapGlobalHeader.parse(buffer), buffer, source, null, file);
+    }
+
+    /**
+     * The global header of this pcap. For a pcapng, this is a header made up
+     * from the first interface in the file.
+     * 
+     * @return
+     */
+    public PcapGlobalHeader getPcapHeader() {
+        return this.header;
+    }
+
     /**
      * It is possible to specify a filter so that only packets that matches the
      * filter will be passed onto the registered {@link PacketHandler}.
@@ -55,6 +172,9 @@ public class Pcap {
      * 
      * "sip.Call-ID == 123"
      * 
+     * Terms can be combined, e.g. "udp.port == 5060 and sip.method == INVITE",
+     * see {@link FilterFactory#createFilter(String)} for what you can express.
+     * 
      * @param expression
      *            the expression. If the expression is null or the empty string,
      *            it will silently be ignored.
@@ -67,14 +187,404 @@ public class Pcap {
         }
     }
 
+    /**
+     * Set a prefilter, which looks at the raw bytes of every record before it
+     * is framed, so the records it rejects cost us no more than reading their
+     * lengths and skipping past them. E.g., to only get the SIP traffic and
+     * anything to or from a particular host:
+     * 
+     * "udp port 5060 or host 10.1.2.3"
+     * 
+     * See {@link FilterFactory#createPrefilter(String)} for what you can
+     * express. The prefilter is applied by all loops, the iterator, the
+     * stream and {@link #scan(PacketCursorHandler)}. The filter, if any, is
+     * then applied to the packets that made it through.
+     * 
+     * Note that the packets accepted by the prefilter are views of the
+     * underlying buffer, even when you loop with a {@link BufferPool}.
+     * 
+     * @param expression
+     *            the expression. If the expression is null or the empty string,
+     *            it will silently be ignored.
+     * @throws FilterParseException
+     *             in case the expression is not a valid prefilter expression.
+     */
+    public void setPrefilter(final String expression) throws FilterParseException {
+        if (expression != null && !expression.isEmpty()) {
+            setPrefilter(this.filterFactory.createPrefilter(expression));
+        }
+    }
+
+    /**
+     * Same as {@link #setPrefilter(String)} but with a prefilter of your own.
+     * 
+     * @param prefilter
+     *            the prefilter or null to remove it.
+     */
+    public void setPrefilter(final Prefilter prefilter) {
+        this.prefilter = prefilter;
+    }
+
+    /**
+     * Frame every packet in the pcap (or pcapng) and hand it over to the
+     * callback, until we run out of packets or the callback tells us to stop.
+     * 
+     * @param callback
+     * @throws IOException
+     */
     public void loop(final PacketHandler callback) throws IOException {
-        final ByteOrder byteOrder = this.header.getByteOrder();
+        loop(callback, createFramer(), false, null);
+    }
+
+    /**
+     * Same as {@link #loop(PacketHandler)} but the packets are never framed
+     * beyond the given layer. E.g., if all you need are the addresses and
+     * ports, loop with {@link Layer#LAYER_4} and asking a packet for anything
+     * above UDP or TCP (through {@link Packet#getPacket(Protocol)} or
+     * {@link Packet#hasProtocol(Protocol)}) gives you null (or false) straight
+     * away rather than trying to figure out whether it is SIP or RTP. The
+     * same goes for the filter, if any.
+     * 
+     * @param callback
+     * @param decodeDepth
+     *            the highest layer that will be framed.
+     * @throws IOException
+     */
+    public void loop(final PacketHandler callback, final Layer decodeDepth) throws IOException {
+        loop(callback, createFramer(), false, decodeDepth);
+    }
+
+    /**
+     * Same as {@link #loop(PacketHandler)} but the packets are handed to the
+     * callback in batches of (up to) the given size. The filter, if any, is
+     * applied while filling up the batch so only the accepted packets make it
+     * into it.
+     * 
+     * @param callback
+     * @param batchSize
+     *            the max number of packets in a batch.
+     * @throws IOException
+     */
+    public void loop(final BatchPacketHandler callback, final int batchSize) throws IOException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be greater than zero");
+        }
+
+        final Framer<PCapPacket> framer = createFramer();
+        final Packet[] batch = new Packet[batchSize];
+        boolean processNext = true;
+        while (processNext) {
+            int count = 0;
+            PCapPacket packet = null;
+            while (count < batchSize && (packet = nextPacket(framer)) != null) {
+                try {
+                    if (this.filter == null || this.filter.accept(packet)) {
+                        batch[count++] = packet;
+                    }
+                } catch (final FilterException e) {
+                    System.err.println("WARN: the filter complained about the last frame. Msg (if any) - " +
+                            e.getMessage());
+                }
+            }
+
+            if (count == 0) {
+                return;
+            }
+
+            this.framerManager.tick(batch[count - 1].getArrivalTime());
+            processNext = callback.nextPackets(batch, count) && packet != null;
+
+            // don't keep the packets alive just because of us
+            Arrays.fill(batch, 0, count, null);
+        }
+    }
+
+    /**
+     * Loop over the packets that arrived within the given time window, i.e.,
+     * from <code>from</code> (inclusive) until <code>to</code> (exclusive).
+     * See {@link #seek(long)} for how we get to the first one. The loop stops
+     * at the first packet at or after <code>to</code>, so the packets are
+     * expected to be in time order.
+     * 
+     * @param from
+     *            the start of the window, in microseconds since the epoch.
+     * @param to
+     *            the end of the window, in microseconds since the epoch.
+     * @param callback
+     * @throws IOException
+     */
+    public void loop(final long from, final long to, final PacketHandler callback) throws IOException {
+        seek(from);
+        loop(packet -> packet.getArrivalTime() < to && callback.nextPacket(packet));
+    }
+
+    /**
+     * Move to the first packet that arrived at, or after, the given time. The
+     * next loop will start with that packet.
+     * 
+     * If this is a regular pcap opened through {@link #openMapped(Path)}, we
+     * jump straight to the right part of the file using its
+     * {@link PcapIndex}, which is loaded from its sidecar file or, the first
+     * time around, built and saved as one. You can seek backwards as well as
+     * forwards. In all other cases, the packets are read (but not processed)
+     * until we get to the right one, so you can only seek forward.
+     * 
+     * @param timestampMicros
+     *            the time in microseconds since the epoch.
+     * @throws IOException
+     */
+    public void seek(final long timestampMicros) throws IOException {
+        if (this.pending != null && this.pending.getArrivalTime() >= timestampMicros && this.file == null) {
+            // we are already there
+            return;
+        }
+        this.pending = null;
+
+        if (this.file != null) {
+            if (this.index == null) {
+                this.index = PcapIndex.forFile(this.file);
+            }
+            final long offset = this.index.findOffset(timestampMicros);
+            if (offset != -1) {
+                ((MappedFileBuffer) this.buffer).setPosition(offset);
+            }
+        }
+
+        final Framer<PCapPacket> framer = createFramer();
+        long offset = getPosition();
+        PCapPacket packet = null;
+        while ((packet = framer.frame(null, this.buffer)) != null) {
+            if (packet.getArrivalTime() >= timestampMicros) {
+                if (this.file != null) {
+                    // just step back, which keeps the position of the file
+                    // accurate for anyone else looking at it.
+                    ((MappedFileBuffer) this.buffer).setPosition(offset);
+                } else {
+                    this.pending = packet;
+                }
+                return;
+            }
+            offset = getPosition();
+        }
+    }
+
+    /**
+     * The position in the file, if this is a file we can move around in.
+     */
+    private long getPosition() {
+        return this.file != null ? ((MappedFileBuffer) this.buffer).getPosition() : -1;
+    }
+
+    /**
+     * Pull the packets, one by one, instead of having them pushed to you
+     * through {@link #loop(PacketHandler)}. The packets are framed as you ask
+     * for them (and the filter, if any, is applied) so just stop asking when
+     * you have seen enough.
+     * 
+     * The iterator reads from the same place as {@link #loop(PacketHandler)}
+     * does, so it starts where the last loop (or {@link #seek(long)}) left
+     * off and moves the {@link Pcap} along as it goes. If we fail to read off
+     * of the underlying source, an {@link UncheckedIOException} is thrown.
+     * 
+     * @return
+     */
+    public Iterator<Packet> iterator() {
+        return new PacketIterator(createFramer());
+    }
+
+    /**
+     * A lazy stream of the packets, starting at the current position.
+     * 
+     * For a regular pcap opened through {@link #openMapped(Path)} the stream
+     * reads through views of the file of its own and doesn't move this
+     * {@link Pcap} along. It can be split on record boundaries so a
+     * <code>pcap.stream().parallel()</code> will frame and process different
+     * parts of the file on different threads. Anything else is streamed off
+     * of {@link #iterator()}, which can only be split by the stream framework
+     * copying batches of packets into arrays.
+     * 
+     * @return
+     * @throws IOException
+     */
+    public Stream<Packet> stream() throws IOException {
+        if (this.file == null) {
+            final Spliterator<Packet> spliterator = Spliterators.spliteratorUnknownSize(iterator(),
+                    Spliterator.ORDERED | Spliterator.NONNULL);
+            return StreamSupport.stream(spliterator, false);
+        }
+
+        final FileChannel channel = (FileChannel) this.source;
+        return StreamSupport.stream(new PcapSpliterator(channel, this.header, this.framerManager, this.filter,
+                this.prefilter, getPosition(), channel.size()), false);
+    }
+
+    /**
+     * Go through the pcap using several threads. The file is split into one
+     * chunk per thread and each chunk is framed, and handed to a
+     * {@link PacketHandler} of its own, on a {@link ForkJoinPool}. Since a
+     * pcap has no markers telling where a record starts, each chunk starts at
+     * the first place that looks like a run of valid record headers.
+     * 
+     * The packets within a chunk are handed to its handler in order but the
+     * chunks are processed at the same time, so this is meant for analyses
+     * that do not depend on seeing every packet (e.g. all the packets of a
+     * call) in one place. The handlers are returned in the order of the
+     * chunks, which is the order of the file, so you can combine whatever they
+     * came up with in time order. If any handler returns false, all threads
+     * stop.
+     * 
+     * This always goes through the entire file, no matter if you have
+     * {@link #seek(long)}. Only a regular pcap opened through
+     * {@link #openMapped(Path)} can be split. Anything else is processed on
+     * the calling thread, by a single handler, just like
+     * {@link #loop(PacketHandler)}.
+     * 
+     * @param threads
+     *            the number of threads (and chunks).
+     * @param handlers
+     *            creates the handler of each chunk.
+     * @return the handlers, one per chunk, in the order of the file.
+     * @throws IOException
+     */
+    public <T extends PacketHandler> List<T> parallelLoop(final int threads, final Supplier<T> handlers)
+            throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads must be greater than zero");
+        }
+
+        if (this.file == null || threads == 1) {
+            final T handler = handlers.get();
+            loop(handler);
+            return Collections.singletonList(handler);
+        }
+
+        final FileChannel channel = (FileChannel) this.source;
+        final long[] offsets = new PcapChunker(channel, this.header).split(threads);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            final List<ForkJoinTask<T>> tasks = new ArrayList<ForkJoinTask<T>>(threads);
+            for (int i = 0; i < threads; ++i) {
+                final long from = offsets[i];
+                final long to = offsets[i + 1];
+                final T handler = handlers.get();
+                tasks.add(pool.submit(() -> {
+                    loopChunk(channel, from, to, handler, stop);
+                    return handler;
+                }));
+            }
+
+            final List<T> result = new ArrayList<T>(threads);
+            for (final ForkJoinTask<T> task : tasks) {
+                result.add(task.get());
+            }
+            return result;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the chunks to be processed");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            stop.set(true);
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Frame the records starting within [from, to) of the file.
+     */
+    private void loopChunk(final FileChannel channel, final long from, final long to, final PacketHandler callback,
+            final AtomicBoolean stop) throws IOException {
+        if (from >= to) {
+            return;
+        }
+
+        final MappedFileBuffer chunk = new MappedFileBuffer(channel);
+        chunk.setPosition(from);
         final PcapFramer framer = new PcapFramer(this.header, this.framerManager);
-        int count = 1;
+        final PacketCursor cursor = createCursor();
+        PCapPacket packet = null;
+        while (!stop.get() && chunk.getPosition() < to) {
+            if (this.prefilter == null) {
+                packet = framer.frame(null, chunk);
+            } else if (cursor.next(chunk)) {
+                packet = accept(this.prefilter, cursor) ? cursor.materialize() : null;
+                cursor.skip();
+                if (packet == null) {
+                    continue;
+                }
+            } else {
+                packet = null;
+            }
+
+            if (packet == null) {
+                return;
+            }
+
+            try {
+                this.framerManager.tick(packet.getArrivalTime());
+                if ((this.filter == null || this.filter.accept(packet)) && !callback.nextPacket(packet)) {
+                    stop.set(true);
+                }
+            } catch (final FilterException e) {
+                System.err.println("WARN: the filter complained about the last frame. Msg (if any) - " +
+                        e.getMessage());
+            }
+        }
+    }
+
+    private Framer<PCapPacket> createFramer() {
+        return this.pcapngFramer != null ? this.pcapngFramer : new PcapFramer(this.header, this.framerManager);
+    }
+
+    /**
+     * Same as {@link #loop(PacketHandler)} but every frame is copied into a
+     * buffer allocated from the given {@link BufferPool}, which is released
+     * (and as such handed back to the pool) as soon as your
+     * {@link PacketHandler} returns. The record is copied straight out of
+     * what we have read off of the stream, so the rows we read into are
+     * reused as well, and the headers of e.g. the IP and UDP packets are views
+     * into the pooled buffer. Going through a large capture will therefore
+     * keep reusing the same handful of byte-arrays rather than leaving every
+     * single frame behind for the garbage collector.
+     * 
+     * The price for this is that you cannot hold on to the packet once you
+     * have returned from {@link PacketHandler#nextPacket(Packet)}. If you need
+     * to, call <code>packet.getPayload().retain()</code> and then release it
+     * once you are done with it.
+     * 
+     * The packets of a pcapng file are not copied into the pool, you will get
+     * the same views as {@link #loop(PacketHandler)} would give you.
+     * 
+     * @param callback
+     * @param pool
+     * @throws IOException
+     */
+    public void loop(final PacketHandler callback, final BufferPool pool) throws IOException {
+        assert pool != null;
+        if (this.pcapngFramer != null) {
+            loop(callback, this.pcapngFramer, false, null);
+            return;
+        }
+        loop(callback, new PcapFramer(this.header, this.framerManager, pool), true, null);
+    }
+
+    private void loop(final PacketHandler callback, final Framer<PCapPacket> framer, final boolean release,
+            final Layer decodeDepth) throws IOException {
 
         Packet packet = null;
         boolean processNext = true;
-        while ((packet = framer.frame(null, this.buffer)) != null && processNext) {
+        while (processNext && (packet = nextPacket(framer)) != null) {
+            if (decodeDepth != null && packet instanceof AbstractPacket) {
+                ((AbstractPacket) packet).setDecodeDepth(decodeDepth);
+            }
             try {
                 // System.out.println(" - " + (count++));
                 final long time = packet.getArrivalTime();
@@ -89,6 +599,165 @@ public class Pcap {
                 // exceptions
                 System.err.println("WARN: the filter complained about the last frame. Msg (if any) - " +
                         e.getMessage());
+            } finally {
+                final Buffer payload = release ? packet.getPayload() : null;
+                if (payload != null) {
+                    payload.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Go through the pcap without framing any packets, instead the handler is
+     * given a {@link PacketCursor} that is moved from one record to the next,
+     * reading whatever it is asked for straight out of the raw bytes. This is
+     * a lot cheaper than {@link #loop(PacketHandler)} when all you need is
+     * e.g. the addresses and ports of every packet. Nothing is created per
+     * packet, the fields are read straight out of the underlying buffer
+     * (for a pcapng the packets are framed as usual).
+     * 
+     * Note that any filter (see {@link #setFilter(String)}) is ignored since
+     * it works on framed packets. The prefilter, if any, is applied.
+     * 
+     * @param handler
+     * @throws IOException
+     */
+    public void scan(final PacketCursorHandler handler) throws IOException {
+        final PacketCursor cursor = createCursor();
+        try {
+            while (nextRecord(cursor)) {
+                if (this.prefilter != null && !accept(this.prefilter, cursor)) {
+                    continue;
+                }
+                this.framerManager.tick(cursor.getArrivalTime());
+                if (!handler.nextPacket(cursor)) {
+                    return;
+                }
+            }
+        } finally {
+            cursor.skip();
+        }
+    }
+
+    /**
+     * Move the cursor to the next record.
+     * 
+     * @return false if there are no more records.
+     */
+    private boolean nextRecord(final PacketCursor cursor) throws IOException {
+        if (this.pending != null) {
+            cursor.reset(this.pending);
+            this.pending = null;
+            return true;
+        }
+
+        if (this.pcapngFramer != null) {
+            final PCapPacket packet = this.pcapngFramer.frame(null, this.buffer);
+            if (packet == null) {
+                return false;
+            }
+            cursor.reset(packet);
+            return true;
+        }
+
+        return cursor.next(this.buffer);
+    }
+
+    private PacketCursor createCursor() {
+        return new PacketCursor(this.header, this.framerManager.getLinkLayerFramer(this.header.getDataLinkType()));
+    }
+
+    /**
+     * A record that is too short for the prefilter to look at is simply
+     * rejected.
+     */
+    static boolean accept(final Prefilter prefilter, final PacketCursor cursor) throws IOException {
+        try {
+            return prefilter.accept(cursor);
+        } catch (final IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    private PCapPacket nextPacket(final Framer<PCapPacket> framer) throws IOException {
+        if (this.prefilter != null) {
+            if (this.prefilterCursor == null) {
+                this.prefilterCursor = createCursor();
+            }
+            while (nextRecord(this.prefilterCursor)) {
+                if (accept(this.prefilter, this.prefilterCursor)) {
+                    final PCapPacket packet = this.prefilterCursor.materialize();
+                    this.prefilterCursor.skip();
+                    return packet;
+                }
+            }
+            return null;
+        }
+
+        if (this.pending != null) {
+            final PCapPacket packet = this.pending;
+            this.pending = null;
+            return packet;
+        }
+        return framer.frame(null, this.buffer);
+    }
+
+    private final class PacketIterator implements Iterator<Packet> {
+
+        private final Framer<PCapPacket> framer;
+
+        private PCapPacket next;
+
+        private boolean done;
+
+        private PacketIterator(final Framer<PCapPacket> framer) {
+            this.framer = framer;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.next != null) {
+                return true;
+            }
+            if (this.done) {
+                return false;
+            }
+
+            try {
+                PCapPacket packet = null;
+                while ((packet = nextPacket(this.framer)) != null) {
+                    if (accept(packet)) {
+                        Pcap.this.framerManager.tick(packet.getArrivalTime());
+                        this.next = packet;
+                        return true;
+                    }
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            this.done = true;
+            return false;
+        }
+
+        @Override
+        public Packet next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Packet packet = this.next;
+            this.next = null;
+            return packet;
+        }
+
+        private boolean accept(final Packet packet) {
+            try {
+                return Pcap.this.filter == null || Pcap.this.filter.accept(packet);
+            } catch (final FilterException e) {
+                System.err.println("WARN: the filter complained about the last frame. Msg (if any) - " +
+                        e.getMessage());
+                return false;
             }
         }
     }
@@ -110,16 +779,92 @@ public class Pcap {
     }
 
     /**
-     * Capture packets from the input stream
+     * Create a {@link PcapWriter} based on this {@link Pcap}, i.e. using the
+     * same {@link PcapGlobalHeader}. Same as
+     * {@link #createOutputStream(OutputStream)} but a lot faster when writing
+     * many packets, and it can split the output into several files.
+     * 
+     * @param path
+     * @param options
+     * @return
+     * @throws IOException
+     *             in case we are unable to create the file.
+     */
+    public PcapWriter createWriter(final Path path, final PcapWriterOptions options) throws IOException {
+        return PcapWriter.create(path, this.header, options);
+    }
+
+    /**
+     * Capture packets from the input stream. The stream is read through a
+     * bounded {@link InputStreamBuffer} so the memory needed does not depend
+     * on the size of the capture and each frame is a view into what we read
+     * off of the stream rather than a copy of it.
+     * 
+     * If the stream is gzip compressed (such as a .pcap.gz file) it is
+     * decompressed on the fly, on the thread going through the packets. Use
+     * {@link #openStream(InputStream, ReadAheadOptions)} to have that done on
+     * a separate thread instead.
+     * 
+     * Nothing is started on the side so there is nothing to stop, but the
+     * stream is only closed when you close the {@link Pcap} (see
+     * {@link #close()}), so do so once you are done with it.
      * 
      * @param is
      * @return
      * @throws IOException
      */
     public static Pcap openStream(final InputStream is) throws IOException {
-        final Buffer stream = Buffers.wrap(is);
-        final PcapGlobalHeader header = PcapGlobalHeader.parse(stream);
-        return new Pcap(header, stream);
+        final InputStream in = decompress(is);
+        return open(new InputStreamBuffer(in, true), in, null);
+    }
+
+    /**
+     * Same as {@link #openStream(InputStream)} but the stream is read, and
+     * decompressed if it is gzip compressed, on a separate thread while you
+     * are busy processing the packets.
+     * 
+     * The reading thread, and the blocks it reads into, are only let go of
+     * once the {@link Pcap} is closed (or, if you forget to, once it has been
+     * garbage collected) so make sure to close it.
+     * 
+     * @param is
+     * @param options
+     *            the size and number of blocks to read ahead.
+     * @return
+     * @throws IOException
+     */
+    public static Pcap openStream(final InputStream is, final ReadAheadOptions options) throws IOException {
+        final InputStream in = new ReadAheadInputStream(Channels.newChannel(decompress(is)), options.getBlockSize(),
+                options.getNumberOfBlocks());
+        try {
+            return open(new InputStreamBuffer(in, true), in, null);
+        } catch (final IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decompress the stream on the fly if it is gzip compressed.
+     */
+    private static InputStream decompress(final InputStream is) throws IOException {
+        final PushbackInputStream pushback = new PushbackInputStream(is, 2);
+        return isGzip(pushback) ? new GZIPInputStream(pushback, GZIP_BUFFER_SIZE) : pushback;
+    }
+
+    /**
+     * Check whether the stream starts with the gzip magic bytes, without
+     * consuming them.
+     */
+    private static boolean isGzip(final PushbackInputStream is) throws IOException {
+        final byte[] magic = new byte[2];
+        int read = 0;
+        int count = 0;
+        while (count < magic.length && (read = is.read(magic, count, magic.length - count)) != -1) {
+            count += read;
+        }
+        is.unread(magic, 0, count);
+        return count == magic.length && (magic[0] & 0xFF) == GZIP_MAGIC_1 && (magic[1] & 0xFF) == GZIP_MAGIC_2;
     }
 
     /**
@@ -136,6 +881,48 @@ public class Pcap {
         return openStream(is);
     }
 
+    /**
+     * Same as {@link #openStream(File)} but the file is read on a separate
+     * thread, in large blocks, while you are busy processing the packets. A
+     * capture that isn't already in the page cache will then be read off of
+     * the disk at the same time as it is being parsed, rather than the two
+     * taking turns. A gzip compressed file is decompressed on that thread as
+     * well.
+     * 
+     * The reading thread is stopped when the {@link Pcap} is closed so make
+     * sure to close it.
+     * 
+     * @param file
+     *            the pcap file
+     * @param options
+     *            the size and number of blocks to read ahead.
+     * @return a new {@link Pcap}
+     * @throws IOException
+     *             in case the file doesn't exist or cannot be read.
+     */
+    public static Pcap openStream(final File file, final ReadAheadOptions options) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        final boolean gzip;
+        try {
+            gzip = isGzip(channel);
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (gzip) {
+            channel.close();
+            return openStream(new FileInputStream(file), options);
+        }
+
+        final InputStream is = new ReadAheadInputStream(channel, options.getBlockSize(), options.getNumberOfBlocks());
+        try {
+            return openStream(is);
+        } catch (final IOException | RuntimeException e) {
+            is.close();
+            throw e;
+        }
+    }
+
     /**
      * 
      * @param file
@@ -147,8 +934,96 @@ public class Pcap {
         return openStream(new File(file));
     }
 
+    /**
+     * Follow a pcap that is still being written to, e.g. by tcpdump, much like
+     * <code>tail -f</code> does. Instead of ending once we reach the end of
+     * the file, {@link #loop(PacketHandler)} (or any of the other ways of
+     * going through the packets) waits for the file to grow and hands over the
+     * new packets as soon as they have been written. A record that has only
+     * been partially written when we get to it is simply waited for.
+     * 
+     * The loop ends when the handler asks it to, when the file hasn't grown
+     * for the idle timeout of the options, or when the {@link Pcap} is closed,
+     * which may be done from another thread. If the file is rotated (replaced
+     * by a new file with the same name, or truncated) we move on to the new
+     * file, as long as it has the same global header as the first one.
+     * 
+     * @param file
+     *            the pcap file
+     * @param options
+     *            how often to check the file and for how long.
+     * @return a new {@link Pcap}
+     * @throws IOException
+     *             in case the file doesn't exist or cannot be read, or if it
+     *             isn't a pcap.
+     */
+    public static Pcap openFollow(final Path file, final FollowOptions options) throws IOException {
+        final InputStream is = new FollowInputStream(file, options);
+        try {
+            return open(new InputStreamBuffer(is, true), is, null);
+        } catch (final IOException | RuntimeException e) {
+            is.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open the pcap by memory mapping it instead of reading it through an
+     * {@link InputStream}. The file is mapped in large read-only windows (see
+     * {@link MappedFileBuffer}) and every frame handed to you is a view
+     * straight into that mapping, so there is no copying of the data off of
+     * the disk and into the heap. This is by far the fastest way of going
+     * through a large capture on disk.
+     * 
+     * Note that the file must not be truncated while it is mapped. Also, a
+     * gzip compressed file cannot be mapped so it is simply opened through
+     * {@link #openStream(File)} instead.
+     * 
+     * @param file
+     *            the pcap file
+     * @return a new {@link Pcap}
+     * @throws IOException
+     *             in case the file doesn't exist or cannot be mapped.
+     */
+    public static Pcap openMapped(final Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (isGzip(channel)) {
+                // nothing to gain from mapping a compressed file
+                channel.close();
+                return openStream(file.toFile());
+            }
+
+            return open(new MappedFileBuffer(channel), channel, file);
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static boolean isGzip(final FileChannel channel) throws IOException {
+        final ByteBuffer magic = ByteBuffer.allocate(2);
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) != -1) {
+            // keep reading
+        }
+        return !magic.hasRemaining() && (magic.get(0) & 0xFF) == GZIP_MAGIC_1 && (magic.get(1) & 0xFF) == GZIP_MAGIC_2;
+    }
+
+    /**
+     * Close the underlying source (if any). Any frame that is a view into a
+     * memory mapped file should not be used after the {@link Pcap} has been
+     * closed.
+     */
     public void close() {
-        // TODO
+        if (this.source == null) {
+            return;
+        }
+
+        try {
+            this.source.close();
+        } catch (final IOException e) {
+            // nothing we can do about it at this point
+        }
     }
 
 }
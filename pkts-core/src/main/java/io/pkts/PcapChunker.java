@@ -0,0 +1,151 @@
+package io.pkts;
+
+import io.pkts.buffer.MappedFileBuffer;
+import io.pkts.frame.PcapGlobalHeader;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Splits a pcap file into chunks that can be framed independently of each
+ * other, see {@link Pcap#parallelLoop(int, java.util.function.Supplier)}.
+ *
+ * The file is first cut into equally sized byte ranges and then the start of
+ * each range is moved forward to the first record boundary. Since there is
+ * nothing in a pcap marking where a record starts, we look for a record
+ * header that makes sense (a valid fraction of a second and a captured length
+ * within the snap length) and that is followed by a few more record headers
+ * that make sense, each one where the previous one says it should be.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+final class PcapChunker {
+
+    private static final int GLOBAL_HEADER_SIZE = 24;
+
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    /**
+     * The number of records in a row that have to look right before we trust
+     * that we have found a record boundary.
+     */
+    private static final int CHAIN_LENGTH = 4;
+
+    /**
+     * The max original length of a packet, which is the max snap length of
+     * libpcap.
+     */
+    private static final long MAX_PACKET_SIZE = 256 * 1024;
+
+    /**
+     * The max number of seconds between two records in a row.
+     */
+    private static final long MAX_TIME_GAP = 24 * 3600;
+
+    /**
+     * If we haven't found a record boundary after this many bytes, we give up
+     * on the chunk and leave the whole range to the chunk before it.
+     */
+    private static final long MAX_SCAN = Integer.MAX_VALUE / 2;
+
+    private final ByteOrder byteOrder;
+
+    private final long snapLength;
+
+    private final long size;
+
+    private final MappedFileBuffer buffer;
+
+    /**
+     * The file offset of index zero of the buffer.
+     */
+    private long origin;
+
+    PcapChunker(final FileChannel channel, final PcapGlobalHeader header) throws IOException {
+        this.byteOrder = header.getByteOrder();
+        this.snapLength = header.getSnapLength();
+        this.size = channel.size();
+        this.buffer = new MappedFileBuffer(channel);
+    }
+
+    /**
+     * Split the file into (at most) the given number of chunks.
+     *
+     * @return the file offset of the first record of every chunk followed by
+     *         the size of the file. Chunks may be empty, i.e., the offset of
+     *         one chunk may be the same as the offset of the next.
+     */
+    long[] split(final int chunks) throws IOException {
+        final long[] offsets = new long[chunks + 1];
+        offsets[0] = Math.min(GLOBAL_HEADER_SIZE, this.size);
+        offsets[chunks] = this.size;
+
+        final long range = (this.size - offsets[0]) / chunks;
+        for (int i = 1; i < chunks; ++i) {
+            final long start = Math.max(offsets[0] + i * range, offsets[i - 1]);
+            offsets[i] = findRecord(start);
+        }
+        return offsets;
+    }
+
+    /**
+     * Find the first record boundary at or after the given offset.
+     *
+     * @return the offset of the record or the size of the file if there is
+     *         none.
+     */
+    long findRecord(final long start) throws IOException {
+        this.origin = start;
+        this.buffer.setPosition(start);
+        final long end = Math.min(this.size, start + MAX_SCAN);
+        for (long offset = start; offset + RECORD_HEADER_SIZE <= end; ++offset) {
+            if (isRecord(offset)) {
+                return offset;
+            }
+        }
+        return this.size;
+    }
+
+    private boolean isRecord(final long start) {
+        long offset = start;
+        long previous = -1;
+        for (int i = 0; i < CHAIN_LENGTH; ++i) {
+            if (offset == this.size) {
+                // the last record of the file
+                return true;
+            }
+            if (offset + RECORD_HEADER_SIZE > this.size || offset - this.origin > Integer.MAX_VALUE - 16) {
+                return false;
+            }
+
+            final int index = (int) (offset - this.origin);
+            final long seconds = getUnsignedInt(index);
+            final long micros = getUnsignedInt(index + 4);
+            final long captured = getUnsignedInt(index + 8);
+            final long original = getUnsignedInt(index + 12);
+            if (micros >= 1000000 || captured > original || original > MAX_PACKET_SIZE) {
+                return false;
+            }
+            if (this.snapLength > 0 && captured > this.snapLength) {
+                return false;
+            }
+            if (previous != -1 && Math.abs(seconds - previous) > MAX_TIME_GAP) {
+                return false;
+            }
+
+            previous = seconds;
+            offset += RECORD_HEADER_SIZE + captured;
+        }
+        return true;
+    }
+
+    private long getUnsignedInt(final int index) {
+        final int value = this.buffer.getInt(index);
+        if (this.byteOrder == ByteOrder.BIG_ENDIAN) {
+            return value & 0xFFFFFFFFL;
+        }
+        return Integer.reverseBytes(value) & 0xFFFFFFFFL;
+    }
+
+}
@@ -0,0 +1,286 @@
+package io.pkts;
+
+import io.pkts.buffer.MappedFileBuffer;
+import io.pkts.frame.PcapGlobalHeader;
+import io.pkts.framer.FramerManager;
+import io.pkts.framer.PcapFramer;
+import io.pkts.packet.PCapPacket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A sparse index of a pcap file, mapping the arrival time of a record to
+ * where in the file that record starts. There is an entry for the first
+ * record and then one every {@link #DEFAULT_RECORD_INTERVAL} records, or as
+ * soon as {@link #DEFAULT_TIME_INTERVAL} microseconds have passed since the
+ * last entry, whichever comes first. This is what allows
+ * {@link Pcap#seek(long)} to jump straight to the right part of a large
+ * capture instead of going through it from the start.
+ *
+ * The index is stored next to the pcap, in a sidecar file with the same name
+ * plus {@link #SIDECAR_SUFFIX}. The sidecar remembers the size and last
+ * modification time of the pcap and is ignored (and rebuilt) if the pcap has
+ * changed since.
+ *
+ * Note that the index assumes that the records are (roughly) in time order,
+ * which is what you get from any capture tool. Only regular pcap files can be
+ * indexed.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class PcapIndex {
+
+    public static final String SIDECAR_SUFFIX = ".idx";
+
+    public static final int DEFAULT_RECORD_INTERVAL = 1000;
+
+    public static final long DEFAULT_TIME_INTERVAL = 1000000L;
+
+    /**
+     * "PKTSIDX" followed by the version of the format.
+     */
+    private static final long MAGIC = 0x504B545349445801L;
+
+    private final long fileSize;
+
+    private final long lastModified;
+
+    private final long[] offsets;
+
+    private final long[] timestamps;
+
+    private PcapIndex(final long fileSize, final long lastModified, final long[] offsets, final long[] timestamps) {
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.offsets = offsets;
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Load the sidecar index of the pcap if there is one that is up to date,
+     * otherwise build it and try to save it as a sidecar for the next time
+     * around. Failing to save it (e.g. because the directory isn't writable)
+     * is not an error, you still get the index.
+     *
+     * @param pcap
+     *            the pcap file
+     * @return
+     * @throws IOException
+     *             in case we are unable to read the pcap.
+     * @throws IllegalArgumentException
+     *             in case it isn't a regular pcap file.
+     */
+    public static PcapIndex forFile(final Path pcap) throws IOException, IllegalArgumentException {
+        final PcapIndex existing = load(pcap);
+        if (existing != null) {
+            return existing;
+        }
+
+        final PcapIndex index = build(pcap);
+        try {
+            index.write(getSidecar(pcap));
+        } catch (final IOException e) {
+            // we'll just have to build it again next time
+        }
+        return index;
+    }
+
+    /**
+     * The path of the sidecar index of the given pcap.
+     *
+     * @param pcap
+     * @return
+     */
+    public static Path getSidecar(final Path pcap) {
+        return pcap.resolveSibling(pcap.getFileName() + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * Build the index using the default intervals.
+     *
+     * @param pcap
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException
+     *             in case it isn't a regular pcap file.
+     */
+    public static PcapIndex build(final Path pcap) throws IOException, IllegalArgumentException {
+        return build(pcap, DEFAULT_RECORD_INTERVAL, DEFAULT_TIME_INTERVAL);
+    }
+
+    /**
+     * Build the index by going through the pcap once. Only the record headers
+     * are looked at, the data of the records is never touched.
+     *
+     * @param pcap
+     *            the pcap file
+     * @param recordInterval
+     *            the max number of records between two entries in the index.
+     * @param timeInterval
+     *            the max number of microseconds between two entries in the
+     *            index.
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException
+     *             in case it isn't a regular pcap file or the intervals are
+     *             not positive.
+     */
+    public static PcapIndex build(final Path pcap, final int recordInterval, final long timeInterval)
+            throws IOException, IllegalArgumentException {
+        if (recordInterval <= 0 || timeInterval <= 0) {
+            throw new IllegalArgumentException("The intervals must be greater than zero");
+        }
+
+        final long fileSize = Files.size(pcap);
+        final long lastModified = Files.getLastModifiedTime(pcap).toMillis();
+
+        long[] offsets = new long[16];
+        long[] timestamps = new long[16];
+        int count = 0;
+
+        try (FileChannel channel = FileChannel.open(pcap, StandardOpenOption.READ)) {
+            final MappedFileBuffer buffer = new MappedFileBuffer(channel);
+            final PcapGlobalHeader header = PcapGlobalHeader.parse(buffer);
+            final PcapFramer framer = new PcapFramer(header, FramerManager.getInstance());
+
+            int records = 0;
+            long offset = buffer.getPosition();
+            PCapPacket packet = null;
+            while ((packet = framer.frame(null, buffer)) != null) {
+                final long timestamp = packet.getArrivalTime();
+                if (count == 0 || records >= recordInterval || timestamp - timestamps[count - 1] >= timeInterval) {
+                    if (count == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                        timestamps = Arrays.copyOf(timestamps, count * 2);
+                    }
+                    offsets[count] = offset;
+                    timestamps[count] = timestamp;
+                    ++count;
+                    records = 0;
+                }
+                ++records;
+                offset = buffer.getPosition();
+            }
+        }
+
+        return new PcapIndex(fileSize, lastModified, Arrays.copyOf(offsets, count), Arrays.copyOf(timestamps,
+                count));
+    }
+
+    /**
+     * Load the sidecar index of the given pcap.
+     *
+     * @param pcap
+     *            the pcap file (not the sidecar)
+     * @return the index or null if there is no sidecar or if it is out of date
+     *         or otherwise unusable.
+     * @throws IOException
+     *             in case we are unable to read the sidecar.
+     */
+    public static PcapIndex load(final Path pcap) throws IOException {
+        final Path sidecar = getSidecar(pcap);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (in.readLong() != MAGIC) {
+                return null;
+            }
+
+            final long fileSize = in.readLong();
+            final long lastModified = in.readLong();
+            if (fileSize != Files.size(pcap) || lastModified != Files.getLastModifiedTime(pcap).toMillis()) {
+                return null;
+            }
+
+            final int count = in.readInt();
+            if (count < 0 || count > (Files.size(sidecar) - 28) / 16) {
+                return null;
+            }
+
+            final long[] offsets = new long[count];
+            final long[] timestamps = new long[count];
+            for (int i = 0; i < count; ++i) {
+                offsets[i] = in.readLong();
+                timestamps[i] = in.readLong();
+            }
+            return new PcapIndex(fileSize, lastModified, offsets, timestamps);
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final EOFException e) {
+            // truncated, probably by someone dying while writing it
+            return null;
+        }
+    }
+
+    /**
+     * Write the index to the given file.
+     *
+     * @param sidecar
+     * @throws IOException
+     */
+    public void write(final Path sidecar) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(sidecar)))) {
+            out.writeLong(MAGIC);
+            out.writeLong(this.fileSize);
+            out.writeLong(this.lastModified);
+            out.writeInt(this.offsets.length);
+            for (int i = 0; i < this.offsets.length; ++i) {
+                out.writeLong(this.offsets[i]);
+                out.writeLong(this.timestamps[i]);
+            }
+        }
+    }
+
+    /**
+     * The number of entries in the index.
+     *
+     * @return
+     */
+    public int size() {
+        return this.offsets.length;
+    }
+
+    public long getOffset(final int entry) {
+        return this.offsets[entry];
+    }
+
+    public long getTimestamp(final int entry) {
+        return this.timestamps[entry];
+    }
+
+    /**
+     * Find where to start looking for the first record that arrived at, or
+     * after, the given time. That is the last entry that arrived before it,
+     * since there may be more records with an earlier timestamp following
+     * that entry.
+     *
+     * @param timestampMicros
+     * @return the offset in the file or -1 (negative one) if the index is
+     *         empty.
+     */
+    public long findOffset(final long timestampMicros) {
+        int low = 0;
+        int high = this.timestamps.length - 1;
+        int found = 0;
+        while (low <= high) {
+            final int middle = low + high >>> 1;
+            if (this.timestamps[middle] < timestampMicros) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return this.offsets.length == 0 ? -1 : this.offsets[found];
+    }
+
+}
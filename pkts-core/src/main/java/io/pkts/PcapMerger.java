@@ -0,0 +1,232 @@
+package io.pkts;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.frame.PcapGlobalHeader;
+import io.pkts.frame.PcapRecordHeader;
+import io.pkts.framer.Framer;
+import io.pkts.framer.FramerManager;
+import io.pkts.packet.PCapPacket;
+import io.pkts.packet.Packet;
+import io.pkts.packet.impl.PCapPacketImpl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges a number of pcaps into one, ordered by the arrival time of the
+ * packets, just like mergecap does. Each input is expected to be in time
+ * order already so we only ever hold on to the next packet of every input,
+ * which means that the memory needed depends on the number of inputs and not
+ * on their size. The packets are framed but not decoded any further.
+ *
+ * All inputs must have the same data link type. The merged pcap is always in
+ * little endian, with the largest snap length of the inputs, and the record
+ * headers of any big endian input are converted on the way through. Packets
+ * with the same arrival time are ordered by the input they came from.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class PcapMerger implements Closeable {
+
+    private final List<Pcap> inputs;
+
+    private final PcapGlobalHeader header;
+
+    private PcapMerger(final List<Pcap> inputs, final PcapGlobalHeader header) {
+        this.inputs = inputs;
+        this.header = header;
+    }
+
+    /**
+     * Merge the given pcaps, which will be closed when this merger is closed.
+     *
+     * @param inputs
+     * @return
+     * @throws IllegalArgumentException
+     *             in case there are no inputs or they have different data link
+     *             types.
+     */
+    public static PcapMerger create(final List<Pcap> inputs) throws IllegalArgumentException {
+        if (inputs == null || inputs.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one pcap to merge");
+        }
+
+        final int dataLinkType = inputs.get(0).getPcapHeader().getDataLinkType();
+        long snapLength = 0;
+        for (final Pcap pcap : inputs) {
+            final PcapGlobalHeader header = pcap.getPcapHeader();
+            if (header.getDataLinkType() != dataLinkType) {
+                throw new IllegalArgumentException("Cannot merge pcaps with different data link types ("
+                        + dataLinkType + " and " + header.getDataLinkType() + ")");
+            }
+            snapLength = Math.max(snapLength, header.getSnapLength());
+        }
+
+        return new PcapMerger(new ArrayList<Pcap>(inputs), PcapGlobalHeader.createDefaultHeader(dataLinkType,
+                snapLength));
+    }
+
+    /**
+     * Open and merge the given files. Each file is opened through
+     * {@link Pcap#openMapped(Path)}.
+     *
+     * @param files
+     * @return
+     * @throws IOException
+     *             in case we are unable to open any of the files.
+     * @throws IllegalArgumentException
+     *             in case there are no files or they have different data link
+     *             types.
+     */
+    public static PcapMerger open(final List<Path> files) throws IOException, IllegalArgumentException {
+        final List<Pcap> inputs = new ArrayList<Pcap>(files.size());
+        try {
+            for (final Path file : files) {
+                inputs.add(Pcap.openMapped(file));
+            }
+            return create(inputs);
+        } catch (final IOException | RuntimeException e) {
+            for (final Pcap pcap : inputs) {
+                pcap.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The global header of the merged pcap.
+     *
+     * @return
+     */
+    public PcapGlobalHeader getPcapHeader() {
+        return this.header;
+    }
+
+    /**
+     * Hand over the packets of all the inputs, in time order, to the given
+     * handler. Use this with e.g. {@link PcapWriter#write(Packet)} to write
+     * the merged pcap through a {@link PcapWriter} created with
+     * {@link #getPcapHeader()}.
+     *
+     * @param handler
+     * @throws IOException
+     */
+    public void merge(final PacketHandler handler) throws IOException {
+        final PriorityQueue<Input> queue = new PriorityQueue<Input>(this.inputs.size());
+        for (int i = 0; i < this.inputs.size(); ++i) {
+            final Input input = new Input(i, this.inputs.get(i));
+            if (input.advance()) {
+                queue.add(input);
+            }
+        }
+
+        Input input = null;
+        while ((input = queue.poll()) != null) {
+            if (!handler.nextPacket(input.packet)) {
+                return;
+            }
+            if (input.advance()) {
+                queue.add(input);
+            }
+        }
+    }
+
+    /**
+     * Write the merged pcap to the given stream. The records are copied as
+     * they are, without going through the layers of the packets, so make sure
+     * to give us a buffered stream.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void merge(final OutputStream out) throws IOException {
+        this.header.write(out);
+        merge(packet -> {
+            final PCapPacket pcap = (PCapPacket) packet;
+            final long time = pcap.getArrivalTime();
+            PcapRecordHeader.createHeader(time / 1000000L, time % 1000000L, pcap.getCapturedLength(),
+                    pcap.getTotalLength()).write(out);
+            final Buffer payload = pcap.getPayload();
+            if (payload != null) {
+                payload.writeTo(out);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Closes all the inputs.
+     */
+    @Override
+    public void close() {
+        for (final Pcap pcap : this.inputs) {
+            pcap.close();
+        }
+    }
+
+    /**
+     * An input along with its next packet.
+     */
+    private static final class Input implements Comparable<Input> {
+
+        private final int index;
+
+        private final Iterator<Packet> packets;
+
+        private final boolean bigEndian;
+
+        private final Framer<PCapPacket> linkLayerFramer;
+
+        private PCapPacket packet;
+
+        private long time;
+
+        private Input(final int index, final Pcap pcap) {
+            this.index = index;
+            this.packets = pcap.iterator();
+            this.bigEndian = pcap.getPcapHeader().getByteOrder() == ByteOrder.BIG_ENDIAN;
+            this.linkLayerFramer = FramerManager.getInstance().getLinkLayerFramer(
+                    pcap.getPcapHeader().getDataLinkType());
+        }
+
+        /**
+         * Move on to the next packet of this input.
+         *
+         * @return false if there are no more packets.
+         */
+        private boolean advance() throws IOException {
+            try {
+                if (!this.packets.hasNext()) {
+                    this.packet = null;
+                    return false;
+                }
+                this.packet = (PCapPacket) this.packets.next();
+            } catch (final UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            this.time = this.packet.getArrivalTime();
+            if (this.bigEndian) {
+                this.packet = new PCapPacketImpl(this.linkLayerFramer, PcapRecordHeader.createHeader(
+                        this.time / 1000000L, this.time % 1000000L, this.packet.getCapturedLength(),
+                        this.packet.getTotalLength()), this.packet.getPayload());
+            }
+            return true;
+        }
+
+        @Override
+        public int compareTo(final Input other) {
+            final int compare = Long.compare(this.time, other.time);
+            return compare != 0 ? compare : Integer.compare(this.index, other.index);
+        }
+    }
+
+}
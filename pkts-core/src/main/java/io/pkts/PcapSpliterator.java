@@ -0,0 +1,161 @@
+package io.pkts;
+
+import io.pkts.buffer.MappedFileBuffer;
+import io.pkts.filters.Filter;
+import io.pkts.filters.FilterException;
+import io.pkts.filters.Prefilter;
+import io.pkts.frame.PcapGlobalHeader;
+import io.pkts.framer.FramerManager;
+import io.pkts.framer.PcapFramer;
+import io.pkts.packet.PCapPacket;
+import io.pkts.packet.Packet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Spliterator} over the records within a byte range of a memory
+ * mapped pcap, see {@link Pcap#stream()}. It splits by cutting its range in
+ * half and moving the cut forward to the first record boundary (see
+ * {@link PcapChunker}), so a parallel stream over a large capture is framed by
+ * several threads at once, each one through a view of the file of its own.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+final class PcapSpliterator implements Spliterator<Packet> {
+
+    /**
+     * Don't bother splitting anything smaller than this many bytes.
+     */
+    private static final long MIN_SPLIT_SIZE = 4096;
+
+    private final FileChannel channel;
+
+    private final PcapGlobalHeader header;
+
+    private final FramerManager framerManager;
+
+    private final Filter filter;
+
+    private final Prefilter prefilter;
+
+    private final MappedFileBuffer buffer;
+
+    private final PcapFramer framer;
+
+    private final PacketCursor cursor;
+
+    /**
+     * Where our range ends, exclusive.
+     */
+    private final long to;
+
+    PcapSpliterator(final FileChannel channel, final PcapGlobalHeader header, final FramerManager framerManager,
+            final Filter filter, final Prefilter prefilter, final long from, final long to) throws IOException {
+        this.channel = channel;
+        this.header = header;
+        this.framerManager = framerManager;
+        this.filter = filter;
+        this.prefilter = prefilter;
+        this.to = to;
+        this.buffer = new MappedFileBuffer(channel);
+        this.buffer.setPosition(from);
+        this.framer = new PcapFramer(header, framerManager);
+        this.cursor = prefilter == null ? null : new PacketCursor(header, framerManager.getLinkLayerFramer(header
+                .getDataLinkType()));
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super Packet> action) {
+        try {
+            while (this.buffer.getPosition() < this.to) {
+                final PCapPacket packet = nextPacket();
+                if (packet == null) {
+                    return false;
+                }
+
+                if (accept(packet)) {
+                    this.framerManager.tick(packet.getArrivalTime());
+                    action.accept(packet);
+                    return true;
+                }
+            }
+            return false;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Frame the next record, or if there is a prefilter, the next record it
+     * accepts, or go past the end of our range trying.
+     */
+    private PCapPacket nextPacket() throws IOException {
+        if (this.prefilter == null) {
+            return this.framer.frame(null, this.buffer);
+        }
+
+        while (this.buffer.getPosition() < this.to && this.cursor.next(this.buffer)) {
+            final PCapPacket packet = Pcap.accept(this.prefilter, this.cursor) ? this.cursor.materialize() : null;
+            this.cursor.skip();
+            if (packet != null) {
+                return packet;
+            }
+        }
+        return null;
+    }
+
+    private boolean accept(final Packet packet) {
+        try {
+            return this.filter == null || this.filter.accept(packet);
+        } catch (final FilterException e) {
+            System.err.println("WARN: the filter complained about the last frame. Msg (if any) - " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Hands over the first half of what is left, up until the first record
+     * boundary after the middle, and keeps the rest.
+     */
+    @Override
+    public Spliterator<Packet> trySplit() {
+        try {
+            final long position = this.buffer.getPosition();
+            if (this.to - position < MIN_SPLIT_SIZE) {
+                return null;
+            }
+
+            final long middle = position + (this.to - position) / 2;
+            final long boundary = new PcapChunker(this.channel, this.header).findRecord(middle);
+            if (boundary <= position || boundary >= this.to) {
+                return null;
+            }
+
+            final PcapSpliterator prefix = new PcapSpliterator(this.channel, this.header, this.framerManager,
+                    this.filter, this.prefilter, position, boundary);
+            this.buffer.setPosition(boundary);
+            return prefix;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The number of bytes left, which is all we know without going through
+     * them.
+     */
+    @Override
+    public long estimateSize() {
+        return Math.max(0, this.to - this.buffer.getPosition());
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+}
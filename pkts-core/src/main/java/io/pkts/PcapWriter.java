@@ -0,0 +1,253 @@
+package io.pkts;
+
+import io.pkts.frame.PcapGlobalHeader;
+import io.pkts.packet.Packet;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes packets to a pcap file, or a sequence of pcap files, a lot faster
+ * than going through a {@link PcapOutputStream}. Each packet writes its
+ * record header and every one of its layers separately, which is a lot of
+ * small writes. The writer collects them in a large buffer and writes the
+ * whole buffer to the file in one go. A write that doesn't fit in the buffer
+ * goes out together with what is already buffered, in the same gathering
+ * write, without being copied.
+ *
+ * If any of the limits of the {@link PcapWriterOptions} are set, the packets
+ * are written to a sequence of files named after the given file, e.g.
+ * <code>calls_00000.pcap</code>, <code>calls_00001.pcap</code> and so on for
+ * <code>calls.pcap</code>, moving on to the next file as soon as the current
+ * one is full. Each file gets its own copy of the {@link PcapGlobalHeader}.
+ *
+ * The writer is not thread safe.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class PcapWriter implements Closeable, Flushable {
+
+    private final Path path;
+
+    private final PcapGlobalHeader header;
+
+    private final PcapWriterOptions options;
+
+    private final ByteBuffer buffer;
+
+    private final OutputStream out = new BufferOutputStream();
+
+    private final List<Path> files = new ArrayList<Path>();
+
+    private FileChannel channel;
+
+    /**
+     * The number of bytes written to the current file, not counting what is
+     * still in the buffer.
+     */
+    private long position;
+
+    /**
+     * The number of packets in the current file.
+     */
+    private long packets;
+
+    /**
+     * The arrival time of the first packet in the current file.
+     */
+    private long start;
+
+    private boolean closed;
+
+    private PcapWriter(final Path path, final PcapGlobalHeader header, final PcapWriterOptions options) {
+        this.path = path;
+        this.header = header;
+        this.options = options;
+        this.buffer = ByteBuffer.allocateDirect(options.getBufferSize());
+    }
+
+    /**
+     *
+     * @param path
+     *            the file to write to or, if rotating, the file the names of
+     *            the files are based on.
+     * @param header
+     *            the global header of the file(s), which decides e.g. the
+     *            byte order of the records.
+     * @param options
+     * @return
+     * @throws IOException
+     *             in case we are unable to create the (first) file.
+     */
+    public static PcapWriter create(final Path path, final PcapGlobalHeader header, final PcapWriterOptions options)
+            throws IOException {
+        if (path == null || header == null || options == null) {
+            throw new IllegalArgumentException("The path, header and options cannot be null");
+        }
+
+        final PcapWriter writer = new PcapWriter(path, header, options);
+        writer.open();
+        return writer;
+    }
+
+    /**
+     * Write a {@link Packet} to the file, moving on to the next file first if
+     * the current one is full.
+     *
+     * @param packet
+     *            the packet to write. If null is passed in, it will silently be
+     *            ignored.
+     * @throws IOException
+     */
+    public void write(final Packet packet) throws IOException {
+        if (this.closed) {
+            throw new IOException("The writer has been closed");
+        }
+        if (packet == null) {
+            return;
+        }
+
+        final long time = packet.getArrivalTime();
+        if (this.packets > 0 && isFull(time)) {
+            finish();
+            open();
+        }
+
+        if (this.packets == 0) {
+            this.start = time;
+        }
+        packet.write(this.out);
+        ++this.packets;
+    }
+
+    private boolean isFull(final long time) {
+        if (this.options.getMaxPackets() > 0 && this.packets >= this.options.getMaxPackets()) {
+            return true;
+        }
+        if (this.options.getMaxFileSize() > 0
+                && this.position + this.buffer.position() >= this.options.getMaxFileSize()) {
+            return true;
+        }
+        return this.options.getMaxDuration() > 0 && time - this.start >= this.options.getMaxDuration();
+    }
+
+    /**
+     * The files written so far, including the current one.
+     *
+     * @return
+     */
+    public List<Path> getFiles() {
+        return Collections.unmodifiableList(this.files);
+    }
+
+    private void open() throws IOException {
+        final Path file = this.options.isRotating() ? nameOf(this.files.size()) : this.path;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.files.add(file);
+        this.position = 0;
+        this.packets = 0;
+
+        final long preallocation = this.options.getPreallocation();
+        if (preallocation > 0) {
+            // writing the last byte makes the file that large without us
+            // moving the position of the channel
+            this.channel.write(ByteBuffer.allocate(1), preallocation - 1);
+        }
+
+        this.header.write(this.out);
+    }
+
+    /**
+     * E.g. calls_00003.pcap for calls.pcap
+     */
+    private Path nameOf(final int index) {
+        final String name = this.path.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        final String base = dot > 0 ? name.substring(0, dot) : name;
+        final String extension = dot > 0 ? name.substring(dot) : "";
+        return this.path.resolveSibling(String.format("%s_%05d%s", base, index, extension));
+    }
+
+    /**
+     * Write whatever is left and close the current file.
+     */
+    private void finish() throws IOException {
+        flush();
+        if (this.options.getPreallocation() > 0) {
+            this.channel.truncate(this.position);
+        }
+        this.channel.close();
+    }
+
+    /**
+     * Write everything we have buffered to the file.
+     */
+    @Override
+    public void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.position += this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Write what is buffered followed by the given bytes, in one gathering
+     * write.
+     */
+    private void flush(final byte[] b, final int off, final int len) throws IOException {
+        this.buffer.flip();
+        final ByteBuffer[] buffers = { this.buffer, ByteBuffer.wrap(b, off, len) };
+        while (buffers[1].hasRemaining()) {
+            this.position += this.channel.write(buffers);
+        }
+        this.buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        finish();
+    }
+
+    /**
+     * What the packets write themselves to.
+     */
+    private final class BufferOutputStream extends OutputStream {
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (!PcapWriter.this.buffer.hasRemaining()) {
+                PcapWriter.this.flush();
+            }
+            PcapWriter.this.buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            final ByteBuffer buffer = PcapWriter.this.buffer;
+            if (len <= buffer.remaining()) {
+                buffer.put(b, off, len);
+            } else if (len < buffer.capacity()) {
+                PcapWriter.this.flush();
+                buffer.put(b, off, len);
+            } else {
+                PcapWriter.this.flush(b, off, len);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+package io.pkts;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls how a {@link PcapWriter} buffers its writes and when it moves on
+ * to a new file. By default nothing is rotated, everything goes into the one
+ * file.
+ *
+ * The options are immutable, every <code>with</code> method returns a new
+ * instance.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class PcapWriterOptions {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final PcapWriterOptions DEFAULT = new PcapWriterOptions(DEFAULT_BUFFER_SIZE, 0, 0, 0, 0);
+
+    private final int bufferSize;
+
+    private final long maxFileSize;
+
+    private final long maxPackets;
+
+    private final long maxDuration;
+
+    private final long preallocation;
+
+    private PcapWriterOptions(final int bufferSize, final long maxFileSize, final long maxPackets,
+            final long maxDuration, final long preallocation) {
+        this.bufferSize = bufferSize;
+        this.maxFileSize = maxFileSize;
+        this.maxPackets = maxPackets;
+        this.maxDuration = maxDuration;
+        this.preallocation = preallocation;
+    }
+
+    /**
+     * A write buffer of 1 MB and no rotation.
+     *
+     * @return
+     */
+    public static PcapWriterOptions defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     *
+     * @param bufferSize
+     *            the number of bytes collected before they are written to the
+     *            file.
+     * @return
+     * @throws IllegalArgumentException
+     *             in case the buffer size isn't a positive number.
+     */
+    public PcapWriterOptions withBufferSize(final int bufferSize) throws IllegalArgumentException {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("The buffer size must be greater than zero");
+        }
+        return new PcapWriterOptions(bufferSize, this.maxFileSize, this.maxPackets, this.maxDuration,
+                this.preallocation);
+    }
+
+    /**
+     * Move on to a new file once the current one has reached the given size.
+     * A file may end up slightly larger than this since we never split a
+     * packet across two files.
+     *
+     * @param bytes
+     *            the max size of a file or zero for no limit.
+     * @return
+     */
+    public PcapWriterOptions withMaxFileSize(final long bytes) {
+        return new PcapWriterOptions(this.bufferSize, requireNotNegative(bytes), this.maxPackets, this.maxDuration,
+                this.preallocation);
+    }
+
+    /**
+     * Move on to a new file once the current one has the given number of
+     * packets in it (editcap -c).
+     *
+     * @param packets
+     *            the max number of packets in a file or zero for no limit.
+     * @return
+     */
+    public PcapWriterOptions withMaxPackets(final long packets) {
+        return new PcapWriterOptions(this.bufferSize, this.maxFileSize, requireNotNegative(packets),
+                this.maxDuration, this.preallocation);
+    }
+
+    /**
+     * Move on to a new file once a packet arrived this long after the first
+     * packet of the current file (editcap -i).
+     *
+     * @param duration
+     *            the max duration of a file or zero for no limit.
+     * @param unit
+     * @return
+     */
+    public PcapWriterOptions withMaxDuration(final long duration, final TimeUnit unit) {
+        return new PcapWriterOptions(this.bufferSize, this.maxFileSize, this.maxPackets,
+                unit.toMicros(requireNotNegative(duration)), this.preallocation);
+    }
+
+    /**
+     * Reserve this much room for every new file up front, so the file system
+     * doesn't have to grow the file a little at a time. The file is truncated
+     * to what was actually written once we are done with it.
+     *
+     * @param bytes
+     *            the number of bytes to reserve or zero to not reserve any.
+     * @return
+     */
+    public PcapWriterOptions withPreallocation(final long bytes) {
+        return new PcapWriterOptions(this.bufferSize, this.maxFileSize, this.maxPackets, this.maxDuration,
+                requireNotNegative(bytes));
+    }
+
+    private static long requireNotNegative(final long value) throws IllegalArgumentException {
+        if (value < 0) {
+            throw new IllegalArgumentException("The value cannot be negative");
+        }
+        return value;
+    }
+
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    public long getMaxFileSize() {
+        return this.maxFileSize;
+    }
+
+    public long getMaxPackets() {
+        return this.maxPackets;
+    }
+
+    /**
+     * @return the max duration in microseconds.
+     */
+    public long getMaxDuration() {
+        return this.maxDuration;
+    }
+
+    public long getPreallocation() {
+        return this.preallocation;
+    }
+
+    /**
+     * Whether any of the limits are set, in which case we write to a sequence
+     * of files rather than just the one.
+     *
+     * @return
+     */
+    public boolean isRotating() {
+        return this.maxFileSize > 0 || this.maxPackets > 0 || this.maxDuration > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "PcapWriterOptions[bufferSize=" + this.bufferSize + ", maxFileSize=" + this.maxFileSize
+                + ", maxPackets=" + this.maxPackets + ", maxDuration=" + this.maxDuration + ", preallocation="
+                + this.preallocation + "]";
+    }
+
+}
@@ -0,0 +1,237 @@
+package io.pkts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link InputStream} that reads from a channel on a thread of its own.
+ * That thread fills a fixed set of large blocks and hands them over,
+ * through a bounded queue, to whoever is reading from this stream. The blocks
+ * go back to the reading thread once consumed. Since there is a fixed number
+ * of blocks, the reading thread will never get further ahead than that.
+ *
+ * The stream should be closed once you are done with it, which stops the
+ * reading thread. If it isn't, the reading thread notices that nobody is
+ * draining the blocks any longer once the stream has been garbage collected,
+ * closes the channel and goes away on its own.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+final class ReadAheadInputStream extends InputStream {
+
+    /**
+     * Marks the end of the channel (or that the reading thread failed).
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    /**
+     * How long the reading thread waits for a free block before checking
+     * whether anyone is still around to read from us.
+     */
+    private static final long LIVENESS_CHECK_MS = 500;
+
+    private final Reader reader;
+
+    private final Thread thread;
+
+    private final BlockingQueue<ByteBuffer> filled;
+
+    private final BlockingQueue<ByteBuffer> free;
+
+    private volatile boolean closed;
+
+    /**
+     * The block we currently are reading from.
+     */
+    private ByteBuffer current;
+
+    private boolean eof;
+
+    ReadAheadInputStream(final ReadableByteChannel channel, final int blockSize, final int numberOfBlocks) {
+        assert channel != null;
+        assert blockSize > 0;
+        assert numberOfBlocks > 0;
+
+        // room for the end marker as well
+        this.filled = new ArrayBlockingQueue<ByteBuffer>(numberOfBlocks + 1);
+        this.free = new ArrayBlockingQueue<ByteBuffer>(numberOfBlocks);
+        for (int i = 0; i < numberOfBlocks; ++i) {
+            // direct so that the channel can read straight into it
+            this.free.add(ByteBuffer.allocateDirect(blockSize));
+        }
+
+        this.reader = new Reader(this, channel, this.filled, this.free);
+        this.thread = new Thread(this.reader, "pkts-read-ahead");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * The reading thread, for those that need to make sure it is gone.
+     */
+    Thread getReadingThread() {
+        return this.thread;
+    }
+
+    /**
+     * Make sure that we have a block with something left in it.
+     *
+     * @return false if there is nothing more to read.
+     */
+    private boolean ensureCurrent() throws IOException {
+        if (this.closed) {
+            return false;
+        }
+
+        while (this.current == null || !this.current.hasRemaining()) {
+            if (this.current != null) {
+                this.free.offer(this.current);
+                this.current = null;
+            }
+
+            if (this.eof) {
+                return false;
+            }
+
+            try {
+                final ByteBuffer block = this.filled.take();
+                if (block == END) {
+                    this.eof = true;
+                    if (this.reader.failure != null) {
+                        throw this.reader.failure;
+                    }
+                    return false;
+                }
+                this.current = block;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the next block");
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureCurrent()) {
+            return -1;
+        }
+        return this.current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureCurrent()) {
+            return -1;
+        }
+        final int count = Math.min(len, this.current.remaining());
+        this.current.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.current != null ? this.current.remaining() : 0;
+    }
+
+    /**
+     * Stops the reading thread and closes the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.reader.closed = true;
+        this.thread.interrupt();
+        this.reader.channel.close();
+    }
+
+    /**
+     * What runs on the reading thread. It must not hold on to the stream
+     * itself, only to what the two of them share, or the stream could never
+     * be garbage collected while the thread is waiting for it.
+     */
+    private static final class Reader implements Runnable {
+
+        private final WeakReference<ReadAheadInputStream> stream;
+
+        private final ReadableByteChannel channel;
+
+        private final BlockingQueue<ByteBuffer> filled;
+
+        private final BlockingQueue<ByteBuffer> free;
+
+        private volatile boolean closed;
+
+        private volatile IOException failure;
+
+        private Reader(final ReadAheadInputStream stream, final ReadableByteChannel channel,
+                final BlockingQueue<ByteBuffer> filled, final BlockingQueue<ByteBuffer> free) {
+            this.stream = new WeakReference<ReadAheadInputStream>(stream);
+            this.channel = channel;
+            this.filled = filled;
+            this.free = free;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int read = 0;
+                while (read != -1 && !this.closed) {
+                    final ByteBuffer block = nextFree();
+                    if (block == null) {
+                        // nobody is reading from us any longer
+                        this.channel.close();
+                        return;
+                    }
+                    block.clear();
+                    while (block.hasRemaining() && (read = this.channel.read(block)) != -1) {
+                        // keep filling the block
+                    }
+                    block.flip();
+                    if (block.hasRemaining()) {
+                        this.filled.put(block);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                // we are being closed
+                return;
+            } catch (final IOException e) {
+                if (!this.closed) {
+                    this.failure = e;
+                }
+            }
+
+            this.filled.offer(END);
+        }
+
+        /**
+         * Wait for a block to be handed back to us, for as long as the stream
+         * is still around to do so.
+         *
+         * @return the block or null if the stream has been garbage collected.
+         */
+        private ByteBuffer nextFree() throws InterruptedException {
+            ByteBuffer block = null;
+            while ((block = this.free.poll(LIVENESS_CHECK_MS, TimeUnit.MILLISECONDS)) == null) {
+                if (this.stream.get() == null) {
+                    return null;
+                }
+            }
+            return block;
+        }
+    }
+
+}
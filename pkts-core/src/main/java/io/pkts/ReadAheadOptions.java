@@ -0,0 +1,89 @@
+package io.pkts;
+
+/**
+ * Controls how a pcap is read ahead when opened through
+ * {@link Pcap#openStream(java.io.File, ReadAheadOptions)} or
+ * {@link Pcap#openStream(java.io.InputStream, ReadAheadOptions)}. A separate
+ * thread reads (and, if need be, decompresses) the capture in large blocks
+ * and keeps up to {@link #getNumberOfBlocks()} of them ready for the thread
+ * that is framing the packets, so that one does not have to wait for the disk
+ * and the disk does not have to wait for it.
+ *
+ * The options are immutable, every <code>with</code> method returns a new
+ * instance.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class ReadAheadOptions {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4 * 1024 * 1024;
+
+    public static final int DEFAULT_NUMBER_OF_BLOCKS = 4;
+
+    private static final ReadAheadOptions DEFAULT = new ReadAheadOptions(DEFAULT_BLOCK_SIZE,
+            DEFAULT_NUMBER_OF_BLOCKS);
+
+    private final int blockSize;
+
+    private final int numberOfBlocks;
+
+    private ReadAheadOptions(final int blockSize, final int numberOfBlocks) {
+        this.blockSize = blockSize;
+        this.numberOfBlocks = numberOfBlocks;
+    }
+
+    /**
+     * Blocks of 4 MB, four of them.
+     *
+     * @return
+     */
+    public static ReadAheadOptions defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     *
+     * @param blockSize
+     *            the number of bytes read off of the file in one go.
+     * @return
+     * @throws IllegalArgumentException
+     *             in case the block size isn't a positive number.
+     */
+    public ReadAheadOptions withBlockSize(final int blockSize) throws IllegalArgumentException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("The block size must be greater than zero");
+        }
+        return new ReadAheadOptions(blockSize, this.numberOfBlocks);
+    }
+
+    /**
+     *
+     * @param numberOfBlocks
+     *            the number of blocks that are read ahead. At least two, or
+     *            the reading thread would have nowhere to put the next block
+     *            while the current one is consumed.
+     * @return
+     * @throws IllegalArgumentException
+     *             in case there are fewer than two blocks.
+     */
+    public ReadAheadOptions withNumberOfBlocks(final int numberOfBlocks) throws IllegalArgumentException {
+        if (numberOfBlocks < 2) {
+            throw new IllegalArgumentException("There must be at least two blocks");
+        }
+        return new ReadAheadOptions(this.blockSize, numberOfBlocks);
+    }
+
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    public int getNumberOfBlocks() {
+        return this.numberOfBlocks;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadAheadOptions[blockSize=" + this.blockSize + ", numberOfBlocks=" + this.numberOfBlocks + "]";
+    }
+
+}
@@ -0,0 +1,646 @@
+/**
+ *
+ */
+package io.pkts.filters;
+
+import io.pkts.packet.IPPacket;
+import io.pkts.packet.Packet;
+import io.pkts.packet.PacketParseException;
+import io.pkts.packet.TransportPacket;
+import io.pkts.packet.impl.AbstractPacket;
+import io.pkts.packet.rtp.RtpPacket;
+import io.pkts.packet.sip.SipPacket;
+import io.pkts.packet.sip.SipResponsePacket;
+import io.pkts.protocol.Protocol;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compiles a filter expression into a tree of {@link Filter}s. The syntax
+ * borrows the field names of Wireshark's display filters:
+ *
+ * <pre>
+ * expression := and ( ( "or" | "||" ) and )*
+ * and        := not ( ( "and" | "&amp;&amp;" ) not )*
+ * not        := ( "not" | "!" ) not | "(" expression ")" | term
+ * term       := field operator value | protocol
+ * operator   := "==" | "!=" | "&lt;" | "&lt;=" | "&gt;" | "&gt;="
+ * protocol   := "ip" | "udp" | "tcp" | "sip" | "rtp"
+ * </pre>
+ *
+ * The fields are ip.src, ip.dst and ip.addr (either one), udp.srcport,
+ * udp.dstport and udp.port (either one) and the same for tcp, sip.method,
+ * sip.status, sip.call-id, rtp.ssrc and finally sip.&lt;header&gt;, which
+ * compares the value of any other SIP header. An unquoted value runs up to
+ * the next white space or unbalanced ")", so e.g. a Call-ID with a "!" or a
+ * "&lt;" in it is fine as it is. Values may be quoted, which you'll need if
+ * they contain white space or an unbalanced ")". Only numbers can be
+ * compared with anything but "==" and "!=". A comparison is never true for a
+ * packet that doesn't have the field, so "udp.port != 5060" doesn't match a
+ * TCP packet but "not udp.port == 5060" does.
+ *
+ * Every term has a cost, depending on how far up the stack we have to frame
+ * the packet to evaluate it, and the terms of every "and" (and "or") are
+ * evaluated cheapest first. So no matter how you write it, a SIP message is
+ * only parsed if the packet made it past the IP, UDP and TCP terms.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+final class FilterCompiler {
+
+    private static final int COST_IP = 1;
+
+    private static final int COST_TRANSPORT = 2;
+
+    private static final int COST_RTP = 4;
+
+    private static final int COST_SIP = 8;
+
+    /**
+     * Finding a header means going through the headers of the SIP message.
+     */
+    private static final int COST_SIP_HEADER = 16;
+
+    private final String expression;
+
+    private final List<Token> tokens;
+
+    private int position;
+
+    private FilterCompiler(final String expression) throws FilterParseException {
+        this.expression = expression;
+        this.tokens = tokenize(expression);
+    }
+
+    /**
+     * @return the compiled filter. A single "sip.call-id == value" or
+     *         "sip.&lt;header&gt; == value" gives you a {@link SipCallIdFilter}
+     *         or {@link SipHeaderFilter} respectively, which is what this
+     *         always used to give you.
+     */
+    static Filter compile(final String expression) throws FilterParseException {
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new FilterParseException(0, "The expression is empty");
+        }
+
+        final FilterCompiler compiler = new FilterCompiler(expression);
+        final Node node = compiler.parseOr();
+        if (compiler.position < compiler.tokens.size()) {
+            final Token token = compiler.tokens.get(compiler.position);
+            throw new FilterParseException(token.offset, "Unexpected \"" + token.text + "\"");
+        }
+        return node instanceof Term ? ((Term) node).filter : node;
+    }
+
+    private Node parseOr() throws FilterParseException {
+        final List<Node> nodes = new ArrayList<Node>();
+        nodes.add(parseAnd());
+        while (consume("or") || consume("||")) {
+            nodes.add(parseAnd());
+        }
+        return nodes.size() == 1 ? nodes.get(0) : new Or(nodes);
+    }
+
+    private Node parseAnd() throws FilterParseException {
+        final List<Node> nodes = new ArrayList<Node>();
+        nodes.add(parseNot());
+        while (consume("and") || consume("&&")) {
+            nodes.add(parseNot());
+        }
+        return nodes.size() == 1 ? nodes.get(0) : new And(nodes);
+    }
+
+    private Node parseNot() throws FilterParseException {
+        if (consume("not") || consume("!")) {
+            return new Not(parseNot());
+        }
+
+        if (consume("(")) {
+            final Node node = parseOr();
+            if (!consume(")")) {
+                throw new FilterParseException(getOffset(), "Expected \")\"");
+            }
+            return node;
+        }
+
+        return parseTerm();
+    }
+
+    private Node parseTerm() throws FilterParseException {
+        final Token field = next("Expected an expression");
+        if (field.quoted) {
+            throw new FilterParseException(field.offset, "Expected a field but got a value");
+        }
+
+        final String name = field.text.toLowerCase();
+        if (!isOperator(peek())) {
+            return createProtocol(field, name);
+        }
+
+        final Token operator = next("Expected an operator");
+        final Token value = next("Expected a value after \"" + operator.text + "\"");
+        final String description = field.text + " " + operator.text + " " + value.text;
+
+        if (name.equals("ip.src") || name.equals("ip.dst") || name.equals("ip.addr")) {
+            return createAddress(description, name, operator, value);
+        }
+
+        if (name.startsWith("udp.") || name.startsWith("tcp.")) {
+            return createPort(description, field, name, operator, value);
+        }
+
+        if (name.equals("sip.status")) {
+            final long status = parseNumber(value);
+            return Term.of(description, COST_SIP, packet -> {
+                final SipPacket sip = getSip(packet);
+                return sip != null && sip.isResponse()
+                        && compare(((SipResponsePacket) sip).getStatus(), operator, status);
+            });
+        }
+
+        if (name.equals("rtp.ssrc")) {
+            final long ssrc = parseNumber(value);
+            return Term.of(description, COST_RTP, packet -> {
+                final RtpPacket rtp = getRtp(packet);
+                return rtp != null && compare(rtp.getSyncronizationSource(), operator, ssrc);
+            });
+        }
+
+        if (!name.startsWith("sip.") || name.length() == 4) {
+            throw new FilterParseException(field.offset, "Unknown field \"" + field.text + "\"");
+        }
+
+        final boolean equals = ensureEquality(operator);
+        if (name.equals("sip.method")) {
+            return Term.of(description, COST_SIP, packet -> {
+                final SipPacket sip = getSip(packet);
+                return sip != null && sip.isRequest() && sip.getMethod().toString().equals(value.text) == equals;
+            });
+        }
+
+        final String header = field.text.substring(4);
+        final Filter filter;
+        final int cost;
+        if (name.equals("sip.call-id")) {
+            filter = new SipCallIdFilter(value.text);
+            cost = COST_SIP;
+        } else {
+            filter = new SipHeaderFilter(header, value.text);
+            cost = COST_SIP_HEADER;
+        }
+        if (equals) {
+            return new Term(description, cost, filter);
+        }
+        // present, but with some other value
+        return Term.of(description, cost, packet -> {
+            final SipPacket sip = getSip(packet);
+            return sip != null && sip.getHeader(header).isPresent() && !filter.accept(packet);
+        });
+    }
+
+    private static Node createProtocol(final Token field, final String name) throws FilterParseException {
+        if (name.equals("ip")) {
+            return Term.of(name, COST_IP, packet -> getIp(packet) != null);
+        }
+        if (name.equals("udp")) {
+            return Term.of(name, COST_TRANSPORT, packet -> getTransport(packet, Protocol.UDP) != null);
+        }
+        if (name.equals("tcp")) {
+            return Term.of(name, COST_TRANSPORT, packet -> getTransport(packet, Protocol.TCP) != null);
+        }
+        if (name.equals("sip")) {
+            return Term.of(name, COST_SIP, packet -> getSip(packet) != null);
+        }
+        if (name.equals("rtp")) {
+            return Term.of(name, COST_RTP, packet -> getRtp(packet) != null);
+        }
+        throw new FilterParseException(field.offset, "Expected an operator after \"" + field.text + "\"");
+    }
+
+    private Node createAddress(final String description, final String name, final Token operator,
+            final Token value) throws FilterParseException {
+        final boolean equals = ensureEquality(operator);
+        final int address = parseAddress(value);
+        final boolean source = !name.equals("ip.dst");
+        final boolean destination = !name.equals("ip.src");
+        return Term.of(description, COST_IP, packet -> {
+            final IPPacket ip = getIp(packet);
+            if (ip == null) {
+                return false;
+            }
+            final boolean match = source && ip.getRawSourceIp() == address || destination
+                    && ip.getRawDestinationIp() == address;
+            return match == equals;
+        });
+    }
+
+    private Node createPort(final String description, final Token field, final String name, final Token operator,
+            final Token value) throws FilterParseException {
+        final Protocol protocol = name.startsWith("udp.") ? Protocol.UDP : Protocol.TCP;
+        final String port = name.substring(4);
+        if (!port.equals("srcport") && !port.equals("dstport") && !port.equals("port")) {
+            throw new FilterParseException(field.offset, "Unknown field \"" + field.text + "\"");
+        }
+
+        final long number = parseNumber(value);
+        final boolean source = !port.equals("dstport");
+        final boolean destination = !port.equals("srcport");
+        final boolean negated = operator.text.equals("!=");
+        return Term.of(description, COST_TRANSPORT, packet -> {
+            final TransportPacket transport = getTransport(packet, protocol);
+            if (transport == null) {
+                return false;
+            }
+            if (negated) {
+                // neither one of them
+                return !(source && transport.getSourcePort() == number || destination
+                        && transport.getDestinationPort() == number);
+            }
+            return source && compare(transport.getSourcePort(), operator, number) || destination
+                    && compare(transport.getDestinationPort(), operator, number);
+        });
+    }
+
+    private static IPPacket getIp(final Packet packet) throws IOException {
+        return (IPPacket) packet.getPacket(Protocol.IPv4);
+    }
+
+    /**
+     * We go through the IP packet rather than asking for the protocol
+     * straight away, since that would have us frame whatever is on top of
+     * e.g. TCP before finding out that this is UDP.
+     */
+    private static TransportPacket getTransport(final Packet packet, final Protocol protocol) throws IOException {
+        final Packet next = getNext(getIp(packet));
+        return next != null && next.getProtocol() == protocol ? (TransportPacket) next : null;
+    }
+
+    private static Packet getApplication(final Packet packet) throws IOException {
+        final Packet transport = getNext(getIp(packet));
+        return transport instanceof TransportPacket ? getNext(transport) : null;
+    }
+
+    /**
+     * The next packet as framed, and kept, by the packet itself so that the
+     * terms, and whoever gets the packet once it has been accepted, all look
+     * at the same one. This also keeps us within the decode depth.
+     */
+    private static Packet getNext(final Packet packet) throws IOException {
+        if (packet == null) {
+            return null;
+        }
+        if (packet instanceof AbstractPacket) {
+            return ((AbstractPacket) packet).getFramedNextPacket();
+        }
+        return packet.getNextPacket();
+    }
+
+    private static SipPacket getSip(final Packet packet) throws IOException {
+        final Packet application = getApplication(packet);
+        return application instanceof SipPacket ? (SipPacket) application : null;
+    }
+
+    private static RtpPacket getRtp(final Packet packet) throws IOException {
+        final Packet application = getApplication(packet);
+        return application instanceof RtpPacket ? (RtpPacket) application : null;
+    }
+
+    private static boolean compare(final long actual, final Token operator, final long expected) {
+        switch (operator.text) {
+        case "==":
+            return actual == expected;
+        case "!=":
+            return actual != expected;
+        case "<":
+            return actual < expected;
+        case "<=":
+            return actual <= expected;
+        case ">":
+            return actual > expected;
+        default:
+            return actual >= expected;
+        }
+    }
+
+    /**
+     * @return true for "==" and false for "!=".
+     */
+    private static boolean ensureEquality(final Token operator) throws FilterParseException {
+        if (!operator.text.equals("==") && !operator.text.equals("!=")) {
+            throw new FilterParseException(operator.offset, "Only \"==\" and \"!=\" can be used with this field");
+        }
+        return operator.text.equals("==");
+    }
+
+    private static int parseAddress(final Token token) throws FilterParseException {
+        final String[] parts = token.text.split("\\.", -1);
+        if (parts.length != 4) {
+            throw new FilterParseException(token.offset, "Expected an IPv4 address but got \"" + token.text + "\"");
+        }
+
+        int address = 0;
+        for (final String part : parts) {
+            final long octet = parseNumber(token, part);
+            if (octet > 0xFF) {
+                throw new FilterParseException(token.offset, "\"" + token.text + "\" is not a valid IPv4 address");
+            }
+            address = address << 8 | (int) octet;
+        }
+        return address;
+    }
+
+    private static long parseNumber(final Token token) throws FilterParseException {
+        final String text = token.text.toLowerCase();
+        if (text.startsWith("0x") && text.length() > 2 && text.length() <= 10) {
+            try {
+                return Long.parseLong(text.substring(2), 16);
+            } catch (final NumberFormatException e) {
+                throw new FilterParseException(token.offset, "Expected a number but got \"" + token.text + "\"");
+            }
+        }
+        return parseNumber(token, text);
+    }
+
+    private static long parseNumber(final Token token, final String text) throws FilterParseException {
+        if (text.isEmpty() || text.length() > 10) {
+            throw new FilterParseException(token.offset, "Expected a number but got \"" + token.text + "\"");
+        }
+        long value = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new FilterParseException(token.offset, "Expected a number but got \"" + token.text + "\"");
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static boolean isOperator(final Token token) {
+        if (token == null || token.quoted) {
+            return false;
+        }
+        switch (token.text) {
+        case "==":
+        case "!=":
+        case "<":
+        case "<=":
+        case ">":
+        case ">=":
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private boolean consume(final String text) {
+        final Token token = peek();
+        if (token != null && !token.quoted && token.text.equalsIgnoreCase(text)) {
+            ++this.position;
+            return true;
+        }
+        return false;
+    }
+
+    private Token peek() {
+        return this.position < this.tokens.size() ? this.tokens.get(this.position) : null;
+    }
+
+    private Token next(final String error) throws FilterParseException {
+        if (this.position >= this.tokens.size()) {
+            throw new FilterParseException(this.expression.length(), error);
+        }
+        return this.tokens.get(this.position++);
+    }
+
+    private int getOffset() {
+        return this.position < this.tokens.size() ? this.tokens.get(this.position).offset : this.expression.length();
+    }
+
+    private static List<Token> tokenize(final String expression) throws FilterParseException {
+        final List<Token> tokens = new ArrayList<Token>();
+        int i = 0;
+        while (i < expression.length()) {
+            final char c = expression.charAt(i);
+            final char n = i + 1 < expression.length() ? expression.charAt(i + 1) : 0;
+            if (Character.isWhitespace(c)) {
+                ++i;
+            } else if (c != '"' && c != '\'' && c != ')' && !tokens.isEmpty()
+                    && isOperator(tokens.get(tokens.size() - 1))) {
+                // a value, which may contain anything but white space, such
+                // as a Call-ID with a "!" or a "<" in it.
+                final int start = i;
+                int depth = 0;
+                while (i < expression.length() && !Character.isWhitespace(expression.charAt(i))) {
+                    if (expression.charAt(i) == '(') {
+                        ++depth;
+                    } else if (expression.charAt(i) == ')' && --depth < 0) {
+                        break;
+                    }
+                    ++i;
+                }
+                tokens.add(new Token(expression.substring(start, i), start, false));
+            } else if (c == '(' || c == ')') {
+                tokens.add(new Token(String.valueOf(c), i, false));
+                ++i;
+            } else if (c == '"' || c == '\'') {
+                final int end = expression.indexOf(c, i + 1);
+                if (end == -1) {
+                    throw new FilterParseException(i, "Missing closing " + c);
+                }
+                tokens.add(new Token(expression.substring(i + 1, end), i, true));
+                i = end + 1;
+            } else if ((c == '&' || c == '|') && n == c || (c == '=' || c == '!' || c == '<' || c == '>')
+                    && n == '=') {
+                tokens.add(new Token(expression.substring(i, i + 2), i, false));
+                i += 2;
+            } else if (c == '!' || c == '<' || c == '>') {
+                tokens.add(new Token(String.valueOf(c), i, false));
+                ++i;
+            } else if (c == '&' || c == '|' || c == '=') {
+                throw new FilterParseException(i, "Expected \"" + c + (c == '=' ? '=' : c) + "\"");
+            } else {
+                final int start = i;
+                while (i < expression.length() && !isDelimiter(expression.charAt(i))) {
+                    ++i;
+                }
+                tokens.add(new Token(expression.substring(start, i), start, false));
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isDelimiter(final char c) {
+        return Character.isWhitespace(c) || c == '(' || c == ')' || c == '=' || c == '!' || c == '<' || c == '>'
+                || c == '&' || c == '|' || c == '"' || c == '\'';
+    }
+
+    /**
+     * A filter that knows what it costs to evaluate it.
+     */
+    private abstract static class Node implements Filter {
+
+        abstract int getCost();
+
+        static List<Node> sortByCost(final List<Node> nodes) {
+            final List<Node> sorted = new ArrayList<Node>(nodes);
+            Collections.sort(sorted, Comparator.comparingInt(Node::getCost));
+            return sorted;
+        }
+
+        static String join(final List<Node> nodes, final String operator) {
+            final StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < nodes.size(); ++i) {
+                sb.append(i == 0 ? "" : operator).append(nodes.get(i));
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    /**
+     * The same as a {@link Filter} but without the wrapping of the exceptions.
+     */
+    @FunctionalInterface
+    private interface Test {
+        boolean test(Packet packet) throws IOException;
+    }
+
+    private static final class Term extends Node {
+        private final String description;
+        private final int cost;
+        private final Filter filter;
+
+        private static Term of(final String description, final int cost, final Test test) {
+            return new Term(description, cost, packet -> {
+                try {
+                    return test.test(packet);
+                } catch (final IOException e) {
+                    throw new FilterException("Unable to process the frame due to IOException", e);
+                } catch (final PacketParseException e) {
+                    throw new FilterException("Unable to process the frame due to parse issue", e);
+                }
+            });
+        }
+
+        private Term(final String description, final int cost, final Filter filter) {
+            this.description = description;
+            this.cost = cost;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean accept(final Packet packet) throws FilterException {
+            return this.filter.accept(packet);
+        }
+
+        @Override
+        int getCost() {
+            return this.cost;
+        }
+
+        @Override
+        public String toString() {
+            return this.description;
+        }
+    }
+
+    private static final class And extends Node {
+        private final List<Node> nodes;
+        private final int cost;
+
+        private And(final List<Node> nodes) {
+            this.nodes = sortByCost(nodes);
+            this.cost = this.nodes.stream().mapToInt(Node::getCost).sum();
+        }
+
+        @Override
+        public boolean accept(final Packet packet) throws FilterException {
+            for (final Node node : this.nodes) {
+                if (!node.accept(packet)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        int getCost() {
+            return this.cost;
+        }
+
+        @Override
+        public String toString() {
+            return join(this.nodes, " and ");
+        }
+    }
+
+    private static final class Or extends Node {
+        private final List<Node> nodes;
+        private final int cost;
+
+        private Or(final List<Node> nodes) {
+            this.nodes = sortByCost(nodes);
+            this.cost = this.nodes.stream().mapToInt(Node::getCost).sum();
+        }
+
+        @Override
+        public boolean accept(final Packet packet) throws FilterException {
+            for (final Node node : this.nodes) {
+                if (node.accept(packet)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        int getCost() {
+            return this.cost;
+        }
+
+        @Override
+        public String toString() {
+            return join(this.nodes, " or ");
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node node;
+
+        private Not(final Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public boolean accept(final Packet packet) throws FilterException {
+            return !this.node.accept(packet);
+        }
+
+        @Override
+        int getCost() {
+            return this.node.getCost();
+        }
+
+        @Override
+        public String toString() {
+            return "not " + this.node;
+        }
+    }
+
+    private static final class Token {
+        private final String text;
+        private final int offset;
+        private final boolean quoted;
+
+        private Token(final String text, final int offset, final boolean quoted) {
+            this.text = text;
+            this.offset = offset;
+            this.quoted = quoted;
+        }
+    }
+
+}
@@ -22,39 +22,43 @@ public final class FilterFactory {
     }
 
     /**
-     * Create a new {@link Filter}.
+     * Create a new {@link Filter} out of an expression such as
+     * 
+     * "udp.dstport == 5060 and sip.method == INVITE and not ip.src == 10.0.0.1"
+     * 
+     * Terms can be combined with "and", "or", "not" and parentheses, and the
+     * fields are ip.src, ip.dst, ip.addr, udp.srcport, udp.dstport, udp.port
+     * (and the same for tcp), sip.method, sip.status, sip.call-id, rtp.ssrc
+     * and sip.&lt;header&gt; for the value of any other SIP header. The terms
+     * are evaluated cheapest first, so the SIP message is only parsed for the
+     * packets that made it past the IP, UDP and TCP terms.
      * 
      * @param expression
      * @return
+     * @throws FilterParseException
+     *             in case the expression is not a valid filter expression.
      */
     public Filter createFilter(final String expression) throws FilterParseException {
-        final String expr = expression.toLowerCase();
-        if (!expr.startsWith("sip.")) {
-            throw new FilterParseException(0, "Not a valid sip expression");
-        }
-
-        final int index = expression.indexOf("==");
-        if (index == -1) {
-            throw new FilterParseException(expression.length(), "Expected a value. Missing '=='");
-        }
-
-        final String token = expression.substring(0, index).trim();
-        final String value = expression.substring(index + 2, expression.length()).trim();
-        if (token.equalsIgnoreCase("sip.call-id")) {
-            return new SipCallIdFilter(value);
-        }
-
-        // assume everything else is a generic header filter.
-        final String[] parts = token.split("\\.");
-        if (parts.length == 1) {
-            throw new FilterParseException(0, "Expected \"sip.\"<value> but didn't find a dot");
-        } else if (parts.length > 2) {
-            throw new FilterParseException(0,
-                    "Expected \"sip.\"<value> but found multiple dots so now I'm not sure what to do");
-        }
-
-        final String headername = parts[1];
-        return new SipHeaderFilter(headername, value);
+        return FilterCompiler.compile(expression);
+    }
 
+    /**
+     * Compile a tcpdump like expression, such as
+     * "udp port 5060 or host 10.1.2.3", into a {@link Prefilter} that is
+     * evaluated against the raw bytes of a record before anything is framed.
+     * 
+     * This is a subset of pcap-filter(7): the "host", "net", "port" and
+     * "portrange" primitives, optionally qualified by "src" or "dst" and "ip",
+     * "udp" or "tcp", the protocols on their own and "and", "or", "not" and
+     * parentheses to combine them. Addresses are IPv4 only and host names are
+     * not resolved.
+     * 
+     * @param expression
+     * @return
+     * @throws FilterParseException
+     *             in case the expression is not a valid prefilter expression.
+     */
+    public Prefilter createPrefilter(final String expression) throws FilterParseException {
+        return PrefilterCompiler.compile(expression);
     }
 }
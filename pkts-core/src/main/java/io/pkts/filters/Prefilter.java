@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package io.pkts.filters;
+
+import io.pkts.PacketCursor;
+
+import java.io.IOException;
+
+/**
+ * A filter that is evaluated against the raw bytes of a record, through a
+ * {@link PacketCursor}, before anything is framed. Unlike a {@link Filter},
+ * a record that is rejected by a prefilter never turns into a packet, so it
+ * is a cheap way of cutting a large capture down to the traffic you care
+ * about. See {@link FilterFactory#createPrefilter(String)} for the tcpdump
+ * like expressions you can compile into one.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+@FunctionalInterface
+public interface Prefilter {
+
+    /**
+     * Check whether this prefilter accepts the record the cursor is currently
+     * at.
+     *
+     * @param cursor
+     * @return
+     * @throws IOException
+     */
+    boolean accept(PacketCursor cursor) throws IOException;
+
+    default Prefilter and(final Prefilter other) {
+        assert other != null;
+        return cursor -> accept(cursor) && other.accept(cursor);
+    }
+
+    default Prefilter or(final Prefilter other) {
+        assert other != null;
+        return cursor -> accept(cursor) || other.accept(cursor);
+    }
+
+    default Prefilter negate() {
+        return cursor -> !accept(cursor);
+    }
+
+}
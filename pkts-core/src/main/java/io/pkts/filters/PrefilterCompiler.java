@@ -0,0 +1,381 @@
+/**
+ *
+ */
+package io.pkts.filters;
+
+import io.pkts.PacketCursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles a tcpdump like expression into a tree of {@link Prefilter}s, each
+ * one reading straight out of the {@link PacketCursor}. The grammar is a
+ * subset of the one of pcap-filter(7):
+ *
+ * <pre>
+ * expression := not ( ( "and" | "&amp;&amp;" | "or" | "||" ) not )*
+ * not        := ( "not" | "!" ) not | "(" expression ")" | primitive
+ * primitive  := [ "ip" | "udp" | "tcp" ] [ "src" | "dst" ] [ "host" | "net" | "port" | "portrange" ] value
+ *             | "ip" | "udp" | "tcp"
+ * </pre>
+ *
+ * As in tcpdump, "and" and "or" have the same precedence, so use parentheses
+ * when mixing them, and a value on its own picks up the qualifiers of the
+ * primitive before it, so "udp port 5060 or 5061" is the same as
+ * "udp port 5060 or udp port 5061". Addresses are IPv4 only and must be given
+ * as numbers since we are not about to resolve any host names.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+final class PrefilterCompiler {
+
+    private static final int MAX_PORT = 0xFFFF;
+
+    private final String expression;
+
+    private final List<Token> tokens;
+
+    private int position;
+
+    /**
+     * The qualifiers of the last primitive, which a value on its own inherits.
+     */
+    private String lastProtocol;
+
+    private String lastDirection;
+
+    private String lastType;
+
+    private PrefilterCompiler(final String expression) throws FilterParseException {
+        this.expression = expression;
+        this.tokens = tokenize(expression);
+    }
+
+    static Prefilter compile(final String expression) throws FilterParseException {
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new FilterParseException(0, "The expression is empty");
+        }
+
+        final PrefilterCompiler compiler = new PrefilterCompiler(expression);
+        final Prefilter prefilter = compiler.parseExpression();
+        if (compiler.position < compiler.tokens.size()) {
+            final Token token = compiler.tokens.get(compiler.position);
+            throw new FilterParseException(token.offset, "Unexpected \"" + token.text + "\"");
+        }
+        return prefilter;
+    }
+
+    private Prefilter parseExpression() throws FilterParseException {
+        Prefilter prefilter = parseNot();
+        while (true) {
+            if (consume("and") || consume("&&")) {
+                prefilter = prefilter.and(parseNot());
+            } else if (consume("or") || consume("||")) {
+                prefilter = prefilter.or(parseNot());
+            } else {
+                return prefilter;
+            }
+        }
+    }
+
+    private Prefilter parseNot() throws FilterParseException {
+        if (consume("not") || consume("!")) {
+            return parseNot().negate();
+        }
+
+        if (consume("(")) {
+            final Prefilter prefilter = parseExpression();
+            if (!consume(")")) {
+                throw new FilterParseException(getOffset(), "Expected \")\"");
+            }
+            return prefilter;
+        }
+
+        return parsePrimitive();
+    }
+
+    private Prefilter parsePrimitive() throws FilterParseException {
+        final Token first = next("Expected an expression");
+        String protocol = null;
+        String direction = null;
+        String type = null;
+        Token token = first;
+
+        if (isProtocol(token.text)) {
+            protocol = token.text;
+            if (!isQualifier(peek())) {
+                this.lastProtocol = null;
+                this.lastDirection = null;
+                this.lastType = null;
+                return createProtocol(protocol);
+            }
+            token = next("Expected a qualifier");
+        }
+
+        if (token.text.equals("src") || token.text.equals("dst")) {
+            direction = token.text;
+            if (!isType(peek())) {
+                // "src 10.0.0.1" is short for "src host 10.0.0.1"
+                type = "host";
+            } else {
+                token = next("Expected a qualifier");
+            }
+        }
+
+        if (type == null) {
+            if (isType(token.text)) {
+                type = token.text;
+            } else if (token == first && this.lastType != null && isValue(token.text)) {
+                // "port 5060 or 5061"
+                --this.position;
+                protocol = this.lastProtocol;
+                direction = this.lastDirection;
+                type = this.lastType;
+            } else {
+                throw new FilterParseException(token.offset, "Unknown keyword \"" + token.text + "\"");
+            }
+        }
+
+        final Token value = next("Expected a value after \"" + type + "\"");
+        this.lastProtocol = protocol;
+        this.lastDirection = direction;
+        this.lastType = type;
+
+        if (type.equals("host") || type.equals("net")) {
+            if (protocol != null && !protocol.equals("ip")) {
+                throw new FilterParseException(first.offset, "\"" + protocol + "\" cannot be combined with \""
+                        + type + "\"");
+            }
+            return type.equals("host") ? createHost(direction, value) : createNet(direction, value);
+        }
+
+        if (protocol != null && protocol.equals("ip")) {
+            throw new FilterParseException(first.offset, "\"ip\" cannot be combined with \"" + type + "\"");
+        }
+        return createPort(protocol, direction, type, value);
+    }
+
+    private static Prefilter createProtocol(final String protocol) {
+        if (protocol.equals("udp")) {
+            return PacketCursor::isUDP;
+        }
+        if (protocol.equals("tcp")) {
+            return PacketCursor::isTCP;
+        }
+        return PacketCursor::isIPv4;
+    }
+
+    private Prefilter createHost(final String direction, final Token value) throws FilterParseException {
+        final int ip = parseAddress(value, value.text, 4);
+        return createAddressMatch(direction, address -> address == ip);
+    }
+
+    /**
+     * A network is either given with a prefix length, as in "10.1.0.0/16", or
+     * by leaving out the host part, as in "10.1".
+     */
+    private Prefilter createNet(final String direction, final Token value) throws FilterParseException {
+        final String text = value.text;
+        final int slash = text.indexOf('/');
+        final int network;
+        final int length;
+        if (slash == -1) {
+            final int octets = text.split("\\.", -1).length;
+            network = parseAddress(value, text, octets) << 8 * (4 - octets);
+            length = 8 * octets;
+        } else {
+            network = parseAddress(value, text.substring(0, slash), 4);
+            length = parseNumber(value, text.substring(slash + 1), 32);
+        }
+
+        final int mask = length == 0 ? 0 : -1 << 32 - length;
+        if ((network & ~mask) != 0) {
+            throw new FilterParseException(value.offset, "Non-network bits set in \"" + text + "\"");
+        }
+        return createAddressMatch(direction, address -> (address & mask) == network);
+    }
+
+    private static Prefilter createAddressMatch(final String direction, final AddressMatch match) {
+        if ("src".equals(direction)) {
+            return cursor -> cursor.isIPv4() && match.matches(cursor.getRawSourceIp());
+        }
+        if ("dst".equals(direction)) {
+            return cursor -> cursor.isIPv4() && match.matches(cursor.getRawDestinationIp());
+        }
+        return cursor -> cursor.isIPv4()
+                && (match.matches(cursor.getRawSourceIp()) || match.matches(cursor.getRawDestinationIp()));
+    }
+
+    private Prefilter createPort(final String protocol, final String direction, final String type,
+            final Token value) throws FilterParseException {
+        final int low;
+        final int high;
+        if (type.equals("portrange")) {
+            final int dash = value.text.indexOf('-');
+            if (dash == -1) {
+                throw new FilterParseException(value.offset, "Expected a port range, e.g. 5060-5080");
+            }
+            low = parseNumber(value, value.text.substring(0, dash), MAX_PORT);
+            high = parseNumber(value, value.text.substring(dash + 1), MAX_PORT);
+            if (low > high) {
+                throw new FilterParseException(value.offset, "The port range \"" + value.text + "\" is empty");
+            }
+        } else {
+            low = parseNumber(value, value.text, MAX_PORT);
+            high = low;
+        }
+
+        final Prefilter transport = createTransport(protocol);
+        if ("src".equals(direction)) {
+            return cursor -> transport.accept(cursor) && inRange(cursor.getSourcePort(), low, high);
+        }
+        if ("dst".equals(direction)) {
+            return cursor -> transport.accept(cursor) && inRange(cursor.getDestinationPort(), low, high);
+        }
+        return cursor -> transport.accept(cursor)
+                && (inRange(cursor.getSourcePort(), low, high) || inRange(cursor.getDestinationPort(), low, high));
+    }
+
+    /**
+     * Only the first fragment of an IP packet carries the ports, so just like
+     * tcpdump we don't look for them in any of the others.
+     */
+    private static Prefilter createTransport(final String protocol) {
+        final Prefilter transport;
+        if ("udp".equals(protocol)) {
+            transport = PacketCursor::isUDP;
+        } else if ("tcp".equals(protocol)) {
+            transport = PacketCursor::isTCP;
+        } else {
+            transport = cursor -> cursor.getTransportOffset() != -1;
+        }
+        return cursor -> transport.accept(cursor)
+                && (cursor.getUnsignedShort(cursor.getNetworkOffset() + 6) & 0x1FFF) == 0;
+    }
+
+    private static boolean inRange(final int port, final int low, final int high) {
+        return port >= low && port <= high;
+    }
+
+    private static int parseAddress(final Token token, final String text, final int octets)
+            throws FilterParseException {
+        final String[] parts = text.split("\\.", -1);
+        if (parts.length != octets || octets > 4) {
+            throw new FilterParseException(token.offset, "Expected an IPv4 address but got \"" + token.text
+                    + "\" (host names are not resolved)");
+        }
+
+        int address = 0;
+        for (final String part : parts) {
+            address = address << 8 | parseNumber(token, part, 0xFF);
+        }
+        return address;
+    }
+
+    private static int parseNumber(final Token token, final String text, final int max)
+            throws FilterParseException {
+        if (text.isEmpty() || text.length() > 5) {
+            throw new FilterParseException(token.offset, "Expected a number but got \"" + token.text + "\"");
+        }
+        int value = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new FilterParseException(token.offset, "Expected a number but got \"" + token.text + "\"");
+            }
+            value = value * 10 + c - '0';
+        }
+        if (value > max) {
+            throw new FilterParseException(token.offset, "\"" + token.text + "\" is out of range");
+        }
+        return value;
+    }
+
+    private static boolean isProtocol(final String text) {
+        return text.equals("ip") || text.equals("udp") || text.equals("tcp");
+    }
+
+    private static boolean isType(final String text) {
+        return text != null
+                && (text.equals("host") || text.equals("net") || text.equals("port") || text.equals("portrange"));
+    }
+
+    private static boolean isQualifier(final String text) {
+        return text != null && (text.equals("src") || text.equals("dst") || isType(text));
+    }
+
+    private static boolean isValue(final String text) {
+        return text.charAt(0) >= '0' && text.charAt(0) <= '9';
+    }
+
+    private boolean consume(final String text) {
+        if (text.equals(peek())) {
+            ++this.position;
+            return true;
+        }
+        return false;
+    }
+
+    private String peek() {
+        return this.position < this.tokens.size() ? this.tokens.get(this.position).text : null;
+    }
+
+    private Token next(final String error) throws FilterParseException {
+        if (this.position >= this.tokens.size()) {
+            throw new FilterParseException(this.expression.length(), error);
+        }
+        return this.tokens.get(this.position++);
+    }
+
+    private int getOffset() {
+        return this.position < this.tokens.size() ? this.tokens.get(this.position).offset : this.expression.length();
+    }
+
+    private static List<Token> tokenize(final String expression) throws FilterParseException {
+        final List<Token> tokens = new ArrayList<Token>();
+        int i = 0;
+        while (i < expression.length()) {
+            final char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                ++i;
+            } else if (c == '(' || c == ')' || c == '!') {
+                tokens.add(new Token(String.valueOf(c), i));
+                ++i;
+            } else if (c == '&' || c == '|') {
+                if (i + 1 >= expression.length() || expression.charAt(i + 1) != c) {
+                    throw new FilterParseException(i, "Expected \"" + c + c + "\"");
+                }
+                tokens.add(new Token(expression.substring(i, i + 2), i));
+                i += 2;
+            } else {
+                final int start = i;
+                while (i < expression.length() && !isDelimiter(expression.charAt(i))) {
+                    ++i;
+                }
+                tokens.add(new Token(expression.substring(start, i).toLowerCase(), start));
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isDelimiter(final char c) {
+        return Character.isWhitespace(c) || c == '(' || c == ')' || c == '!' || c == '&' || c == '|';
+    }
+
+    @FunctionalInterface
+    private interface AddressMatch {
+        boolean matches(int address);
+    }
+
+    private static final class Token {
+        private final String text;
+        private final int offset;
+
+        private Token(final String text, final int offset) {
+            this.text = text;
+            this.offset = offset;
+        }
+    }
+
+}
@@ -35,7 +35,7 @@ public class SipHeaderFilter extends SipFilter {
             if (super.accept(packet)) {
                 final SipPacket msg = (SipPacket) packet.getPacket(Protocol.SIP);
                 final Optional<SipHeader> header = msg.getHeader(this.name);
-                if (header.isPresent()) {
+                if (!header.isPresent()) {
                     return false;
                 }
 
@@ -53,6 +53,23 @@ public final class PcapGlobalHeader {
     public static final byte[] MAGIC_MODIFIED = { (byte) 0xa1, (byte) 0xb2, (byte) 0xcd, (byte) 0x34 };
     public static final byte[] MAGIC_MODIFIED_SWAPPED = { (byte) 0x34, (byte) 0xcd, (byte) 0xb2, (byte) 0xa1 };
 
+    /**
+     * The link types we know how to frame. See
+     * http://www.tcpdump.org/linktypes.html for a complete list.
+     */
+    public static final int LINKTYPE_ETHERNET = 1;
+    public static final int LINKTYPE_RAW = 101;
+    public static final int LINKTYPE_LINUX_SLL = 113;
+    public static final int LINKTYPE_IPV4 = 228;
+    public static final int LINKTYPE_LINUX_SLL2 = 276;
+
+    /**
+     * Some platforms write their DLT_RAW value to the file instead of
+     * {@link #LINKTYPE_RAW}.
+     */
+    public static final int DLT_RAW = 12;
+    public static final int DLT_RAW_OPENBSD = 14;
+
     private final ByteOrder byteOrder;
     private final byte[] body;
 
@@ -67,6 +84,42 @@ public final class PcapGlobalHeader {
     }
 
     public static PcapGlobalHeader createDefaultHeader(final Protocol protocol) {
+        // See http://www.tcpdump.org/linktypes.html for a complete list
+        if (protocol == null || protocol == Protocol.ETHERNET_II) {
+            return createDefaultHeader(LINKTYPE_ETHERNET);
+        } else if (protocol == Protocol.SLL) {
+            return createDefaultHeader(LINKTYPE_LINUX_SLL);
+        } else if (protocol == Protocol.SLL2) {
+            return createDefaultHeader(LINKTYPE_LINUX_SLL2);
+        } else if (protocol == Protocol.RAW) {
+            return createDefaultHeader(LINKTYPE_RAW);
+        }
+
+        throw new IllegalArgumentException("Unknown protocol \"" + protocol
+                + "\". Not sure how to construct the global header. You probably need to add some code yourself");
+    }
+
+    /**
+     * Create a default header for the given data link type.
+     * 
+     * @param dataLinkType
+     *            the data link type, see http://www.tcpdump.org/linktypes.html
+     * @return
+     */
+    public static PcapGlobalHeader createDefaultHeader(final int dataLinkType) {
+        return createDefaultHeader(dataLinkType, 65535);
+    }
+
+    /**
+     * Create a default header for the given data link type and snap length.
+     * 
+     * @param dataLinkType
+     *            the data link type, see http://www.tcpdump.org/linktypes.html
+     * @param snapLength
+     *            the max number of bytes captured of any packet.
+     * @return
+     */
+    public static PcapGlobalHeader createDefaultHeader(final int dataLinkType, final long snapLength) {
         final byte[] body = new byte[20];
 
         // major version number
@@ -90,27 +143,16 @@ public final class PcapGlobalHeader {
         body[11] = (byte) 0x00;
 
         // snaplength - typically 65535
-        body[12] = (byte) 0xFF;
-        body[13] = (byte) 0xFF;
-        body[14] = (byte) 0x00;
-        body[15] = (byte) 0x00;
-
-        // data link type - default is ethernet
-        // See http://www.tcpdump.org/linktypes.html for a complete list
-        if (protocol == null || protocol == Protocol.ETHERNET_II) {
-            body[16] = (byte) 0x01;
-            body[17] = (byte) 0x00;
-            body[18] = (byte) 0x00;
-            body[19] = (byte) 0x00;
-        } else if (protocol == null || protocol == Protocol.SLL) {
-            body[16] = (byte) 0x71;
-            body[17] = (byte) 0x00;
-            body[18] = (byte) 0x00;
-            body[19] = (byte) 0x00;
-        } else {
-            throw new IllegalArgumentException("Unknown protocol \"" + protocol
-                    + "\". Not sure how to construct the global header. You probably need to add some code yourself");
-        }
+        body[12] = (byte) (snapLength & 0xFF);
+        body[13] = (byte) (snapLength >>> 8 & 0xFF);
+        body[14] = (byte) (snapLength >>> 16 & 0xFF);
+        body[15] = (byte) (snapLength >>> 24 & 0xFF);
+
+        // data link type
+        body[16] = (byte) (dataLinkType & 0xFF);
+        body[17] = (byte) (dataLinkType >>> 8 & 0xFF);
+        body[18] = (byte) (dataLinkType >>> 16 & 0xFF);
+        body[19] = (byte) (dataLinkType >>> 24 & 0xFF);
 
         return new PcapGlobalHeader(ByteOrder.LITTLE_ENDIAN, body);
 
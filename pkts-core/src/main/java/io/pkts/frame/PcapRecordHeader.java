@@ -75,14 +75,36 @@ public final class PcapRecordHeader {
         return new PcapRecordHeader(ByteOrder.LITTLE_ENDIAN, buffer);
     }
 
+    /**
+     * Create a record header with all fields set, e.g. for a packet that was
+     * read from a pcapng file, which keeps these fields in a different layout.
+     * 
+     * @param seconds
+     *            the timestamp, seconds since epoch
+     * @param microSeconds
+     *            the microseconds part of the timestamp
+     * @param capturedLength
+     * @param totalLength
+     * @return
+     */
+    public static PcapRecordHeader createHeader(final long seconds, final long microSeconds,
+            final long capturedLength, final long totalLength) {
+        final Buffer buffer = Buffers.wrap(new byte[16]);
+        buffer.setUnsignedInt(0, seconds);
+        buffer.setUnsignedInt(4, microSeconds);
+        buffer.setUnsignedInt(8, capturedLength);
+        buffer.setUnsignedInt(12, totalLength);
+        return new PcapRecordHeader(ByteOrder.LITTLE_ENDIAN, buffer);
+    }
+
     // private static void setUnsignedInt(int index, )
 
     public long getTimeStampSeconds() {
-        return PcapGlobalHeader.getUnsignedInt(0, this.body.getArray(), this.byteOrder);
+        return getUnsignedInt(0);
     }
 
     public long getTimeStampMicroSeconds() {
-        return PcapGlobalHeader.getUnsignedInt(4, this.body.getArray(), this.byteOrder);
+        return getUnsignedInt(4);
     }
 
     /**
@@ -93,7 +115,7 @@ public final class PcapRecordHeader {
      * @return
      */
     public long getTotalLength() {
-        return PcapGlobalHeader.getUnsignedInt(12, this.body.getArray(), this.byteOrder);
+        return getUnsignedInt(12);
     }
 
     public void setTotalLength(final long length) {
@@ -106,15 +128,32 @@ public final class PcapRecordHeader {
      * @return the length in bytes
      */
     public long getCapturedLength() {
-        return PcapGlobalHeader.getUnsignedInt(8, this.body.getArray(), this.byteOrder);
+        return getUnsignedInt(8);
     }
 
     public void setCapturedLength(final long length) {
         this.body.setUnsignedInt(8, length);
     }
 
+    /**
+     * Read the unsigned int straight out of the body, honoring the byte order
+     * of the pcap. Note that we do not want to go through
+     * {@link Buffer#getArray()} here since that would copy the body every
+     * single time one of the fields is accessed.
+     * 
+     * @param offset
+     * @return
+     */
+    private long getUnsignedInt(final int offset) {
+        final int value = this.body.getInt(offset);
+        if (this.byteOrder == ByteOrder.BIG_ENDIAN) {
+            return value & 0xFFFFFFFFL;
+        }
+        return Integer.reverseBytes(value) & 0xFFFFFFFFL;
+    }
+
     public void write(final OutputStream out) throws IOException {
-        out.write(this.body.getArray());
+        this.body.writeTo(out);
     }
 
     @Override
@@ -5,6 +5,8 @@ package io.pkts.framer;
 
 import io.pkts.Clock;
 import io.pkts.Pcap;
+import io.pkts.frame.PcapGlobalHeader;
+import io.pkts.packet.PCapPacket;
 
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -17,6 +19,11 @@ public final class FramerManager {
 
     private static final FramerManager instance = new FramerManager();
 
+    private static final EthernetFramer ethernetFramer = new EthernetFramer();
+    private static final SllFramer sllFramer = new SllFramer();
+    private static final Sll2Framer sll2Framer = new Sll2Framer();
+    private static final RawIpFramer rawIpFramer = new RawIpFramer();
+
     /**
      * The current time in the system, which is driven by
      * {@link Pcap#loop(io.pkts.FrameHandler)}.
@@ -34,6 +41,35 @@ public final class FramerManager {
         // left empty intentionally
     }
 
+    /**
+     * Get the framer for the link layer of the given data link type, which is
+     * what is found in the {@link PcapGlobalHeader} of a pcap (or in the
+     * interface description of a pcapng). Since the data link type is the same
+     * for every packet in the capture, the framer is picked once and then used
+     * for all of them.
+     * 
+     * @param dataLinkType
+     * @return the framer or null if we don't know of the data link type, in
+     *         which case you'll have to guess.
+     */
+    public Framer<PCapPacket> getLinkLayerFramer(final int dataLinkType) {
+        switch (dataLinkType) {
+            case PcapGlobalHeader.LINKTYPE_ETHERNET:
+                return ethernetFramer;
+            case PcapGlobalHeader.LINKTYPE_LINUX_SLL:
+                return sllFramer;
+            case PcapGlobalHeader.LINKTYPE_LINUX_SLL2:
+                return sll2Framer;
+            case PcapGlobalHeader.LINKTYPE_RAW:
+            case PcapGlobalHeader.LINKTYPE_IPV4:
+            case PcapGlobalHeader.DLT_RAW:
+            case PcapGlobalHeader.DLT_RAW_OPENBSD:
+                return rawIpFramer;
+            default:
+                return null;
+        }
+    }
+
     /**
      * Move the {@link Clock} to the specified time.
      * 
@@ -4,6 +4,7 @@
 package io.pkts.framer;
 
 import io.pkts.buffer.Buffer;
+import io.pkts.buffer.BufferPool;
 import io.pkts.frame.PcapGlobalHeader;
 import io.pkts.frame.PcapRecordHeader;
 import io.pkts.packet.PCapPacket;
@@ -22,16 +23,51 @@ public final class PcapFramer implements Framer<PCapPacket> {
     private final FramerManager framerManager;
     private final ByteOrder byteOrder;
 
+    /**
+     * Given by the data link type of the global header.
+     */
+    private final Framer<PCapPacket> linkLayerFramer;
+
+    /**
+     * If set, every record is copied into a buffer from this pool.
+     */
+    private final BufferPool pool;
+
     /**
      * 
      */
     public PcapFramer(final PcapGlobalHeader globalHeader, final FramerManager framerManager) {
+        this(globalHeader, framerManager, null);
+    }
+
+    /**
+     * Create a framer that copies every record (header and data) into a
+     * buffer allocated from the given pool instead of handing out views into
+     * the buffer we are framing. The frames are therefore independent of the
+     * underlying buffer, and once you release them (see
+     * {@link Buffer#release()}) the memory is reused for the frames to come.
+     * 
+     * The record is copied straight out of the buffer we are framing, without
+     * creating any views into it, which leaves e.g. a bounded
+     * {@link io.pkts.buffer.InputStreamBuffer} free to reuse its rows rather
+     * than allocating new ones. The headers of the protocols further up are
+     * views into the pooled buffer and as such share its reference count.
+     * 
+     * @param globalHeader
+     * @param framerManager
+     * @param pool
+     *            the pool to allocate from or null to hand out views, which is
+     *            what you get from {@link #PcapFramer(PcapGlobalHeader, FramerManager)}
+     */
+    public PcapFramer(final PcapGlobalHeader globalHeader, final FramerManager framerManager, final BufferPool pool) {
         assert globalHeader != null;
         assert framerManager != null;
 
         this.globalHeader = globalHeader;
         this.byteOrder = this.globalHeader.getByteOrder();
         this.framerManager = framerManager;
+        this.linkLayerFramer = framerManager.getLinkLayerFramer(globalHeader.getDataLinkType());
+        this.pool = pool;
     }
 
     @Override
@@ -47,6 +83,13 @@ public final class PcapFramer implements Framer<PCapPacket> {
 
         // note that for the PcapPacket the parent will always be null
         // so we are simply ignoring it.
+        if (this.pool != null) {
+            return framePooled(buffer);
+        }
+        return frameView(buffer);
+    }
+
+    private PCapPacket frameView(final Buffer buffer) throws IOException {
         Buffer record = null;
         try {
             record = buffer.readBytes(16);
@@ -56,11 +99,58 @@ public final class PcapFramer implements Framer<PCapPacket> {
             return null;
         }
 
+        if (record == null) {
+            return null;
+        }
+
         final PcapRecordHeader header = new PcapRecordHeader(this.byteOrder, record);
         final int length = (int) header.getCapturedLength();
         final int total = (int) header.getTotalLength();
-        final Buffer payload = buffer.readBytes(Math.min(length, total));
-        return new PCapPacketImpl(header, payload);
+        final int size = Math.min(length, total);
+        final Buffer payload = buffer.readBytes(size);
+        return new PCapPacketImpl(this.linkLayerFramer, header, payload);
+    }
+
+    /**
+     * Copy the next record into a buffer from the pool. We only peek at the
+     * lengths of the record header, then copy the header and the data in one
+     * go and move the reader index past them.
+     */
+    private PCapPacket framePooled(final Buffer buffer) throws IOException {
+        final int start = buffer.getReaderIndex();
+        final int size;
+        try {
+            buffer.getByte(start + 15);
+            size = (int) Math.min(getUnsignedInt(buffer, start + 8), getUnsignedInt(buffer, start + 12));
+        } catch (final IndexOutOfBoundsException e) {
+            return null;
+        }
+
+        if (size == 0) {
+            // nothing worth pooling if there is no data
+            return frameView(buffer);
+        }
+
+        final Buffer pooled = this.pool.allocate(16 + size);
+        buffer.getBytes(start, pooled);
+        final int read = pooled.getReadableBytes();
+        if (read < 16 + size) {
+            pooled.release();
+            throw new IndexOutOfBoundsException("Not enough bytes left in the stream. Wanted " + (16 + size)
+                    + " but only read " + read);
+        }
+        buffer.setReaderIndex(start + 16 + size);
+        return new PCapPacketImpl(this.linkLayerFramer, new PcapRecordHeader(this.byteOrder, pooled.slice(0, 16)),
+                pooled.slice(16, 16 + size));
+    }
+
+    private long getUnsignedInt(final Buffer buffer, final int index) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 4; ++i) {
+            final int shift = this.byteOrder == ByteOrder.BIG_ENDIAN ? 24 - 8 * i : 8 * i;
+            value |= (buffer.getByte(index + i) & 0xFFL) << shift;
+        }
+        return value;
     }
 
     @Override
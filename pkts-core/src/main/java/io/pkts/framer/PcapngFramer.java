@@ -0,0 +1,375 @@
+/**
+ *
+ */
+package io.pkts.framer;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.frame.PcapRecordHeader;
+import io.pkts.packet.PCapPacket;
+import io.pkts.packet.impl.PCapPacketImpl;
+import io.pkts.protocol.Protocol;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frames the packets of a pcapng file (see
+ * https://www.ietf.org/archive/id/draft-tuexen-opsawg-pcapng-05.html).
+ *
+ * A pcapng file is a sequence of blocks, each one starting with its type and
+ * its total length. We keep track of the section header blocks (which decide
+ * the byte order of everything that follows) and the interface description
+ * blocks (which decide e.g. the resolution of the timestamps of the packets
+ * captured on that interface) and turn every enhanced, simple and (obsolete)
+ * packet block into a {@link PCapPacket}, just as if it came from a regular
+ * pcap file. Any other block is skipped without looking at it.
+ *
+ * The data of the packets are not copied, they are slices of the blocks as
+ * read off of the underlying buffer. Only the record header (timestamp and
+ * lengths) is converted into the regular pcap layout.
+ *
+ * Note that the framer keeps state between calls to
+ * {@link #frame(PCapPacket, Buffer)}, it must be used for one file only.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public final class PcapngFramer implements Framer<PCapPacket> {
+
+    public static final int SECTION_HEADER_BLOCK = 0x0A0D0D0A;
+    public static final int INTERFACE_DESCRIPTION_BLOCK = 0x00000001;
+    public static final int PACKET_BLOCK = 0x00000002;
+    public static final int SIMPLE_PACKET_BLOCK = 0x00000003;
+    public static final int ENHANCED_PACKET_BLOCK = 0x00000006;
+
+    private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+    private static final int OPT_END_OF_OPT = 0;
+    private static final int OPT_IF_TSRESOL = 9;
+    private static final int OPT_IF_TSOFFSET = 14;
+
+    private static final long MICROS_PER_SECOND = 1000000L;
+
+    /**
+     * Used for packets referring to an interface we haven't seen, which means
+     * the file is broken, but there is no reason to give up on it.
+     */
+    private static final InterfaceDescription UNKNOWN_INTERFACE = new InterfaceDescription(-1, 0,
+            MICROS_PER_SECOND, 0);
+
+    private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
+
+    private final List<InterfaceDescription> interfaces = new ArrayList<InterfaceDescription>();
+
+    /**
+     * A packet we came across while looking for the first interface in
+     * {@link #readFileHeader(Buffer)}.
+     */
+    private PCapPacket pending;
+
+    @Override
+    public Protocol getProtocol() {
+        return Protocol.PCAP;
+    }
+
+    /**
+     * Check whether the buffer looks like the start of a pcapng file. Only the
+     * first byte is looked at and nothing is consumed.
+     *
+     * @param buffer
+     * @return
+     * @throws IOException
+     */
+    public static boolean isPcapng(final Buffer buffer) throws IOException {
+        return buffer.peekByte() == (byte) (SECTION_HEADER_BLOCK >>> 24);
+    }
+
+    /**
+     * Read the section header block, which must be the first block of the
+     * file, and then carry on until we find the first interface description
+     * block. Any packet we come across in the meantime will be the first one
+     * returned by {@link #frame(PCapPacket, Buffer)}.
+     *
+     * @param buffer
+     * @return the data link type of the first interface or -1 (negative one)
+     *         if the file doesn't describe any interfaces.
+     * @throws IOException
+     * @throws IllegalArgumentException
+     *             in case this isn't a pcapng file.
+     */
+    public int readFileHeader(final Buffer buffer) throws IOException, IllegalArgumentException {
+        final Buffer header = readBytes(buffer, 8);
+        if (header == null || header.getInt(0) != SECTION_HEADER_BLOCK) {
+            throw new IllegalArgumentException("Not a pcapng file, the section header block is missing");
+        }
+        readSectionHeader(header, buffer);
+
+        while (this.interfaces.isEmpty() && this.pending == null) {
+            final PCapPacket packet = nextPacket(buffer);
+            if (packet == null) {
+                break;
+            }
+            this.pending = packet;
+        }
+
+        return this.interfaces.isEmpty() ? -1 : this.interfaces.get(0).linkType;
+    }
+
+    /**
+     * The data link type of the given interface within the current section.
+     *
+     * @param interfaceId
+     * @return the link type or -1 (negative one) if there is no such interface
+     */
+    public int getDataLinkType(final int interfaceId) {
+        if (interfaceId < 0 || interfaceId >= this.interfaces.size()) {
+            return -1;
+        }
+        return this.interfaces.get(interfaceId).linkType;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PCapPacket frame(final PCapPacket parent, final Buffer buffer) throws IOException {
+        if (this.pending != null) {
+            final PCapPacket packet = this.pending;
+            this.pending = null;
+            return packet;
+        }
+        return nextPacket(buffer);
+    }
+
+    /**
+     * Read blocks until we find one with a packet in it.
+     */
+    private PCapPacket nextPacket(final Buffer buffer) throws IOException {
+        while (true) {
+            final Buffer header = readBytes(buffer, 8);
+            if (header == null) {
+                return null;
+            }
+
+            // same in both byte orders
+            final int type = header.getInt(0);
+            if (type == SECTION_HEADER_BLOCK) {
+                readSectionHeader(header, buffer);
+                continue;
+            }
+
+            final int length = toInt(header.getInt(4));
+            if (length < 12 || length % 4 != 0) {
+                throw new IllegalArgumentException("Corrupt pcapng block, the length is " + length);
+            }
+
+            // the body followed by the length once more
+            final Buffer block = readBytes(buffer, length - 8);
+            if (block == null) {
+                // truncated file
+                return null;
+            }
+            final Buffer body = block.slice(0, length - 12);
+
+            switch (toInt(type)) {
+            case INTERFACE_DESCRIPTION_BLOCK:
+                this.interfaces.add(parseInterfaceDescription(body));
+                break;
+            case ENHANCED_PACKET_BLOCK:
+                return frameEnhancedPacket(toInt(body.getInt(0)), body);
+            case PACKET_BLOCK:
+                return frameEnhancedPacket(toShort(body.getShort(0)) & 0xFFFF, body);
+            case SIMPLE_PACKET_BLOCK:
+                return frameSimplePacket(body);
+            default:
+                // name resolution, statistics, custom blocks etc, none of
+                // which we care about
+                break;
+            }
+        }
+    }
+
+    /**
+     * The type and the length of the block have been read already. The byte
+     * order magic tells us the byte order of this section, which we need to
+     * know before we can make any sense of the length.
+     */
+    private void readSectionHeader(final Buffer header, final Buffer buffer) throws IOException {
+        final Buffer magic = readBytes(buffer, 4);
+        if (magic == null) {
+            throw new IllegalArgumentException("Truncated pcapng section header block");
+        }
+
+        final int value = magic.getInt(0);
+        if (value == BYTE_ORDER_MAGIC) {
+            this.byteOrder = ByteOrder.BIG_ENDIAN;
+        } else if (Integer.reverseBytes(value) == BYTE_ORDER_MAGIC) {
+            this.byteOrder = ByteOrder.LITTLE_ENDIAN;
+        } else {
+            throw new IllegalArgumentException("Unknown byte order magic in the pcapng section header block");
+        }
+
+        final int length = toInt(header.getInt(4));
+        if (length < 28 || length % 4 != 0) {
+            throw new IllegalArgumentException("Corrupt pcapng section header block, the length is " + length);
+        }
+
+        // version, section length and options. Nothing we need.
+        readBytes(buffer, length - 12);
+
+        // interface ids are local to the section
+        this.interfaces.clear();
+    }
+
+    private InterfaceDescription parseInterfaceDescription(final Buffer body) throws IOException {
+        final int linkType = toShort(body.getShort(0)) & 0xFFFF;
+        final long snapLength = toInt(body.getInt(4)) & 0xFFFFFFFFL;
+        long unitsPerSecond = MICROS_PER_SECOND;
+        long offset = 0;
+
+        int i = 8;
+        while (i + 4 <= body.capacity()) {
+            final int code = toShort(body.getShort(i)) & 0xFFFF;
+            final int length = toShort(body.getShort(i + 2)) & 0xFFFF;
+            if (code == OPT_END_OF_OPT || i + 4 + length > body.capacity()) {
+                break;
+            }
+
+            if (code == OPT_IF_TSRESOL && length >= 1) {
+                unitsPerSecond = toUnitsPerSecond(body.getUnsignedByte(i + 4));
+            } else if (code == OPT_IF_TSOFFSET && length >= 8) {
+                offset = getLong(body, i + 4);
+            }
+
+            // the values are padded to 32 bits
+            i += 4 + (length + 3 & ~3);
+        }
+
+        return new InterfaceDescription(linkType, snapLength, unitsPerSecond, offset);
+    }
+
+    /**
+     * The if_tsresol option is a negative power of 10 unless the most
+     * significant bit is set, in which case it is a negative power of 2.
+     */
+    private static long toUnitsPerSecond(final int tsresol) {
+        if ((tsresol & 0x80) == 0) {
+            long units = 1;
+            for (int i = 0; i < Math.min(tsresol, 18); ++i) {
+                units *= 10;
+            }
+            return units;
+        }
+        return 1L << Math.min(tsresol & 0x7F, 62);
+    }
+
+    /**
+     * The enhanced packet block and the obsolete packet block only differ in
+     * the first four bytes.
+     */
+    private PCapPacket frameEnhancedPacket(final int interfaceId, final Buffer body) throws IOException {
+        final long high = toInt(body.getInt(4)) & 0xFFFFFFFFL;
+        final long low = toInt(body.getInt(8)) & 0xFFFFFFFFL;
+        final int captured = Math.max(0, Math.min(toInt(body.getInt(12)), body.capacity() - 20));
+        final long original = toInt(body.getInt(16)) & 0xFFFFFFFFL;
+        final Buffer data = body.slice(20, 20 + captured);
+        return createPacket(getInterface(interfaceId), high << 32 | low, captured, original, data);
+    }
+
+    /**
+     * The simple packet block has no timestamp and only the original length,
+     * the captured length is whatever fits within the block, which is capped
+     * by the snap length of the first interface.
+     */
+    private PCapPacket frameSimplePacket(final Buffer body) throws IOException {
+        final InterfaceDescription description = getInterface(0);
+        final long original = toInt(body.getInt(0)) & 0xFFFFFFFFL;
+        long captured = Math.min(original, body.capacity() - 4);
+        if (description.snapLength > 0) {
+            captured = Math.min(captured, description.snapLength);
+        }
+        final Buffer data = body.slice(4, 4 + (int) captured);
+        return createPacket(description, 0, captured, original, data);
+    }
+
+    private PCapPacket createPacket(final InterfaceDescription description, final long timestamp,
+            final long captured, final long original, final Buffer data) {
+        final long units = description.unitsPerSecond;
+        final long seconds = timestamp / units + description.offset;
+        final long fraction = timestamp % units;
+        long micros = 0;
+        if (units == MICROS_PER_SECOND) {
+            micros = fraction;
+        } else if (units <= Long.MAX_VALUE / MICROS_PER_SECOND) {
+            micros = fraction * MICROS_PER_SECOND / units;
+        } else {
+            micros = (long) (fraction / (double) units * MICROS_PER_SECOND);
+        }
+
+        final PcapRecordHeader header = PcapRecordHeader.createHeader(seconds, micros, captured, original);
+        return new PCapPacketImpl(description.linkLayerFramer, header, data);
+    }
+
+    private InterfaceDescription getInterface(final int interfaceId) {
+        if (interfaceId < 0 || interfaceId >= this.interfaces.size()) {
+            return UNKNOWN_INTERFACE;
+        }
+        return this.interfaces.get(interfaceId);
+    }
+
+    /**
+     * The buffer's getters are big endian, swap the bytes if this section is
+     * in little endian.
+     */
+    private int toInt(final int value) {
+        return this.byteOrder == ByteOrder.BIG_ENDIAN ? value : Integer.reverseBytes(value);
+    }
+
+    private short toShort(final short value) {
+        return this.byteOrder == ByteOrder.BIG_ENDIAN ? value : Short.reverseBytes(value);
+    }
+
+    private long getLong(final Buffer buffer, final int index) {
+        final long first = toInt(buffer.getInt(index)) & 0xFFFFFFFFL;
+        final long second = toInt(buffer.getInt(index + 4)) & 0xFFFFFFFFL;
+        if (this.byteOrder == ByteOrder.BIG_ENDIAN) {
+            return first << 32 | second;
+        }
+        return second << 32 | first;
+    }
+
+    /**
+     * @return the bytes or null if we have reached the end of the buffer.
+     */
+    private static Buffer readBytes(final Buffer buffer, final int length) throws IOException {
+        try {
+            return buffer.readBytes(length);
+        } catch (final IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean accept(final Buffer data) throws IOException {
+        return data.getReadableBytes() >= 4 && data.getInt(data.getReaderIndex()) == SECTION_HEADER_BLOCK;
+    }
+
+    private static final class InterfaceDescription {
+        private final int linkType;
+        private final long snapLength;
+        private final long unitsPerSecond;
+        private final long offset;
+        private final Framer<PCapPacket> linkLayerFramer;
+
+        private InterfaceDescription(final int linkType, final long snapLength, final long unitsPerSecond,
+                final long offset) {
+            this.linkType = linkType;
+            this.linkLayerFramer = FramerManager.getInstance().getLinkLayerFramer(linkType);
+            this.snapLength = snapLength;
+            this.unitsPerSecond = unitsPerSecond;
+            this.offset = offset;
+        }
+    }
+
+}
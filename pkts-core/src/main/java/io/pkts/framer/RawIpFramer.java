@@ -0,0 +1,66 @@
+/**
+ * 
+ */
+package io.pkts.framer;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.MACPacket;
+import io.pkts.packet.PCapPacket;
+import io.pkts.packet.impl.MACPacketImpl;
+import io.pkts.protocol.Protocol;
+
+import java.io.IOException;
+
+/**
+ * Raw IP captures (LINKTYPE_RAW and LINKTYPE_IPV4) have no link layer at all,
+ * the packet starts with the IP header. To keep the layers the same as for
+ * every other capture we still create a {@link MACPacket}, with an empty
+ * header, so that e.g. the source and destination MAC addresses simply are
+ * null.
+ * 
+ * Note that LINKTYPE_RAW may carry IPv6 as well, which we can't frame (yet).
+ * 
+ * @author jonas@jonasborjesson.com
+ */
+public class RawIpFramer implements Framer<PCapPacket> {
+
+    public RawIpFramer() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Protocol getProtocol() {
+        return Protocol.RAW;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MACPacket frame(final PCapPacket parent, final Buffer buffer) throws IOException {
+        if (parent == null) {
+            throw new IllegalArgumentException("The parent frame cannot be null");
+        }
+
+        final Buffer payload = buffer.slice(buffer.capacity());
+        return new MACPacketImpl(Protocol.RAW, parent, Buffers.EMPTY_BUFFER, payload);
+    }
+
+    /**
+     * Only accept IPv4 since that is all we can frame.
+     * 
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean accept(final Buffer buffer) throws IOException {
+        try {
+            return buffer.getReadableBytes() >= 20 && (buffer.getByte(buffer.getReaderIndex()) & 0xF0) == 0x40;
+        } catch (final IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * 
+ */
+package io.pkts.framer;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.packet.MACPacket;
+import io.pkts.packet.PCapPacket;
+import io.pkts.packet.impl.Sll2PacketImpl;
+import io.pkts.protocol.Protocol;
+
+import java.io.IOException;
+
+/**
+ * SLL2 is the second version of the linux cooked-mode capture, which is what
+ * you get when capturing on the "any" device with a recent libpcap.
+ * 
+ * https://www.tcpdump.org/linktypes/LINKTYPE_LINUX_SLL2.html
+ * 
+ * The header is 20 bytes:
+ * 
+ * a 2-byte protocol type (the ethertype);
+ * 
+ * 2 reserved bytes;
+ * 
+ * a 4-byte interface index;
+ * 
+ * a 2-byte ARPHRD_ type;
+ * 
+ * a 1-byte packet type, same as for SLL;
+ * 
+ * a 1-byte link-layer address length;
+ * 
+ * an 8-byte source link-layer address, whose actual length is specified by
+ * the previous value.
+ * 
+ * @author jonas@jonasborjesson.com
+ */
+public class Sll2Framer implements Framer<PCapPacket> {
+
+    private static final int HEADER_SIZE = 20;
+
+    /**
+     * LINUX_SLL_OUTGOING is the highest packet type.
+     */
+    private static final byte MAX_PACKET_TYPE = (byte) 0x04;
+
+    public Sll2Framer() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Protocol getProtocol() {
+        return Protocol.SLL2;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MACPacket frame(final PCapPacket parent, final Buffer buffer) throws IOException {
+        if (parent == null) {
+            throw new IllegalArgumentException("The parent frame cannot be null");
+        }
+
+        final Buffer headers = buffer.readBytes(HEADER_SIZE);
+        final Buffer payload = buffer.slice(buffer.capacity());
+        return new Sll2PacketImpl(parent, headers, payload);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean accept(final Buffer buffer) throws IOException {
+        buffer.markReaderIndex();
+        try {
+            final Buffer test = buffer.readBytes(HEADER_SIZE);
+            final byte packetType = test.getByte(10);
+            return packetType >= 0 && packetType <= MAX_PACKET_TYPE
+                    && EthernetFramer.getEtherTypeSafe(test.getByte(0), test.getByte(1)) != null;
+        } catch (final IndexOutOfBoundsException e) {
+            return false;
+        } finally {
+            buffer.resetReaderIndex();
+        }
+    }
+
+}
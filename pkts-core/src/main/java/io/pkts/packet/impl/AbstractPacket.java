@@ -10,6 +10,7 @@ import io.pkts.packet.TransportPacket;
 import io.pkts.packet.UDPPacket;
 import io.pkts.packet.sip.SipPacket;
 import io.pkts.protocol.Protocol;
+import io.pkts.protocol.Protocol.Layer;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -39,10 +40,30 @@ public abstract class AbstractPacket implements Packet {
     private final Packet parent;
 
     /**
-     * The next packet.
+     * The next packet, framed the first time we are asked about the layers
+     * below this one (see {@link #getPacket(Protocol)}) and then kept so that
+     * we never frame the same layer twice. Null if there is no next packet,
+     * or if we haven't looked yet, see {@link #framed}.
      */
     private Packet nextPacket;
 
+    /**
+     * Whether {@link #nextPacket} (or {@link #failure}) is the outcome of
+     * framing the next packet.
+     */
+    private boolean framed;
+
+    /**
+     * If framing the next packet failed, this is why, so that we fail the
+     * same way every time rather than trying again.
+     */
+    private Exception failure;
+
+    /**
+     * The highest layer that will be framed, or null for all of them.
+     */
+    private Layer decodeDepth;
+
     /**
      * 
      * @param p
@@ -75,20 +96,14 @@ public abstract class AbstractPacket implements Packet {
     }
 
     /**
-     * The write strategy is fairly simple. If we have a "nextPacket" it means
-     * that we have been asked to frame our payload which also means that that
-     * payload may have changed and therefore ask the nextPacket to write itself
-     * back out to the stream. If there is no nextPacket we can just take the
-     * raw payload and write it out as is since it cannot have changed since we
-     * framed this packet.
+     * The raw payload is written out as is, even if the next packet has been
+     * framed (see {@link #getPacket(Protocol)}), since not every layer knows
+     * how to write itself back out (RTP and SDP don't). If you have changed
+     * e.g. the SIP message, write that packet instead.
      */
     @Override
     public final void write(final OutputStream out) throws IOException {
-        if (this.nextPacket != null) {
-            this.nextPacket.write(out);
-        } else {
-            this.write(out, this.payload);
-        }
+        this.write(out, this.payload);
     }
 
     @Override
@@ -139,7 +154,7 @@ public abstract class AbstractPacket implements Packet {
             return this;
         }
 
-        final Packet child = getNextPacket();
+        final Packet child = getFramedNextPacket();
         if (child != null && child.getProtocol() == p) {
             return child;
         }
@@ -151,6 +166,63 @@ public abstract class AbstractPacket implements Packet {
         return child.getPacket(p);
     }
 
+    /**
+     * Frame the next packet the first time around and then keep handing out
+     * the same one, or the same failure. Unlike {@link #getNextPacket()},
+     * this is the packet {@link #getPacket(Protocol)} hands out and it is
+     * never framed beyond the decode depth (see
+     * {@link #setDecodeDepth(Layer)}), so use this when you need to look at
+     * the next layer without framing it again.
+     * 
+     * @return the next packet or null if there is none, or if it is beyond
+     *         the decode depth.
+     * @throws IOException
+     */
+    public Packet getFramedNextPacket() throws IOException {
+        if (!this.framed) {
+            try {
+                if (!isAtDecodeDepth()) {
+                    this.nextPacket = getNextPacket();
+                }
+                if (this.nextPacket instanceof AbstractPacket) {
+                    ((AbstractPacket) this.nextPacket).decodeDepth = this.decodeDepth;
+                }
+            } catch (final IOException | RuntimeException e) {
+                this.failure = e;
+            }
+            this.framed = true;
+        }
+
+        if (this.failure instanceof IOException) {
+            throw (IOException) this.failure;
+        }
+        if (this.failure != null) {
+            throw (RuntimeException) this.failure;
+        }
+        return this.nextPacket;
+    }
+
+    private boolean isAtDecodeDepth() {
+        final Layer layer = this.protocol.getProtocolLayer();
+        return this.decodeDepth != null && layer != null && layer.compareTo(this.decodeDepth) >= 0;
+    }
+
+    /**
+     * Don't frame anything beyond the given layer when asked for the packets
+     * within this one, see {@link #getPacket(Protocol)}, which then simply
+     * returns null. The packets framed from this one, and the ones framed
+     * from them, inherit the depth. Set it before asking for any of the
+     * packets within this one.
+     * 
+     * Note that {@link #getNextPacket()} is not affected.
+     * 
+     * @param decodeDepth
+     *            the highest layer to frame or null for all of them.
+     */
+    public void setDecodeDepth(final Layer decodeDepth) {
+        this.decodeDepth = decodeDepth;
+    }
+
     public Packet checkParent(final Protocol p) {
         Packet current = this.parent;
         while (current != null && current.getProtocol() != p) {
@@ -142,8 +142,8 @@ public final class IPPacketImpl extends AbstractPacket implements IPPacket {
 
     @Override
     public void write(final OutputStream out, final Buffer payload) throws IOException {
-        // Note, you need to set the total length before you merge the packets since
-        // Buffers.wrap will copy the bytes.
+        // Note, the total length and the checksum are part of the headers
+        // so make sure they are up to date before we hand them off.
         final int size = this.headers.getReadableBytes() + (payload != null ? payload.getReadableBytes() : 0);
         this.setTotalLength(size);
         reCalculateChecksum();
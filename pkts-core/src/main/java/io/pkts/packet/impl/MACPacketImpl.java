@@ -17,7 +17,7 @@ import java.io.OutputStream;
 /**
  * @author jonas@jonasborjesson.com
  */
-public final class MACPacketImpl extends AbstractPacket implements MACPacket {
+public class MACPacketImpl extends AbstractPacket implements MACPacket {
 
     private static final IPv4Framer framer = new IPv4Framer();
 
@@ -71,7 +71,7 @@ public final class MACPacketImpl extends AbstractPacket implements MACPacket {
      * {@inheritDoc}
      */
     @Override
-    public final String getSourceMacAddress() {
+    public String getSourceMacAddress() {
         if (this.sourceMacAddress != null) {
             return this.sourceMacAddress;
         }
@@ -84,6 +84,11 @@ public final class MACPacketImpl extends AbstractPacket implements MACPacket {
     }
 
     public static String toHexString(final Buffer buffer, final int start, final int length) throws IOException {
+        if (buffer.capacity() < start + length) {
+            // e.g. raw IP, which has no link layer header
+            return null;
+        }
+
         final StringBuilder sb = new StringBuilder();
         for (int i = start; i < start + length; ++i) {
             final byte b = buffer.getByte(i);
@@ -99,7 +104,7 @@ public final class MACPacketImpl extends AbstractPacket implements MACPacket {
      * {@inheritDoc}
      */
     @Override
-    public final String getDestinationMacAddress() {
+    public String getDestinationMacAddress() {
         if (this.destinationMacAddress != null) {
             return this.destinationMacAddress;
         }
@@ -165,20 +170,28 @@ public final class MACPacketImpl extends AbstractPacket implements MACPacket {
      */
     private void setMacAddress(final String macAddress, final boolean setSourceMacAddress)
             throws IllegalArgumentException {
-        if (macAddress == null || macAddress.isEmpty()) {
-            throw new IllegalArgumentException("Null or empty string cannot be a valid MAC Address.");
-        }
-        // very naive implementation first.
-        final String[] segments = macAddress.split(":");
+        final String[] segments = split(macAddress);
         if (segments.length != 6) {
             throw new IllegalArgumentException("Invalid MAC Address. Not enough segments");
         }
 
         final int offset = setSourceMacAddress ? 6 : 0;
-        for (int i = 0; i < 6; ++i) {
+        setMacAddress(this.headers, offset, segments);
+    }
+
+    static String[] split(final String macAddress) throws IllegalArgumentException {
+        if (macAddress == null || macAddress.isEmpty()) {
+            throw new IllegalArgumentException("Null or empty string cannot be a valid MAC Address.");
+        }
+        // very naive implementation first.
+        return macAddress.split(":");
+    }
+
+    static void setMacAddress(final Buffer headers, final int offset, final String[] segments) {
+        for (int i = 0; i < segments.length; ++i) {
             final byte b = (byte) ((Character.digit(segments[i].charAt(0), 16) << 4) + Character.digit(segments[i]
                     .charAt(1), 16));
-            this.headers.setByte(i + offset, b);
+            headers.setByte(i + offset, b);
         }
     }
 
@@ -6,6 +6,7 @@ package io.pkts.packet.impl;
 import io.pkts.buffer.Buffer;
 import io.pkts.frame.PcapRecordHeader;
 import io.pkts.framer.EthernetFramer;
+import io.pkts.framer.Framer;
 import io.pkts.framer.SllFramer;
 import io.pkts.packet.MACPacket;
 import io.pkts.packet.PCapPacket;
@@ -30,11 +31,33 @@ public final class PCapPacketImpl extends AbstractPacket implements PCapPacket {
     private static final EthernetFramer ethernetFramer = new EthernetFramer();
 
     /**
-     * 
+     * The framer of the link layer, as given by the data link type of the
+     * capture, or null if we have to guess.
+     */
+    private final Framer<PCapPacket> linkLayerFramer;
+
+    /**
+     * Create a pcap packet where the link layer is either SLL or Ethernet,
+     * which is figured out by looking at the payload.
      */
     public PCapPacketImpl(final PcapRecordHeader header, final Buffer payload) {
+        this(null, header, payload);
+    }
+
+    /**
+     * 
+     * @param linkLayerFramer
+     *            the framer of the link layer (see
+     *            {@link io.pkts.framer.FramerManager#getLinkLayerFramer(int)}
+     *            ) or null to guess between SLL and Ethernet.
+     * @param header
+     * @param payload
+     */
+    public PCapPacketImpl(final Framer<PCapPacket> linkLayerFramer, final PcapRecordHeader header,
+            final Buffer payload) {
         super(Protocol.PCAP, null, payload);
         this.pcapHeader = header;
+        this.linkLayerFramer = linkLayerFramer;
     }
 
     /**
@@ -84,7 +107,7 @@ public final class PCapPacketImpl extends AbstractPacket implements PCapPacket {
         this.pcapHeader.setCapturedLength(size);
         this.pcapHeader.setTotalLength(size);
         this.pcapHeader.write(out);
-        out.write(payload.getArray());
+        payload.writeTo(out);
     }
 
     @Override
@@ -99,6 +122,10 @@ public final class PCapPacketImpl extends AbstractPacket implements PCapPacket {
             return null;
         }
 
+        if (this.linkLayerFramer != null) {
+            return (MACPacket) this.linkLayerFramer.frame(this, payload);
+        }
+
         if (sllFramer.accept(payload)) {
             return sllFramer.frame(this, payload);
         }
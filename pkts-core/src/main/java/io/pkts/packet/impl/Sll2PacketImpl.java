@@ -0,0 +1,99 @@
+/**
+ * 
+ */
+package io.pkts.packet.impl;
+
+import io.pkts.buffer.Buffer;
+import io.pkts.packet.MACPacket;
+import io.pkts.packet.PCapPacket;
+import io.pkts.protocol.Protocol;
+
+import java.io.IOException;
+
+/**
+ * The SLL2 header doesn't look anything like an Ethernet header. There is no
+ * destination address at all and the source address is found at offset 12,
+ * with its length (at most 8 bytes) in the byte just before it.
+ * 
+ * @author jonas@jonasborjesson.com
+ */
+public final class Sll2PacketImpl extends MACPacketImpl {
+
+    private static final int ADDRESS_LENGTH_INDEX = 11;
+
+    private static final int ADDRESS_INDEX = 12;
+
+    private static final int MAX_ADDRESS_LENGTH = 8;
+
+    private final PCapPacket parent;
+
+    private final Buffer headers;
+
+    public Sll2PacketImpl(final PCapPacket parent, final Buffer headers, final Buffer payload) {
+        super(Protocol.SLL2, parent, headers, payload);
+        this.parent = parent;
+        this.headers = headers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getSourceMacAddress() {
+        try {
+            final int length = Math.min(this.headers.getByte(ADDRESS_LENGTH_INDEX) & 0xFF, MAX_ADDRESS_LENGTH);
+            if (length == 0) {
+                return null;
+            }
+            return toHexString(this.headers, ADDRESS_INDEX, length);
+        } catch (final IOException e) {
+            throw new RuntimeException("Unable to read data from the underlying Buffer.", e);
+        }
+    }
+
+    /**
+     * SLL2 only records the address of the sender so there is no destination
+     * address to be had.
+     * 
+     * @return null, always.
+     */
+    @Override
+    public String getDestinationMacAddress() {
+        return null;
+    }
+
+    /**
+     * Set the source link-layer address, which may be anything from 1 to 8
+     * bytes long. The address length in the header is updated to match.
+     */
+    @Override
+    public void setSourceMacAddress(final String macAddress) throws IllegalArgumentException {
+        final String[] segments = split(macAddress);
+        if (segments.length > MAX_ADDRESS_LENGTH) {
+            throw new IllegalArgumentException("Invalid link-layer address. Too many segments");
+        }
+
+        setMacAddress(this.headers, ADDRESS_INDEX, segments);
+        for (int i = segments.length; i < MAX_ADDRESS_LENGTH; ++i) {
+            this.headers.setByte(ADDRESS_INDEX + i, (byte) 0);
+        }
+        this.headers.setByte(ADDRESS_LENGTH_INDEX, (byte) segments.length);
+    }
+
+    /**
+     * There is no destination address in the SLL2 header.
+     * 
+     * @throws IllegalArgumentException
+     *             always.
+     */
+    @Override
+    public void setDestinationMacAddress(final String macAddress) throws IllegalArgumentException {
+        throw new IllegalArgumentException("The SLL2 header has no destination address");
+    }
+
+    @Override
+    public MACPacket clone() {
+        return new Sll2PacketImpl(this.parent.clone(), this.headers.clone(), getPayload().clone());
+    }
+
+}
@@ -61,8 +61,8 @@ public final class UdpPacketImpl extends TransportPacketImpl implements UDPPacke
 
     @Override
     public final void write(final OutputStream out, final Buffer payload) throws IOException {
-        // Note: because the Buffers.wrap will copy the bytes we cannot change the length
-        // in this.headers after we have wrapped them. Simply wont work...
+        // Note: the length and the checksum live in this.headers, which Buffers.wrap
+        // shares rather than copies, so they are set before we write anything out.
         final int size = this.headers.getReadableBytes() + (payload != null ? payload.getReadableBytes() : 0);
         this.setLength(size);
         reCalculateChecksum();
@@ -0,0 +1,226 @@
+/**
+ *
+ */
+package io.pkts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import io.pkts.buffer.BufferPool;
+import io.pkts.frame.PcapGlobalHeader;
+import io.pkts.packet.Packet;
+import io.pkts.packet.impl.AbstractPacket;
+import io.pkts.packet.sip.SipPacket;
+import io.pkts.protocol.Protocol;
+import io.pkts.protocol.Protocol.Layer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class DispatchingPacketHandlerTest {
+
+    /**
+     * The arrival time of every packet, per Call-ID, as seen when looping
+     * through the pcap on a single thread.
+     */
+    private Map<String, List<Long>> expected;
+
+    @Before
+    public void setUp() throws Exception {
+        final CallHandler handler = new CallHandler();
+        final Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        pcap.loop(handler);
+        pcap.close();
+        this.expected = handler.calls;
+        assertThat(this.expected.size() > 1, is(true));
+    }
+
+    @Test
+    public void testCallIdAffinity() throws Exception {
+        verifyCallIdAffinity(1, false);
+        verifyCallIdAffinity(3, false);
+        verifyCallIdAffinity(8, false);
+        verifyCallIdAffinity(4, true);
+    }
+
+    private void verifyCallIdAffinity(final int threads, final boolean pooled) throws Exception {
+        final DispatchingPacketHandler<CallHandler> dispatcher = new DispatchingPacketHandler<CallHandler>(threads, 2,
+                DispatchingPacketHandler.SIP_CALL_ID, CallHandler::new);
+        final Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        if (pooled) {
+            pcap.loop(dispatcher, new BufferPool());
+        } else {
+            pcap.loop(dispatcher);
+        }
+        pcap.close();
+        dispatcher.close();
+
+        // every call is handled by a single handler, in order
+        final Map<String, List<Long>> actual = new HashMap<String, List<Long>>();
+        for (final CallHandler handler : dispatcher.getHandlers()) {
+            for (final Map.Entry<String, List<Long>> call : handler.calls.entrySet()) {
+                assertThat(actual.put(call.getKey(), call.getValue()) == null, is(true));
+            }
+        }
+        assertThat(actual, is(this.expected));
+    }
+
+    /**
+     * Both directions of a flow must end up with the same handler.
+     */
+    @Test
+    public void testFiveTuple() throws Exception {
+        final Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        final List<Integer> keys = new ArrayList<Integer>();
+        pcap.loop(packet -> keys.add(DispatchingPacketHandler.FIVE_TUPLE.applyAsInt(packet)));
+        pcap.close();
+
+        // sipp.pcap is all between the same two ports
+        for (final int key : keys) {
+            assertThat(key, is(keys.get(0)));
+        }
+    }
+
+    /**
+     * The flow key is worked out on the thread reading the pcap, so it must
+     * not frame anything above the transport layer. We check that by telling
+     * the TCP packets not to frame anything more once we have the key, which
+     * leaves us without SIP unless the key had already framed it.
+     */
+    @Test
+    public void testFiveTupleStopsAtTransport() throws Exception {
+        final Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("fragmented_tcp_sip.pcap"));
+        final List<Integer> keys = new ArrayList<Integer>();
+        pcap.loop(packet -> {
+            keys.add(DispatchingPacketHandler.FIVE_TUPLE.applyAsInt(packet));
+            final AbstractPacket ip = (AbstractPacket) packet.getPacket(Protocol.IPv4);
+            final AbstractPacket tcp = (AbstractPacket) ip.getFramedNextPacket();
+            assertThat(tcp.getProtocol(), is(Protocol.TCP));
+            tcp.setDecodeDepth(Layer.LAYER_4);
+            assertThat(packet.getPacket(Protocol.SIP) == null, is(true));
+            return true;
+        });
+        pcap.close();
+
+        // all of it is the one TCP connection
+        assertThat(keys.size(), is(19));
+        for (final int key : keys) {
+            assertThat(key, is(keys.get(0)));
+        }
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        final DispatchingPacketHandler<PacketHandler> dispatcher = new DispatchingPacketHandler<PacketHandler>(2,
+                () -> packet -> false);
+        final Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        pcap.loop(dispatcher);
+        pcap.close();
+        dispatcher.close();
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        final DispatchingPacketHandler<PacketHandler> dispatcher = new DispatchingPacketHandler<PacketHandler>(2,
+                () -> packet -> {
+                    throw new IOException("boom");
+                });
+        final Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        pcap.loop(dispatcher);
+        pcap.close();
+        try {
+            dispatcher.close();
+            fail("Expected an IOException");
+        } catch (final IOException e) {
+            assertThat(e.getMessage(), is("boom"));
+        }
+    }
+
+    /**
+     * IPv6 flows must get the same key in both directions and anything we
+     * can't frame at all must still be spread out rather than all of it
+     * ending up on the first worker.
+     */
+    @Test
+    public void testFlowKeyBeyondIPv4() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PcapGlobalHeader.createDefaultHeader(PcapGlobalHeader.LINKTYPE_ETHERNET).write(out);
+        writeFrame(out, 0x86DD, createIPv6Udp(1, 2, 5060, 5062));
+        writeFrame(out, 0x86DD, createIPv6Udp(2, 1, 5062, 5060));
+        writeFrame(out, 0x86DD, createIPv6Udp(1, 3, 5060, 5062));
+        writeFrame(out, 0x86DD, createIPv6Udp(1, 2, 5060, 5064));
+        for (int i = 0; i < 4; ++i) {
+            final byte[] arp = new byte[28];
+            arp[27] = (byte) i;
+            writeFrame(out, 0x0806, arp);
+        }
+
+        final List<Integer> keys = new ArrayList<Integer>();
+        final Pcap pcap = Pcap.openStream(new ByteArrayInputStream(out.toByteArray()));
+        pcap.loop(packet -> {
+            keys.add(DispatchingPacketHandler.FIVE_TUPLE.applyAsInt(packet));
+            return true;
+        });
+        pcap.close();
+
+        assertThat(keys.size(), is(8));
+        assertThat(keys.get(0).equals(keys.get(1)), is(true));
+        assertThat(keys.get(0).equals(keys.get(2)), is(false));
+        assertThat(keys.get(0).equals(keys.get(3)), is(false));
+        assertThat(new HashSet<Integer>(keys.subList(4, 8)).size(), is(4));
+        assertThat(keys.contains(0), is(false));
+    }
+
+    private static byte[] createIPv6Udp(final int src, final int dst, final int srcPort, final int dstPort) {
+        final ByteBuffer packet = ByteBuffer.allocate(40 + 8);
+        packet.putInt(0x60000000).putShort((short) 8).put((byte) 17).put((byte) 64);
+        packet.putLong(0x20010DB8L << 32).putLong(src);
+        packet.putLong(0x20010DB8L << 32).putLong(dst);
+        packet.putShort((short) srcPort).putShort((short) dstPort).putShort((short) 8).putShort((short) 0);
+        return packet.array();
+    }
+
+    private static void writeFrame(final ByteArrayOutputStream out, final int etherType, final byte[] payload)
+            throws IOException {
+        final ByteBuffer frame = ByteBuffer.allocate(14 + payload.length);
+        frame.put(new byte[] { 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 2 }).putShort((short) etherType).put(payload);
+
+        final ByteBuffer record = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(1).putInt(0).putInt(frame.capacity()).putInt(frame.capacity());
+        out.write(record.array());
+        out.write(frame.array());
+    }
+
+    private static class CallHandler implements PacketHandler {
+        private final Map<String, List<Long>> calls = new LinkedHashMap<String, List<Long>>();
+
+        @Override
+        public boolean nextPacket(final Packet packet) throws IOException {
+            final SipPacket sip = (SipPacket) packet.getPacket(Protocol.SIP);
+            final String callId = sip.getCallIDHeader().getValue().toString();
+            List<Long> call = this.calls.get(callId);
+            if (call == null) {
+                call = new ArrayList<Long>();
+                this.calls.put(callId, call);
+            }
+            call.add(packet.getArrivalTime());
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+/**
+ *
+ */
+package io.pkts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import io.pkts.packet.IPPacket;
+import io.pkts.packet.MACPacket;
+import io.pkts.packet.Packet;
+import io.pkts.packet.TransportPacket;
+import io.pkts.protocol.Protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The cursor must find the exact same things as the framers do.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class PacketCursorTest {
+
+    private static final String[] PCAPS = { "sipp.pcap", "fragmented_udp_sip.pcap", "fragmented_tcp_sip.pcap" };
+
+    @Test
+    public void testScanStream() throws Exception {
+        for (final String name : PCAPS) {
+            final List<String> expected = loop(open(name));
+            final List<String> scanned = scan(open(name));
+            assertThat(name, scanned, is(expected));
+        }
+    }
+
+    @Test
+    public void testScanMapped() throws Exception {
+        for (final String name : PCAPS) {
+            final Path file = Files.createTempFile("pkts", ".pcap");
+            try (InputStream in = PktsTestBase.class.getResourceAsStream(name)) {
+                Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            try {
+                final List<String> expected = loop(open(name));
+                final Pcap pcap = Pcap.openMapped(file);
+                assertThat(name, scan(pcap), is(expected));
+                pcap.close();
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Materialized packets must still be good once the scan has moved on.
+     */
+    @Test
+    public void testMaterialize() throws Exception {
+        final List<Packet> packets = new ArrayList<Packet>();
+        open("sipp.pcap").scan(cursor -> {
+            packets.add(cursor.materialize());
+            return true;
+        });
+
+        final List<String> materialized = new ArrayList<String>();
+        for (final Packet packet : packets) {
+            materialized.add(describe(packet));
+        }
+        assertThat(materialized, is(loop(open("sipp.pcap"))));
+        assertThat(packets.get(0).hasProtocol(Protocol.SIP), is(true));
+    }
+
+    /**
+     * Stopping the scan must leave us right after the last record we looked
+     * at, just as if we had looped.
+     */
+    @Test
+    public void testStop() throws Exception {
+        final List<Long> timestamps = new ArrayList<Long>();
+        final Pcap pcap = open("sipp.pcap");
+        pcap.scan(cursor -> {
+            timestamps.add(cursor.getArrivalTime());
+            return timestamps.size() < 4;
+        });
+        assertThat(timestamps.size(), is(4));
+
+        pcap.loop(packet -> {
+            timestamps.add(packet.getArrivalTime());
+            return true;
+        });
+        final List<Long> expected = new ArrayList<Long>();
+        open("sipp.pcap").loop(packet -> {
+            expected.add(packet.getArrivalTime());
+            return true;
+        });
+        assertThat(timestamps, is(expected));
+    }
+
+    /**
+     * The cursor reads straight out of the buffer, so scanning a stream
+     * shouldn't allocate anything per record. Neither views of the records
+     * nor, since nothing holds on to them, new rows for the stream buffer.
+     */
+    @Test
+    public void testScanDoesNotAllocatePerRecord() throws Exception {
+        final byte[] sipp = Files.readAllBytes(Paths.get(PktsTestBase.class.getResource("sipp.pcap").toURI()));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(sipp, 0, 24);
+        for (int i = 0; i < 200; ++i) {
+            out.write(sipp, 24, sipp.length - 24);
+        }
+        final byte[] capture = out.toByteArray();
+
+        // once to warm up, once to measure
+        long allocated = 0;
+        final long[] sum = new long[1];
+        for (int i = 0; i < 2; ++i) {
+            final Pcap pcap = Pcap.openStream(new ByteArrayInputStream(capture));
+            final long start = getAllocatedBytes();
+            pcap.scan(cursor -> {
+                sum[0] += cursor.getRawSourceIp() + cursor.getDestinationPort() + cursor.getPayloadLength();
+                return true;
+            });
+            allocated = getAllocatedBytes() - start;
+        }
+
+        assertThat(sum[0] != 0, is(true));
+        assertThat("allocated: " + allocated, allocated < capture.length / 10, is(true));
+    }
+
+    private static long getAllocatedBytes() {
+        final long id = Thread.currentThread().getId();
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(id);
+    }
+
+    private static Pcap open(final String name) throws Exception {
+        return Pcap.openStream(PktsTestBase.class.getResourceAsStream(name));
+    }
+
+    private static List<String> loop(final Pcap pcap) throws Exception {
+        final List<String> packets = new ArrayList<String>();
+        pcap.loop(packet -> {
+            packets.add(describe(packet));
+            return true;
+        });
+        pcap.close();
+        return packets;
+    }
+
+    private static String describe(final Packet packet) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(packet.getArrivalTime());
+        final MACPacket mac = (MACPacket) packet.getPacket(Protocol.ETHERNET_II);
+        sb.append(' ').append(mac.getSourceMacAddress()).append(' ').append(mac.getDestinationMacAddress());
+        final IPPacket ip = (IPPacket) packet.getPacket(Protocol.IPv4);
+        sb.append(' ').append(ip.getRawSourceIp()).append(' ').append(ip.getRawDestinationIp());
+        // don't go looking beyond the transport layer, some of the tcp
+        // segments are nothing any of the framers can make sense of
+        final Packet transport = ip.getNextPacket();
+        if (transport instanceof TransportPacket) {
+            final TransportPacket t = (TransportPacket) transport;
+            sb.append(' ').append(t.getProtocol()).append(' ').append(t.getSourcePort()).append(' ')
+            .append(t.getDestinationPort()).append(' ')
+            .append(t.getPayload() == null ? 0 : t.getPayload().getReadableBytes());
+        }
+        return sb.toString();
+    }
+
+    private static List<String> scan(final Pcap pcap) throws Exception {
+        final List<String> packets = new ArrayList<String>();
+        pcap.scan(cursor -> {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(cursor.getArrivalTime());
+            assertThat(cursor.getLinkLayer(), is(Protocol.ETHERNET_II));
+            sb.append(' ').append(mac(cursor.getRawSourceMacAddress())).append(' ').append(
+                    mac(cursor.getRawDestinationMacAddress()));
+            sb.append(' ').append(cursor.getRawSourceIp()).append(' ').append(cursor.getRawDestinationIp());
+            if (cursor.isUDP() || cursor.isTCP()) {
+                sb.append(' ').append(cursor.isUDP() ? Protocol.UDP : Protocol.TCP).append(' ')
+                .append(cursor.getSourcePort()).append(' ').append(cursor.getDestinationPort()).append(' ')
+                .append(cursor.getPayloadLength());
+            }
+            packets.add(sb.toString());
+            return true;
+        });
+        return packets;
+    }
+
+    private static String mac(final long mac) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 5; i >= 0; --i) {
+            sb.append(String.format("%02X", mac >>> 8 * i & 0xFF));
+            if (i > 0) {
+                sb.append(':');
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package io.pkts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import io.pkts.buffer.MappedFileBuffer;
+import io.pkts.frame.PcapGlobalHeader;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class PcapChunkerTest {
+
+    /**
+     * No matter where we start looking, we should always end up on the next
+     * record boundary.
+     */
+    @Test
+    public void testFindRecord() throws Exception {
+        for (final String resource : new String[] { "sipp.pcap", "fragmented_udp_sip.pcap",
+                "fragmented_tcp_sip.pcap" }) {
+            verifyFindRecord(resource);
+        }
+    }
+
+    private void verifyFindRecord(final String resource) throws Exception {
+        final Path file = Paths.get(PktsTestBase.class.getResource(resource).toURI());
+        final PcapIndex index = PcapIndex.build(file, 1, Long.MAX_VALUE);
+        final Set<Long> records = new HashSet<Long>();
+        for (int i = 0; i < index.size(); ++i) {
+            records.add(index.getOffset(i));
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final PcapGlobalHeader header = PcapGlobalHeader.parse(new MappedFileBuffer(channel));
+            final PcapChunker chunker = new PcapChunker(channel, header);
+            final long size = channel.size();
+
+            long next = size;
+            for (long offset = size - 1; offset >= 24; --offset) {
+                if (records.contains(offset)) {
+                    next = offset;
+                }
+                assertThat(resource + " offset " + offset, chunker.findRecord(offset), is(next));
+            }
+
+            final long[] chunks = chunker.split(5);
+            assertThat(chunks[0], is(24L));
+            assertThat(chunks[5], is(size));
+            for (int i = 1; i < 5; ++i) {
+                assertThat(records.contains(chunks[i]) || chunks[i] == size, is(true));
+            }
+        }
+    }
+
+}
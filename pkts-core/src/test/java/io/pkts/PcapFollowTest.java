@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package io.pkts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class PcapFollowTest {
+
+    private static final FollowOptions OPTIONS = FollowOptions.defaults().withPollInterval(5, TimeUnit.MILLISECONDS)
+            .withIdleTimeout(500, TimeUnit.MILLISECONDS);
+
+    private Path dir;
+
+    private Path pcap;
+
+    private Path rotated;
+
+    private byte[] sipp;
+
+    /**
+     * Where each one of the 30 records of sipp.pcap starts, followed by the
+     * size of the file.
+     */
+    private final List<Integer> offsets = new ArrayList<Integer>();
+
+    @Before
+    public void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("pkts");
+        this.pcap = this.dir.resolve("follow.pcap");
+        this.rotated = this.dir.resolve("follow.pcap.1");
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = PktsTestBase.class.getResourceAsStream("sipp.pcap")) {
+            final byte[] chunk = new byte[4096];
+            int read = 0;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+        }
+        this.sipp = out.toByteArray();
+
+        final ByteBuffer buffer = ByteBuffer.wrap(this.sipp).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 24;
+        while (offset < this.sipp.length) {
+            this.offsets.add(offset);
+            offset += 16 + buffer.getInt(offset + 8);
+        }
+        this.offsets.add(offset);
+        assertThat(this.offsets.size(), is(31));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(this.pcap);
+        Files.deleteIfExists(this.rotated);
+        Files.deleteIfExists(this.dir);
+    }
+
+    /**
+     * The writer stops in the middle of a record and we must wait for the rest
+     * of it rather than give up.
+     */
+    @Test(timeout = 10000)
+    public void testFollowPartialRecord() throws Exception {
+        final int partial = this.offsets.get(5) + 10;
+        append(this.pcap, 0, partial);
+
+        final Follower follower = new Follower(5);
+        follower.start();
+        assertThat(follower.latch.await(5, TimeUnit.SECONDS), is(true));
+
+        append(this.pcap, partial, this.offsets.get(17));
+        Thread.sleep(50);
+        append(this.pcap, this.offsets.get(17), this.sipp.length);
+
+        follower.join();
+        assertThat(follower.count(), is(30));
+        assertThat(follower.failure, is((Throwable) null));
+    }
+
+    @Test(timeout = 10000)
+    public void testFollowRotation() throws Exception {
+        append(this.pcap, 0, this.offsets.get(12));
+
+        final Follower follower = new Follower(12);
+        follower.start();
+        assertThat(follower.latch.await(5, TimeUnit.SECONDS), is(true));
+
+        Files.move(this.pcap, this.rotated);
+        append(this.pcap, 0, 24);
+        append(this.pcap, this.offsets.get(12), this.sipp.length);
+
+        follower.join();
+        assertThat(follower.count(), is(30));
+        assertThat(follower.failure, is((Throwable) null));
+    }
+
+    @Test(timeout = 10000)
+    public void testNoFollowRotation() throws Exception {
+        append(this.pcap, 0, this.offsets.get(12));
+
+        final Follower follower = new Follower(12, OPTIONS.withFollowRotation(false));
+        follower.start();
+        assertThat(follower.latch.await(5, TimeUnit.SECONDS), is(true));
+
+        Files.move(this.pcap, this.rotated);
+        append(this.pcap, 0, 24);
+        append(this.pcap, this.offsets.get(12), this.sipp.length);
+
+        follower.join();
+        assertThat(follower.count(), is(12));
+    }
+
+    /**
+     * Without an idle timeout the only way out is to close the pcap.
+     */
+    @Test(timeout = 10000)
+    public void testClose() throws Exception {
+        append(this.pcap, 0, this.offsets.get(3));
+
+        final Follower follower = new Follower(3, OPTIONS.withIdleTimeout(0, TimeUnit.MILLISECONDS));
+        follower.start();
+        assertThat(follower.latch.await(5, TimeUnit.SECONDS), is(true));
+
+        follower.pcap.close();
+        follower.join();
+        assertThat(follower.count(), is(3));
+    }
+
+    private void append(final Path file, final int from, final int to) throws Exception {
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(this.sipp, from, to - from);
+        }
+    }
+
+    /**
+     * Follows the pcap on a thread of its own.
+     */
+    private final class Follower extends Thread {
+
+        private final Pcap pcap;
+
+        private final List<Long> timestamps = Collections.synchronizedList(new ArrayList<Long>());
+
+        private final CountDownLatch latch;
+
+        private volatile Throwable failure;
+
+        private Follower(final int count) throws Exception {
+            this(count, OPTIONS);
+        }
+
+        private Follower(final int count, final FollowOptions options) throws Exception {
+            this.pcap = Pcap.openFollow(PcapFollowTest.this.pcap, options);
+            this.latch = new CountDownLatch(count);
+        }
+
+        private int count() {
+            return this.timestamps.size();
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.pcap.loop(packet -> {
+                    this.timestamps.add(packet.getArrivalTime());
+                    this.latch.countDown();
+                    return true;
+                });
+            } catch (final Throwable t) {
+                this.failure = t;
+            } finally {
+                this.pcap.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package io.pkts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class PcapIndexTest {
+
+    private Path dir;
+
+    private Path pcap;
+
+    /**
+     * The arrival time of all 30 packets in sipp.pcap
+     */
+    private List<Long> timestamps;
+
+    @Before
+    public void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("pkts");
+        this.pcap = this.dir.resolve("sipp.pcap");
+        try (InputStream in = PktsTestBase.class.getResourceAsStream("sipp.pcap")) {
+            Files.copy(in, this.pcap, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        final Pcap pcap = Pcap.openMapped(this.pcap);
+        this.timestamps = collect(pcap);
+        pcap.close();
+        assertThat(this.timestamps.size(), is(30));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(PcapIndex.getSidecar(this.pcap));
+        Files.deleteIfExists(this.pcap);
+        Files.deleteIfExists(this.dir);
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        final PcapIndex index = PcapIndex.build(this.pcap, 4, Long.MAX_VALUE);
+        assertThat(index.size(), is(8));
+        assertThat(index.getOffset(0), is(24L));
+        for (int i = 0; i < index.size(); ++i) {
+            assertThat(index.getTimestamp(i), is(this.timestamps.get(i * 4)));
+        }
+
+        // every record is at least a microsecond apart
+        assertThat(PcapIndex.build(this.pcap, 1000, 1).size(), is(30));
+        assertThat(PcapIndex.build(this.pcap).getOffset(0), is(24L));
+    }
+
+    @Test
+    public void testSidecar() throws Exception {
+        assertThat(PcapIndex.load(this.pcap), is(nullValue()));
+
+        final PcapIndex index = PcapIndex.forFile(this.pcap);
+        assertThat(Files.exists(PcapIndex.getSidecar(this.pcap)), is(true));
+
+        final PcapIndex loaded = PcapIndex.load(this.pcap);
+        assertThat(loaded.size(), is(index.size()));
+        for (int i = 0; i < index.size(); ++i) {
+            assertThat(loaded.getOffset(i), is(index.getOffset(i)));
+            assertThat(loaded.getTimestamp(i), is(index.getTimestamp(i)));
+        }
+
+        // once the pcap changes, the sidecar no longer applies
+        Files.setLastModifiedTime(this.pcap, FileTime.fromMillis(0));
+        assertThat(PcapIndex.load(this.pcap), is(nullValue()));
+    }
+
+    @Test
+    public void testSeek() throws Exception {
+        PcapIndex.build(this.pcap, 4, Long.MAX_VALUE).write(PcapIndex.getSidecar(this.pcap));
+
+        final Pcap pcap = Pcap.openMapped(this.pcap);
+        pcap.seek(this.timestamps.get(17));
+        assertThat(collect(pcap), is(this.timestamps.subList(17, 30)));
+
+        // and backwards again
+        pcap.seek(this.timestamps.get(2));
+        assertThat(collect(pcap), is(this.timestamps.subList(2, 30)));
+
+        // somewhere in between two packets
+        pcap.seek(this.timestamps.get(8) + 1);
+        assertThat(collect(pcap), is(this.timestamps.subList(9, 30)));
+
+        pcap.seek(0);
+        assertThat(collect(pcap), is(this.timestamps));
+
+        pcap.seek(Long.MAX_VALUE);
+        assertThat(collect(pcap).isEmpty(), is(true));
+        pcap.close();
+    }
+
+    /**
+     * Without an index we can only move forward.
+     */
+    @Test
+    public void testSeekStream() throws Exception {
+        final Pcap pcap = Pcap.openStream(this.pcap.toFile());
+        pcap.seek(this.timestamps.get(5));
+        pcap.seek(this.timestamps.get(11));
+        assertThat(collect(pcap), is(this.timestamps.subList(11, 30)));
+        pcap.close();
+    }
+
+    @Test
+    public void testLoopTimeWindow() throws Exception {
+        final Pcap pcap = Pcap.openMapped(this.pcap);
+        final List<Long> window = new ArrayList<Long>();
+        pcap.loop(this.timestamps.get(3), this.timestamps.get(20), packet -> {
+            window.add(packet.getArrivalTime());
+            return true;
+        });
+        assertThat(window, is(this.timestamps.subList(3, 20)));
+        pcap.close();
+    }
+
+    private static List<Long> collect(final Pcap pcap) throws Exception {
+        final List<Long> timestamps = new ArrayList<Long>();
+        pcap.loop(packet -> {
+            timestamps.add(packet.getArrivalTime());
+            return true;
+        });
+        return timestamps;
+    }
+
+}
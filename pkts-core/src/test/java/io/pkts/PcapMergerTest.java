@@ -0,0 +1,195 @@
+/**
+ *
+ */
+package io.pkts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import io.pkts.frame.PcapGlobalHeader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class PcapMergerTest {
+
+    private Path dir;
+
+    private byte[] sipp;
+
+    private List<Long> timestamps;
+
+    private final List<Path> files = new ArrayList<Path>();
+
+    @Before
+    public void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("pkts");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = PktsTestBase.class.getResourceAsStream("sipp.pcap")) {
+            final byte[] chunk = new byte[4096];
+            int read = 0;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+        }
+        this.sipp = out.toByteArray();
+
+        final Pcap pcap = Pcap.openStream(new ByteArrayInputStream(this.sipp));
+        this.timestamps = collect(pcap);
+        pcap.close();
+        assertThat(this.timestamps.size(), is(30));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (final Path file : this.files) {
+            Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(this.dir);
+    }
+
+    /**
+     * Deal out the packets of sipp.pcap over three files and make sure we get
+     * them back in the original order.
+     */
+    @Test
+    public void testMerge() throws Exception {
+        final List<Path> inputs = split(3, ByteOrder.LITTLE_ENDIAN, ByteOrder.LITTLE_ENDIAN, ByteOrder.LITTLE_ENDIAN);
+        try (PcapMerger merger = PcapMerger.open(inputs)) {
+            assertThat(merger.getPcapHeader().getDataLinkType(), is(1));
+            final List<Long> merged = new ArrayList<Long>();
+            merger.merge(packet -> {
+                merged.add(packet.getArrivalTime());
+                return true;
+            });
+            assertThat(merged, is(this.timestamps));
+        }
+    }
+
+    /**
+     * The record headers of a big endian pcap must be converted to the byte
+     * order of the merged pcap.
+     */
+    @Test
+    public void testMergeByteOrders() throws Exception {
+        final List<Path> inputs = split(2, ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PcapMerger merger = PcapMerger.open(inputs)) {
+            assertThat(merger.getPcapHeader().getByteOrder(), is(ByteOrder.LITTLE_ENDIAN));
+            merger.merge(out);
+        }
+
+        // the records are written as they are so we should be back where
+        // we started, apart from the global header
+        final byte[] merged = out.toByteArray();
+        assertThat(merged.length, is(this.sipp.length));
+        assertThat(Arrays.copyOfRange(merged, 24, merged.length), is(Arrays.copyOfRange(this.sipp, 24,
+                this.sipp.length)));
+
+        final Pcap pcap = Pcap.openStream(new ByteArrayInputStream(merged));
+        assertThat(collect(pcap), is(this.timestamps));
+        pcap.close();
+    }
+
+    @Test
+    public void testMergeStop() throws Exception {
+        final List<Path> inputs = split(2, ByteOrder.LITTLE_ENDIAN, ByteOrder.LITTLE_ENDIAN);
+        try (PcapMerger merger = PcapMerger.open(inputs)) {
+            final List<Long> merged = new ArrayList<Long>();
+            merger.merge(packet -> {
+                merged.add(packet.getArrivalTime());
+                return merged.size() < 7;
+            });
+            assertThat(merged, is(this.timestamps.subList(0, 7)));
+        }
+    }
+
+    @Test
+    public void testDifferentDataLinkTypes() throws Exception {
+        final Path ethernet = write("ethernet.pcap", PcapGlobalHeader.createDefaultHeader(1), new byte[0]);
+        final Path sll = write("sll.pcap", PcapGlobalHeader.createDefaultHeader(113), new byte[0]);
+        try {
+            PcapMerger.open(Arrays.asList(ethernet, sll));
+            fail("Expected an IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Deal out the records of sipp.pcap, round robin, over the given number of
+     * files, each one in the given byte order.
+     */
+    private List<Path> split(final int count, final ByteOrder... byteOrders) throws Exception {
+        final List<ByteArrayOutputStream> records = new ArrayList<ByteArrayOutputStream>();
+        for (int i = 0; i < count; ++i) {
+            records.add(new ByteArrayOutputStream());
+        }
+
+        final ByteBuffer in = ByteBuffer.wrap(this.sipp).order(ByteOrder.LITTLE_ENDIAN);
+        in.position(24);
+        int i = 0;
+        while (in.hasRemaining()) {
+            final int seconds = in.getInt();
+            final int micros = in.getInt();
+            final int captured = in.getInt();
+            final int total = in.getInt();
+            final ByteBuffer record = ByteBuffer.allocate(16 + captured).order(byteOrders[i % count]);
+            record.putInt(seconds).putInt(micros).putInt(captured).putInt(total);
+            in.get(record.array(), 16, captured);
+            records.get(i % count).write(record.array());
+            ++i;
+        }
+
+        final List<Path> inputs = new ArrayList<Path>();
+        for (i = 0; i < count; ++i) {
+            final ByteBuffer header = ByteBuffer.allocate(24).order(byteOrders[i]);
+            header.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0).putInt(65535)
+                    .putInt(1);
+            final ByteArrayOutputStream file = new ByteArrayOutputStream();
+            file.write(header.array());
+            records.get(i).writeTo(file);
+            inputs.add(write("split_" + i + ".pcap", null, file.toByteArray()));
+        }
+        return inputs;
+    }
+
+    private Path write(final String name, final PcapGlobalHeader header, final byte[] content) throws Exception {
+        final Path file = this.dir.resolve(name);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            if (header != null) {
+                header.write(out);
+            }
+            out.write(content);
+        }
+        this.files.add(file);
+        return file;
+    }
+
+    private static List<Long> collect(final Pcap pcap) throws Exception {
+        final List<Long> timestamps = new ArrayList<Long>();
+        pcap.loop(packet -> {
+            timestamps.add(packet.getArrivalTime());
+            return true;
+        });
+        return timestamps;
+    }
+
+}
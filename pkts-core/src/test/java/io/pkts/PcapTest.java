@@ -3,11 +3,28 @@ package io.pkts;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import io.pkts.buffer.Buffer;
+import io.pkts.buffer.BufferPool;
 import io.pkts.packet.Packet;
 import io.pkts.packet.sip.SipPacket;
 import io.pkts.protocol.Protocol;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.After;
 import org.junit.Before;
@@ -38,6 +55,353 @@ public class PcapTest extends PktsTestBase {
         assertThat(handler.count, is(30));
     }
 
+    @Test
+    public void testLoopMapped() throws Exception {
+        final Path file = Paths.get(PktsTestBase.class.getResource("sipp.pcap").toURI());
+        final Pcap pcap = Pcap.openMapped(file);
+        final FrameHandlerImpl handler = new FrameHandlerImpl();
+        pcap.loop(handler);
+        pcap.close();
+        assertThat(handler.count, is(30));
+    }
+
+    @Test
+    public void testLoopPooled() throws Exception {
+        final Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        final FrameHandlerImpl handler = new FrameHandlerImpl();
+        pcap.loop(handler, new BufferPool());
+        pcap.close();
+        assertThat(handler.count, is(30));
+    }
+
+    /**
+     * Stopping a pooled loop must not frame (and copy into the pool) one more
+     * packet, which would be lost to whoever carries on reading and never be
+     * released.
+     */
+    @Test
+    public void testLoopPooledStop() throws Exception {
+        final BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_SIZE, true);
+        final Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        final List<Long> timestamps = new ArrayList<Long>();
+        for (int i = 0; i < 3; ++i) {
+            pcap.loop(packet -> {
+                timestamps.add(packet.getArrivalTime());
+                return false;
+            }, pool);
+        }
+
+        final FrameHandlerImpl handler = new FrameHandlerImpl();
+        pcap.loop(handler, pool);
+        pcap.close();
+        assertThat(handler.count, is(27));
+
+        for (int i = 0; i < 10 && pool.getLeakCount() == 0; ++i) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(pool.getLeakCount(), is(0L));
+
+        final Pcap other = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        final Iterator<Packet> packets = other.iterator();
+        for (final long timestamp : timestamps) {
+            assertThat(packets.next().getArrivalTime(), is(timestamp));
+        }
+        other.close();
+    }
+
+    /**
+     * The whole point of the pool is to leave less garbage behind, so a pooled
+     * loop must not allocate the rows the plain one reads every byte of the
+     * capture into. We compare the two over
+     * sipp.pcap repeated until it is large enough to tell.
+     */
+    @Test
+    public void testLoopPooledAllocatesLess() throws Exception {
+        final byte[] sipp = Files.readAllBytes(Paths.get(PktsTestBase.class.getResource("sipp.pcap").toURI()));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(sipp, 0, 24);
+        for (int i = 0; i < 200; ++i) {
+            out.write(sipp, 24, sipp.length - 24);
+        }
+        final byte[] capture = out.toByteArray();
+        final BufferPool pool = new BufferPool();
+
+        // once to warm up, once to measure
+        long plain = 0;
+        long pooled = 0;
+        for (int i = 0; i < 2; ++i) {
+            final long[] sums = new long[2];
+            long start = getAllocatedBytes();
+            Pcap pcap = Pcap.openStream(new ByteArrayInputStream(capture));
+            pcap.loop(packet -> {
+                sums[0] += sum(packet);
+                return true;
+            });
+            plain = getAllocatedBytes() - start;
+
+            start = getAllocatedBytes();
+            pcap = Pcap.openStream(new ByteArrayInputStream(capture));
+            pcap.loop(packet -> {
+                sums[1] += sum(packet);
+                return true;
+            }, pool);
+            pooled = getAllocatedBytes() - start;
+            assertThat(sums[1], is(sums[0]));
+        }
+
+        assertThat("plain: " + plain, plain >= capture.length, is(true));
+        // what is left are the packet objects, which both loops create
+        assertThat("pooled: " + pooled + ", plain: " + plain, plain - pooled >= capture.length / 2, is(true));
+    }
+
+    private static long sum(final Packet packet) throws IOException {
+        final Buffer payload = packet.getPayload();
+        long sum = packet.getArrivalTime();
+        for (int i = 0; i < payload.getReadableBytes(); ++i) {
+            sum = 31 * sum + payload.getByte(i);
+        }
+        return sum;
+    }
+
+    private static long getAllocatedBytes() {
+        final long id = Thread.currentThread().getId();
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(id);
+    }
+
+    @Test
+    public void testLoopBatch() throws Exception {
+        final List<Long> expected = new ArrayList<Long>();
+        Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        pcap.loop(packet -> expected.add(packet.getArrivalTime()));
+        pcap.close();
+
+        for (final int batchSize : new int[] { 1, 7, 30, 64 }) {
+            final List<Long> actual = new ArrayList<Long>();
+            final List<Integer> counts = new ArrayList<Integer>();
+            pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+            pcap.loop((batch, count) -> {
+                counts.add(count);
+                for (int i = 0; i < count; ++i) {
+                    actual.add(batch[i].getArrivalTime());
+                }
+                return true;
+            }, batchSize);
+            pcap.close();
+
+            assertThat(actual, is(expected));
+            assertThat(counts.size(), is((30 + batchSize - 1) / batchSize));
+            assertThat(counts.get(0), is(Math.min(batchSize, 30)));
+        }
+
+        // stop after the first batch
+        final List<Integer> counts = new ArrayList<Integer>();
+        pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        pcap.loop((batch, count) -> {
+            counts.add(count);
+            return false;
+        }, 8);
+        pcap.close();
+        assertThat(counts.size(), is(1));
+    }
+
+    @Test
+    public void testIterator() throws Exception {
+        final Path file = Paths.get(PktsTestBase.class.getResource("sipp.pcap").toURI());
+        for (final Pcap pcap : new Pcap[] { Pcap.openStream(file.toFile()), Pcap.openMapped(file) }) {
+            final Iterator<Packet> packets = pcap.iterator();
+            for (int i = 0; i < 10; ++i) {
+                assertThat(packets.hasNext(), is(true));
+                assertThat(packets.next().hasProtocol(Protocol.SIP), is(true));
+            }
+
+            // the loop carries on where the iterator left off
+            final FrameHandlerImpl handler = new FrameHandlerImpl();
+            pcap.loop(handler);
+            assertThat(handler.count, is(20));
+            assertThat(pcap.iterator().hasNext(), is(false));
+            pcap.close();
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        final Path file = Paths.get(PktsTestBase.class.getResource("sipp.pcap").toURI());
+        final List<Long> expected = new ArrayList<Long>();
+        Pcap pcap = Pcap.openMapped(file);
+        pcap.loop(packet -> expected.add(packet.getArrivalTime()));
+        pcap.close();
+
+        pcap = Pcap.openStream(file.toFile());
+        assertThat(pcap.stream().map(Packet::getArrivalTime).collect(Collectors.toList()), is(expected));
+        pcap.close();
+
+        pcap = Pcap.openMapped(file);
+        assertThat(pcap.stream().map(Packet::getArrivalTime).collect(Collectors.toList()), is(expected));
+        assertThat(pcap.stream().parallel().map(Packet::getArrivalTime).collect(Collectors.toList()),
+                is(expected));
+        assertThat(pcap.stream().parallel().filter(packet -> packet.getArrivalTime() > expected.get(9)).count(),
+                is(20L));
+
+        // a mapped file is split on record boundaries
+        final Spliterator<Packet> rest = pcap.stream().spliterator();
+        final Spliterator<Packet> prefix = rest.trySplit();
+        final List<Long> actual = new ArrayList<Long>();
+        prefix.forEachRemaining(packet -> actual.add(packet.getArrivalTime()));
+        assertThat(actual.isEmpty(), is(false));
+        rest.forEachRemaining(packet -> actual.add(packet.getArrivalTime()));
+        assertThat(actual, is(expected));
+        pcap.close();
+    }
+
+    @Test
+    public void testParallelLoop() throws Exception {
+        final Path file = Paths.get(PktsTestBase.class.getResource("sipp.pcap").toURI());
+        final List<Long> expected = new ArrayList<Long>();
+        Pcap pcap = Pcap.openMapped(file);
+        pcap.loop(packet -> expected.add(packet.getArrivalTime()));
+        pcap.close();
+
+        for (final int threads : new int[] { 1, 2, 4, 7, 50 }) {
+            pcap = Pcap.openMapped(file);
+            final List<TimestampHandler> handlers = pcap.parallelLoop(threads, TimestampHandler::new);
+            pcap.close();
+            assertThat(handlers.size(), is(threads));
+
+            // the chunks are in the order of the file
+            final List<Long> actual = new ArrayList<Long>();
+            for (final TimestampHandler handler : handlers) {
+                actual.addAll(handler.timestamps);
+            }
+            assertThat(actual, is(expected));
+        }
+
+        // a stream cannot be split
+        pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        final List<FrameHandlerImpl> handlers = pcap.parallelLoop(4, FrameHandlerImpl::new);
+        pcap.close();
+        assertThat(handlers.size(), is(1));
+        assertThat(handlers.get(0).count, is(30));
+    }
+
+    /**
+     * Gzip compressed captures are detected and decompressed on the fly, no
+     * matter how they are opened.
+     */
+    @Test
+    public void testLoopGzip() throws Exception {
+        final byte[] compressed = gzip("sipp.pcap");
+
+        Pcap pcap = Pcap.openStream(new ByteArrayInputStream(compressed));
+        FrameHandlerImpl handler = new FrameHandlerImpl();
+        pcap.loop(handler);
+        pcap.close();
+        assertThat(handler.count, is(30));
+
+        final File file = File.createTempFile("sipp", ".pcap.gz");
+        file.deleteOnExit();
+        Files.write(file.toPath(), compressed);
+
+        pcap = Pcap.openStream(file);
+        handler = new FrameHandlerImpl();
+        pcap.loop(handler);
+        pcap.close();
+        assertThat(handler.count, is(30));
+
+        pcap = Pcap.openMapped(file.toPath());
+        handler = new FrameHandlerImpl();
+        pcap.loop(handler);
+        pcap.close();
+        assertThat(handler.count, is(30));
+
+        pcap = Pcap.openStream(file, ReadAheadOptions.defaults().withBlockSize(100));
+        handler = new FrameHandlerImpl();
+        pcap.loop(handler);
+        pcap.close();
+        assertThat(handler.count, is(30));
+
+        pcap = Pcap.openStream(new ByteArrayInputStream(compressed), ReadAheadOptions.defaults().withBlockSize(100));
+        handler = new FrameHandlerImpl();
+        pcap.loop(handler);
+        pcap.close();
+        assertThat(handler.count, is(30));
+    }
+
+    /**
+     * A plain openStream must not start any threads behind your back, gzip or
+     * not, since nobody would be around to stop them if the pcap is never
+     * closed.
+     */
+    @Test
+    public void testOpenStreamGzipStartsNoThread() throws Exception {
+        final Set<Thread> before = Thread.getAllStackTraces().keySet();
+        final Pcap pcap = Pcap.openStream(new ByteArrayInputStream(gzip("sipp.pcap")));
+        pcap.loop(packet -> false);
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertThat(thread.getName(), before.contains(thread) || !thread.getName().equals("pkts-read-ahead"),
+                    is(true));
+        }
+        pcap.close();
+    }
+
+    /**
+     * Nothing beyond the decode depth should ever be framed, not even to
+     * check whether it is there.
+     */
+    @Test
+    public void testLoopDecodeDepth() throws Exception {
+        final List<Packet> packets = new ArrayList<Packet>();
+        Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        pcap.loop(packet -> {
+            assertThat(packet.hasProtocol(Protocol.UDP), is(true));
+            assertThat(packet.hasProtocol(Protocol.SIP), is(false));
+            assertThat(packet.getPacket(Protocol.UDP).getPacket(Protocol.SIP) == null, is(true));
+            packets.add(packet);
+            return true;
+        }, Protocol.Layer.LAYER_4);
+        pcap.close();
+        assertThat(packets.size(), is(30));
+
+        pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        pcap.loop(packet -> {
+            assertThat(packet.hasProtocol(Protocol.ETHERNET_II), is(true));
+            assertThat(packet.hasProtocol(Protocol.IPv4), is(false));
+            return true;
+        }, Protocol.Layer.LAYER_2);
+        pcap.close();
+
+        // and the regular loop still goes all the way
+        pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        pcap.loop(packet -> {
+            assertThat(packet.hasProtocol(Protocol.SIP), is(true));
+            return true;
+        });
+        pcap.close();
+    }
+
+    private static byte[] gzip(final String resource) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = PktsTestBase.class.getResourceAsStream(resource);
+                GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            final byte[] buffer = new byte[1024];
+            int read = 0;
+            while ((read = in.read(buffer)) != -1) {
+                gzip.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static class TimestampHandler implements PacketHandler {
+        private final List<Long> timestamps = new ArrayList<Long>();
+
+        @Override
+        public boolean nextPacket(final Packet packet) {
+            this.timestamps.add(packet.getArrivalTime());
+            return true;
+        }
+    }
+
     private static class FrameHandlerImpl implements PacketHandler {
         public int count;
 
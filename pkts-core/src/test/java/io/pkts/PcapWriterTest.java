@@ -0,0 +1,197 @@
+/**
+ *
+ */
+package io.pkts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import io.pkts.packet.Packet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class PcapWriterTest {
+
+    private Path dir;
+
+    /**
+     * What we get by writing all of sipp.pcap through a
+     * {@link PcapOutputStream}.
+     */
+    private byte[] expected;
+
+    private List<Long> timestamps;
+
+    @Before
+    public void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("pkts");
+
+        final Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PcapOutputStream stream = pcap.createOutputStream(out);
+        this.timestamps = new ArrayList<Long>();
+        pcap.loop(packet -> {
+            stream.write(packet);
+            this.timestamps.add(packet.getArrivalTime());
+            return true;
+        });
+        pcap.close();
+        stream.close();
+        this.expected = out.toByteArray();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(this.dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /**
+     * The writer should produce the very same bytes as the output stream, no
+     * matter how small the write buffer.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        for (final int bufferSize : new int[] { 1, 16, 100, 1000, PcapWriterOptions.DEFAULT_BUFFER_SIZE }) {
+            final Path file = this.dir.resolve("out.pcap");
+            final List<Path> files = write(file, PcapWriterOptions.defaults().withBufferSize(bufferSize));
+            assertThat(files.size(), is(1));
+            assertThat(files.get(0), is(file));
+            assertThat(Files.readAllBytes(file), is(this.expected));
+        }
+    }
+
+    /**
+     * Not every packet writes itself in one go, so filling up the buffer one
+     * byte at a time must flush it just the same.
+     */
+    @Test
+    public void testWriteSingleBytes() throws Exception {
+        final Path file = this.dir.resolve("out.pcap");
+        final Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        final PcapWriter writer = pcap.createWriter(file, PcapWriterOptions.defaults().withBufferSize(64));
+        pcap.loop(packet -> {
+            writer.write(writeSingleBytes(packet));
+            return true;
+        });
+        pcap.close();
+        writer.close();
+        assertThat(Files.readAllBytes(file), is(this.expected));
+    }
+
+    @Test
+    public void testPreallocation() throws Exception {
+        final Path file = this.dir.resolve("out.pcap");
+        write(file, PcapWriterOptions.defaults().withPreallocation(1024 * 1024));
+        assertThat(Files.readAllBytes(file), is(this.expected));
+    }
+
+    @Test
+    public void testRotateOnPacketCount() throws Exception {
+        final List<Path> files = write(this.dir.resolve("out.pcap"), PcapWriterOptions.defaults().withMaxPackets(7)
+                .withPreallocation(100000));
+        assertThat(files.size(), is(5));
+        assertThat(files.get(0).getFileName().toString(), is("out_00000.pcap"));
+        assertThat(files.get(4).getFileName().toString(), is("out_00004.pcap"));
+        assertThat(read(files), is(this.timestamps));
+        assertThat(count(files.get(0)), is(7));
+        assertThat(count(files.get(4)), is(2));
+    }
+
+    @Test
+    public void testRotateOnSize() throws Exception {
+        final List<Path> files = write(this.dir.resolve("out.pcap"), PcapWriterOptions.defaults()
+                .withMaxFileSize(2000));
+        assertThat(files.size() > 1, is(true));
+        for (final Path file : files.subList(0, files.size() - 1)) {
+            // only the last packet may go beyond the limit
+            assertThat(Files.size(file) >= 2000, is(true));
+            assertThat(Files.size(file) < 2000 + 600, is(true));
+        }
+        assertThat(read(files), is(this.timestamps));
+    }
+
+    @Test
+    public void testRotateOnDuration() throws Exception {
+        final long duration = this.timestamps.get(29) - this.timestamps.get(0);
+        final List<Path> files = write(this.dir.resolve("out.pcap"), PcapWriterOptions.defaults().withMaxDuration(
+                duration / 3 + 1, TimeUnit.MICROSECONDS));
+        assertThat(files.size() >= 3, is(true));
+        for (final Path file : files) {
+            final List<Long> timestamps = read(file);
+            assertThat(timestamps.get(timestamps.size() - 1) - timestamps.get(0) <= duration / 3, is(true));
+        }
+        assertThat(read(files), is(this.timestamps));
+    }
+
+    private static List<Path> write(final Path file, final PcapWriterOptions options) throws Exception {
+        final Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        final PcapWriter writer = pcap.createWriter(file, options);
+        pcap.loop(packet -> {
+            writer.write(packet);
+            return true;
+        });
+        pcap.close();
+        writer.close();
+        return writer.getFiles();
+    }
+
+    /**
+     * Wrap the packet so that it writes itself one byte at a time.
+     */
+    private static Packet writeSingleBytes(final Packet packet) {
+        return (Packet) Proxy.newProxyInstance(Packet.class.getClassLoader(), new Class<?>[] { Packet.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("write") && args.length == 1) {
+                        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        packet.write(bytes);
+                        final OutputStream out = (OutputStream) args[0];
+                        for (final byte b : bytes.toByteArray()) {
+                            out.write(b);
+                        }
+                        return null;
+                    }
+                    return method.invoke(packet, args);
+                });
+    }
+
+    private static List<Long> read(final List<Path> files) throws Exception {
+        final List<Long> timestamps = new ArrayList<Long>();
+        for (final Path file : files) {
+            timestamps.addAll(read(file));
+        }
+        return timestamps;
+    }
+
+    private static List<Long> read(final Path file) throws Exception {
+        final Pcap pcap = Pcap.openStream(file.toFile());
+        final List<Long> timestamps = new ArrayList<Long>();
+        final Iterable<Packet> packets = pcap::iterator;
+        for (final Packet packet : packets) {
+            timestamps.add(packet.getArrivalTime());
+        }
+        pcap.close();
+        return timestamps;
+    }
+
+    private static int count(final Path file) throws Exception {
+        return read(file).size();
+    }
+
+}
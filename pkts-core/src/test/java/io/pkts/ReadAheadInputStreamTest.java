@@ -0,0 +1,185 @@
+/**
+ * 
+ */
+package io.pkts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class ReadAheadInputStreamTest {
+
+    /**
+     * Whatever the size of the blocks, we must get the exact same bytes as are
+     * in the file.
+     */
+    @Test
+    public void testReadFile() throws Exception {
+        final Path file = Paths.get(PktsTestBase.class.getResource("sipp.pcap").toURI());
+        final byte[] expected = Files.readAllBytes(file);
+        for (final int blockSize : new int[] { 1, 7, 100, 4096, expected.length, expected.length * 2 }) {
+            for (final int blocks : new int[] { 1, 2, 5 }) {
+                final InputStream is = new ReadAheadInputStream(FileChannel.open(file, StandardOpenOption.READ),
+                        blockSize, blocks);
+                assertThat("Block size " + blockSize, Arrays.equals(readAll(is, 333), expected), is(true));
+                assertThat(is.read(), is(-1));
+                is.close();
+            }
+        }
+    }
+
+    @Test
+    public void testReadSingleBytes() throws Exception {
+        final InputStream is = new ReadAheadInputStream(channel(new byte[] { 1, 2, (byte) 0xFF }, null), 2, 2);
+        assertThat(is.read(), is(1));
+        assertThat(is.read(), is(2));
+        assertThat(is.read(), is(0xFF));
+        assertThat(is.read(), is(-1));
+        is.close();
+    }
+
+    /**
+     * An exception on the reading thread must make it to whoever is reading
+     * from the stream, after everything that was read before it.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        final InputStream is = new ReadAheadInputStream(channel(new byte[] { 1, 2, 3 }, new IOException("boom")), 3, 2);
+        final byte[] b = new byte[10];
+        assertThat(is.read(b, 0, 10), is(3));
+        try {
+            is.read(b, 0, 10);
+            fail("Expected an IOException");
+        } catch (final IOException e) {
+            assertThat(e.getMessage(), is("boom"));
+        }
+        assertThat(is.read(b, 0, 10), is(-1));
+        is.close();
+    }
+
+    /**
+     * Closing the stream before having read everything must stop the reading
+     * thread, which may very well be blocked waiting for a free block.
+     */
+    @Test(timeout = 5000)
+    public void testCloseEarly() throws Exception {
+        final Path file = Paths.get(PktsTestBase.class.getResource("sipp.pcap").toURI());
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        final InputStream is = new ReadAheadInputStream(channel, 10, 2);
+        assertThat(is.read(), is(0xD4));
+        is.close();
+        assertThat(channel.isOpen(), is(false));
+        assertThat(is.read(), is(-1));
+    }
+
+    /**
+     * Someone that stops reading half way through and forgets to close the
+     * stream must not leave the reading thread waiting for a free block
+     * forever.
+     */
+    @Test(timeout = 30000)
+    public void testAbandoned() throws Exception {
+        final Path file = Paths.get(PktsTestBase.class.getResource("sipp.pcap").toURI());
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        ReadAheadInputStream is = new ReadAheadInputStream(channel, 100, 2);
+        assertThat(is.read(new byte[150], 0, 150), is(100));
+        final Thread reader = is.getReadingThread();
+        is = null;
+
+        while (reader.isAlive()) {
+            System.gc();
+            reader.join(100);
+        }
+        assertThat(channel.isOpen(), is(false));
+    }
+
+    @Test
+    public void testLoop() throws Exception {
+        final File file = new File(PktsTestBase.class.getResource("sipp.pcap").toURI());
+        final Pcap pcap = Pcap.openStream(file, ReadAheadOptions.defaults().withBlockSize(1000));
+        final int[] count = new int[1];
+        pcap.loop(packet -> {
+            ++count[0];
+            return true;
+        });
+        pcap.close();
+        assertThat(count[0], is(30));
+    }
+
+    @Test
+    public void testOptions() throws Exception {
+        final ReadAheadOptions options = ReadAheadOptions.defaults().withNumberOfBlocks(8).withBlockSize(1024);
+        assertThat(options.getNumberOfBlocks(), is(8));
+        assertThat(options.getBlockSize(), is(1024));
+        assertThat(ReadAheadOptions.defaults().getBlockSize(), is(ReadAheadOptions.DEFAULT_BLOCK_SIZE));
+
+        try {
+            ReadAheadOptions.defaults().withNumberOfBlocks(1);
+            fail("Expected an IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static byte[] readAll(final InputStream is, final int chunk) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] b = new byte[chunk];
+        int read = 0;
+        while ((read = is.read(b, 0, chunk)) != -1) {
+            out.write(b, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A channel returning the content, one byte per read, and then either the
+     * end of the stream or the given exception.
+     */
+    private static ReadableByteChannel channel(final byte[] content, final IOException failure) {
+        return new ReadableByteChannel() {
+            private int index;
+            private boolean open = true;
+
+            @Override
+            public boolean isOpen() {
+                return this.open;
+            }
+
+            @Override
+            public void close() {
+                this.open = false;
+            }
+
+            @Override
+            public int read(final ByteBuffer dst) throws IOException {
+                if (this.index < content.length) {
+                    dst.put(content[this.index++]);
+                    return 1;
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                return -1;
+            }
+        };
+    }
+
+}
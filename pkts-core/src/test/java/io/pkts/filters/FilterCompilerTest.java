@@ -0,0 +1,233 @@
+/**
+ *
+ */
+package io.pkts.filters;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import io.pkts.Pcap;
+import io.pkts.PktsTestBase;
+import io.pkts.frame.PcapGlobalHeader;
+import io.pkts.packet.Packet;
+import io.pkts.packet.impl.AbstractPacket;
+import io.pkts.packet.sip.SipPacket;
+import io.pkts.protocol.Protocol;
+import io.pkts.protocol.Protocol.Layer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class FilterCompilerTest {
+
+    /**
+     * The cheap terms go first, no matter where they were written.
+     */
+    @Test
+    public void testCheapestFirst() throws Exception {
+        assertThat(FilterCompiler.compile("sip.method == INVITE and udp.dstport == 5060 and ip.src == 127.0.0.1")
+                .toString(), is("(ip.src == 127.0.0.1 and udp.dstport == 5060 and sip.method == INVITE)"));
+        assertThat(FilterCompiler.compile("sip.To == bob || rtp or tcp").toString(),
+                is("(tcp or rtp or sip.To == bob)"));
+        assertThat(FilterCompiler.compile("sip && !(sip.status == 200 and udp)").toString(),
+                is("(sip and not (udp and sip.status == 200))"));
+
+        // and binds harder than or
+        assertThat(FilterCompiler.compile("sip or udp and ip").toString(), is("((ip and udp) or sip)"));
+    }
+
+    @Test
+    public void testSingleTermKeepsTheOldFilters() throws Exception {
+        assertThat(FilterCompiler.compile("sip.Call-ID == 1234") instanceof SipCallIdFilter, is(true));
+        assertThat(FilterCompiler.compile("sip.To == bob") instanceof SipHeaderFilter, is(true));
+    }
+
+    /**
+     * Once we have seen the operator, the value runs up to the next white
+     * space or unbalanced parenthesis. Call-IDs may very well contain e.g. a
+     * "!", a "<" or a ">".
+     */
+    @Test
+    public void testUnquotedValue() throws Exception {
+        assertThat(((SipCallIdFilter) FilterCompiler.compile("sip.Call-ID == abc!def@host")).getCallId(),
+                is("abc!def@host"));
+        assertThat(((SipCallIdFilter) FilterCompiler.compile("sip.Call-ID==<a>b=c&&d")).getCallId(),
+                is("<a>b=c&&d"));
+        assertThat(FilterCompiler.compile("(sip.Call-ID == abc!def@host) and udp").toString(),
+                is("(udp and sip.Call-ID == abc!def@host)"));
+        assertThat(FilterCompiler.compile("sip and (sip.To != f(x)!)").toString(),
+                is("(sip and sip.To != f(x)!)"));
+        assertThat(count("(sip.call-id == 1-16732@127.0.1.1)"), is(6));
+        assertThat(count("not (sip.call-id != 1-16732@127.0.1.1 or tcp)"), is(6));
+    }
+
+    @Test
+    public void testL3AndL4() throws Exception {
+        assertThat(count("ip.addr == 127.0.0.1"), is(30));
+        assertThat(count("ip.src != 127.0.0.1"), is(0));
+        assertThat(count("ip.dst == 10.0.0.1"), is(0));
+        assertThat(count("udp.port == 5060"), is(30));
+        assertThat(count("udp.dstport == 5060"), is(15));
+        assertThat(count("udp.srcport > 5060"), is(15));
+        assertThat(count("udp.port != 5090"), is(0));
+        assertThat(count("udp.srcport == 5060 or tcp.port == 5060"), is(15));
+        assertThat(count("tcp"), is(0));
+        assertThat(count("not tcp"), is(30));
+    }
+
+    @Test
+    public void testSip() throws Exception {
+        assertThat(count("sip"), is(30));
+        assertThat(count("sip.method == INVITE"), is(5));
+        assertThat(count("sip.method != INVITE"), is(10));
+        assertThat(count("sip.status == 200"), is(10));
+        assertThat(count("sip.status >= 100 and sip.status < 200"), is(5));
+        assertThat(count("sip.call-id == 1-16732@127.0.1.1"), is(6));
+        assertThat(count("sip.Call-ID == '1-16732@127.0.1.1' and sip.status == 200"), is(2));
+        assertThat(count("sip.CSeq == \"1 INVITE\""), is(15));
+        assertThat(count("sip.CSeq != \"1 INVITE\" and udp.dstport == 5090"), is(10));
+        assertThat(count("sip.X-Nope != 1"), is(0));
+        assertThat(count("udp.dstport == 5090 and (sip.method == INVITE or sip.method == BYE)"), is(10));
+    }
+
+    @Test
+    public void testRtp() throws Exception {
+        final byte[] pcap = createRtpPcap(0xCAFEBABEL);
+        assertThat(count(pcap, "rtp"), is(1));
+        assertThat(count(pcap, "rtp.ssrc == 0xcafebabe"), is(1));
+        assertThat(count(pcap, "rtp.ssrc == " + 0xCAFEBABEL), is(1));
+        assertThat(count(pcap, "rtp.ssrc == 1"), is(0));
+        assertThat(count(pcap, "sip"), is(0));
+        assertThat(count(pcap, "udp.dstport == 20000 and rtp.ssrc > 0"), is(1));
+    }
+
+    /**
+     * The terms must look at the layers the packet keeps, so that the handler
+     * gets the very same packets and nothing is framed twice. We check that
+     * by telling the IP and UDP packets not to frame anything more once the
+     * filter is done, which they can only live up to if the filter has
+     * already framed it all.
+     */
+    @Test
+    public void testLayersAreFramedOnce() throws Exception {
+        final Filter filter = FilterCompiler.compile("udp.port == 5060 and sip.method == INVITE");
+        final AtomicInteger count = new AtomicInteger();
+        final Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        pcap.loop(packet -> {
+            if (!filter.accept(packet)) {
+                return true;
+            }
+
+            final AbstractPacket ip = (AbstractPacket) packet.getPacket(Protocol.IPv4);
+            ip.setDecodeDepth(Layer.LAYER_3);
+            final Packet udp = ip.getFramedNextPacket();
+            assertThat(udp.getProtocol(), is(Protocol.UDP));
+            ((AbstractPacket) udp).setDecodeDepth(Layer.LAYER_4);
+            final SipPacket sip = (SipPacket) packet.getPacket(Protocol.SIP);
+            assertThat(sip.getMethod().toString(), is("INVITE"));
+            count.incrementAndGet();
+            return true;
+        });
+        pcap.close();
+        assertThat(count.get(), is(5));
+    }
+
+    /**
+     * Nothing beyond the decode depth of the loop is framed for the filter
+     * either, so a term on a layer we don't get to is simply false.
+     */
+    @Test
+    public void testDecodeDepth() throws Exception {
+        Pcap pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        pcap.setFilter("sip.method == INVITE");
+        final AtomicInteger count = new AtomicInteger();
+        pcap.loop(packet -> count.incrementAndGet() > 0, Layer.LAYER_4);
+        pcap.close();
+        assertThat(count.get(), is(0));
+
+        pcap = Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap"));
+        pcap.setFilter("udp.port == 5060 and not sip");
+        pcap.loop(packet -> {
+            assertThat(packet.getPacket(Protocol.SIP) == null, is(true));
+            return count.incrementAndGet() > 0;
+        }, Layer.LAYER_4);
+        pcap.close();
+        assertThat(count.get(), is(30));
+    }
+
+    @Test
+    public void testParseErrors() throws Exception {
+        assertParseError("", 0);
+        assertParseError("foo.bar == 1", 0);
+        assertParseError("udp.sport == 1", 0);
+        assertParseError("foo", 0);
+        assertParseError("ip.src == example", 10);
+        assertParseError("ip.src < 1.2.3.4", 7);
+        assertParseError("sip.method > INVITE", 11);
+        assertParseError("udp.port ==", 11);
+        assertParseError("udp.port = 5060", 9);
+        assertParseError("udp.port == five", 12);
+        assertParseError("(udp", 4);
+        assertParseError("udp)", 3);
+        assertParseError("sip.method == 'INVITE", 14);
+        assertParseError("'sip' == 1", 0);
+    }
+
+    private static void assertParseError(final String expression, final int offset) {
+        try {
+            FilterCompiler.compile(expression);
+            fail("Expected a FilterParseException for \"" + expression + "\"");
+        } catch (final FilterParseException e) {
+            assertThat(expression, e.getErrorOffset(), is(offset));
+        }
+    }
+
+    private static int count(final String expression) throws IOException {
+        return count(Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap")), expression);
+    }
+
+    private static int count(final byte[] pcap, final String expression) throws IOException {
+        return count(Pcap.openStream(new ByteArrayInputStream(pcap)), expression);
+    }
+
+    private static int count(final Pcap pcap, final String expression) throws IOException {
+        pcap.setFilter(expression);
+        final AtomicInteger count = new AtomicInteger();
+        pcap.loop(packet -> count.incrementAndGet() > 0);
+        pcap.close();
+        return count.get();
+    }
+
+    /**
+     * A raw IP capture with a single RTP packet.
+     */
+    private static byte[] createRtpPcap(final long ssrc) throws IOException {
+        final ByteBuffer packet = ByteBuffer.allocate(20 + 8 + 12 + 160);
+        packet.put((byte) 0x45).put((byte) 0).putShort((short) packet.capacity()).putInt(0);
+        packet.put((byte) 64).put((byte) 17).putShort((short) 0);
+        packet.put(new byte[] { 10, 0, 0, 1 }).put(new byte[] { 10, 0, 0, 2 });
+        packet.putShort((short) 10000).putShort((short) 20000).putShort((short) (packet.capacity() - 20))
+                .putShort((short) 0);
+        packet.put((byte) 0x80).put((byte) 0).putShort((short) 1).putInt(160).putInt((int) ssrc);
+
+        final ByteBuffer record = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(1).putInt(0).putInt(packet.capacity()).putInt(packet.capacity());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PcapGlobalHeader.createDefaultHeader(PcapGlobalHeader.LINKTYPE_RAW).write(out);
+        out.write(record.array());
+        out.write(packet.array());
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,195 @@
+/**
+ *
+ */
+package io.pkts.filters;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import io.pkts.Pcap;
+import io.pkts.PktsTestBase;
+import io.pkts.buffer.BufferPool;
+import io.pkts.packet.IPPacket;
+import io.pkts.packet.Packet;
+import io.pkts.packet.TransportPacket;
+import io.pkts.protocol.Protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class PrefilterTest {
+
+    @Test
+    public void testPort() throws Exception {
+        assertThat(count("sipp.pcap", "udp port 5060"), is(30));
+        assertThat(count("sipp.pcap", "port 5090"), is(30));
+        assertThat(count("sipp.pcap", "src port 5090"), is(15));
+        assertThat(count("sipp.pcap", "udp dst port 5060"), is(15));
+        assertThat(count("sipp.pcap", "tcp port 5060"), is(0));
+        assertThat(count("sipp.pcap", "portrange 5061-5089"), is(0));
+        assertThat(count("sipp.pcap", "src portrange 5080-5099"), is(15));
+        assertThat(count("fragmented_tcp_sip.pcap", "tcp port 5060"), is(19));
+        assertThat(count("fragmented_tcp_sip.pcap", "dst port 5060"), is(11));
+        assertThat(count("fragmented_tcp_sip.pcap", "udp"), is(0));
+        assertThat(count("fragmented_tcp_sip.pcap", "tcp"), is(19));
+    }
+
+    @Test
+    public void testHostAndNet() throws Exception {
+        assertThat(count("sipp.pcap", "host 127.0.0.1"), is(30));
+        assertThat(count("sipp.pcap", "ip host 127.0.0.1"), is(30));
+        assertThat(count("sipp.pcap", "net 127.0.0.0/8"), is(30));
+        assertThat(count("sipp.pcap", "net 10"), is(0));
+        assertThat(count("fragmented_tcp_sip.pcap", "src host 10.192.243.79"), is(11));
+        assertThat(count("fragmented_tcp_sip.pcap", "src 10.192.243.79"), is(11));
+        assertThat(count("fragmented_tcp_sip.pcap", "dst net 10.108.0.0/16"), is(11));
+        assertThat(count("fragmented_tcp_sip.pcap", "net 10.0.0.0/8"), is(19));
+        assertThat(count("fragmented_tcp_sip.pcap", "net 10.108.158"), is(19));
+        assertThat(count("fragmented_tcp_sip.pcap", "host 10.1.2.3"), is(0));
+    }
+
+    @Test
+    public void testCombinations() throws Exception {
+        assertThat(count("sipp.pcap", "udp port 5060 or host 10.1.2.3"), is(30));
+        assertThat(count("sipp.pcap", "src port 5090 and not dst port 5090"), is(15));
+        assertThat(count("sipp.pcap", "!(src port 5090) && udp"), is(15));
+        assertThat(count("sipp.pcap", "src port 5070 or 5090"), is(15));
+        assertThat(count("fragmented_tcp_sip.pcap", "tcp and (src port 5060 || dst port 5060)"), is(19));
+
+        // and & or have the same precedence, just like in tcpdump
+        assertThat(count("sipp.pcap", "tcp or udp and port 1"), is(0));
+        assertThat(count("sipp.pcap", "udp or (tcp and port 1)"), is(30));
+        assertThat(count("sipp.pcap", "port 1 and tcp or udp"), is(30));
+    }
+
+    /**
+     * Whatever way we go through the pcap, the prefilter must let through the
+     * same packets as checking the framed packets would.
+     */
+    @Test
+    public void testSameAsFramed() throws Exception {
+        final List<Long> expected = new ArrayList<Long>();
+        Pcap pcap = open("fragmented_tcp_sip.pcap");
+        pcap.loop(packet -> {
+            final IPPacket ip = (IPPacket) packet.getPacket(Protocol.IPv4);
+            final TransportPacket tcp = (TransportPacket) ip.getNextPacket();
+            if (ip.getDestinationIP().equals("10.108.158.224") && tcp.getDestinationPort() == 5060) {
+                expected.add(packet.getArrivalTime());
+            }
+            return true;
+        });
+        pcap.close();
+        assertThat(expected.size(), is(11));
+
+        final String expression = "dst host 10.108.158.224 and tcp dst port 5060";
+        final List<Long> actual = new ArrayList<Long>();
+        pcap = open("fragmented_tcp_sip.pcap");
+        pcap.setPrefilter(expression);
+        pcap.loop(packet -> actual.add(packet.getArrivalTime()));
+        pcap.close();
+        assertThat(actual, is(expected));
+
+        actual.clear();
+        pcap = open("fragmented_tcp_sip.pcap");
+        pcap.setPrefilter(expression);
+        pcap.loop(packet -> {
+            actual.add(packet.getArrivalTime());
+            return true;
+        }, new BufferPool());
+        pcap.close();
+        assertThat(actual, is(expected));
+
+        final Path file = Files.createTempFile("pkts", ".pcap");
+        try (InputStream in = PktsTestBase.class.getResourceAsStream("fragmented_tcp_sip.pcap")) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        try {
+            pcap = Pcap.openMapped(file);
+            pcap.setPrefilter(expression);
+            assertThat(pcap.stream().map(Packet::getArrivalTime).collect(Collectors.toList()), is(expected));
+            assertThat(pcap.stream().parallel().map(Packet::getArrivalTime).collect(Collectors.toList()),
+                    is(expected));
+
+            final AtomicInteger count = new AtomicInteger();
+            pcap.parallelLoop(3, () -> packet -> count.incrementAndGet() > 0);
+            assertThat(count.get(), is(11));
+            pcap.close();
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testPrefilterAndFilter() throws Exception {
+        final Pcap pcap = open("sipp.pcap");
+        pcap.setPrefilter("src port 5060");
+        pcap.setFilter("sip.Call-ID == 1-16732@127.0.1.1");
+        final AtomicInteger count = new AtomicInteger();
+        pcap.loop(packet -> count.incrementAndGet() > 0);
+        pcap.close();
+        assertThat(count.get(), is(3));
+    }
+
+    @Test
+    public void testParseErrors() throws Exception {
+        assertParseError("", 0);
+        assertParseError("port", 4);
+        assertParseError("foo 5060", 0);
+        assertParseError("host example.com", 5);
+        assertParseError("host 10.0.0.256", 5);
+        assertParseError("port 70000", 5);
+        assertParseError("portrange 5080", 10);
+        assertParseError("portrange 5080-5060", 10);
+        assertParseError("net 10.0.0.1/8", 4);
+        assertParseError("udp host 10.0.0.1", 0);
+        assertParseError("ip port 5060", 0);
+        assertParseError("(udp", 4);
+        assertParseError("udp )", 4);
+        assertParseError("udp & tcp", 4);
+        assertParseError("udp and", 7);
+    }
+
+    private static void assertParseError(final String expression, final int offset) {
+        try {
+            FilterFactory.getInstance().createPrefilter(expression);
+            fail("Expected a FilterParseException for \"" + expression + "\"");
+        } catch (final FilterParseException e) {
+            assertThat(expression, e.getErrorOffset(), is(offset));
+        }
+    }
+
+    private static int count(final String name, final String expression) throws IOException {
+        final Pcap pcap = open(name);
+        pcap.setPrefilter(expression);
+        final AtomicInteger scanned = new AtomicInteger();
+        pcap.scan(cursor -> scanned.incrementAndGet() > 0);
+        pcap.close();
+
+        // and the loop must agree with the scan
+        final Pcap other = open(name);
+        other.setPrefilter(expression);
+        final AtomicInteger looped = new AtomicInteger();
+        other.loop(packet -> looped.incrementAndGet() > 0);
+        other.close();
+        assertThat(expression, looped.get(), is(scanned.get()));
+        return scanned.get();
+    }
+
+    private static Pcap open(final String name) throws IOException {
+        return Pcap.openStream(PktsTestBase.class.getResourceAsStream(name));
+    }
+
+}
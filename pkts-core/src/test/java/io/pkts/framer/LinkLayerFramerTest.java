@@ -0,0 +1,203 @@
+/**
+ *
+ */
+package io.pkts.framer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import io.pkts.Pcap;
+import io.pkts.PcapOutputStream;
+import io.pkts.PktsTestBase;
+import io.pkts.frame.PcapGlobalHeader;
+import io.pkts.packet.IPPacket;
+import io.pkts.packet.MACPacket;
+import io.pkts.packet.Packet;
+import io.pkts.protocol.Protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The captures are created on the fly out of sipp.pcap by replacing the
+ * Ethernet header of every packet with the link layer under test.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class LinkLayerFramerTest {
+
+    private byte[] sipp;
+
+    private List<String> expected;
+
+    @Before
+    public void setUp() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = PktsTestBase.class.getResourceAsStream("sipp.pcap")) {
+            final byte[] chunk = new byte[4096];
+            int read = 0;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+        }
+        this.sipp = out.toByteArray();
+        this.expected = collect(open(this.sipp), Protocol.ETHERNET_II);
+        assertThat(this.expected.size(), is(30));
+    }
+
+    @Test
+    public void testEthernet() throws Exception {
+        assertThat(FramerManager.getInstance().getLinkLayerFramer(PcapGlobalHeader.LINKTYPE_ETHERNET)
+                .getProtocol(), is(Protocol.ETHERNET_II));
+        assertThat(FramerManager.getInstance().getLinkLayerFramer(12345), is((Framer<?>) null));
+    }
+
+    @Test
+    public void testRawIp() throws Exception {
+        for (final int linkType : new int[] { PcapGlobalHeader.LINKTYPE_RAW, PcapGlobalHeader.LINKTYPE_IPV4,
+                PcapGlobalHeader.DLT_RAW, PcapGlobalHeader.DLT_RAW_OPENBSD }) {
+            final byte[] raw = convert(linkType, new byte[0]);
+            assertThat(collect(open(raw), Protocol.RAW), is(this.expected));
+        }
+
+        final Pcap pcap = open(convert(PcapGlobalHeader.LINKTYPE_RAW, new byte[0]));
+        pcap.loop(packet -> {
+            final MACPacket mac = (MACPacket) packet.getPacket(Protocol.RAW);
+            assertThat(mac.getSourceMacAddress(), is((String) null));
+            assertThat(((IPPacket) packet.getPacket(Protocol.IPv4)).getSourceMacAddress(), nullValue());
+            return true;
+        });
+    }
+
+    /**
+     * There is no link layer header to write so what we write back out should
+     * be the same as what we read.
+     */
+    @Test
+    public void testWriteRawIp() throws Exception {
+        final byte[] raw = convert(PcapGlobalHeader.LINKTYPE_RAW, new byte[0]);
+        final Pcap pcap = open(raw);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PcapOutputStream stream = pcap.createOutputStream(out);
+        pcap.loop(packet -> {
+            stream.write(packet.getPacket(Protocol.IPv4));
+            return true;
+        });
+        stream.flush();
+        assertThat(collect(open(out.toByteArray()), Protocol.RAW), is(this.expected));
+    }
+
+    @Test
+    public void testSll2() throws Exception {
+        final byte[] header = new byte[20];
+        header[0] = (byte) 0x08; // IPv4
+        header[10] = (byte) 0x04; // outgoing
+        header[11] = 6;
+        header[12] = (byte) 0x00;
+        header[13] = (byte) 0x0C;
+        header[14] = (byte) 0x29;
+        header[15] = (byte) 0xAB;
+        header[16] = (byte) 0xCD;
+        header[17] = (byte) 0xEF;
+        final byte[] sll2 = convert(PcapGlobalHeader.LINKTYPE_LINUX_SLL2, header);
+        assertThat(collect(open(sll2), Protocol.SLL2), is(this.expected));
+
+        final Pcap pcap = open(sll2);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PcapOutputStream stream = pcap.createOutputStream(out);
+        pcap.loop(packet -> {
+            final MACPacket mac = (MACPacket) packet.getPacket(Protocol.SLL2);
+            assertThat(mac.getSourceMacAddress(), is("00:0C:29:AB:CD:EF"));
+            assertThat(mac.getDestinationMacAddress(), is((String) null));
+            try {
+                mac.setDestinationMacAddress("00:11:22:33:44:55");
+                fail("Expected an IllegalArgumentException");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+            mac.setSourceMacAddress("12:34");
+            stream.write(mac);
+            return true;
+        });
+        stream.flush();
+
+        // the address may be shorter than 6 bytes and setting it must leave
+        // the rest of the header alone
+        final byte[] written = out.toByteArray();
+        assertThat(collect(open(written), Protocol.SLL2), is(this.expected));
+        open(written).loop(packet -> {
+            assertThat(((MACPacket) packet.getPacket(Protocol.SLL2)).getSourceMacAddress(), is("12:34"));
+            return true;
+        });
+    }
+
+    /**
+     * The link layer is given by the global header so a packet type that
+     * doesn't make sense no longer stops us from treating it as SLL.
+     */
+    @Test
+    public void testSll() throws Exception {
+        final byte[] header = new byte[16];
+        header[1] = (byte) 0x07;
+        header[14] = (byte) 0x08;
+        assertThat(collect(open(convert(PcapGlobalHeader.LINKTYPE_LINUX_SLL, header)), Protocol.SLL),
+                is(this.expected));
+    }
+
+    /**
+     * Replace the Ethernet header of every packet in sipp.pcap with the given
+     * header.
+     */
+    private byte[] convert(final int linkType, final byte[] header) throws Exception {
+        final ByteBuffer in = ByteBuffer.wrap(this.sipp).order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer out = ByteBuffer.allocate(this.sipp.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(this.sipp, 0, 20).putInt(linkType);
+        in.position(24);
+        while (in.hasRemaining()) {
+            final int seconds = in.getInt();
+            final int micros = in.getInt();
+            final int captured = in.getInt();
+            final int total = in.getInt();
+            final int diff = header.length - 14;
+            out.putInt(seconds).putInt(micros).putInt(captured + diff).putInt(total + diff);
+            out.put(header);
+            out.put(this.sipp, in.position() + 14, captured - 14);
+            in.position(in.position() + captured);
+        }
+        final byte[] converted = new byte[out.position()];
+        System.arraycopy(out.array(), 0, converted, 0, converted.length);
+        return converted;
+    }
+
+    private static Pcap open(final byte[] pcap) throws Exception {
+        return Pcap.openStream(new ByteArrayInputStream(pcap));
+    }
+
+    /**
+     * Describe every packet by its link layer, IP addresses and, if SIP, the
+     * Call-ID.
+     */
+    private static List<String> collect(final Pcap pcap, final Protocol linkLayer) throws Exception {
+        final List<String> packets = new ArrayList<String>();
+        pcap.loop(packet -> {
+            final Packet mac = packet.getPacket(linkLayer);
+            assertThat(mac.getProtocol(), is(linkLayer));
+            final IPPacket ip = (IPPacket) packet.getPacket(Protocol.IPv4);
+            final String sip = packet.hasProtocol(Protocol.SIP) ? packet.getPacket(Protocol.SIP).toString() : "";
+            packets.add(packet.getArrivalTime() + " " + ip.getSourceIP() + " " + ip.getDestinationIP() + " " + sip);
+            return true;
+        });
+        pcap.close();
+        return packets;
+    }
+
+}
@@ -0,0 +1,240 @@
+/**
+ *
+ */
+package io.pkts.framer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import io.pkts.PacketHandler;
+import io.pkts.Pcap;
+import io.pkts.PktsTestBase;
+import io.pkts.buffer.Buffers;
+import io.pkts.packet.PCapPacket;
+import io.pkts.packet.Packet;
+import io.pkts.protocol.Protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The pcapng files are created on the fly out of sipp.pcap so that we can
+ * check that we get the exact same packets out of them.
+ *
+ * @author jonas@jonasborjesson.com
+ */
+public class PcapngFramerTest {
+
+    private List<Frame> expected;
+
+    @Before
+    public void setUp() throws Exception {
+        this.expected = collect(Pcap.openStream(PktsTestBase.class.getResourceAsStream("sipp.pcap")));
+        assertThat(this.expected.size(), is(30));
+    }
+
+    @Test
+    public void testLittleEndian() throws Exception {
+        verify(toPcapng(ByteOrder.LITTLE_ENDIAN, 6, false), this.expected);
+    }
+
+    @Test
+    public void testBigEndian() throws Exception {
+        verify(toPcapng(ByteOrder.BIG_ENDIAN, 6, false), this.expected);
+    }
+
+    /**
+     * Timestamps in nanoseconds should end up as microseconds.
+     */
+    @Test
+    public void testNanoSecondResolution() throws Exception {
+        verify(toPcapng(ByteOrder.LITTLE_ENDIAN, 9, false), this.expected);
+        verify(toPcapng(ByteOrder.BIG_ENDIAN, 9, true), this.expected);
+    }
+
+    /**
+     * Simple packet blocks have no timestamps but the data should be the same.
+     */
+    @Test
+    public void testSimplePacketBlocks() throws Exception {
+        final List<Frame> expected = new ArrayList<Frame>();
+        for (final Frame frame : this.expected) {
+            expected.add(new Frame(0, frame.length, frame.data));
+        }
+
+        final ByteBuffer out = ByteBuffer.allocate(1024 * 1024).order(ByteOrder.BIG_ENDIAN);
+        writeSectionHeader(out);
+        writeInterfaceDescription(out, 6);
+        for (final Frame frame : this.expected) {
+            writeBlock(out, PcapngFramer.SIMPLE_PACKET_BLOCK, 4 + frame.data.length);
+            out.putInt((int) frame.length);
+            putPadded(out, frame.data);
+            out.putInt(16 + pad(frame.data.length));
+        }
+
+        verify(toArray(out), expected);
+    }
+
+    @Test
+    public void testDataLinkType() throws Exception {
+        final PcapngFramer framer = new PcapngFramer();
+        final byte[] pcapng = toPcapng(ByteOrder.LITTLE_ENDIAN, 6, false);
+        assertThat(framer.readFileHeader(Buffers.wrap(pcapng)), is(1));
+        assertThat(framer.getDataLinkType(0), is(1));
+        assertThat(framer.getDataLinkType(1), is(-1));
+    }
+
+    private static void verify(final byte[] pcapng, final List<Frame> expected) throws Exception {
+        assertFrames(collect(Pcap.openStream(new ByteArrayInputStream(pcapng))), expected);
+
+        final File file = File.createTempFile("sipp", ".pcapng");
+        file.deleteOnExit();
+        Files.write(file.toPath(), pcapng);
+        assertFrames(collect(Pcap.openMapped(file.toPath())), expected);
+    }
+
+    private static void assertFrames(final List<Frame> actual, final List<Frame> expected) {
+        assertThat(actual.size(), is(expected.size()));
+        for (int i = 0; i < expected.size(); ++i) {
+            assertThat(actual.get(i).arrivalTime, is(expected.get(i).arrivalTime));
+            assertThat(actual.get(i).length, is(expected.get(i).length));
+            assertThat(actual.get(i).data, is(expected.get(i).data));
+        }
+    }
+
+    /**
+     * Convert the expected frames into a pcapng, with a few blocks we don't
+     * care about thrown in for good measure.
+     *
+     * @param tsresol
+     *            the timestamps will be written as 10^-tsresol seconds.
+     */
+    private byte[] toPcapng(final ByteOrder byteOrder, final int tsresol, final boolean obsoletePacketBlock) {
+        final ByteBuffer out = ByteBuffer.allocate(1024 * 1024).order(byteOrder);
+        writeSectionHeader(out);
+
+        // a name resolution block before the interface
+        writeBlock(out, 4, 4);
+        out.putInt(0);
+        out.putInt(16);
+
+        writeInterfaceDescription(out, tsresol);
+
+        long unitsPerMicro = 1;
+        for (int i = 6; i < tsresol; ++i) {
+            unitsPerMicro *= 10;
+        }
+
+        for (final Frame frame : this.expected) {
+            final long timestamp = frame.arrivalTime * unitsPerMicro;
+            writeBlock(out, obsoletePacketBlock ? PcapngFramer.PACKET_BLOCK : PcapngFramer.ENHANCED_PACKET_BLOCK,
+                    20 + frame.data.length);
+            if (obsoletePacketBlock) {
+                out.putShort((short) 0);
+                out.putShort((short) 0);
+            } else {
+                out.putInt(0);
+            }
+            out.putInt((int) (timestamp >>> 32));
+            out.putInt((int) timestamp);
+            out.putInt(frame.data.length);
+            out.putInt((int) frame.length);
+            putPadded(out, frame.data);
+            out.putInt(32 + pad(frame.data.length));
+
+            // an interface statistics block, which we also skip
+            writeBlock(out, 5, 12);
+            out.putInt(0);
+            out.putLong(0);
+            out.putInt(24);
+        }
+
+        return toArray(out);
+    }
+
+    private static void writeSectionHeader(final ByteBuffer out) {
+        out.putInt(PcapngFramer.SECTION_HEADER_BLOCK);
+        out.putInt(28);
+        out.putInt(0x1A2B3C4D);
+        out.putShort((short) 1);
+        out.putShort((short) 0);
+        out.putLong(-1);
+        out.putInt(28);
+    }
+
+    private static void writeInterfaceDescription(final ByteBuffer out, final int tsresol) {
+        // link type, reserved, snap length, if_tsresol (padded) and end of
+        // options
+        writeBlock(out, PcapngFramer.INTERFACE_DESCRIPTION_BLOCK, 20);
+        out.putShort((short) 1);
+        out.putShort((short) 0);
+        out.putInt(65535);
+        out.putShort((short) 9);
+        out.putShort((short) 1);
+        out.put((byte) tsresol);
+        out.put(new byte[3]);
+        out.putInt(0);
+        out.putInt(32);
+    }
+
+    /**
+     * Writes the type and the total length of the block, given the length of
+     * its body (before padding).
+     */
+    private static void writeBlock(final ByteBuffer out, final int type, final int bodyLength) {
+        out.putInt(type);
+        out.putInt(12 + pad(bodyLength));
+    }
+
+    private static void putPadded(final ByteBuffer out, final byte[] data) {
+        out.put(data);
+        out.put(new byte[pad(data.length) - data.length]);
+    }
+
+    private static int pad(final int length) {
+        return length + 3 & ~3;
+    }
+
+    private static byte[] toArray(final ByteBuffer out) {
+        final byte[] array = new byte[out.position()];
+        out.flip();
+        out.get(array);
+        return array;
+    }
+
+    private static List<Frame> collect(final Pcap pcap) throws Exception {
+        final List<Frame> frames = new ArrayList<Frame>();
+        pcap.loop(new PacketHandler() {
+            @Override
+            public boolean nextPacket(final Packet packet) throws IOException {
+                final PCapPacket pcapPacket = (PCapPacket) packet.getPacket(Protocol.PCAP);
+                frames.add(new Frame(packet.getArrivalTime(), pcapPacket.getTotalLength(), packet.getPayload()
+                        .getArray()));
+                return true;
+            }
+        });
+        pcap.close();
+        return frames;
+    }
+
+    private static final class Frame {
+        private final long arrivalTime;
+        private final long length;
+        private final byte[] data;
+
+        private Frame(final long arrivalTime, final long length, final byte[] data) {
+            this.arrivalTime = arrivalTime;
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+}
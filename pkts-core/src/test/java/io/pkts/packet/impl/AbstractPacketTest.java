@@ -0,0 +1,122 @@
+/**
+ * 
+ */
+package io.pkts.packet.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import io.pkts.PktsTestBase;
+import io.pkts.buffer.Buffer;
+import io.pkts.buffer.Buffers;
+import io.pkts.frame.PcapRecordHeader;
+import io.pkts.framer.EthernetFramer;
+import io.pkts.framer.Framer;
+import io.pkts.packet.PCapPacket;
+import io.pkts.packet.Packet;
+import io.pkts.protocol.Protocol;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author jonas@jonasborjesson.com
+ */
+public class AbstractPacketTest extends PktsTestBase {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    /**
+     * Asking for the same layer, or for any layer below it, must not frame
+     * the packet again.
+     */
+    @Test
+    public void testLayersAreFramedOnce() throws Exception {
+        final CountingFramer framer = new CountingFramer();
+        final Packet packet = new PCapPacketImpl(framer, PcapRecordHeader.createDefaultHeader(0),
+                this.ethernetFrameBuffer);
+
+        assertThat(packet.hasProtocol(Protocol.IPv4), is(true));
+        final Packet ip = packet.getPacket(Protocol.IPv4);
+        assertThat(packet.getPacket(Protocol.IPv4), sameInstance(ip));
+        assertThat(packet.getPacket(Protocol.ETHERNET_II), sameInstance(packet.getPacket(Protocol.ETHERNET_II)));
+        assertThat(packet.hasProtocol(Protocol.SIP), is(true));
+        final Packet sip = packet.getPacket(Protocol.SIP);
+        assertThat(sip, not(nullValue()));
+        assertThat(packet.getPacket(Protocol.SIP), sameInstance(sip));
+        assertThat(ip.getPacket(Protocol.SIP), sameInstance(sip));
+        assertThat(framer.count, is(1));
+    }
+
+    /**
+     * Not finding a layer, or failing to frame it, is remembered as well.
+     */
+    @Test
+    public void testNegativeResultsAreKept() throws Exception {
+        final CountingFramer framer = new CountingFramer();
+        final Packet packet = new PCapPacketImpl(framer, PcapRecordHeader.createDefaultHeader(0),
+                this.ethernetFrameBuffer);
+        assertThat(packet.hasProtocol(Protocol.RTP), is(false));
+        assertThat(packet.hasProtocol(Protocol.RTP), is(false));
+        assertThat(packet.getPacket(Protocol.TCP), is(nullValue()));
+        assertThat(framer.count, is(1));
+
+        final Packet broken = new PCapPacketImpl(framer, PcapRecordHeader.createDefaultHeader(0),
+                Buffers.wrap(new byte[] { 0x01, 0x02, 0x03 }));
+        assertThat(broken.hasProtocol(Protocol.IPv4), is(false));
+        assertThat(broken.hasProtocol(Protocol.UDP), is(false));
+        try {
+            broken.getPacket(Protocol.IPv4);
+            fail("Expected the same failure again");
+        } catch (final IndexOutOfBoundsException e) {
+            // expected
+        }
+        assertThat(framer.count, is(2));
+    }
+
+    private static class CountingFramer implements Framer<PCapPacket> {
+
+        private final EthernetFramer framer = new EthernetFramer();
+
+        private int count;
+
+        @Override
+        public Protocol getProtocol() {
+            return Protocol.ETHERNET_II;
+        }
+
+        @Override
+        public PCapPacket frame(final PCapPacket parent, final Buffer buffer) throws IOException {
+            ++this.count;
+            return this.framer.frame(parent, buffer);
+        }
+
+        @Override
+        public boolean accept(final Buffer data) throws IOException {
+            return true;
+        }
+    }
+
+}
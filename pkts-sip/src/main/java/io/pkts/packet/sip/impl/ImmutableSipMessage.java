@@ -142,7 +142,7 @@ public abstract class ImmutableSipMessage implements SipMessage {
     private List<SipHeader> getHeadersInternal(final Buffer headerName) {
         final List<SipHeader> headers = new ArrayList<>(3);
         for (final SipHeader header : this.headers) {
-            if (headerName.equals(header.getName())) {
+            if (headerName.equalsIgnoreCase(header.getName())) {
                 headers.add(header);
             }
         }
@@ -345,7 +345,7 @@ public abstract class ImmutableSipMessage implements SipMessage {
 
     private SipHeader findHeader(final Buffer name) {
         for (final SipHeader header : headers) {
-            if (name.equals(header.getName())) {
+            if (name.equalsIgnoreCase(header.getName())) {
                 return header;
             }
         }
@@ -5,6 +5,7 @@ package io.pkts.packet.sip.impl;
 
 import io.pkts.buffer.Buffer;
 import io.pkts.buffer.Buffers;
+import io.pkts.buffer.CaseInsensitiveBufferMap;
 import io.pkts.packet.sip.SipMessage;
 import io.pkts.packet.sip.SipParseException;
 import io.pkts.packet.sip.header.CSeqHeader;
@@ -26,7 +27,6 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
@@ -193,7 +193,7 @@ public class SipParser {
 
     public static final Buffer WSS = Buffers.wrap("wss");
 
-    public static final Map<Buffer, Function<SipHeader, ? extends SipHeader>> framers = new HashMap<>();
+    public static final Map<Buffer, Function<SipHeader, ? extends SipHeader>> framers = new CaseInsensitiveBufferMap<>();
 
     static {
         framers.put(CallIdHeader.NAME, header -> CallIdHeader.frame(header.getValue()));
@@ -236,6 +236,21 @@ public class SipMessageImplTest extends PktsTestBase {
 
     }
 
+    /**
+     * Header names are case-insensitive (RFC 3261 section 7.3.1).
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetHeaderIgnoresCase() throws Exception {
+        final SipMessage msg = parseMessage(RawData.sipInviteOneRecordRouteHeader);
+        assertThat(msg.getHeader("subject").get().getValue().toString(), is("Performance Test"));
+        assertThat(msg.getHeader("SUBJECT").get().getValue().toString(), is("Performance Test"));
+        assertThat(msg.getHeaders("subject").size(), is(1));
+        assertThat(msg.getHeader("call-id").get().toCallIdHeader().getValue().toString(),
+                is(msg.getCallIDHeader().getValue().toString()));
+    }
+
     @Test
     public void testSetMaxForwardsHeader() throws Exception {
         SipMessage msg = parseMessage(RawData.sipInviteOneRecordRouteHeader);